@@ -0,0 +1,212 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds synthetic tones and chords to {@link GoertzelKeyAnalyser} and fails
+ * when a sounding key doesn't light up, a silent key does, keys outside of the
+ * range aren't cleared, or the worker threads disagree with analysing on the
+ * caller. Run by {@code mvn test} in jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.audio.KeyAnalyserCheck
+ * </pre>
+ */
+public final class KeyAnalyserCheck {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int HOP = 1024;
+
+    private static final float SECONDS = 1.5f;
+
+    private static final float AMPLITUDE = 0.2f;
+
+    /**
+     * Lowest intensity of a sounding key.
+     */
+    private static final float MIN_SOUNDING = 0.5f;
+
+    /**
+     * Highest intensity of any other key, neighbours of sounding keys
+     * included. The tones measure about 0.65, this is 10 dB below them,
+     * which a cluster of three semitones still leaks close to.
+     */
+    private static final float MAX_SILENT = 0.4f;
+
+    private static final int WORKERS = 3;
+
+    private static final long WAIT_NANOS = 5000000000L;
+
+    private static final int[][] CHORDS = { { 33 }, { 60 }, { 69 }, { 96 }, { 60, 64, 67 }, { 41, 48, 57, 64 },
+	    { 59, 60, 61 }, { 36, 55, 76, 88 } };
+
+    private KeyAnalyserCheck() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+	List<String> failures = new ArrayList<String>();
+	float[] inline = new float[GoertzelKeyAnalyser.CODES];
+	float[] parallel = new float[GoertzelKeyAnalyser.CODES];
+
+	for (int c = 0; c < CHORDS.length; c++) {
+	    int[] chord = CHORDS[c];
+	    float[] signal = chord(chord);
+	    String name = Arrays.toString(chord);
+
+	    GoertzelKeyAnalyser analyser = new GoertzelKeyAnalyser(SAMPLE_RATE, 0);
+	    feed(analyser, signal);
+	    analyser.copyIntensities(inline);
+	    checkChord(name, chord, inline, failures);
+
+	    GoertzelKeyAnalyser threaded = new GoertzelKeyAnalyser(SAMPLE_RATE, WORKERS);
+	    feed(threaded, signal);
+	    awaitWorkers(threaded);
+	    threaded.copyIntensities(parallel);
+	    threaded.release();
+	    if (!Arrays.equals(inline, parallel)) {
+		failures.add(name + ": " + WORKERS + " workers disagree with analysing inline");
+	    }
+
+	    float loudestOther = 0;
+	    for (int code = 0; code < GoertzelKeyAnalyser.CODES; code++) {
+		if (!contains(chord, code)) {
+		    loudestOther = Math.max(loudestOther, inline[code]);
+		}
+	    }
+	    System.out.println(String.format(Locale.US, "%-18s sounding >= %.2f, others <= %.2f", name,
+		    minOf(chord, inline), loudestOther));
+	}
+
+	checkRange(failures);
+	long nanos = measureThroughput();
+	System.out.println(String.format(Locale.US, "all 128 keys inline: %.0f x real time",
+		SECONDS * 1e9 / nanos));
+
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Key analyser check failed:");
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println("Key analyser tells sounding keys apart");
+    }
+
+    private static void checkChord(String name, int[] chord, float[] intensities, List<String> failures) {
+	for (int code = 0; code < GoertzelKeyAnalyser.CODES; code++) {
+	    if (contains(chord, code)) {
+		if (intensities[code] < MIN_SOUNDING) {
+		    failures.add(String.format(Locale.US, "%s: sounding key %d at %.2f", name, code,
+			    intensities[code]));
+		}
+	    } else if (intensities[code] > MAX_SILENT) {
+		failures.add(String.format(Locale.US, "%s: silent key %d at %.2f", name, code, intensities[code]));
+	    }
+	}
+    }
+
+    /**
+     * Keys outside of the range stay dark, keys leaving it are cleared.
+     */
+    private static void checkRange(List<String> failures) throws InterruptedException {
+	int[] chord = { 48, 72 };
+	float[] signal = chord(chord);
+	float[] intensities = new float[GoertzelKeyAnalyser.CODES];
+	for (int workers = 0; workers <= WORKERS; workers += WORKERS) {
+	    GoertzelKeyAnalyser analyser = new GoertzelKeyAnalyser(SAMPLE_RATE, workers);
+	    analyser.setRange(60, 84);
+	    feed(analyser, signal);
+	    awaitWorkers(analyser);
+	    analyser.copyIntensities(intensities);
+	    if (intensities[48] != 0 || intensities[72] < MIN_SOUNDING) {
+		failures.add(String.format(Locale.US, "%d workers, range 60..84: key 48 at %.2f, key 72 at %.2f",
+			workers, intensities[48], intensities[72]));
+	    }
+
+	    analyser.setRange(36, 59);
+	    feed(analyser, signal);
+	    awaitWorkers(analyser);
+	    analyser.copyIntensities(intensities);
+	    if (intensities[72] != 0 || intensities[48] < MIN_SOUNDING) {
+		failures.add(String.format(Locale.US, "%d workers, range 36..59: key 48 at %.2f, key 72 at %.2f",
+			workers, intensities[48], intensities[72]));
+	    }
+	    analyser.release();
+	}
+    }
+
+    private static long measureThroughput() {
+	float[] signal = chord(new int[] { 60, 64, 67 });
+	GoertzelKeyAnalyser analyser = new GoertzelKeyAnalyser(SAMPLE_RATE, 0);
+	// warm up
+	feed(analyser, signal);
+	long start = System.nanoTime();
+	feed(analyser, signal);
+	return System.nanoTime() - start;
+    }
+
+    private static void feed(GoertzelKeyAnalyser analyser, float[] signal) {
+	for (int offset = 0; offset + HOP <= signal.length; offset += HOP) {
+	    analyser.process(signal, offset, HOP);
+	}
+    }
+
+    private static void awaitWorkers(GoertzelKeyAnalyser analyser) throws InterruptedException {
+	long deadline = System.nanoTime() + WAIT_NANOS;
+	while (analyser.hasPendingSamples()) {
+	    if (System.nanoTime() > deadline) {
+		throw new IllegalStateException("Analyser workers didn't catch up");
+	    }
+	    Thread.sleep(1);
+	}
+    }
+
+    private static float[] chord(int[] codes) {
+	float[] signal = new float[(int) (SAMPLE_RATE * SECONDS)];
+	for (int i = 0; i < codes.length; i++) {
+	    double step = 2 * Math.PI * PitchTracker.midiToFrequency(codes[i]) / SAMPLE_RATE;
+	    // different phases, so the tones don't start in step
+	    double phase = i * 0.7;
+	    for (int n = 0; n < signal.length; n++) {
+		signal[n] += AMPLITUDE * (float) Math.sin(phase + step * n);
+	    }
+	}
+	return signal;
+    }
+
+    private static boolean contains(int[] codes, int code) {
+	for (int i = 0; i < codes.length; i++) {
+	    if (codes[i] == code) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private static float minOf(int[] codes, float[] intensities) {
+	float min = 1;
+	for (int i = 0; i < codes.length; i++) {
+	    min = Math.min(min, intensities[codes[i]]);
+	}
+	return min;
+    }
+
+}
@@ -0,0 +1,103 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how many analysis windows per second {@link YinPitchDetector} and
+ * {@link PitchTracker} get through, for the window sizes the microphone input
+ * uses, on a tone with noise. Every size is warmed up and then timed several
+ * times, the median run is reported:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.audio.PitchDetectionBenchmark [seconds per run]
+ * </pre>
+ */
+public final class PitchDetectionBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int[] BUFFER_SIZES = { 1024, 2048, 4096 };
+
+    private static final int RUNS = 7;
+
+    private PitchDetectionBenchmark() {
+    }
+
+    public static void main(String[] args) {
+	double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+
+	Random random = new Random(0);
+	float[] signal = new float[SAMPLE_RATE];
+	double omega = 2 * Math.PI * 220 / SAMPLE_RATE;
+	for (int i = 0; i < signal.length; i++) {
+	    signal[i] = (float) (0.4 * Math.sin(omega * i) + 0.2 * Math.sin(2 * omega * i))
+		    + (random.nextFloat() - 0.5f) * 0.05f;
+	}
+
+	for (int i = 0; i < BUFFER_SIZES.length; i++) {
+	    int bufferSize = BUFFER_SIZES[i];
+	    YinPitchDetector detector = new YinPitchDetector(SAMPLE_RATE, bufferSize);
+	    PitchTracker tracker = new PitchTracker(15f, 2);
+
+	    run(detector, tracker, signal, seconds);
+	    double[] rates = new double[RUNS];
+	    for (int run = 0; run < RUNS; run++) {
+		rates[run] = run(detector, tracker, signal, seconds);
+	    }
+	    Arrays.sort(rates);
+	    double median = rates[RUNS / 2];
+	    // windows overlap by half, so real time needs two per window length
+	    double needed = 2.0 * SAMPLE_RATE / bufferSize;
+	    System.out.println(String.format(Locale.US,
+		    "window %4d: %9.0f buffers/s (min %.0f, max %.0f), %6.1fx real time", bufferSize, median,
+		    rates[0], rates[RUNS - 1], median / needed));
+	}
+    }
+
+    /**
+     * @return windows analysed per second
+     */
+    private static double run(YinPitchDetector detector, PitchTracker tracker, float[] signal, double seconds) {
+	int bufferSize = detector.getBufferSize();
+	int hop = bufferSize / 2;
+	long duration = (long) (seconds * 1e9);
+	long start = System.nanoTime();
+	long elapsed;
+	long windows = 0;
+	int offset = 0;
+	int checksum = 0;
+	do {
+	    for (int i = 0; i < 16; i++) {
+		if (offset + bufferSize > signal.length) {
+		    offset = 0;
+		}
+		checksum += tracker.update(detector.detect(signal, offset));
+		offset += hop;
+	    }
+	    windows += 16;
+	    elapsed = System.nanoTime() - start;
+	} while (elapsed < duration);
+	if (checksum == Integer.MIN_VALUE) {
+	    // keeps the work from being optimised away
+	    System.out.println(checksum);
+	}
+	return windows / (elapsed / 1e9);
+    }
+
+}
@@ -0,0 +1,312 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs {@link YinPitchDetector} and {@link PitchTracker} offline, with the
+ * half overlapping windows {@link MicrophonePitchInput} uses, over:
+ * <ul>
+ * <li>steady sines with noise, in tune and 20 cents off, E2 to E6</li>
+ * <li>a logarithmic sine sweep from E2 to C6</li>
+ * <li>WAV fixtures named {@code <midi code>-<anything>.wav}</li>
+ * </ul>
+ * Fails when a detected pitch is further from the played one than the
+ * tolerance, or when the tracked note flickers or jumps. Run by
+ * {@code mvn test} in jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.audio.PitchDetectionCheck [fixture directory]
+ * </pre>
+ */
+public final class PitchDetectionCheck {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int BUFFER_SIZE = 2048;
+
+    private static final float HYSTERESIS_CENTS = 15f;
+
+    private static final int CONFIRM_BUFFERS = 2;
+
+    private static final float STEADY_TOLERANCE_CENTS = 5f;
+
+    private static final float SWEEP_TOLERANCE_CENTS = 10f;
+
+    private static final float FIXTURE_TOLERANCE_CENTS = 10f;
+
+    private static final float MIN_SWEEP_DETECTION_RATE = 0.95f;
+
+    private static final int MIN_FIXTURE_DETECTIONS = 10;
+
+    private static final int LOWEST_CODE = 40;
+
+    private static final int HIGHEST_CODE = 88;
+
+    private static final int SWEEP_END_CODE = 84;
+
+    private static final double SWEEP_SECONDS = 6;
+
+    /**
+     * The sweep holds its last note this long, so the tracker can confirm it.
+     */
+    private static final double SWEEP_HOLD_SECONDS = 0.25;
+
+    /**
+     * Little endian chunk ids of the WAV format.
+     */
+    private static final int RIFF = 0x46464952;
+
+    private static final int WAVE = 0x45564157;
+
+    private static final int FMT = 0x20746d66;
+
+    private static final int DATA = 0x61746164;
+
+    private PitchDetectionCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+	List<String> failures = new ArrayList<String>();
+	checkSteadyTones(failures);
+	checkSweep(failures);
+	if (args.length > 0) {
+	    checkFixtures(new File(args[0]), failures);
+	}
+
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Pitch detection failures:");
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println("Pitch detection within tolerance");
+    }
+
+    private static void checkSteadyTones(List<String> failures) {
+	YinPitchDetector detector = new YinPitchDetector(SAMPLE_RATE, BUFFER_SIZE);
+	PitchTracker tracker = new PitchTracker(HYSTERESIS_CENTS, CONFIRM_BUFFERS);
+	Random random = new Random(0);
+	float[] signal = new float[BUFFER_SIZE * 4];
+	float worst = 0;
+
+	for (int code = LOWEST_CODE; code <= HIGHEST_CODE; code++) {
+	    for (int detune = -20; detune <= 20; detune += 20) {
+		float midi = code + detune / 100f;
+		double omega = 2 * Math.PI * PitchTracker.midiToFrequency(midi) / SAMPLE_RATE;
+		for (int i = 0; i < signal.length; i++) {
+		    signal[i] = (float) (0.5 * Math.sin(omega * i)) + (random.nextFloat() - 0.5f) * 0.02f;
+		}
+
+		tracker.reset();
+		for (int offset = 0; offset + BUFFER_SIZE <= signal.length; offset += BUFFER_SIZE / 2) {
+		    float frequency = detector.detect(signal, offset);
+		    tracker.update(frequency);
+		    if (frequency == YinPitchDetector.NO_PITCH) {
+			failures.add(String.format(Locale.US, "steady %.2f: no pitch at %d", midi, offset));
+			continue;
+		    }
+		    float error = Math.abs(PitchTracker.frequencyToMidi(frequency) - midi) * 100;
+		    worst = Math.max(worst, error);
+		    if (error > STEADY_TOLERANCE_CENTS) {
+			failures.add(String.format(Locale.US, "steady %.2f: %.1f cents off at %d", midi, error, offset));
+		    }
+		}
+		if (tracker.getCurrentCode() != code) {
+		    failures.add(String.format(Locale.US, "steady %.2f: tracked as %d", midi, tracker.getCurrentCode()));
+		}
+	    }
+	}
+	System.out.println(String.format(Locale.US, "steady tones  %d notes, worst error %.2f cents (tolerance %.0f)",
+		(HIGHEST_CODE - LOWEST_CODE + 1) * 3, worst, STEADY_TOLERANCE_CENTS));
+    }
+
+    private static void checkSweep(List<String> failures) {
+	double startFrequency = PitchTracker.midiToFrequency(LOWEST_CODE);
+	double ratio = PitchTracker.midiToFrequency(SWEEP_END_CODE) / startFrequency;
+	int frames = (int) ((SWEEP_SECONDS + SWEEP_HOLD_SECONDS) * SAMPLE_RATE);
+	float[] signal = new float[frames];
+	// phase of f(t) = f0 * ratio^(min(t, T) / T), continuous at t = T
+	double scale = 2 * Math.PI * startFrequency * SWEEP_SECONDS / Math.log(ratio);
+	double endPhase = scale * (ratio - 1);
+	double endOmega = 2 * Math.PI * startFrequency * ratio;
+	for (int i = 0; i < frames; i++) {
+	    double t = (double) i / SAMPLE_RATE;
+	    double phase = t < SWEEP_SECONDS ? scale * (Math.pow(ratio, t / SWEEP_SECONDS) - 1) : endPhase
+		    + endOmega * (t - SWEEP_SECONDS);
+	    signal[i] = (float) (0.5 * Math.sin(phase));
+	}
+
+	YinPitchDetector detector = new YinPitchDetector(SAMPLE_RATE, BUFFER_SIZE);
+	PitchTracker tracker = new PitchTracker(HYSTERESIS_CENTS, CONFIRM_BUFFERS);
+	int windows = 0;
+	int detected = 0;
+	float worst = 0;
+	int trackedCode = PitchTracker.NO_NOTE;
+	for (int offset = 0; offset + BUFFER_SIZE <= frames; offset += BUFFER_SIZE / 2) {
+	    windows++;
+	    double center = (offset + BUFFER_SIZE / 2.0) / SAMPLE_RATE;
+	    float expected = PitchTracker.frequencyToMidi((float) (startFrequency * Math.pow(ratio,
+		    Math.min(center, SWEEP_SECONDS) / SWEEP_SECONDS)));
+	    float frequency = detector.detect(signal, offset);
+	    int code = tracker.update(frequency);
+	    if (frequency != YinPitchDetector.NO_PITCH) {
+		detected++;
+		float error = Math.abs(PitchTracker.frequencyToMidi(frequency) - expected) * 100;
+		worst = Math.max(worst, error);
+		if (error > SWEEP_TOLERANCE_CENTS) {
+		    failures.add(String.format(Locale.US, "sweep at %.2f s: %.1f cents off", center, error));
+		}
+	    }
+	    // a rising sweep has to go up one note at a time, anything else is
+	    // flicker or an octave error
+	    if (code != trackedCode) {
+		if (trackedCode != PitchTracker.NO_NOTE && code != trackedCode + 1) {
+		    failures.add(String.format(Locale.US, "sweep at %.2f s: tracked note went from %d to %d", center,
+			    trackedCode, code));
+		}
+		trackedCode = code;
+	    }
+	}
+
+	float rate = (float) detected / windows;
+	if (rate < MIN_SWEEP_DETECTION_RATE) {
+	    failures.add(String.format(Locale.US, "sweep: pitch found in %.1f%% of windows", rate * 100));
+	}
+	if (trackedCode != SWEEP_END_CODE) {
+	    failures.add("sweep: ended on " + trackedCode + " instead of " + SWEEP_END_CODE);
+	}
+	System.out.println(String.format(Locale.US,
+		"sine sweep    %d windows, %.1f%% detected, worst error %.2f cents (tolerance %.0f)", windows,
+		rate * 100, worst, SWEEP_TOLERANCE_CENTS));
+    }
+
+    private static void checkFixtures(File directory, List<String> failures) throws IOException {
+	File[] files = directory.listFiles();
+	if (files == null) {
+	    failures.add("No fixture directory " + directory);
+	    return;
+	}
+	Arrays.sort(files);
+	for (int i = 0; i < files.length; i++) {
+	    String name = files[i].getName();
+	    if (name.endsWith(".wav")) {
+		checkFixture(files[i], Integer.parseInt(name.substring(0, name.indexOf('-'))), failures);
+	    }
+	}
+    }
+
+    private static void checkFixture(File file, int code, List<String> failures) throws IOException {
+	int[] sampleRate = new int[1];
+	float[] signal = readWav(file, sampleRate);
+	// same analysis window length in time as at 44.1 kHz
+	int bufferSize = sampleRate[0] > 32000 ? BUFFER_SIZE : BUFFER_SIZE / 2;
+	YinPitchDetector detector = new YinPitchDetector(sampleRate[0], bufferSize);
+	PitchTracker tracker = new PitchTracker(HYSTERESIS_CENTS, CONFIRM_BUFFERS);
+
+	float[] errors = new float[signal.length / (bufferSize / 2) + 1];
+	int detected = 0;
+	for (int offset = 0; offset + bufferSize <= signal.length; offset += bufferSize / 2) {
+	    float frequency = detector.detect(signal, offset);
+	    int tracked = tracker.update(frequency);
+	    if (frequency != YinPitchDetector.NO_PITCH) {
+		errors[detected++] = Math.abs(PitchTracker.frequencyToMidi(frequency) - code) * 100;
+	    }
+	    if (tracked != PitchTracker.NO_NOTE && tracked != code) {
+		failures.add(String.format(Locale.US, "%s: tracked as %d at %.2f s", file.getName(), tracked,
+			(double) offset / sampleRate[0]));
+	    }
+	}
+
+	if (detected < MIN_FIXTURE_DETECTIONS) {
+	    failures.add(file.getName() + ": pitch found in only " + detected + " windows");
+	    return;
+	}
+	Arrays.sort(errors, 0, detected);
+	float median = errors[detected / 2];
+	if (median > FIXTURE_TOLERANCE_CENTS) {
+	    failures.add(String.format(Locale.US, "%s: median error %.1f cents", file.getName(), median));
+	}
+	System.out.println(String.format(Locale.US, "%-13s %d windows with pitch, median error %.2f cents (tolerance %.0f)",
+		file.getName(), detected, median, FIXTURE_TOLERANCE_CENTS));
+    }
+
+    /**
+     * Reads the first channel of a 16 bit PCM WAV file.
+     */
+    private static float[] readWav(File file, int[] sampleRateOut) throws IOException {
+	DataInputStream in = new DataInputStream(new FileInputStream(file));
+	try {
+	    if (readInt(in) != RIFF || readInt(in) < 0 || readInt(in) != WAVE) {
+		throw new IOException(file + " is not a WAV file");
+	    }
+	    int channels = 0;
+	    while (true) {
+		int id = readInt(in);
+		int size = readInt(in);
+		if (id == FMT) {
+		    int format = readShort(in);
+		    channels = readShort(in);
+		    sampleRateOut[0] = readInt(in);
+		    in.skipBytes(6);
+		    int bits = readShort(in);
+		    if (format != 1 || bits != 16) {
+			throw new IOException(file + " is not 16 bit PCM");
+		    }
+		    in.skipBytes(size - 16);
+		} else if (id == DATA) {
+		    if (channels == 0) {
+			throw new IOException(file + " has no format chunk before its data");
+		    }
+		    float[] samples = new float[size / 2 / channels];
+		    for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) readShort(in) / 32768f;
+			in.skipBytes(2 * (channels - 1));
+		    }
+		    return samples;
+		} else {
+		    in.skipBytes(size + (size & 1));
+		}
+	    }
+	} finally {
+	    in.close();
+	}
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+	return readShort(in) | readShort(in) << 16;
+    }
+
+    private static int readShort(InputStream in) throws IOException {
+	int low = in.read();
+	int high = in.read();
+	if ((low | high) < 0) {
+	    throw new IOException("Unexpected end of WAV file");
+	}
+	return low | high << 8;
+    }
+
+}
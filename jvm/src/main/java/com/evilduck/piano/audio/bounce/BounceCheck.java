@@ -0,0 +1,194 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.bounce;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.evilduck.piano.audio.fx.EffectsChain;
+import com.evilduck.piano.audio.fx.SchroederReverb;
+import com.evilduck.piano.audio.fx.SoftLimiter;
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+
+/**
+ * Bounces the same sequence with one and with several threads and fails
+ * unless the files are byte for byte identical and their WAV headers describe
+ * the data. Run by {@code mvn test} in jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.audio.bounce.BounceCheck [output directory]
+ * </pre>
+ */
+public final class BounceCheck {
+
+    private static final int[] THREADS = { 1, 2, 3, 8 };
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int HEADER_SIZE = 44;
+
+    private BounceCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+	File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+	Sequence sequence = newSequence();
+	List<String> failures = new ArrayList<String>();
+
+	byte[] reference = null;
+	for (int i = 0; i < THREADS.length; i++) {
+	    File output = new File(directory, "bounce-" + THREADS[i] + ".wav");
+	    OfflineBouncer bouncer = new OfflineBouncer(SAMPLE_RATE, THREADS[i]);
+	    bouncer.setEffects(newEffects());
+	    long start = System.nanoTime();
+	    long frames = bouncer.bounce(sequence, newTempoMap(), output);
+	    long millis = (System.nanoTime() - start) / 1000000;
+
+	    byte[] data = readFully(output);
+	    checkHeader(output.getName(), data, frames, failures);
+	    System.out.println(String.format(Locale.US, "%d thread%s %8d frames  %5d ms  peak %5d", THREADS[i],
+		    THREADS[i] == 1 ? " " : "s", frames, millis, peak(data)));
+	    if (reference == null) {
+		reference = data;
+		if (peak(data) == 0) {
+		    failures.add(output.getName() + " is silent");
+		}
+	    } else if (!Arrays.equals(reference, data)) {
+		failures.add(output.getName() + " differs from the single threaded bounce at byte "
+			+ firstDifference(reference, data));
+	    }
+	    output.delete();
+	}
+
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Bounce check failed:");
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println("Bounces identical for " + Arrays.toString(THREADS) + " threads");
+    }
+
+    /**
+     * A long pedal note spanning many blocks, overlapping chords and a fast
+     * run, so that blocks differ in how many notes they sum.
+     */
+    private static Sequence newSequence() {
+	int ppq = TempoMap.DEFAULT_PPQ;
+	Sequence sequence = new Sequence();
+	sequence.addNote(0, ppq * 32, 0, 36, 90);
+	int[] chord = { 0, 4, 7, 11 };
+	for (int bar = 0; bar < 8; bar++) {
+	    int root = 48 + bar * 5 % 12;
+	    for (int i = 0; i < chord.length; i++) {
+		sequence.addNote(bar * ppq * 4 + i * 7, ppq * 5, 0, root + chord[i], 70 + i * 10);
+	    }
+	}
+	for (int i = 0; i < 256; i++) {
+	    sequence.addNote(i * ppq / 8, ppq / 6, 1, 60 + i * 7 % 25, 40 + i % 80);
+	}
+	return sequence;
+    }
+
+    private static TempoMap newTempoMap() {
+	TempoMap tempoMap = new TempoMap();
+	tempoMap.setTempo(TempoMap.DEFAULT_PPQ * 12, 150);
+	return tempoMap;
+    }
+
+    private static EffectsChain newEffects() {
+	EffectsChain effects = new EffectsChain(SAMPLE_RATE);
+	effects.add(new SchroederReverb());
+	effects.add(new SoftLimiter());
+	return effects;
+    }
+
+    private static void checkHeader(String name, byte[] data, long frames, List<String> failures) {
+	if (data.length < HEADER_SIZE) {
+	    failures.add(name + ": " + data.length + " bytes, shorter than a header");
+	    return;
+	}
+	ByteBuffer header = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	expectTag(name, header, 0, "RIFF", failures);
+	expect(name, "RIFF size", header.getInt(4), data.length - 8, failures);
+	expectTag(name, header, 8, "WAVE", failures);
+	expectTag(name, header, 12, "fmt ", failures);
+	expect(name, "fmt size", header.getInt(16), 16, failures);
+	expect(name, "format", header.getShort(20), 1, failures);
+	expect(name, "channels", header.getShort(22), 1, failures);
+	expect(name, "sample rate", header.getInt(24), SAMPLE_RATE, failures);
+	expect(name, "byte rate", header.getInt(28), SAMPLE_RATE * 2, failures);
+	expect(name, "block align", header.getShort(32), 2, failures);
+	expect(name, "bits per sample", header.getShort(34), 16, failures);
+	expectTag(name, header, 36, "data", failures);
+	expect(name, "data size", header.getInt(40), data.length - HEADER_SIZE, failures);
+	expect(name, "data size", header.getInt(40), frames * 2, failures);
+    }
+
+    private static void expect(String name, String field, long actual, long expected, List<String> failures) {
+	if (actual != expected) {
+	    failures.add(name + ": " + field + " is " + actual + ", expected " + expected);
+	}
+    }
+
+    private static void expectTag(String name, ByteBuffer header, int offset, String tag, List<String> failures) {
+	for (int i = 0; i < tag.length(); i++) {
+	    if (header.get(offset + i) != tag.charAt(i)) {
+		failures.add(name + ": no " + tag + " tag at byte " + offset);
+		return;
+	    }
+	}
+    }
+
+    private static int peak(byte[] data) {
+	ByteBuffer samples = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	int peak = 0;
+	for (int i = HEADER_SIZE; i + 1 < data.length; i += 2) {
+	    peak = Math.max(peak, Math.abs(samples.getShort(i)));
+	}
+	return peak;
+    }
+
+    private static int firstDifference(byte[] lhs, byte[] rhs) {
+	int common = Math.min(lhs.length, rhs.length);
+	for (int i = 0; i < common; i++) {
+	    if (lhs[i] != rhs[i]) {
+		return i;
+	    }
+	}
+	return common;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+	    byte[] data = new byte[(int) raf.length()];
+	    raf.readFully(data);
+	    return data;
+	} finally {
+	    raf.close();
+	}
+    }
+
+}
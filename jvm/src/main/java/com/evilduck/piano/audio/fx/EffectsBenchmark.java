@@ -0,0 +1,106 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how many times faster than real time every effect runs. Each
+ * effect is warmed up, then timed several times on the same noise, and the
+ * median run is reported together with the fastest and the slowest:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.audio.fx.EffectsBenchmark [seconds per run]
+ * </pre>
+ */
+public final class EffectsBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int WARMUP_SECONDS = 5;
+
+    private static final int RUNS = 7;
+
+    private EffectsBenchmark() {
+    }
+
+    public static void main(String[] args) {
+	int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+	float[] noise = new float[SAMPLE_RATE];
+	Random random = new Random(0);
+	for (int i = 0; i < noise.length; i++) {
+	    noise[i] = random.nextFloat() * 2f - 1f;
+	}
+
+	run("reverb", new SchroederReverb(), noise, seconds);
+	run("eq", newEq(), noise, seconds);
+	run("limiter", new SoftLimiter(), noise, seconds);
+
+	EffectsChain chain = new EffectsChain(SAMPLE_RATE);
+	chain.add(newEq());
+	chain.add(new SchroederReverb());
+	chain.add(new SoftLimiter());
+	run("chain", chain, noise, seconds);
+    }
+
+    private static ParametricEq newEq() {
+	ParametricEq eq = new ParametricEq(ParametricEq.LOW_SHELF, ParametricEq.PEAK, ParametricEq.PEAK,
+		ParametricEq.HIGH_SHELF);
+	eq.setBand(0, 120f, 3f, 0.707f);
+	eq.setBand(1, 800f, -2f, 1.2f);
+	eq.setBand(2, 3000f, 2f, 1.5f);
+	eq.setBand(3, 9000f, -4f, 0.707f);
+	return eq;
+    }
+
+    private static void run(String name, AudioEffect effect, float[] noise, int seconds) {
+	EffectsChain chain = new EffectsChain(SAMPLE_RATE);
+	chain.add(effect);
+	run(name, chain, noise, seconds);
+    }
+
+    private static void run(String name, EffectsChain chain, float[] noise, int seconds) {
+	float[] buffer = new float[EffectsChain.BLOCK_SIZE];
+	render(chain, noise, buffer, WARMUP_SECONDS);
+
+	double[] speeds = new double[RUNS];
+	for (int run = 0; run < RUNS; run++) {
+	    long start = System.nanoTime();
+	    render(chain, noise, buffer, seconds);
+	    speeds[run] = seconds / ((System.nanoTime() - start) / 1e9);
+	}
+	Arrays.sort(speeds);
+
+	System.out.println(String.format(Locale.US, "%-8s %10.1fx real time (min %.1fx, max %.1fx, %d runs of %d s)",
+		name, speeds[RUNS / 2], speeds[0], speeds[RUNS - 1], RUNS, seconds));
+    }
+
+    private static void render(EffectsChain chain, float[] noise, float[] buffer, int seconds) {
+	long frames = (long) seconds * SAMPLE_RATE;
+	int position = 0;
+	for (long rendered = 0; rendered < frames; rendered += buffer.length) {
+	    if (position + buffer.length > noise.length) {
+		position = 0;
+	    }
+	    System.arraycopy(noise, position, buffer, 0, buffer.length);
+	    position += buffer.length;
+	    chain.process(buffer, 0, buffer.length);
+	}
+    }
+
+}
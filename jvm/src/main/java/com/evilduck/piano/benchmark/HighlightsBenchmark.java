@@ -0,0 +1,101 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evilduck.piano.views.instrument.Highlights;
+
+/**
+ * Overlay set operations: highlighting and clearing keys, publishing a
+ * snapshot and the per key lookups the renderer does on every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HighlightsBenchmark {
+
+    private static final int COLOR = 0xFF3F9FD8;
+
+    private static final int[] CHORD = { 0, 4, 7, 11, 14 };
+
+    @Param({ KeyRanges.FOUR_OCTAVES, KeyRanges.PIANO, KeyRanges.MIDI })
+    int keys;
+
+    private int firstCode;
+
+    private final Highlights.Builder builder = new Highlights.Builder();
+
+    private Highlights snapshot;
+
+    @Setup
+    public void setUp() {
+	firstCode = KeyRanges.firstCode(keys);
+	builder.clear();
+	for (int i = 0; i < keys; i += 3) {
+	    builder.add(firstCode + i, COLOR, 0);
+	}
+	snapshot = builder.build();
+    }
+
+    @Benchmark
+    public Highlights.Builder addRemoveAll() {
+	for (int i = 0; i < keys; i++) {
+	    builder.add(firstCode + i, COLOR, 0);
+	}
+	for (int i = 0; i < keys; i++) {
+	    builder.remove(firstCode + i);
+	}
+	return builder;
+    }
+
+    @Benchmark
+    public Highlights publishChord() {
+	builder.clear();
+	int root = firstCode + keys / 2;
+	for (int i = 0; i < CHORD.length; i++) {
+	    builder.add(root + CHORD[i], COLOR, 0);
+	}
+	return builder.build();
+    }
+
+    @Benchmark
+    public int scanSnapshot() {
+	int sum = 0;
+	for (int i = 0; i < keys; i++) {
+	    int code = firstCode + i;
+	    if (snapshot.contains(code)) {
+		sum += snapshot.getColor(code) + snapshot.getShape(code);
+	    }
+	}
+	return sum;
+    }
+
+}
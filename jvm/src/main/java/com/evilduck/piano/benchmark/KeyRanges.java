@@ -0,0 +1,55 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.benchmark;
+
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+
+/**
+ * Key ranges the benchmarks are run with: the four octaves {@code PianoView}
+ * shows, a full piano and the whole midi range.
+ */
+final class KeyRanges {
+
+    static final String FOUR_OCTAVES = "48";
+
+    static final String PIANO = "88";
+
+    static final String MIDI = "128";
+
+    private KeyRanges() {
+    }
+
+    static int firstCode(int keys) {
+	switch (keys) {
+	case 48:
+	    return 24;
+	case 88:
+	    return 21;
+	case 128:
+	    return 0;
+	default:
+	    throw new IllegalArgumentException("Unsupported key count: " + keys);
+	}
+    }
+
+    static int lastCode(int keys) {
+	return firstCode(keys) + keys - 1;
+    }
+
+    static KeyboardLayout newLayout(int keys) {
+	return KeyboardLayout.forRange(firstCode(keys), lastCode(keys));
+    }
+
+}
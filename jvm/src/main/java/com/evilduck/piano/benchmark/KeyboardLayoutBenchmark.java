@@ -0,0 +1,104 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+
+/**
+ * Layout, touch hit-testing and visible range lookups of
+ * {@link KeyboardLayout}. Points and viewports are random but fixed, the
+ * same {@link #POINTS} are used by every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardLayoutBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private static final float HEIGHT = 600f;
+
+    @Param({ KeyRanges.FOUR_OCTAVES, KeyRanges.PIANO, KeyRanges.MIDI })
+    int keys;
+
+    private KeyboardLayout layout;
+
+    private final float[] xs = new float[POINTS];
+
+    private final float[] ys = new float[POINTS];
+
+    private final float[] viewportLefts = new float[POINTS];
+
+    private float viewportWidth;
+
+    @Setup
+    public void setUp() {
+	layout = KeyRanges.newLayout(keys);
+	layout.layout(HEIGHT);
+	// roughly a phone screen in landscape
+	viewportWidth = layout.getWhiteKeyWidth() * 14;
+
+	Random random = new Random(0);
+	for (int i = 0; i < POINTS; i++) {
+	    xs[i] = random.nextFloat() * layout.getWidth();
+	    ys[i] = random.nextFloat() * HEIGHT;
+	    viewportLefts[i] = random.nextFloat() * (layout.getWidth() - viewportWidth);
+	}
+    }
+
+    @Benchmark
+    public float layout() {
+	layout.layout(HEIGHT);
+	return layout.getWidth();
+    }
+
+    @Benchmark
+    public int hitTest() {
+	int sum = 0;
+	for (int i = 0; i < POINTS; i++) {
+	    sum += layout.indexAt(xs[i], ys[i]);
+	}
+	return sum;
+    }
+
+    @Benchmark
+    public int visibleRange() {
+	int sum = 0;
+	for (int i = 0; i < POINTS; i++) {
+	    float left = viewportLefts[i];
+	    sum += layout.firstVisibleIndex(left) + layout.lastVisibleIndex(left + viewportWidth);
+	}
+	return sum;
+    }
+
+}
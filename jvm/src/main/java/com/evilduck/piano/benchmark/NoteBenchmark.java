@@ -0,0 +1,96 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.evilduck.piano.music.Note;
+
+/**
+ * {@link Note} conversions done for every key the keyboard draws or
+ * highlights. Every operation is run once per key of the range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteBenchmark {
+
+    @Param({ KeyRanges.FOUR_OCTAVES, KeyRanges.PIANO, KeyRanges.MIDI })
+    int keys;
+
+    private int firstCode;
+
+    private Note[] notes;
+
+    @Setup
+    public void setUp() {
+	firstCode = KeyRanges.firstCode(keys);
+	notes = new Note[keys];
+	for (int i = 0; i < keys; i++) {
+	    notes[i] = Note.fromCode(firstCode + i);
+	}
+    }
+
+    @Benchmark
+    public void fromCode(Blackhole blackhole) {
+	for (int i = 0; i < keys; i++) {
+	    blackhole.consume(Note.fromCode(firstCode + i));
+	}
+    }
+
+    @Benchmark
+    public int getMidiCode() {
+	int sum = 0;
+	for (int i = 0; i < notes.length; i++) {
+	    sum += notes[i].getMidiCode();
+	}
+	return sum;
+    }
+
+    @Benchmark
+    public int compareTo() {
+	int sum = 0;
+	for (int i = 1; i < notes.length; i++) {
+	    sum += notes[i].compareTo(notes[i - 1]);
+	}
+	return sum;
+    }
+
+    @Benchmark
+    public int hashCodes() {
+	int sum = 0;
+	for (int i = 0; i < notes.length; i++) {
+	    sum += notes[i].hashCode();
+	}
+	return sum;
+    }
+
+}
@@ -0,0 +1,289 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.diagnostics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+import com.evilduck.piano.views.instrument.HeadlessKeyboard;
+
+/**
+ * Desktop counterpart of {@link SoakRunner}: runs the same phases against a
+ * {@link HeadlessKeyboard} for several cycles and fails when a phase leaves
+ * more heap behind in the last cycle than in the first, when highlights are
+ * left after clearing, when the keyboard keeps animating once settled or when
+ * the 99th percentile frame time exceeds the budget. The report is written as
+ * JSON to the path given as the first argument. Run by {@code mvn test} in
+ * jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.diagnostics.HeadlessSoakCheck [report.json]
+ * </pre>
+ *
+ * Frame times only cover the renderer, there is no device to draw on. Heap is
+ * sampled from the desktop JVM and allocations are not counted.
+ */
+public final class HeadlessSoakCheck {
+
+    private static final float SPEED = 4;
+
+    private static final int FRAMES_PER_PHASE = 600;
+
+    private static final int CYCLES = 3;
+
+    private static final long FRAME_NANOS = 16666667L;
+
+    private static final long FRAME_MILLIS = 16;
+
+    private static final long MAX_FRAME_TIME = 2 * FRAME_NANOS;
+
+    private static final long MAX_HEAP_GROWTH = 2 * 1024 * 1024;
+
+    private static final int SETTLE_FRAMES = 120;
+
+    private static final int VIEW_WIDTH = 1280;
+
+    private static final float VIEW_HEIGHT = 600f;
+
+    private static final int MAX_POINTERS = 4;
+
+    private final HeadlessKeyboard keyboard = new HeadlessKeyboard(false, VIEW_WIDTH, VIEW_HEIGHT);
+
+    private final SoakReport report = new SoakReport(SPEED);
+
+    private final TempoMap tempoMap = SoakWorkloads.newTempoMap();
+
+    private final Sequence sequence = SoakWorkloads.newDenseSequence(tempoMap.getPpq());
+
+    private final Random random = new Random(0);
+
+    private final int[] chord = new int[MAX_POINTERS];
+
+    private int chordSize;
+
+    private long songNanos;
+
+    private int sequenceIndex;
+
+    private long frameTime;
+
+    private HeadlessSoakCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+	HeadlessSoakCheck check = new HeadlessSoakCheck();
+	check.run();
+
+	SoakReport report = check.report;
+	if (args.length > 0) {
+	    File file = new File(args[0]);
+	    file.getParentFile().mkdirs();
+	    Writer out = new FileWriter(file);
+	    try {
+		report.writeJson(out);
+	    } finally {
+		out.close();
+	    }
+	}
+
+	if (!report.isPassed()) {
+	    StringBuilder message = new StringBuilder("Soak check failed:");
+	    List<String> failures = report.getFailures();
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println("Soak check passed");
+    }
+
+    private void run() {
+	long[] firstCycleHeap = new long[SoakWorkloads.PHASES.length];
+	for (int index = 0; index < SoakWorkloads.PHASES.length * CYCLES; index++) {
+	    String name = SoakWorkloads.PHASES[index % SoakWorkloads.PHASES.length];
+	    SoakReport.Phase phase = report.addPhase(name, FRAMES_PER_PHASE);
+	    long gcBefore = countCollections();
+	    songNanos = 0;
+	    sequenceIndex = 0;
+	    chordSize = 0;
+
+	    for (int frame = 0; frame < FRAMES_PER_PHASE; frame++) {
+		step(name, frame);
+		long start = System.nanoTime();
+		keyboard.drawFrame(frameTime);
+		phase.frames.record(System.nanoTime() - start);
+		frameTime += FRAME_MILLIS;
+		phase.heapHighWater = Math.max(phase.heapHighWater, usedHeap());
+	    }
+
+	    finishPhase(phase, index, firstCycleHeap);
+	    phase.gcCount = (int) (countCollections() - gcBefore);
+	}
+
+	// once everything settled nothing may animate any more
+	for (int frame = 0; frame < SETTLE_FRAMES; frame++) {
+	    keyboard.drawFrame(frameTime);
+	    frameTime += FRAME_MILLIS;
+	}
+	if (keyboard.isAnimating()) {
+	    report.fail("idle: still animating " + SETTLE_FRAMES + " frames after the last phase");
+	}
+
+	for (int i = 0; i < report.getPhases().size(); i++) {
+	    SoakReport.Phase phase = report.getPhases().get(i);
+	    System.out.println(String.format(Locale.US, "%-7s p50 %6.1f us  p99 %6.1f us  heap after %6d KB",
+		    phase.name, phase.frames.percentile(50) / 1e3, phase.frames.percentile(99) / 1e3,
+		    phase.heapAfter / 1024));
+	}
+    }
+
+    private void finishPhase(SoakReport.Phase phase, int index, long[] firstCycleHeap) {
+	releaseChord();
+	keyboard.releaseAllKeys();
+	keyboard.clearHighlights();
+	keyboard.setScale(1f);
+	keyboard.resize(VIEW_HEIGHT);
+
+	phase.highlightsAfter = keyboard.getHighlights().size();
+	if (phase.highlightsAfter != 0) {
+	    report.fail(phase.name + ": " + phase.highlightsAfter + " highlights left after clearing");
+	}
+
+	System.gc();
+	phase.heapAfter = usedHeap();
+	int slot = index % SoakWorkloads.PHASES.length;
+	if (index < SoakWorkloads.PHASES.length) {
+	    firstCycleHeap[slot] = phase.heapAfter;
+	} else if (index >= SoakWorkloads.PHASES.length * (CYCLES - 1) && phase.heapAfter - firstCycleHeap[slot] > MAX_HEAP_GROWTH) {
+	    report.fail(phase.name + ": heap grew by " + (phase.heapAfter - firstCycleHeap[slot]) + " bytes");
+	}
+
+	if (phase.frames.percentile(99) > MAX_FRAME_TIME) {
+	    report.fail(phase.name + ": p99 frame time " + phase.frames.percentile(99) + " ns");
+	}
+    }
+
+    private void step(String name, int frame) {
+	if (SoakWorkloads.PHASE_REPLAY.equals(name)) {
+	    stepReplay();
+	} else if (SoakWorkloads.PHASE_CHORDS.equals(name)) {
+	    stepChords();
+	} else if (SoakWorkloads.PHASE_FLING.equals(name)) {
+	    stepFling(frame);
+	} else if (SoakWorkloads.PHASE_PINCH.equals(name)) {
+	    stepPinch(frame);
+	} else {
+	    stepResize(frame);
+	}
+    }
+
+    private void stepReplay() {
+	songNanos += (long) (FRAME_NANOS * SPEED);
+	while (sequenceIndex < sequence.size() && tempoMap.tickToNanos(sequence.getTick(sequenceIndex)) <= songNanos) {
+	    int message = sequence.getMessage(sequenceIndex++);
+	    int code = MidiMessage.data1(message);
+	    if (MidiMessage.isNoteOn(message)) {
+		keyboard.setKey(code, true);
+	    } else if (MidiMessage.isNoteOff(message)) {
+		keyboard.setKey(code, false);
+	    }
+	}
+	if (sequenceIndex == sequence.size()) {
+	    sequenceIndex = 0;
+	    songNanos = 0;
+	    keyboard.clearHighlights();
+	}
+    }
+
+    /**
+     * Alternates touching a random chord in the lower part of the keys and
+     * releasing it.
+     */
+    private void stepChords() {
+	if (chordSize > 0) {
+	    releaseChord();
+	    return;
+	}
+	chordSize = 1 + random.nextInt(MAX_POINTERS);
+	float y = keyboard.getHeight() * 0.8f;
+	for (int i = 0; i < chordSize; i++) {
+	    chord[i] = keyboard.getCodeAt(random.nextFloat() * VIEW_WIDTH, y);
+	    if (chord[i] != -1) {
+		keyboard.setKeyPressed(chord[i], true);
+	    }
+	}
+    }
+
+    private void releaseChord() {
+	for (int i = 0; i < chordSize; i++) {
+	    if (chord[i] != -1) {
+		keyboard.setKeyPressed(chord[i], false);
+	    }
+	}
+	chordSize = 0;
+    }
+
+    /**
+     * Swipes across half of the view in a few frames, alternating direction.
+     */
+    private void stepFling(int frame) {
+	int stroke = (int) Math.max(4, 8 / SPEED);
+	float direction = (frame / stroke) % 2 == 0 ? -1 : 1;
+	keyboard.scrollBy(direction * VIEW_WIDTH / 2f / stroke);
+    }
+
+    /**
+     * Zooms out and back in, like spreading and closing two fingers.
+     */
+    private void stepPinch(int frame) {
+	int stroke = (int) Math.max(6, 30 / SPEED);
+	int position = frame % stroke;
+	boolean spreading = (frame / stroke) % 2 == 0;
+	float progress = (float) position / (stroke - 1);
+	keyboard.setScale(spreading ? 1f - 0.5f * progress : 0.5f + 0.5f * progress);
+    }
+
+    /**
+     * Oscillates the height between full and half size.
+     */
+    private void stepResize(int frame) {
+	double period = Math.max(4, 60 / SPEED);
+	keyboard.resize((float) (VIEW_HEIGHT * (0.75 + 0.25 * Math.cos(2 * Math.PI * frame / period))));
+    }
+
+    private static long usedHeap() {
+	Runtime runtime = Runtime.getRuntime();
+	return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long countCollections() {
+	long count = 0;
+	for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    count += Math.max(0, bean.getCollectionCount());
+	}
+	return count;
+    }
+
+}
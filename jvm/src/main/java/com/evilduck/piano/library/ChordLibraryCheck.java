@@ -0,0 +1,219 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.library;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads back a library written by {@link ChordLibraryBuilder} and compares
+ * every lookup with a brute force search over the text source: exact names in
+ * any case, every prefix of every name, voicings and pitch class masks. Run by
+ * {@code mvn test} in jvm/ on the library built from {@code jvm/chords}, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.library.ChordLibraryCheck chords.txt chords.bin
+ * </pre>
+ */
+public final class ChordLibraryCheck {
+
+    private static final String[] MISSING = { "", "H", "Cmaj", "Cmaj7/", "C#", "Dbm7b5x" };
+
+    private static final int MAX_REPORTED = 20;
+
+    private ChordLibraryCheck() {
+    }
+
+    private static final class Source {
+
+	final String name;
+
+	final int[] codes;
+
+	final int mask;
+
+	Source(String name, int[] codes) {
+	    this.name = name;
+	    this.codes = codes;
+	    mask = ChordLibrary.maskOf(codes, codes.length);
+	}
+
+    }
+
+    public static void main(String[] args) throws IOException {
+	if (args.length != 2) {
+	    System.err.println("Usage: ChordLibraryCheck <source.txt> <library.bin>");
+	    System.exit(1);
+	}
+	List<Source> sources = readSource(new File(args[0]));
+	ChordLibrary library = ChordLibrary.open(new File(args[1]));
+	List<String> failures = new ArrayList<String>();
+
+	if (library.size() != sources.size()) {
+	    failures.add("Library has " + library.size() + " entries, source has " + sources.size());
+	}
+	for (int i = 1; i < library.size(); i++) {
+	    if (compareFolded(library.getName(i - 1), library.getName(i)) > 0) {
+		failures.add("Entries " + (i - 1) + " and " + i + " are not in name order");
+	    }
+	}
+
+	int prefixes = 0;
+	int[] codes = new int[ChordLibrary.MAX_NOTES];
+	int[] matches = new int[library.size()];
+	for (int s = 0; s < sources.size(); s++) {
+	    Source source = sources.get(s);
+	    checkExact(library, source, failures);
+
+	    int entry = library.find(source.name);
+	    if (entry >= 0) {
+		int count = library.getVoicing(entry, codes);
+		if (!Arrays.equals(Arrays.copyOf(codes, count), source.codes)) {
+		    failures.add(source.name + ": voicing " + Arrays.toString(Arrays.copyOf(codes, count))
+			    + ", expected " + Arrays.toString(source.codes));
+		}
+		if (library.getMask(entry) != source.mask) {
+		    failures.add(source.name + ": mask " + Integer.toBinaryString(library.getMask(entry))
+			    + ", expected " + Integer.toBinaryString(source.mask));
+		}
+		checkMask(library, sources, source, entry, matches, failures);
+	    }
+
+	    for (int length = 1; length <= source.name.length(); length++) {
+		checkPrefix(library, sources, source.name.substring(0, length), failures);
+		prefixes++;
+	    }
+	}
+	for (int i = 0; i < MISSING.length; i++) {
+	    if (library.find(MISSING[i]) >= 0) {
+		failures.add("Found \"" + MISSING[i] + "\", which is not in the source");
+	    }
+	    checkPrefix(library, sources, MISSING[i], failures);
+	}
+
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Chord library lookups disagree with the source:");
+	    for (int i = 0; i < Math.min(failures.size(), MAX_REPORTED); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    if (failures.size() > MAX_REPORTED) {
+		message.append("\n  and ").append(failures.size() - MAX_REPORTED).append(" more");
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println(String.format(Locale.US, "Chord library round trip: %d voicings, %d prefixes", sources.size(),
+		prefixes));
+    }
+
+    private static void checkExact(ChordLibrary library, Source source, List<String> failures) {
+	String[] spellings = { source.name, source.name.toLowerCase(Locale.US), source.name.toUpperCase(Locale.US) };
+	for (int i = 0; i < spellings.length; i++) {
+	    int entry = library.find(spellings[i]);
+	    if (entry < 0) {
+		failures.add("Can't find \"" + spellings[i] + "\"");
+	    } else if (!library.getName(entry).equals(source.name)) {
+		failures.add("\"" + spellings[i] + "\" found " + library.getName(entry));
+	    }
+	}
+    }
+
+    private static void checkPrefix(ChordLibrary library, List<Source> sources, String prefix, List<String> failures) {
+	int expected = 0;
+	for (int i = 0; i < sources.size(); i++) {
+	    if (startsWithFolded(sources.get(i).name, prefix)) {
+		expected++;
+	    }
+	}
+	int start = library.prefixStart(prefix);
+	int end = library.prefixEnd(prefix);
+	if (end - start != expected) {
+	    failures.add("Prefix \"" + prefix + "\": " + (end - start) + " entries, expected " + expected);
+	    return;
+	}
+	for (int i = start; i < end; i++) {
+	    if (!startsWithFolded(library.getName(i), prefix)) {
+		failures.add("Prefix \"" + prefix + "\" returned " + library.getName(i));
+	    }
+	}
+    }
+
+    private static void checkMask(ChordLibrary library, List<Source> sources, Source source, int entry,
+	    int[] matches, List<String> failures) {
+	int expected = 0;
+	for (int i = 0; i < sources.size(); i++) {
+	    if (sources.get(i).mask == source.mask) {
+		expected++;
+	    }
+	}
+	int count = library.findByMask(source.mask, matches);
+	if (count != expected) {
+	    failures.add(source.name + ": " + count + " entries with its mask, expected " + expected);
+	    return;
+	}
+	boolean found = false;
+	for (int i = 0; i < count; i++) {
+	    found |= matches[i] == entry;
+	    if (library.getMask(matches[i]) != source.mask) {
+		failures.add(source.name + ": mask lookup returned " + library.getName(matches[i]));
+	    }
+	    if (i > 0 && matches[i] <= matches[i - 1]) {
+		failures.add(source.name + ": mask lookup is not in name order");
+	    }
+	}
+	if (!found) {
+	    failures.add(source.name + ": not found by its own mask");
+	}
+    }
+
+    private static List<Source> readSource(File file) throws IOException {
+	List<Source> sources = new ArrayList<Source>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+	try {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		line = line.trim();
+		if (line.length() == 0 || line.charAt(0) == '#') {
+		    continue;
+		}
+		String[] parts = line.split("\\s+");
+		int[] codes = new int[parts.length - 1];
+		for (int i = 0; i < codes.length; i++) {
+		    codes[i] = Integer.parseInt(parts[i + 1]);
+		}
+		Arrays.sort(codes);
+		sources.add(new Source(parts[0], codes));
+	    }
+	} finally {
+	    reader.close();
+	}
+	return sources;
+    }
+
+    private static boolean startsWithFolded(String name, String prefix) {
+	return name.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private static int compareFolded(String lhs, String rhs) {
+	return lhs.toLowerCase(Locale.US).compareTo(rhs.toLowerCase(Locale.US));
+    }
+
+}
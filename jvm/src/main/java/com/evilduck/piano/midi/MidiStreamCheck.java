@@ -0,0 +1,201 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+
+/**
+ * Feeds synthetic byte streams to {@link MidiStreamParser}, whole, split at
+ * every position and byte by byte, and fails when the messages reported
+ * differ from the expected ones. Covers running status, real-time bytes inside
+ * other messages and SysEx. Also passes messages through a
+ * {@link MidiEventRing} between two threads and fails on lost, repeated or
+ * reordered messages. Run by {@code mvn test} in jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.midi.MidiStreamCheck
+ * </pre>
+ */
+public final class MidiStreamCheck {
+
+    private static final int RING_CAPACITY = 100;
+
+    private static final int RING_MESSAGES = 1000000;
+
+    private MidiStreamCheck() {
+    }
+
+    private static final class Recorder implements MidiStreamParser.Listener {
+
+	final List<String> events = new ArrayList<String>();
+
+	@Override
+	public void onMessage(int message, long timestamp) {
+	    events.add(String.format(Locale.US, "%06X", message));
+	}
+
+	@Override
+	public void onSysEx(int length, long timestamp) {
+	    events.add("SysEx " + length);
+	}
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+	List<String> failures = new ArrayList<String>();
+
+	check("running status", bytes(0x90, 60, 100, 64, 100, 67, 0, 0xC1, 5, 6),
+		events(note(0x90, 60, 100), note(0x90, 64, 100), note(0x90, 67, 0), note(0xC1, 5, 0),
+			note(0xC1, 6, 0)), failures);
+	check("real-time inside messages", bytes(0x90, 0xF8, 60, 0xFE, 100, 64, 0xF8, 90, 0xB0, 123, 0xFC, 0),
+		events(note(0xF8, 0, 0), note(0xFE, 0, 0), note(0x90, 60, 100), note(0xF8, 0, 0),
+			note(0x90, 64, 90), note(0xFC, 0, 0), note(0xB0, 123, 0)), failures);
+	check("SysEx", bytes(0x90, 60, 100, 0xF0, 0x7E, 0x7F, 0xF8, 0x09, 0x01, 0xF7, 62, 100, 0x80, 60, 0),
+		events(note(0x90, 60, 100), note(0xF8, 0, 0), "SysEx 6", note(0x80, 60, 0)), failures);
+	check("unterminated SysEx", bytes(0xF0, 0x43, 0x12, 0x00, 0x90, 60, 100, 0xF7, 0xF7),
+		events(note(0x90, 60, 100)), failures);
+	check("system common", bytes(0xF2, 0x10, 0x20, 0x30, 0xF3, 0x05, 0xF6, 0x40),
+		events(note(0xF2, 0x10, 0x20), note(0xF3, 0x05, 0), note(0xF6, 0, 0)), failures);
+	check("data without status", bytes(60, 100, 0xD2, 70, 71),
+		events(note(0xD2, 70, 0), note(0xD2, 71, 0)), failures);
+
+	checkRing(failures);
+
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Midi stream check failed:");
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println("Midi parser and event ring deliver every message in order");
+    }
+
+    /**
+     * Parses the stream in one buffer, in two buffers split at every position
+     * and one byte per buffer.
+     */
+    private static void check(String name, byte[] stream, List<String> expected, List<String> failures) {
+	compare(name + ", one buffer", expected, parse(stream, new int[0]), failures);
+	for (int split = 1; split < stream.length; split++) {
+	    compare(name + ", split at " + split, expected, parse(stream, new int[] { split }), failures);
+	}
+	int[] everyByte = new int[stream.length - 1];
+	for (int i = 0; i < everyByte.length; i++) {
+	    everyByte[i] = i + 1;
+	}
+	compare(name + ", byte by byte", expected, parse(stream, everyByte), failures);
+    }
+
+    private static List<String> parse(byte[] stream, int[] splits) {
+	Recorder recorder = new Recorder();
+	MidiStreamParser parser = new MidiStreamParser(recorder);
+	// each buffer sits at an offset of a larger array, as a framework
+	// receiver gets them
+	byte[] buffer = new byte[stream.length + 3];
+	int start = 0;
+	for (int i = 0; i <= splits.length; i++) {
+	    int end = i < splits.length ? splits[i] : stream.length;
+	    System.arraycopy(stream, start, buffer, 3, end - start);
+	    parser.parse(buffer, 3, end - start, i);
+	    start = end;
+	}
+	return recorder.events;
+    }
+
+    private static void compare(String name, List<String> expected, List<String> actual, List<String> failures) {
+	if (!expected.equals(actual)) {
+	    failures.add(name + ": " + actual + ", expected " + expected);
+	}
+    }
+
+    /**
+     * One thread offers consecutive numbers, retrying while the ring is
+     * full, the other drains them.
+     */
+    private static void checkRing(List<String> failures) throws InterruptedException {
+	final MidiEventRing ring = new MidiEventRing(RING_CAPACITY);
+	int capacity = 0;
+	while (ring.offer(capacity)) {
+	    capacity++;
+	}
+	if (capacity != Integer.highestOneBit(RING_CAPACITY) << 1) {
+	    failures.add("Ring for " + RING_CAPACITY + " messages holds " + capacity);
+	}
+	ring.drain(new MidiEventRing.Consumer() {
+	    @Override
+	    public void onMessage(int message) {
+	    }
+	});
+
+	Thread producer = new Thread("MidiStreamCheck-producer") {
+	    @Override
+	    public void run() {
+		for (int i = 0; i < RING_MESSAGES; i++) {
+		    while (!ring.offer(i)) {
+			Thread.yield();
+		    }
+		}
+	    }
+	};
+	final int[] next = new int[1];
+	final List<String> ringFailures = new ArrayList<String>();
+	MidiEventRing.Consumer consumer = new MidiEventRing.Consumer() {
+	    @Override
+	    public void onMessage(int message) {
+		if (message != next[0] && ringFailures.isEmpty()) {
+		    ringFailures.add("Ring delivered " + message + " instead of " + next[0]);
+		}
+		next[0] = message + 1;
+	    }
+	};
+	producer.start();
+	while (next[0] < RING_MESSAGES && ringFailures.isEmpty()) {
+	    if (ring.drain(consumer) == 0) {
+		Thread.yield();
+	    }
+	}
+	producer.join();
+	failures.addAll(ringFailures);
+	if (!ring.isEmpty()) {
+	    failures.add("Ring not empty after draining every message");
+	}
+    }
+
+    private static byte[] bytes(int... values) {
+	byte[] bytes = new byte[values.length];
+	for (int i = 0; i < values.length; i++) {
+	    bytes[i] = (byte) values[i];
+	}
+	return bytes;
+    }
+
+    private static String note(int status, int data1, int data2) {
+	return String.format(Locale.US, "%06X", MidiMessage.pack(status, data1, data2));
+    }
+
+    private static List<String> events(String... events) {
+	List<String> list = new ArrayList<String>();
+	for (int i = 0; i < events.length; i++) {
+	    list.add(events[i]);
+	}
+	return list;
+    }
+
+}
@@ -0,0 +1,74 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+
+/**
+ * End to end check of the bridge over loopback: a stand-in receiver counts
+ * what a sender delivers and reports loss and one-way latency. Runs on a
+ * desktop JVM, the bridge logs to standard error:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.net.MidiBridgeLoopback [notes]
+ * </pre>
+ */
+public final class MidiBridgeLoopback {
+
+    private static final long NOTE_INTERVAL_MILLIS = 2;
+
+    private MidiBridgeLoopback() {
+    }
+
+    public static void main(String[] args) throws Exception {
+	int notes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+	final int[] received = new int[1];
+	MidiBridgeReceiver receiver = new MidiBridgeReceiver(0, new MidiBridgeReceiver.Listener() {
+	    @Override
+	    public void onRemoteEvent(int sourceId, int message) {
+		received[0]++;
+	    }
+	}, BridgeLog.SYSTEM_ERR);
+	receiver.start();
+
+	MidiBridgeSender sender = new MidiBridgeSender(new InetSocketAddress(InetAddress.getByName(null),
+		receiver.getLocalPort()), BridgeLog.SYSTEM_ERR);
+	sender.start();
+
+	for (int i = 0; i < notes; i++) {
+	    int code = 36 + i % 48;
+	    sender.send(MidiMessage.noteOn(0, code, 100));
+	    sender.send(MidiMessage.noteOff(0, code));
+	    Thread.sleep(NOTE_INTERVAL_MILLIS);
+	}
+	// let the last packets arrive
+	Thread.sleep(200);
+	sender.stop();
+	receiver.stop();
+
+	System.out.println(String.format(Locale.US, "sent %d events, received %d in %d packets, %d lost, %d dropped",
+		notes * 2, received[0], receiver.getPackets(), receiver.getLostPackets(),
+		sender.getDroppedEvents()));
+	System.out.println(String.format(Locale.US, "one-way latency: min %.3f ms, avg %.3f ms, max %.3f ms",
+		receiver.getMinLatencyNanos() / 1e6, receiver.getAverageLatencyNanos() / 1e6,
+		receiver.getMaxLatencyNanos() / 1e6));
+    }
+
+}
@@ -0,0 +1,216 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import com.evilduck.piano.views.instrument.Highlights;
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+
+/**
+ * Renders a set of diagrams through {@link DiagramBatchRenderer} as SVG and
+ * PNG and compares them with the golden files in {@code jvm/fixtures/render}.
+ * SVG has to match byte for byte. PNG is compared pixel by pixel with a small
+ * tolerance, since antialiasing may differ between JDKs, and is rendered
+ * without labels so that installed fonts don't matter. Run by {@code mvn test}
+ * in jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.render.DiagramRenderCheck jvm/fixtures/render out [update]
+ * </pre>
+ *
+ * With {@code update} the golden files are rewritten instead, check the
+ * differences before committing them.
+ */
+public final class DiagramRenderCheck {
+
+    private static final float HEIGHT = 160f;
+
+    private static final int GREEN = 0xFF2E9E3E;
+
+    private static final int RED = 0xFFD03030;
+
+    private static final int ORANGE = 0xFFE89020;
+
+    private static final int TRANSLUCENT_BLUE = 0x803050D0;
+
+    /**
+     * Largest difference of a color channel that still counts as equal.
+     */
+    private static final int CHANNEL_TOLERANCE = 24;
+
+    /**
+     * Share of pixels allowed to differ by more than the tolerance.
+     */
+    private static final double MAX_DIFFERENT_PIXELS = 0.005;
+
+    private DiagramRenderCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if (args.length < 2) {
+	    System.err.println("Usage: DiagramRenderCheck <golden directory> <output directory> [update]");
+	    System.exit(1);
+	}
+	File golden = new File(args[0]);
+	File output = new File(args[1]);
+	boolean update = args.length > 2 && args[2].equals("update");
+
+	// starts on an A, so the layout is not aligned to octaves
+	KeyboardLayout layout = KeyboardLayout.forRange(45, 84);
+	layout.layout(HEIGHT);
+	List<Diagram> diagrams = newDiagrams();
+	List<String> failures = new ArrayList<String>();
+	checkCodesCopied(failures);
+
+	SvgDiagramRenderer svg = new SvgDiagramRenderer(layout, new DiagramStyle());
+	PngDiagramRenderer png = new PngDiagramRenderer(layout, new DiagramStyle().labels(false));
+	File svgDirectory = new File(update ? golden : output, "svg");
+	File pngDirectory = new File(update ? golden : output, "png");
+	new DiagramBatchRenderer(svg).renderAll(diagrams, svgDirectory);
+	new DiagramBatchRenderer(png).renderAll(diagrams, pngDirectory);
+	if (update) {
+	    System.out.println("Golden diagrams written to " + golden);
+	    return;
+	}
+
+	for (int i = 0; i < diagrams.size(); i++) {
+	    Diagram diagram = diagrams.get(i);
+	    String svgName = "svg/" + diagram.getName() + ".svg";
+	    if (!Arrays.equals(readFully(new File(golden, svgName)), readFully(new File(output, svgName)))) {
+		failures.add(svgName + " differs from the golden file");
+	    }
+	    String pngName = "png/" + diagram.getName() + ".png";
+	    BufferedImage image = ImageIO.read(new File(output, pngName));
+	    comparePng(pngName, ImageIO.read(new File(golden, pngName)), image, failures);
+	    checkOverlayColors(pngName, diagram, layout, image, failures);
+	}
+
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Diagrams differ from " + golden + ":");
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println(diagrams.size() + " diagrams match the golden SVG and PNG files");
+    }
+
+    private static List<Diagram> newDiagrams() {
+	List<Diagram> diagrams = new ArrayList<Diagram>();
+	diagrams.add(new Diagram("c-major", 60, 64, 67));
+	// the lowest and highest keys and codes outside of the layout
+	diagrams.add(new Diagram("edges", 12, 45, 46, 83, 84, 85, 127));
+	diagrams.add(new Diagram("practice", new Highlights.Builder().add(60, GREEN, Highlights.SHAPE_CIRCLE)
+		.add(63, RED, Highlights.SHAPE_RING).add(66, ORANGE, Highlights.SHAPE_ROUNDED_SQUARE)
+		.add(70, TRANSLUCENT_BLUE, Highlights.SHAPE_CIRCLE).add(76, GREEN, Highlights.SHAPE_ROUNDED_SQUARE)
+		.build()));
+	diagrams.add(new Diagram("empty"));
+	return diagrams;
+    }
+
+    private static void checkCodesCopied(List<String> failures) {
+	int[] codes = { 60, 64, 67 };
+	Diagram diagram = new Diagram("copy", codes);
+	codes[0] = 61;
+	if (diagram.getCodes()[0] != 60) {
+	    failures.add("Diagram keeps the caller's codes array");
+	}
+	diagram.getCodes()[1] = 65;
+	if (diagram.getCodes()[1] != 64) {
+	    failures.add("Diagram.getCodes() exposes its array");
+	}
+    }
+
+    private static void comparePng(String name, BufferedImage expected, BufferedImage actual, List<String> failures) {
+	if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+	    failures.add(String.format(Locale.US, "%s is %dx%d, golden file is %dx%d", name, actual.getWidth(),
+		    actual.getHeight(), expected.getWidth(), expected.getHeight()));
+	    return;
+	}
+	int different = 0;
+	for (int y = 0; y < actual.getHeight(); y++) {
+	    for (int x = 0; x < actual.getWidth(); x++) {
+		if (!similar(expected.getRGB(x, y), actual.getRGB(x, y))) {
+		    different++;
+		}
+	    }
+	}
+	double share = (double) different / (actual.getWidth() * actual.getHeight());
+	if (share > MAX_DIFFERENT_PIXELS) {
+	    failures.add(String.format(Locale.US, "%s: %.2f%% of the pixels differ from the golden file", name,
+		    share * 100));
+	}
+    }
+
+    /**
+     * Independent of the golden files: opaque filled overlays have their
+     * color at the pivot.
+     */
+    private static void checkOverlayColors(String name, Diagram diagram, KeyboardLayout layout,
+	    BufferedImage image, List<String> failures) {
+	Highlights highlights = diagram.getHighlights();
+	int[] codes = diagram.getCodes();
+	for (int i = 0; i < codes.length; i++) {
+	    int index = layout.indexOf(codes[i]);
+	    if (index < 0) {
+		continue;
+	    }
+	    int color = highlights != null ? highlights.getColor(codes[i]) : new DiagramStyle().overlayColor;
+	    int shape = highlights != null ? highlights.getShape(codes[i]) : Highlights.SHAPE_CIRCLE;
+	    if (color >>> 24 != 0xFF || shape == Highlights.SHAPE_RING) {
+		continue;
+	    }
+	    int pixel = image.getRGB((int) layout.getOverlayPivotX(index), (int) layout.getOverlayPivotY(index));
+	    if (!similar(color, pixel)) {
+		failures.add(String.format(Locale.US, "%s: key %d is %08x at its overlay, expected %08x", name,
+			codes[i], pixel, color));
+	    }
+	}
+    }
+
+    private static boolean similar(int lhs, int rhs) {
+	for (int shift = 0; shift < 32; shift += 8) {
+	    if (Math.abs((lhs >>> shift & 0xFF) - (rhs >>> shift & 0xFF)) > CHANNEL_TOLERANCE) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+	if (!file.isFile()) {
+	    return null;
+	}
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+	    byte[] data = new byte[(int) raf.length()];
+	    raf.readFully(data);
+	    return data;
+	} finally {
+	    raf.close();
+	}
+    }
+
+}
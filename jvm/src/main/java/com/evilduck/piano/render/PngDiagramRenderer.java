@@ -0,0 +1,171 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+import com.evilduck.piano.music.Note;
+import com.evilduck.piano.views.instrument.Highlights;
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+
+/**
+ * Renders keyboard diagrams as PNG through java.awt, drawing the same keys,
+ * overlay shapes and labels as {@link SvgDiagramRenderer}. It lives in the JVM
+ * module because Android has no java.awt. The keys are drawn once into an
+ * image that every diagram starts from. Instances can be shared between
+ * threads.
+ */
+public class PngDiagramRenderer implements DiagramRenderer {
+
+    private final KeyboardLayout layout;
+
+    private final BufferedImage keys;
+
+    private final int overlayColor;
+
+    private final Color labelColor;
+
+    private final float overlayRadius;
+
+    private final boolean labels;
+
+    /**
+     * @param layout
+     *            laid out keyboard, must not be changed afterwards
+     */
+    public PngDiagramRenderer(KeyboardLayout layout, DiagramStyle style) {
+	this.layout = layout;
+	overlayColor = style.overlayColor;
+	labelColor = new Color(style.labelColor, true);
+	overlayRadius = layout.getWhiteKeyWidth() * style.overlayRadius;
+	labels = style.labels;
+
+	keys = new BufferedImage((int) Math.ceil(layout.getWidth()), (int) Math.ceil(layout.getHeight()),
+		BufferedImage.TYPE_INT_ARGB);
+	Graphics2D graphics = keys.createGraphics();
+	try {
+	    drawKeys(graphics, false, new Color(style.whiteKeyColor, true), new Color(style.outlineColor, true));
+	    drawKeys(graphics, true, new Color(style.blackKeyColor, true), new Color(style.outlineColor, true));
+	} finally {
+	    graphics.dispose();
+	}
+    }
+
+    private void drawKeys(Graphics2D graphics, boolean black, Color fill, Color outline) {
+	for (int i = 0; i < layout.getKeyCount(); i++) {
+	    if (layout.isBlack(i) != black) {
+		continue;
+	    }
+	    Rectangle2D.Float rect = new Rectangle2D.Float(layout.getStartX(i), layout.getStartY(i),
+		    layout.getEndX(i) - layout.getStartX(i), layout.getEndY(i) - layout.getStartY(i));
+	    graphics.setColor(fill);
+	    graphics.fill(rect);
+	    graphics.setColor(outline);
+	    graphics.draw(rect);
+	}
+    }
+
+    @Override
+    public String getFileExtension() {
+	return "png";
+    }
+
+    @Override
+    public void render(Diagram diagram, OutputStream out) throws IOException {
+	ImageIO.write(render(diagram), "png", out);
+    }
+
+    /**
+     * @return image of the diagram, codes outside of the layout range are
+     *         skipped
+     */
+    public BufferedImage render(Diagram diagram) {
+	BufferedImage image = new BufferedImage(keys.getWidth(), keys.getHeight(), BufferedImage.TYPE_INT_ARGB);
+	Graphics2D graphics = image.createGraphics();
+	try {
+	    graphics.drawImage(keys, 0, 0, null);
+	    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+	    graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+	    graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.round(overlayRadius)));
+
+	    Highlights highlights = diagram.highlights;
+	    for (int i = 0; i < diagram.codes.length; i++) {
+		int code = diagram.codes[i];
+		int index = layout.indexOf(code);
+		if (index < 0) {
+		    continue;
+		}
+		if (highlights != null) {
+		    drawOverlay(graphics, index, highlights.getColor(code), highlights.getShape(code),
+			    highlights.getNote(code));
+		} else {
+		    drawOverlay(graphics, index, overlayColor, Highlights.SHAPE_CIRCLE, Note.fromCode(code));
+		}
+	    }
+	} finally {
+	    graphics.dispose();
+	}
+	return image;
+    }
+
+    private void drawOverlay(Graphics2D graphics, int index, int color, int shape, Note note) {
+	float x = layout.getOverlayPivotX(index);
+	float y = layout.getOverlayPivotY(index);
+	float radius = overlayRadius;
+	graphics.setColor(new Color(color, true));
+	switch (shape) {
+	case Highlights.SHAPE_ROUNDED_SQUARE:
+	    // arc sizes are diameters, the corner radius is a third of the radius
+	    graphics.fill(new RoundRectangle2D.Float(x - radius, y - radius, radius * 2, radius * 2, radius * 2 / 3,
+		    radius * 2 / 3));
+	    break;
+	case Highlights.SHAPE_RING:
+	    float strokeWidth = radius / 4;
+	    float ringRadius = radius - strokeWidth / 2;
+	    graphics.setStroke(new BasicStroke(strokeWidth));
+	    graphics.draw(new Ellipse2D.Float(x - ringRadius, y - ringRadius, ringRadius * 2, ringRadius * 2));
+	    break;
+	default:
+	    graphics.fill(new Ellipse2D.Float(x - radius, y - radius, radius * 2, radius * 2));
+	    break;
+	}
+
+	if (labels) {
+	    String label = note.toString();
+	    FontMetrics metrics = graphics.getFontMetrics();
+	    graphics.setColor(labelColor);
+	    graphics.drawString(label, x - metrics.stringWidth(label) / 2f,
+		    y + (metrics.getAscent() - metrics.getDescent()) / 2f);
+	}
+    }
+
+    public KeyboardLayout getLayout() {
+	return layout;
+    }
+
+}
@@ -0,0 +1,105 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.scoring;
+
+import java.util.Locale;
+import java.util.Random;
+
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+
+/**
+ * Grades a synthetic performance of chords with timing jitter, wrong and
+ * skipped notes and prints the throughput. Runs on a desktop JVM:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.scoring.ScoringBenchmark [chords]
+ * </pre>
+ */
+public final class ScoringBenchmark {
+
+    private static final int CHORD_SIZE = 3;
+
+    private static final long CHORD_TICKS = 240;
+
+    private ScoringBenchmark() {
+    }
+
+    public static void main(String[] args) {
+	int chords = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+	TempoMap tempoMap = new TempoMap();
+	Sequence reference = new Sequence(chords * CHORD_SIZE * 2);
+	Random random = new Random(0);
+	for (int c = 0; c < chords; c++) {
+	    int root = 48 + random.nextInt(24);
+	    for (int n = 0; n < CHORD_SIZE; n++) {
+		reference.addNote(c * CHORD_TICKS, CHORD_TICKS, 0, root + n * 4, 100);
+	    }
+	}
+
+	// played stream: every expected note with jitter, some skipped, some
+	// extra
+	long[] times = new long[chords * CHORD_SIZE * 2];
+	int[] codes = new int[times.length];
+	int events = 0;
+	PracticeScorer template = new PracticeScorer(reference, tempoMap);
+	for (int i = 0; i < template.getExpectedCount(); i++) {
+	    if (random.nextInt(20) == 0) {
+		continue;
+	    }
+	    long jitter = (long) (random.nextGaussian() * 30000000L);
+	    times[events] = template.getExpectedTime(i) + jitter;
+	    codes[events++] = template.getExpectedCode(i);
+	    if (random.nextInt(20) == 0) {
+		times[events] = template.getExpectedTime(i) + jitter;
+		codes[events++] = template.getExpectedCode(i) + 1;
+	    }
+	}
+	sortByTime(times, codes, events);
+
+	for (int round = 0; round < 3; round++) {
+	    PracticeScorer scorer = new PracticeScorer(reference, tempoMap);
+	    long start = System.nanoTime();
+	    for (int i = 0; i < events; i++) {
+		scorer.onPlayed(codes[i], times[i]);
+	    }
+	    PracticeScorer.Summary summary = scorer.finish();
+	    double seconds = (System.nanoTime() - start) / 1e9;
+	    System.out.println(String.format(Locale.US, "%d events in %.3f s, %.0f events/s", events, seconds, events
+		    / seconds));
+	    if (round == 2) {
+		System.out.println(summary);
+	    }
+	}
+    }
+
+    private static void sortByTime(long[] times, int[] codes, int count) {
+	// insertion sort, the stream is almost sorted already
+	for (int i = 1; i < count; i++) {
+	    long time = times[i];
+	    int code = codes[i];
+	    int j = i - 1;
+	    while (j >= 0 && times[j] > time) {
+		times[j + 1] = times[j];
+		codes[j + 1] = codes[j];
+		j--;
+	    }
+	    times[j + 1] = time;
+	    codes[j + 1] = code;
+	}
+    }
+
+}
@@ -0,0 +1,123 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import java.util.Random;
+
+/**
+ * Runs {@link AudioVisualSync} against a simulated output with buffering,
+ * hardware latency, clock drift and jittery timestamps, and prints how far
+ * highlights land from the moment their notes are heard. Runs on a plain JVM:
+ * 
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.sequencer.AudioVisualSyncSimulation [latencyMs] [driftPpm]
+ * </pre>
+ */
+public class AudioVisualSyncSimulation {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    private static final int BUFFER_FRAMES = 1920;
+
+    private static final int WRITE_FRAMES = 240;
+
+    private static final long MILLI = 1000000L;
+
+    private static final long FRAME_INTERVAL = 16666667L;
+
+    private static final long DURATION = 60000 * MILLI;
+
+    public static void main(String[] args) {
+	long hardwareLatency = (args.length > 0 ? Integer.parseInt(args[0]) : 60) * MILLI;
+	double driftPpm = args.length > 1 ? Double.parseDouble(args[1]) : 80;
+
+	final long[] now = new long[1];
+	NanoClock clock = new NanoClock() {
+	    @Override
+	    public long nanoTime() {
+		return now[0];
+	    }
+	};
+	AudioVisualSync sync = new AudioVisualSync(SAMPLE_RATE, BUFFER_FRAMES, clock);
+	// audio clock runs slower than the system clock by the drift
+	double framesPerNano = SAMPLE_RATE / 1e9 * (1 - driftPpm * 1e-6);
+
+	final long[] heardAt = new long[128];
+	final long[] error = new long[2];
+	final int[] notes = new int[1];
+	Sequencer.VisualSink sink = new Sequencer.VisualSink() {
+	    @Override
+	    public void onVisualEvent(int message) {
+		if (MidiMessage.isNoteOn(message)) {
+		    error[0] += Math.abs(now[0] - heardAt[MidiMessage.data1(message)]);
+		    notes[0]++;
+		}
+	    }
+	};
+
+	Random random = new Random(42);
+	long written = 0;
+	long naiveError = 0;
+	int naiveNotes = 0;
+	long nextVsync = 0;
+	long nextTimestamp = 0;
+	long nextNote = 100 * MILLI;
+	int code = 0;
+	for (now[0] = 0; now[0] < DURATION; now[0] += MILLI / 4) {
+	    long t = now[0];
+	    // frame heard right now
+	    long heard = Math.max(0, (long) ((t - hardwareLatency) * framesPerNano));
+	    long played = Math.max(0, (long) (t * framesPerNano));
+
+	    while (written < played + BUFFER_FRAMES) {
+		written += WRITE_FRAMES;
+		sync.onFramesWritten(WRITE_FRAMES);
+	    }
+	    if (t >= nextTimestamp && heard > 0) {
+		nextTimestamp = t + 200 * MILLI;
+		long jitter = (long) (random.nextGaussian() * 0.5 * MILLI);
+		sync.onTimestamp(heard, t + jitter);
+	    }
+	    if (t >= nextNote) {
+		nextNote = t + (50 + random.nextInt(200)) * MILLI;
+		code = (code + 1) % 128;
+		// the note goes into the next written block
+		heardAt[code] = hardwareLatency + (long) (written / framesPerNano);
+		if (t > 2000 * MILLI) {
+		    naiveError += heardAt[code] - t;
+		    naiveNotes++;
+		}
+		sync.post(MidiMessage.noteOn(0, code, 100));
+	    }
+	    if (t >= nextVsync) {
+		nextVsync += FRAME_INTERVAL;
+		int before = notes[0];
+		long errorBefore = error[0];
+		sync.dispatchFrame(t, FRAME_INTERVAL, sink);
+		if (t < 2000 * MILLI) {
+		    // let the estimate settle
+		    notes[0] = before;
+		    error[0] = errorBefore;
+		}
+	    }
+	}
+
+	System.out.printf("latency estimate %.1f ms, jitter %.2f ms, drift %.1f ppm%n", sync.getLatencyNanos()
+		/ 1e6, sync.getJitterNanos() / 1e6, sync.getDriftPpm());
+	System.out.printf("%d notes, mean error %.1f ms synced, %.1f ms drawn right away%n", notes[0], error[0]
+		/ 1e6 / notes[0], naiveError / 1e6 / naiveNotes);
+    }
+
+}
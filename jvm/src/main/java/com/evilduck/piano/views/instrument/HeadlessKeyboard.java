@@ -0,0 +1,264 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Keyboard with the state {@link PianoView} keeps around it, drawn the same
+ * way as in {@code PianoView.onDraw()} into a canvas counting the draw calls.
+ * Lets desktop checks drive the renderer without a device.
+ */
+public final class HeadlessKeyboard {
+
+    private static final int OVERLAY_COLOR = 0xFF3F9FD8;
+
+    private final KeyAnimator animator = new KeyAnimator(Keyboard.KEY_COUNT);
+
+    private final RenderStats stats = new RenderStats();
+
+    private final CountingCanvas canvas = new CountingCanvas();
+
+    private final Keyboard keyboard;
+
+    private final Context context = new Context();
+
+    private final int viewWidth;
+
+    private final Highlights.Builder builder = new Highlights.Builder();
+
+    private Highlights highlights = Highlights.EMPTY;
+
+    private boolean highlightsChanged;
+
+    private Highlights drawnHighlights = Highlights.EMPTY;
+
+    private float xOffset;
+
+    private float scale = 1f;
+
+    private float height;
+
+    private int drawableStateChanges;
+
+    public HeadlessKeyboard(boolean asBitmaps, int viewWidth, float viewHeight) {
+	this.viewWidth = viewWidth;
+	keyboard = new Keyboard(animator, stats, asBitmaps, OVERLAY_COLOR, 20f, 24f);
+	keyboard.acquireResources(context, null);
+	resize(viewHeight);
+	KeyboardResources.takeStateChanges();
+    }
+
+    public void scrollBy(float distance) {
+	xOffset += distance;
+    }
+
+    public void setScale(float scale) {
+	this.scale = scale;
+    }
+
+    public float getHeight() {
+	return height;
+    }
+
+    /**
+     * Lays the keys out for a new view height, like a measure pass.
+     */
+    public void resize(float height) {
+	this.height = height;
+	keyboard.initializeInstrument(height, context);
+    }
+
+    /**
+     * Presses or releases a key and its overlay, like a sequencer driving
+     * the view.
+     */
+    public void setKey(int code, boolean down) {
+	keyboard.setKeyPressed(code, down);
+	if (down) {
+	    builder.add(code, OVERLAY_COLOR, Highlights.SHAPE_CIRCLE);
+	} else {
+	    builder.remove(code);
+	}
+	highlightsChanged = true;
+    }
+
+    /**
+     * @return midi code of the key under a point of the view, -1 if there is
+     *         none
+     */
+    public int getCodeAt(float x, float y) {
+	return keyboard.getCodeAt(x / scale + getOffset(), y);
+    }
+
+    /**
+     * Presses or releases a key without an overlay, like a finger in play
+     * mode.
+     */
+    public void setKeyPressed(int code, boolean pressed) {
+	keyboard.setKeyPressed(code, pressed);
+    }
+
+    public void releaseAllKeys() {
+	for (int code = 0; code < 128; code++) {
+	    keyboard.setKeyPressed(code, false);
+	}
+    }
+
+    public void clearHighlights() {
+	builder.clear();
+	highlightsChanged = true;
+    }
+
+    public Highlights getHighlights() {
+	if (highlightsChanged) {
+	    highlights = builder.build();
+	    highlightsChanged = false;
+	}
+	return highlights;
+    }
+
+    public void drawFrame(long frameTime) {
+	canvas.reset();
+	stats.startFrame();
+
+	Highlights latest = getHighlights();
+	if (latest != drawnHighlights) {
+	    drawnHighlights = latest;
+	    keyboard.applyHighlights(latest);
+	}
+	animator.step(frameTime);
+
+	int visibleWidth = (int) (viewWidth / scale);
+	xOffset = Math.max(0, Math.min(keyboard.getWidth() - visibleWidth, xOffset));
+	int localXOffset = getOffset();
+
+	canvas.save();
+	canvas.scale(scale, 1f);
+	canvas.translate(-localXOffset, 0);
+	keyboard.updateBounds(localXOffset, visibleWidth + localXOffset);
+	keyboard.draw(canvas);
+	keyboard.drawOverlays(canvas);
+	canvas.restore();
+
+	drawableStateChanges = KeyboardResources.takeStateChanges();
+	if (canvas.getSaveCount() != 1) {
+	    throw new IllegalStateException("Unbalanced canvas save count: " + canvas.getSaveCount());
+	}
+    }
+
+    /**
+     * @return true while a key press or overlay fade is animating, i.e. the
+     *         view would keep requesting frames
+     */
+    public boolean isAnimating() {
+	return animator.isAnimating();
+    }
+
+    /**
+     * @return what the renderer counted in the last frame
+     */
+    public RenderStats getStats() {
+	return stats;
+    }
+
+    /**
+     * @return draw calls the canvas saw in the last frame
+     */
+    public int getDrawCalls() {
+	return canvas.drawCalls;
+    }
+
+    public int getBitmapBlits() {
+	return canvas.bitmapBlits;
+    }
+
+    /**
+     * @return state changes the key drawables saw in the last frame
+     */
+    public int getDrawableStateChanges() {
+	return drawableStateChanges;
+    }
+
+    private int getOffset() {
+	return (int) xOffset;
+    }
+
+    private static final class CountingCanvas extends Canvas {
+
+	int drawCalls;
+
+	int bitmapBlits;
+
+	void reset() {
+	    drawCalls = 0;
+	    bitmapBlits = 0;
+	}
+
+	@Override
+	public void drawColor(int color) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawRect(RectF rect, Paint paint) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawCircle(float cx, float cy, float radius, Paint paint) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawText(String text, float x, float y, Paint paint) {
+	    drawCalls++;
+	}
+
+	@Override
+	public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+	    drawCalls++;
+	    bitmapBlits++;
+	}
+
+	@Override
+	public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+	    drawCalls++;
+	    bitmapBlits++;
+	}
+
+    }
+
+}
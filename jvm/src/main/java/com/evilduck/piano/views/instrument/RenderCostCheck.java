@@ -0,0 +1,239 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders the keyboard the way {@link PianoView} does into a counting canvas
+ * of a {@link HeadlessKeyboard}, through scripted scenarios with both text and bitmap overlays. Fails when a
+ * frame does more drawing work than the scenario's budget, or when
+ * {@link RenderStats} disagrees with what the canvas saw. Run by
+ * {@code mvn test} in jvm/, or:
+ *
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.views.instrument.RenderCostCheck
+ * </pre>
+ *
+ * Budgets are the cost of the current renderer. A change that adds drawing
+ * work has to raise them deliberately.
+ */
+public final class RenderCostCheck {
+
+    private static final long FRAME_MILLIS = 16;
+
+    private static final float VIEW_HEIGHT = 600f;
+
+    private static final int VIEW_WIDTH = 1280;
+
+
+    private RenderCostCheck() {
+    }
+
+    public static void main(String[] args) {
+	List<String> failures = new ArrayList<String>();
+	for (int mode = 0; mode < 2; mode++) {
+	    boolean asBitmaps = mode == 1;
+	    Scenario[] scenarios = { new Idle(), new Fling(), new Pinch(), new Chord(), new Playback() };
+	    for (int i = 0; i < scenarios.length; i++) {
+		run(scenarios[i], asBitmaps, failures);
+	    }
+	}
+	if (!failures.isEmpty()) {
+	    StringBuilder message = new StringBuilder("Render cost regressions:");
+	    for (int i = 0; i < failures.size(); i++) {
+		message.append("\n  ").append(failures.get(i));
+	    }
+	    throw new IllegalStateException(message.toString());
+	}
+	System.out.println("All scenarios within budget");
+    }
+
+    private static void run(Scenario scenario, boolean asBitmaps, List<String> failures) {
+	HeadlessKeyboard stage = new HeadlessKeyboard(asBitmaps, VIEW_WIDTH, VIEW_HEIGHT);
+	int[] max = new int[Budget.MEASURES];
+	long[] total = new long[Budget.MEASURES];
+	String name = (asBitmaps ? "bitmap " : "text   ") + scenario.name;
+
+	for (int frame = 0; frame < scenario.frames; frame++) {
+	    scenario.onFrame(stage, frame);
+	    stage.drawFrame(frame * FRAME_MILLIS);
+
+	    RenderStats stats = stage.getStats();
+	    int[] measured = { stats.getDrawCalls(), stats.getStateChanges(), stats.getBitmapBlits(),
+		    stats.getTextMeasurements() };
+	    for (int i = 0; i < measured.length; i++) {
+		max[i] = Math.max(max[i], measured[i]);
+		total[i] += measured[i];
+	    }
+
+	    if (stats.getDrawCalls() != stage.getDrawCalls() || stats.getBitmapBlits() != stage.getBitmapBlits()
+		    || stats.getStateChanges() != stage.getDrawableStateChanges()) {
+		failures.add(String.format(Locale.US,
+			"%s frame %d: stats count %d draws, %d blits, %d state changes, canvas saw %d, %d, %d", name,
+			frame, stats.getDrawCalls(), stats.getBitmapBlits(), stats.getStateChanges(),
+			stage.getDrawCalls(), stage.getBitmapBlits(), stage.getDrawableStateChanges()));
+	    }
+	}
+
+	Budget budget = asBitmaps ? scenario.bitmapBudget : scenario.textBudget;
+	StringBuilder line = new StringBuilder(String.format(Locale.US, "%-22s %4d frames", name, scenario.frames));
+	for (int i = 0; i < Budget.MEASURES; i++) {
+	    line.append(String.format(Locale.US, "  %s %3d (%5.1f avg, budget %3d)", Budget.NAMES[i], max[i],
+		    (double) total[i] / scenario.frames, budget.limits[i]));
+	    if (max[i] > budget.limits[i]) {
+		failures.add(String.format(Locale.US, "%s: %d %s in a frame, budget is %d", name, max[i],
+			Budget.NAMES[i], budget.limits[i]));
+	    }
+	}
+	System.out.println(line);
+    }
+
+    /**
+     * Per frame maximum of every measure.
+     */
+    private static final class Budget {
+
+	static final int MEASURES = 4;
+
+	static final String[] NAMES = { "draws", "states", "blits", "texts" };
+
+	final int[] limits;
+
+	Budget(int drawCalls, int stateChanges, int bitmapBlits, int textMeasurements) {
+	    limits = new int[] { drawCalls, stateChanges, bitmapBlits, textMeasurements };
+	}
+
+    }
+
+    private abstract static class Scenario {
+
+	final String name;
+
+	final int frames;
+
+	final Budget textBudget;
+
+	final Budget bitmapBudget;
+
+	Scenario(String name, int frames, Budget textBudget, Budget bitmapBudget) {
+	    this.name = name;
+	    this.frames = frames;
+	    this.textBudget = textBudget;
+	    this.bitmapBudget = bitmapBudget;
+	}
+
+	/**
+	 * Changes the view state before the frame is drawn.
+	 */
+	abstract void onFrame(HeadlessKeyboard stage, int frame);
+
+    }
+
+    private static final class Idle extends Scenario {
+
+	Idle() {
+	    super("idle", 30, new Budget(24, 2, 0, 0), new Budget(24, 2, 0, 0));
+	}
+
+	@Override
+	void onFrame(HeadlessKeyboard stage, int frame) {
+	}
+
+    }
+
+    private static final class Fling extends Scenario {
+
+	private float velocity = 3.5f;
+
+	Fling() {
+	    super("fling", 90, new Budget(25, 2, 0, 0), new Budget(25, 2, 0, 0));
+	}
+
+	@Override
+	void onFrame(HeadlessKeyboard stage, int frame) {
+	    // pixels per millisecond, decelerating
+	    stage.scrollBy(velocity * FRAME_MILLIS);
+	    velocity *= 0.96f;
+	}
+
+    }
+
+    private static final class Pinch extends Scenario {
+
+	Pinch() {
+	    super("pinch", 45, new Budget(46, 2, 0, 0), new Budget(46, 2, 0, 0));
+	}
+
+	@Override
+	void onFrame(HeadlessKeyboard stage, int frame) {
+	    stage.setScale(Math.max(0.5f, 1f - frame / 60f));
+	}
+
+    }
+
+    private static final class Chord extends Scenario {
+
+	private static final int[] CODES = { 24, 26, 28, 31, 33, 35, 36, 38, 40, 43 };
+
+	Chord() {
+	    super("10-note chord", 60, new Budget(54, 3, 0, 10), new Budget(54, 3, 20, 0));
+	}
+
+	@Override
+	void onFrame(HeadlessKeyboard stage, int frame) {
+	    if (frame == 0 || frame == 30) {
+		boolean down = frame == 0;
+		for (int i = 0; i < CODES.length; i++) {
+		    stage.setKey(CODES[i], down);
+		}
+	    }
+	}
+
+    }
+
+    private static final class Playback extends Scenario {
+
+	private static final int[] MELODY = { 36, 38, 40, 41, 43, 45, 47, 48, 47, 45, 43, 41, 40, 38, 37, 39 };
+
+	private static final int NOTE_FRAMES = 6;
+
+	private static final int HELD_NOTES = 3;
+
+	Playback() {
+	    super("midi playback", MELODY.length * NOTE_FRAMES + 30, new Budget(36, 4, 0, 5), new Budget(38, 4, 12,
+		    0));
+	}
+
+	@Override
+	void onFrame(HeadlessKeyboard stage, int frame) {
+	    if (frame % NOTE_FRAMES != 0) {
+		return;
+	    }
+	    int note = frame / NOTE_FRAMES;
+	    if (note < MELODY.length) {
+		stage.setKey(MELODY[note], true);
+	    }
+	    int released = note - HELD_NOTES;
+	    if (released >= 0 && released < MELODY.length) {
+		stage.setKey(MELODY[released], false);
+	    }
+	}
+
+    }
+
+}
@@ -0,0 +1,35 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package android;
+
+/**
+ * Stand-in for the Android class with the attributes the keyboard renderer
+ * uses on a plain JVM.
+ */
+public final class R {
+
+    private R() {
+    }
+
+    public static final class attr {
+
+	public static final int state_pressed = 0x010100a7;
+
+	private attr() {
+	}
+
+    }
+
+}
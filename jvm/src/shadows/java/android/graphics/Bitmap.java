@@ -0,0 +1,57 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package android.graphics;
+
+/**
+ * Stand-in for the Android class, a bitmap with a size and no pixels.
+ */
+public final class Bitmap {
+
+    public enum Config {
+	ALPHA_8, RGB_565, ARGB_8888
+    }
+
+    private final int width;
+
+    private final int height;
+
+    private final Config config;
+
+    private Bitmap(int width, int height, Config config) {
+	this.width = width;
+	this.height = height;
+	this.config = config;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+	if (width <= 0 || height <= 0) {
+	    throw new IllegalArgumentException("width and height must be > 0");
+	}
+	return new Bitmap(width, height, config);
+    }
+
+    public int getWidth() {
+	return width;
+    }
+
+    public int getHeight() {
+	return height;
+    }
+
+    public Config getConfig() {
+	return config;
+    }
+
+}
@@ -0,0 +1,84 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package android.graphics;
+
+/**
+ * Stand-in for the Android class that draws nothing. Subclasses record or
+ * count what is drawn.
+ */
+public class Canvas {
+
+    private int saveCount = 1;
+
+    public int save() {
+	return saveCount++;
+    }
+
+    public void restore() {
+	if (saveCount <= 1) {
+	    throw new IllegalStateException("Underflow in restore");
+	}
+	saveCount--;
+    }
+
+    public void restoreToCount(int count) {
+	if (count < 1 || count > saveCount) {
+	    throw new IllegalArgumentException("Invalid save count: " + count);
+	}
+	saveCount = count;
+    }
+
+    public int getSaveCount() {
+	return saveCount;
+    }
+
+    public void scale(float sx, float sy) {
+    }
+
+    public void translate(float dx, float dy) {
+    }
+
+    public void rotate(float degrees) {
+    }
+
+    public void drawColor(int color) {
+    }
+
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+    }
+
+    public void drawRect(RectF rect, Paint paint) {
+	drawRect(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+    }
+
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+    }
+
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+    }
+
+    public void drawText(String text, float x, float y, Paint paint) {
+    }
+
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+    }
+
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+    }
+
+}
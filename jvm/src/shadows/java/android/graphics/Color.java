@@ -0,0 +1,35 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package android.graphics;
+
+/**
+ * Stand-in for the Android class.
+ */
+public final class Color {
+
+    public static final int BLACK = 0xFF000000;
+
+    public static final int WHITE = 0xFFFFFFFF;
+
+    public static final int GRAY = 0xFF888888;
+
+    private Color() {
+    }
+
+    public static int alpha(int color) {
+	return color >>> 24;
+    }
+
+}
@@ -0,0 +1,107 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package android.graphics;
+
+/**
+ * Stand-in for the Android class. Text is measured with fixed glyph
+ * proportions, so layouts depending on it are deterministic.
+ */
+public class Paint {
+
+    public static final int ANTI_ALIAS_FLAG = 1;
+
+    public static final int FILTER_BITMAP_FLAG = 2;
+
+    public enum Style {
+	FILL, STROKE, FILL_AND_STROKE
+    }
+
+    private static final float GLYPH_WIDTH = 0.6f;
+
+    private static final float GLYPH_HEIGHT = 0.7f;
+
+    private int flags;
+
+    private int color = Color.BLACK;
+
+    private float textSize = 12f;
+
+    private float strokeWidth;
+
+    private Style style = Style.FILL;
+
+    public Paint() {
+    }
+
+    public Paint(int flags) {
+	this.flags = flags;
+    }
+
+    public void setAntiAlias(boolean antiAlias) {
+	flags = antiAlias ? flags | ANTI_ALIAS_FLAG : flags & ~ANTI_ALIAS_FLAG;
+    }
+
+    public boolean isAntiAlias() {
+	return (flags & ANTI_ALIAS_FLAG) != 0;
+    }
+
+    public void setColor(int color) {
+	this.color = color;
+    }
+
+    public int getColor() {
+	return color;
+    }
+
+    public void setAlpha(int alpha) {
+	color = (color & 0x00FFFFFF) | (alpha & 0xFF) << 24;
+    }
+
+    public int getAlpha() {
+	return Color.alpha(color);
+    }
+
+    public void setTextSize(float textSize) {
+	this.textSize = textSize;
+    }
+
+    public float getTextSize() {
+	return textSize;
+    }
+
+    public void setStrokeWidth(float strokeWidth) {
+	this.strokeWidth = strokeWidth;
+    }
+
+    public float getStrokeWidth() {
+	return strokeWidth;
+    }
+
+    public void setStyle(Style style) {
+	this.style = style;
+    }
+
+    public Style getStyle() {
+	return style;
+    }
+
+    public void getTextBounds(String text, int start, int end, Rect bounds) {
+	bounds.left = 0;
+	bounds.right = Math.round((end - start) * textSize * GLYPH_WIDTH);
+	bounds.top = -Math.round(textSize * GLYPH_HEIGHT);
+	bounds.bottom = 0;
+    }
+
+}
@@ -0,0 +1,56 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package android.graphics.drawable;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Stand-in for the Android class with bounds, state and alpha.
+ */
+public abstract class Drawable {
+
+    private static final int[] EMPTY_STATE = new int[0];
+
+    private final Rect bounds = new Rect();
+
+    private int[] state = EMPTY_STATE;
+
+    public void setBounds(int left, int top, int right, int bottom) {
+	bounds.set(left, top, right, bottom);
+    }
+
+    public final Rect getBounds() {
+	return bounds;
+    }
+
+    public boolean setState(int[] stateSet) {
+	state = stateSet;
+	return onStateChange(stateSet);
+    }
+
+    public int[] getState() {
+	return state;
+    }
+
+    protected boolean onStateChange(int[] state) {
+	return false;
+    }
+
+    public abstract void setAlpha(int alpha);
+
+    public abstract void draw(Canvas canvas);
+
+}
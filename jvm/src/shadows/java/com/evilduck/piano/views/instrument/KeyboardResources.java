@@ -0,0 +1,122 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Stand-in for the app class on a plain JVM. Overlay assets are ready right
+ * away, key drawables draw a single rectangle and count their state changes.
+ */
+final class KeyboardResources {
+
+    private static final float NOTE_SIZE = 20f;
+
+    private static final float SIGN_SIZE = 12f;
+
+    private static final int ATLAS_HEIGHT = 24;
+
+    private static int stateChanges;
+
+    private final Bitmap notesAtlas;
+
+    private final Bitmap[] shapeMasks = new Bitmap[Keyboard.SHAPE_COUNT];
+
+    private KeyboardResources(float overlayRadius) {
+	notesAtlas = Bitmap.createBitmap((int) (NOTE_SIZE * 7 + SIGN_SIZE * 2), ATLAS_HEIGHT, Config.ALPHA_8);
+	int maskSize = Math.max(1, (int) Math.ceil(overlayRadius * 2));
+	for (int i = 0; i < shapeMasks.length; i++) {
+	    shapeMasks[i] = Bitmap.createBitmap(maskSize, maskSize, Config.ALPHA_8);
+	}
+    }
+
+    static KeyboardResources acquire(Context context, float overlayRadius) {
+	return new KeyboardResources(overlayRadius);
+    }
+
+    /**
+     * @return number of key drawable state changes since the last call
+     */
+    static int takeStateChanges() {
+	int changes = stateChanges;
+	stateChanges = 0;
+	return changes;
+    }
+
+    void release() {
+    }
+
+    void addReadyCallback(Runnable callback) {
+    }
+
+    void removeReadyCallback(Runnable callback) {
+    }
+
+    boolean isOverlaysReady() {
+	return true;
+    }
+
+    Drawable newWhiteKeyDrawable() {
+	return new KeyDrawable();
+    }
+
+    Drawable newBlackKeyDrawable() {
+	return new KeyDrawable();
+    }
+
+    Bitmap getNotesAtlas() {
+	return notesAtlas;
+    }
+
+    float getNoteSizeInAtlas() {
+	return NOTE_SIZE;
+    }
+
+    float getSignSizeInAtlas() {
+	return SIGN_SIZE;
+    }
+
+    Bitmap getShapeMask(int shape) {
+	return shapeMasks[shape];
+    }
+
+    private static final class KeyDrawable extends Drawable {
+
+	private final Paint paint = new Paint();
+
+	@Override
+	protected boolean onStateChange(int[] state) {
+	    stateChanges++;
+	    return true;
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+	    paint.setAlpha(alpha);
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+	    canvas.drawRect(getBounds().left, getBounds().top, getBounds().right, getBounds().bottom, paint);
+	}
+
+    }
+
+}
@@ -14,6 +14,11 @@
  */
 package com.evilduck.piano;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Arrays;
 
 import android.animation.ValueAnimator;
@@ -23,10 +28,17 @@ import android.annotation.TargetApi;
 import android.app.Activity;
 import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.animation.DecelerateInterpolator;
+import android.widget.Toast;
 
+import com.evilduck.piano.diagnostics.SoakReport;
+import com.evilduck.piano.diagnostics.SoakRunner;
+import com.evilduck.piano.midi.KeyMidiOutput;
+import com.evilduck.piano.midi.MidiDevicePorts;
+import com.evilduck.piano.midi.PianoViewMidiInput;
 import com.evilduck.piano.music.Note;
 import com.evilduck.piano.views.instrument.PianoView;
 import com.evilduck.piano.views.instrument.PianoView.OnKeyTouchListener;
@@ -34,13 +46,21 @@ import com.evilduck.piano.views.instrument.PianoView.OnKeyTouchListener;
 @SuppressLint("NewApi")
 public class PianoDemoActivity extends Activity {
 
+    private static final String TAG = "PianoDemoActivity";
+
     private PianoView pianoView;
 
+    private SoakRunner soakRunner;
+
+    private PianoViewMidiInput midiInput;
+
     private boolean scaledDown = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
 	super.onCreate(savedInstanceState);
+	// starts decoding in background while the layout is being inflated
+	PianoView.preloadResources(this);
 	setContentView(R.layout.activity_piano_demo);
 
 	pianoView = (PianoView) findViewById(R.id.instrument_view);
@@ -56,6 +76,16 @@ public class PianoDemoActivity extends Activity {
 	    public void onLongTouch(int midiCode) {
 	    }
 	});
+
+	// keys played in play mode go out through the midi device service
+	pianoView.setOnKeyPlayListener(new KeyMidiOutput(MidiDevicePorts.OUTPUT, 0));
+	midiInput = new PianoViewMidiInput(pianoView);
+    }
+
+    @Override
+    protected void onResume() {
+	super.onResume();
+	MidiDevicePorts.setInput(midiInput);
     }
 
     @Override
@@ -90,12 +120,58 @@ public class PianoDemoActivity extends Activity {
 	    }
 	    scaledDown = !scaledDown;
 	    break;
+	case R.id.action_play_mode:
+	    item.setChecked(!item.isChecked());
+	    pianoView.setPlayMode(item.isChecked());
+	    break;
+	case R.id.action_soak_test:
+	    runSoakTest();
+	    break;
 	default:
 	    break;
 	}
 	return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onPause() {
+	super.onPause();
+	MidiDevicePorts.setInput(null);
+	if (soakRunner != null) {
+	    soakRunner.cancel();
+	}
+    }
+
+    private void runSoakTest() {
+	if (soakRunner == null) {
+	    soakRunner = new SoakRunner(pianoView);
+	}
+	if (soakRunner.isRunning()) {
+	    return;
+	}
+	soakRunner.start(new SoakRunner.Listener() {
+	    @Override
+	    public void onSoakFinished(SoakReport report) {
+		File file = new File(getFilesDir(), "soak-report.json");
+		try {
+		    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		    try {
+			report.writeJson(out);
+		    } finally {
+			out.close();
+		    }
+		} catch (IOException e) {
+		    Log.w(TAG, "Couldn't write soak report", e);
+		}
+
+		String message = report.isPassed() ? getString(R.string.soak_test_passed, file) : getString(
+			R.string.soak_test_failed, report.getFailures());
+		Log.i(TAG, message);
+		Toast.makeText(PianoDemoActivity.this, message, Toast.LENGTH_LONG).show();
+	    }
+	});
+    }
+
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     private void scaleDown() {
 	ValueAnimator va = ValueAnimator.ofInt(pianoView.getHeight(), pianoView.getHeight() / 2);
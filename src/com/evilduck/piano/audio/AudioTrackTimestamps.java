@@ -0,0 +1,96 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import android.annotation.TargetApi;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+
+import com.evilduck.piano.sequencer.AudioVisualSync;
+
+/**
+ * Feeds output timestamps of an {@link AudioTrack} into an
+ * {@link AudioVisualSync}. Uses {@link AudioTrack#getTimestamp} where
+ * available and falls back to the playback head position on older platforms
+ * and while the track has no timestamp yet, e.g. right after it started.
+ * <p>
+ * Called on the audio thread only.
+ */
+public class AudioTrackTimestamps {
+
+    /**
+     * Timestamps are not free, polling a few times a second is plenty to
+     * follow drift.
+     */
+    private static final long POLL_INTERVAL = 200000000L;
+
+    private final AudioTrack track;
+
+    private final AudioVisualSync sync;
+
+    private final Object timestamp;
+
+    private long lastPoll = Long.MIN_VALUE / 2;
+
+    private long headPosition;
+
+    private int lastRawHead;
+
+    public AudioTrackTimestamps(AudioTrack track, AudioVisualSync sync) {
+	this.track = track;
+	this.sync = sync;
+	timestamp = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? newTimestamp() : null;
+    }
+
+    /**
+     * Reports a write to the output, call after every
+     * {@code AudioTrack.write()}.
+     */
+    public void onWritten(int frames) {
+	sync.onFramesWritten(frames);
+
+	long now = System.nanoTime();
+	if (now - lastPoll < POLL_INTERVAL) {
+	    return;
+	}
+	lastPoll = now;
+
+	if (timestamp != null && readTimestamp()) {
+	    return;
+	}
+	// the head is an unsigned 32 bit counter that wraps around
+	int rawHead = track.getPlaybackHeadPosition();
+	headPosition += (rawHead - lastRawHead) & 0xFFFFFFFFL;
+	lastRawHead = rawHead;
+	sync.onPlaybackHead(headPosition);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static Object newTimestamp() {
+	return new AudioTimestamp();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean readTimestamp() {
+	AudioTimestamp ts = (AudioTimestamp) timestamp;
+	if (!track.getTimestamp(ts)) {
+	    return false;
+	}
+	sync.onTimestamp(ts.framePosition, ts.nanoTime);
+	return true;
+    }
+
+}
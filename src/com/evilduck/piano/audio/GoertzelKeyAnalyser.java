@@ -0,0 +1,415 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polyphonic key energy analyser: a bank of Goertzel filters, one per key,
+ * each tuned to the fundamental of its midi code. Every filter consumes
+ * incoming samples incrementally and completes a measurement once it has seen
+ * enough samples to tell its key from the neighbours, so low keys update less
+ * often than high ones and no sample is ever processed twice.
+ * <p>
+ * Only keys of the current range are analysed, typically the visible window
+ * of the keyboard, see {@link PianoViewKeyGlow}.
+ * <p>
+ * The audio thread never waits for the analysis. With worker threads
+ * {@link #process(float[], int, int)} only copies the hop into a ring buffer
+ * and wakes the workers, each of which owns every n-th key and runs its
+ * filters over the ring at its own pace. A worker falling more than the ring
+ * behind skips the samples it missed and restarts its measurements. Without
+ * workers the caller analyses the hop itself.
+ * <p>
+ * Results are intensities from 0 to 1 indexed by midi code, published
+ * lock-free as each measurement completes and readable from any thread.
+ */
+public class GoertzelKeyAnalyser {
+
+    /**
+     * Told when intensities changed.
+     */
+    public interface Listener {
+
+	/**
+	 * Called on the analysing thread, must not block.
+	 */
+	void onIntensitiesChanged(GoertzelKeyAnalyser analyser);
+
+    }
+
+    public static final int CODES = 128;
+
+    private static final float SEMITONE_RATIO = (float) (Math.pow(2, 1 / 12.0) - 1);
+
+    private static final float FLOOR_DB = -40f;
+
+    private final float sampleRate;
+
+    private final float[] coefficients = new float[CODES];
+
+    private final int[] blockLengths = new int[CODES];
+
+    /**
+     * Float bits of the latest intensity of every key, each written by the
+     * single thread owning the key.
+     */
+    private final AtomicIntegerArray intensities = new AtomicIntegerArray(CODES);
+
+    /**
+     * Analysed range, first code in the high half and last code + 1 in the
+     * low half. Every analysing thread picks it up between hops.
+     */
+    private volatile int range = packRange(0, CODES - 1);
+
+    private volatile Listener listener;
+
+    private final Part inline;
+
+    private final Worker[] workers;
+
+    private final float[] ring;
+
+    private final int ringMask;
+
+    /**
+     * Samples ever written to the ring, published after the samples.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile boolean released;
+
+    public GoertzelKeyAnalyser(float sampleRate) {
+	this(sampleRate, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param workerThreads
+     *            threads analysing in the background, 0 analyses on the
+     *            caller of {@link #process(float[], int, int)}
+     */
+    public GoertzelKeyAnalyser(float sampleRate, int workerThreads) {
+	this.sampleRate = sampleRate;
+	int maxBlockLength = (int) (sampleRate / 2);
+	for (int code = 0; code < CODES; code++) {
+	    float frequency = PitchTracker.midiToFrequency(code);
+	    if (frequency >= sampleRate / 2) {
+		// above Nyquist, never analysed
+		blockLengths[code] = 0;
+		continue;
+	    }
+	    // filter bandwidth is about sampleRate / length, it has to be
+	    // narrower than the distance to the next semitone
+	    int length = (int) Math.ceil(sampleRate / (frequency * SEMITONE_RATIO));
+	    length = Math.min(length, maxBlockLength);
+	    // whole number of periods keeps the leakage low
+	    float period = sampleRate / frequency;
+	    length = Math.max(1, Math.round(Math.round(length / period) * period));
+	    blockLengths[code] = length;
+	    coefficients[code] = (float) (2 * Math.cos(2 * Math.PI * frequency / sampleRate));
+	}
+
+	// a second of audio, a power of two so positions wrap with a mask
+	int capacity = Integer.highestOneBit(Math.max(1, (int) sampleRate - 1)) << 1;
+	if (workerThreads > 0) {
+	    inline = null;
+	    ring = new float[capacity];
+	    ringMask = capacity - 1;
+	    workers = new Worker[workerThreads];
+	    for (int i = 0; i < workerThreads; i++) {
+		workers[i] = new Worker(new Part(i, workerThreads));
+	    }
+	    for (int i = 0; i < workerThreads; i++) {
+		workers[i].start();
+	    }
+	} else {
+	    inline = new Part(0, 1);
+	    ring = null;
+	    ringMask = 0;
+	    workers = new Worker[0];
+	}
+    }
+
+    public float getSampleRate() {
+	return sampleRate;
+    }
+
+    public void setListener(Listener listener) {
+	this.listener = listener;
+    }
+
+    /**
+     * Restricts analysis to the given inclusive range of midi codes, from
+     * the next hop on. Keys leaving the range fade to zero, keys entering it
+     * start a fresh measurement. Safe to call from any thread.
+     */
+    public void setRange(int firstCode, int lastCode) {
+	firstCode = Math.min(CODES, Math.max(0, firstCode));
+	lastCode = Math.max(firstCode - 1, Math.min(CODES - 1, lastCode));
+	range = packRange(firstCode, lastCode);
+    }
+
+    private static int packRange(int firstCode, int lastCode) {
+	return firstCode << 16 | lastCode + 1;
+    }
+
+    /**
+     * Feeds the next hop of mono samples, called from a single audio thread.
+     * Never blocks when the analyser has worker threads.
+     *
+     * @param length
+     *            at most a second of samples
+     */
+    public void process(float[] samples, int offset, int length) {
+	if (inline != null) {
+	    inline.applyRange(range);
+	    inline.process(samples, offset, length);
+	    inline.publish();
+	    return;
+	}
+	if (length > ring.length) {
+	    throw new IllegalArgumentException("Hop of " + length + " samples doesn't fit the ring of " + ring.length);
+	}
+
+	long start = written.get();
+	int position = (int) (start & ringMask);
+	int head = Math.min(length, ring.length - position);
+	System.arraycopy(samples, offset, ring, position, head);
+	System.arraycopy(samples, offset + head, ring, 0, length - head);
+	written.set(start + length);
+	for (int i = 0; i < workers.length; i++) {
+	    LockSupport.unpark(workers[i]);
+	}
+    }
+
+    /**
+     * @return true while worker threads still have samples to analyse
+     */
+    public boolean hasPendingSamples() {
+	long end = written.get();
+	for (int i = 0; i < workers.length; i++) {
+	    if (workers[i].read != end) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * @return latest intensity of the key from 0 to 1
+     */
+    public float getIntensity(int midiCode) {
+	return Float.intBitsToFloat(intensities.get(midiCode));
+    }
+
+    /**
+     * Copies the latest intensities, indexed by midi code, safe from any
+     * thread.
+     */
+    public void copyIntensities(float[] out) {
+	for (int code = 0; code < CODES; code++) {
+	    out[code] = Float.intBitsToFloat(intensities.get(code));
+	}
+    }
+
+    /**
+     * Stops worker threads, the analyser can't be used afterwards.
+     */
+    public void release() {
+	released = true;
+	for (int i = 0; i < workers.length; i++) {
+	    LockSupport.unpark(workers[i]);
+	}
+    }
+
+    private static float toIntensity(float power, int blockLength) {
+	// amplitude of a sinusoid is 2 * sqrt(power) / length
+	float amplitude = 2f * (float) Math.sqrt(Math.max(power, 0)) / blockLength;
+	if (amplitude <= 0) {
+	    return 0;
+	}
+	float db = 20f * (float) Math.log10(amplitude);
+	if (db <= FLOOR_DB) {
+	    return 0;
+	}
+	return Math.min(1f, 1f - db / FLOOR_DB);
+    }
+
+    /**
+     * Filters of every n-th key, only touched by the thread analysing them.
+     */
+    private final class Part {
+
+	private final int index;
+
+	private final int stride;
+
+	private final float[] s1 = new float[CODES];
+
+	private final float[] s2 = new float[CODES];
+
+	private final int[] counts = new int[CODES];
+
+	private int appliedRange = -1;
+
+	private int firstCode;
+
+	private int lastCode = -1;
+
+	private boolean changed;
+
+	Part(int index, int stride) {
+	    this.index = index;
+	    this.stride = stride;
+	}
+
+	void applyRange(int range) {
+	    if (range == appliedRange) {
+		return;
+	    }
+	    appliedRange = range;
+	    int first = range >>> 16;
+	    int last = (range & 0xffff) - 1;
+	    for (int code = index; code < CODES; code += stride) {
+		boolean inside = code >= first && code <= last;
+		boolean wasInside = code >= firstCode && code <= lastCode;
+		if (inside && !wasInside) {
+		    s1[code] = s2[code] = 0;
+		    counts[code] = 0;
+		} else if (!inside) {
+		    setIntensity(code, 0);
+		}
+	    }
+	    firstCode = first;
+	    lastCode = last;
+	}
+
+	/**
+	 * Drops the measurements in progress, e.g. after samples were missed.
+	 */
+	void restart() {
+	    for (int code = index; code < CODES; code += stride) {
+		s1[code] = s2[code] = 0;
+		counts[code] = 0;
+	    }
+	}
+
+	void process(float[] samples, int offset, int length) {
+	    int startCode = firstCode + ((index - firstCode) % stride + stride) % stride;
+	    for (int code = startCode; code <= lastCode; code += stride) {
+		final int blockLength = blockLengths[code];
+		if (blockLength == 0) {
+		    continue;
+		}
+		final float coefficient = coefficients[code];
+		float q1 = s1[code];
+		float q2 = s2[code];
+		int count = counts[code];
+
+		for (int i = 0; i < length; i++) {
+		    float q0 = coefficient * q1 - q2 + samples[offset + i];
+		    q2 = q1;
+		    q1 = q0;
+
+		    if (++count == blockLength) {
+			float power = q1 * q1 + q2 * q2 - coefficient * q1 * q2;
+			setIntensity(code, toIntensity(power, blockLength));
+			q1 = q2 = 0;
+			count = 0;
+		    }
+		}
+
+		s1[code] = q1;
+		s2[code] = q2;
+		counts[code] = count;
+	    }
+	}
+
+	private void setIntensity(int code, float intensity) {
+	    int bits = Float.floatToIntBits(intensity);
+	    if (intensities.get(code) != bits) {
+		intensities.set(code, bits);
+		changed = true;
+	    }
+	}
+
+	/**
+	 * Tells the listener about the changes of the last hop.
+	 */
+	void publish() {
+	    if (!changed) {
+		return;
+	    }
+	    changed = false;
+	    Listener listener = GoertzelKeyAnalyser.this.listener;
+	    if (listener != null) {
+		listener.onIntensitiesChanged(GoertzelKeyAnalyser.this);
+	    }
+	}
+
+    }
+
+    private final class Worker extends Thread {
+
+	private final Part part;
+
+	/**
+	 * Samples analysed so far.
+	 */
+	volatile long read;
+
+	Worker(Part part) {
+	    super("GoertzelKeyAnalyser-" + part.index);
+	    this.part = part;
+	    setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+	    long position = 0;
+	    while (!released) {
+		long end = written.get();
+		if (end == position) {
+		    LockSupport.park(this);
+		    continue;
+		}
+		part.applyRange(range);
+		if (end - position > ring.length) {
+		    // the audio thread went round the ring, the missed samples
+		    // are gone
+		    part.restart();
+		    position = end - ring.length;
+		}
+
+		int start = (int) (position & ringMask);
+		int count = (int) (end - position);
+		int head = Math.min(count, ring.length - start);
+		part.process(ring, start, head);
+		part.process(ring, 0, count - head);
+		if (written.get() - position > ring.length) {
+		    // overwritten while being read
+		    part.restart();
+		}
+		position = end;
+		read = end;
+		part.publish();
+	    }
+	}
+
+    }
+
+}
@@ -0,0 +1,230 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Highlights the note sung or played into the microphone on a
+ * {@link PianoView}. Audio is read and analysed on a dedicated thread over
+ * preallocated buffers, results reach the UI through a {@link PitchHandoff}
+ * and the view is only touched when the detected note changes. The same audio
+ * can also feed a {@link GoertzelKeyAnalyser}, see
+ * {@link #setKeyAnalyser(GoertzelKeyAnalyser)}.
+ * <p>
+ * Requires the {@code android.permission.RECORD_AUDIO} permission.
+ */
+public class MicrophonePitchInput {
+
+    private static final String TAG = "MicrophonePitchInput";
+
+    private static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    private static final int DEFAULT_BUFFER_SIZE = 2048;
+
+    private static final float HYSTERESIS_CENTS = 15f;
+
+    private static final int CONFIRM_BUFFERS = 2;
+
+    private static final float PCM_SCALE = 1f / 32768f;
+
+    private final PianoView pianoView;
+
+    private final int sampleRate;
+
+    private final YinPitchDetector detector;
+
+    private final PitchTracker tracker = new PitchTracker(HYSTERESIS_CENTS, CONFIRM_BUFFERS);
+
+    private final PitchHandoff handoff = new PitchHandoff();
+
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    private final short[] pcm;
+
+    private final float[] samples;
+
+    private volatile boolean running;
+
+    private volatile GoertzelKeyAnalyser keyAnalyser;
+
+    private Thread thread;
+
+    private int shownCode = PitchTracker.NO_NOTE;
+
+    public MicrophonePitchInput(PianoView pianoView) {
+	this(pianoView, DEFAULT_SAMPLE_RATE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize
+     *            analysis window in samples, consecutive windows overlap by
+     *            half
+     */
+    public MicrophonePitchInput(PianoView pianoView, int sampleRate, int bufferSize) {
+	this.pianoView = pianoView;
+	this.sampleRate = sampleRate;
+	detector = new YinPitchDetector(sampleRate, bufferSize);
+	pcm = new short[bufferSize / 2];
+	samples = new float[bufferSize];
+    }
+
+    public PitchHandoff getHandoff() {
+	return handoff;
+    }
+
+    /**
+     * Also passes every hop of recorded audio to the analyser, e.g. one
+     * driving a {@link PianoViewKeyGlow}. The analyser has to run at the
+     * input's sample rate, null stops feeding it.
+     */
+    public void setKeyAnalyser(GoertzelKeyAnalyser analyser) {
+	if (analyser != null && analyser.getSampleRate() != sampleRate) {
+	    throw new IllegalArgumentException("Analyser runs at " + analyser.getSampleRate() + " Hz, input at "
+		    + sampleRate + " Hz");
+	}
+	keyAnalyser = analyser;
+    }
+
+    public synchronized void start() {
+	if (running) {
+	    return;
+	}
+	running = true;
+	thread = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+		record();
+	    }
+	}, TAG);
+	thread.start();
+    }
+
+    /**
+     * Stops recording and clears the detected key. Also needed after the
+     * record thread ended on its own, e.g. when the microphone failed.
+     */
+    public synchronized void stop() {
+	running = false;
+	if (thread != null) {
+	    try {
+		thread.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    thread = null;
+	}
+
+	tracker.reset();
+	handoff.publish(PitchTracker.NO_NOTE, 0);
+	scheduleUpdate();
+    }
+
+    private void record() {
+	int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,
+		AudioFormat.ENCODING_PCM_16BIT);
+	AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO,
+		AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, pcm.length * 4));
+	if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+	    Log.w(TAG, "Microphone is not available");
+	    record.release();
+	    running = false;
+	    return;
+	}
+
+	try {
+	    record.startRecording();
+	    int published = PitchTracker.NO_NOTE;
+	    while (running) {
+		if (!readHop(record)) {
+		    break;
+		}
+		GoertzelKeyAnalyser analyser = keyAnalyser;
+		if (analyser != null) {
+		    // only the samples new in this hop
+		    analyser.process(samples, samples.length - pcm.length, pcm.length);
+		}
+
+		int code = tracker.update(detector.detect(samples, 0));
+		handoff.publish(code, tracker.getCents());
+		if (code != published) {
+		    published = code;
+		    scheduleUpdate();
+		}
+	    }
+	} finally {
+	    record.stop();
+	    record.release();
+	}
+    }
+
+    /**
+     * Slides the analysis window by half of its length.
+     */
+    private boolean readHop(AudioRecord record) {
+	int hop = pcm.length;
+	int read = 0;
+	while (read < hop) {
+	    int result = record.read(pcm, read, hop - read);
+	    if (result < 0) {
+		Log.w(TAG, "Reading audio failed: " + result);
+		return false;
+	    }
+	    read += result;
+	}
+
+	System.arraycopy(samples, hop, samples, 0, samples.length - hop);
+	int tail = samples.length - hop;
+	for (int i = 0; i < hop; i++) {
+	    samples[tail + i] = pcm[i] * PCM_SCALE;
+	}
+	return true;
+    }
+
+    private void scheduleUpdate() {
+	if (updateScheduled.compareAndSet(false, true)) {
+	    pianoView.post(uiUpdate);
+	}
+    }
+
+    private final Runnable uiUpdate = new Runnable() {
+	@Override
+	public void run() {
+	    updateScheduled.set(false);
+
+	    int code = PitchHandoff.midiCode(handoff.read());
+	    if (code == shownCode) {
+		return;
+	    }
+	    if (shownCode != PitchTracker.NO_NOTE) {
+		pianoView.removeCode(shownCode);
+	    }
+	    if (code != PitchTracker.NO_NOTE) {
+		pianoView.addCode(code);
+	    }
+	    shownCode = code;
+	}
+    };
+
+}
@@ -0,0 +1,98 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Makes the keys of a {@link PianoView} glow with the energy a
+ * {@link GoertzelKeyAnalyser} measures, and limits the analysis to the keys
+ * on screen as the view scrolls and zooms. The analyser is fed elsewhere, e.g.
+ * by {@link MicrophonePitchInput#setKeyAnalyser(GoertzelKeyAnalyser)}.
+ * <p>
+ * Changes reach the UI through a single pending post, however often the
+ * analyser completes measurements. Start and stop on the main thread.
+ */
+public class PianoViewKeyGlow implements GoertzelKeyAnalyser.Listener, PianoView.OnViewportChangeListener {
+
+    private final PianoView pianoView;
+
+    private final GoertzelKeyAnalyser analyser;
+
+    private final float[] intensities = new float[GoertzelKeyAnalyser.CODES];
+
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    private boolean running;
+
+    public PianoViewKeyGlow(PianoView pianoView, GoertzelKeyAnalyser analyser) {
+	this.pianoView = pianoView;
+	this.analyser = analyser;
+    }
+
+    public void start() {
+	if (running) {
+	    return;
+	}
+	running = true;
+	pianoView.addOnViewportChangeListener(this);
+	onViewportChanged(pianoView);
+	analyser.setListener(this);
+    }
+
+    /**
+     * Stops following the analyser and clears the glow.
+     */
+    public void stop() {
+	if (!running) {
+	    return;
+	}
+	running = false;
+	analyser.setListener(null);
+	pianoView.removeOnViewportChangeListener(this);
+	pianoView.removeCallbacks(uiUpdate);
+	updateScheduled.set(false);
+	Arrays.fill(intensities, 0f);
+	pianoView.setKeyIntensities(intensities);
+    }
+
+    @Override
+    public void onViewportChanged(PianoView view) {
+	analyser.setRange(view.getFirstVisibleCode(), view.getLastVisibleCode());
+    }
+
+    @Override
+    public void onIntensitiesChanged(GoertzelKeyAnalyser analyser) {
+	if (updateScheduled.compareAndSet(false, true)) {
+	    pianoView.post(uiUpdate);
+	}
+    }
+
+    private final Runnable uiUpdate = new Runnable() {
+	@Override
+	public void run() {
+	    updateScheduled.set(false);
+	    if (!running) {
+		return;
+	    }
+	    analyser.copyIntensities(intensities);
+	    pianoView.setKeyIntensities(intensities);
+	}
+    };
+
+}
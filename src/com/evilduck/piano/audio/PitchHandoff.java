@@ -0,0 +1,60 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single slot passing the latest detected note from the audio
+ * thread to the UI. Note, deviation and a sequence number are packed into one
+ * long, so neither side allocates or blocks and the reader always sees a
+ * consistent value.
+ */
+public final class PitchHandoff {
+
+    private final AtomicLong slot = new AtomicLong(pack(0, PitchTracker.NO_NOTE, 0));
+
+    /**
+     * Publishes a new value, called from the producer thread only.
+     */
+    public void publish(int midiCode, float cents) {
+	long previous = slot.get();
+	slot.set(pack(sequence(previous) + 1, midiCode, Math.round(cents)));
+    }
+
+    /**
+     * @return packed value to be read with the static accessors
+     */
+    public long read() {
+	return slot.get();
+    }
+
+    public static int sequence(long packed) {
+	return (int) (packed >>> 32);
+    }
+
+    public static int midiCode(long packed) {
+	return (int) ((packed >>> 16) & 0xFFFF) - 1;
+    }
+
+    public static int cents(long packed) {
+	return (short) packed;
+    }
+
+    private static long pack(int sequence, int midiCode, int cents) {
+	return ((long) sequence << 32) | ((long) ((midiCode + 1) & 0xFFFF) << 16) | (cents & 0xFFFF);
+    }
+
+}
@@ -0,0 +1,120 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+/**
+ * Turns a stream of frequency estimates into a stable midi note. A new note is
+ * accepted only after it was seen for a number of consecutive buffers, and the
+ * current note is kept while the pitch stays within a hysteresis band around
+ * it, so vibrato and detection noise don't make the highlight flicker.
+ */
+public class PitchTracker {
+
+    public static final int NO_NOTE = -1;
+
+    private static final float A4_FREQUENCY = 440f;
+
+    private static final int A4_CODE = 69;
+
+    private static final double LOG_2 = Math.log(2);
+
+    private final float hysteresisCents;
+
+    private final int confirmBuffers;
+
+    private int currentCode = NO_NOTE;
+
+    private int candidateCode = NO_NOTE;
+
+    private int candidateBuffers;
+
+    private float cents;
+
+    /**
+     * @param hysteresisCents
+     *            how far past the midpoint between two notes the pitch has to
+     *            move before the note changes
+     * @param confirmBuffers
+     *            number of consecutive buffers a new note or silence has to
+     *            be detected for
+     */
+    public PitchTracker(float hysteresisCents, int confirmBuffers) {
+	this.hysteresisCents = hysteresisCents;
+	this.confirmBuffers = confirmBuffers;
+    }
+
+    /**
+     * @param frequency
+     *            detected frequency or a non positive value for no pitch
+     * @return current stable midi code or {@link #NO_NOTE}
+     */
+    public int update(float frequency) {
+	if (frequency <= 0) {
+	    confirm(NO_NOTE, 0);
+	    return currentCode;
+	}
+
+	float midi = frequencyToMidi(frequency);
+	if (currentCode != NO_NOTE && Math.abs(midi - currentCode) * 100 < 50 + hysteresisCents) {
+	    candidateCode = currentCode;
+	    candidateBuffers = 0;
+	    cents = (midi - currentCode) * 100;
+	    return currentCode;
+	}
+
+	int nearest = Math.round(midi);
+	confirm(nearest, (midi - nearest) * 100);
+	return currentCode;
+    }
+
+    private void confirm(int code, float deviation) {
+	if (code == candidateCode) {
+	    candidateBuffers++;
+	} else {
+	    candidateCode = code;
+	    candidateBuffers = 1;
+	}
+	if (candidateBuffers >= confirmBuffers) {
+	    currentCode = code;
+	    cents = deviation;
+	}
+    }
+
+    public int getCurrentCode() {
+	return currentCode;
+    }
+
+    /**
+     * @return deviation of the last estimate from the current note, in cents
+     */
+    public float getCents() {
+	return cents;
+    }
+
+    public void reset() {
+	currentCode = candidateCode = NO_NOTE;
+	candidateBuffers = 0;
+	cents = 0;
+    }
+
+    public static float frequencyToMidi(float frequency) {
+	return A4_CODE + 12f * (float) (Math.log(frequency / A4_FREQUENCY) / LOG_2);
+    }
+
+    public static float midiToFrequency(float midiCode) {
+	return A4_FREQUENCY * (float) Math.pow(2, (midiCode - A4_CODE) / 12f);
+    }
+
+}
@@ -0,0 +1,141 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio;
+
+/**
+ * Monophonic pitch detector based on the YIN algorithm (de Cheveigné and
+ * Kawahara). All the working memory is allocated up front, so detection can
+ * run on an audio thread for every buffer without producing garbage.
+ */
+public class YinPitchDetector {
+
+    public static final float NO_PITCH = -1f;
+
+    private static final float DEFAULT_THRESHOLD = 0.15f;
+
+    private static final float DEFAULT_MIN_FREQUENCY = 50f;
+
+    private final float sampleRate;
+
+    private final int bufferSize;
+
+    private final float[] difference;
+
+    private final int maxLag;
+
+    private float threshold = DEFAULT_THRESHOLD;
+
+    private float probability;
+
+    /**
+     * @param bufferSize
+     *            number of samples analysed per call, the lowest detectable
+     *            frequency is roughly {@code 2 * sampleRate / bufferSize}
+     */
+    public YinPitchDetector(float sampleRate, int bufferSize) {
+	this(sampleRate, bufferSize, DEFAULT_MIN_FREQUENCY);
+    }
+
+    public YinPitchDetector(float sampleRate, int bufferSize, float minFrequency) {
+	this.sampleRate = sampleRate;
+	this.bufferSize = bufferSize;
+	difference = new float[bufferSize / 2];
+	maxLag = Math.min(difference.length, (int) Math.ceil(sampleRate / minFrequency) + 1);
+    }
+
+    /**
+     * @param threshold
+     *            absolute threshold of the normalized difference, lower values
+     *            give fewer but more reliable detections
+     */
+    public void setThreshold(float threshold) {
+	this.threshold = threshold;
+    }
+
+    public int getBufferSize() {
+	return bufferSize;
+    }
+
+    /**
+     * @return how periodic the last analysed buffer was, from 0 to 1
+     */
+    public float getProbability() {
+	return probability;
+    }
+
+    /**
+     * Estimates the fundamental frequency of {@link #getBufferSize()} samples
+     * starting at the offset.
+     * 
+     * @return frequency in Hz or {@link #NO_PITCH}
+     */
+    public float detect(float[] samples, int offset) {
+	final float[] d = difference;
+	final int window = d.length;
+
+	// step 2: squared difference function, only for the lags we care about
+	for (int lag = 1; lag < maxLag; lag++) {
+	    float sum = 0;
+	    for (int i = 0; i < window; i++) {
+		float delta = samples[offset + i] - samples[offset + i + lag];
+		sum += delta * delta;
+	    }
+	    d[lag] = sum;
+	}
+
+	// step 3: cumulative mean normalized difference
+	d[0] = 1f;
+	float runningSum = 0;
+	for (int lag = 1; lag < maxLag; lag++) {
+	    runningSum += d[lag];
+	    d[lag] = runningSum == 0 ? 1f : d[lag] * lag / runningSum;
+	}
+
+	// step 4: first dip below the threshold, followed to its minimum
+	int lag = 2;
+	for (; lag < maxLag; lag++) {
+	    if (d[lag] < threshold) {
+		while (lag + 1 < maxLag && d[lag + 1] < d[lag]) {
+		    lag++;
+		}
+		break;
+	    }
+	}
+
+	if (lag >= maxLag) {
+	    probability = 0;
+	    return NO_PITCH;
+	}
+	probability = 1f - d[lag];
+
+	// step 5: parabolic interpolation around the minimum
+	return sampleRate / interpolate(d, lag);
+    }
+
+    private float interpolate(float[] d, int lag) {
+	if (lag < 1 || lag + 1 >= maxLag) {
+	    return lag;
+	}
+	float left = d[lag - 1];
+	float center = d[lag];
+	float right = d[lag + 1];
+	float denominator = 2 * (2 * center - right - left);
+	if (denominator == 0) {
+	    return lag;
+	}
+	return lag + (right - left) / denominator;
+    }
+
+}
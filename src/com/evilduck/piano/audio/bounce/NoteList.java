@@ -0,0 +1,198 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.bounce;
+
+import java.util.Arrays;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+
+/**
+ * Notes of a {@link Sequence} resolved to sample frames, kept in primitive
+ * arrays sorted by start. Each block of audio gets the list of notes sounding
+ * in it, so rendering a block only visits its own notes however long the
+ * other notes are.
+ */
+final class NoteList {
+
+    private long[] starts;
+
+    private long[] ends;
+
+    private byte[] codes;
+
+    private byte[] velocities;
+
+    private int size;
+
+    private long endFrame;
+
+    /**
+     * Notes of block b are blockNotes[blockOffsets[b]] up to
+     * blockNotes[blockOffsets[b + 1]], in ascending order.
+     */
+    private int[] blockOffsets;
+
+    private int[] blockNotes;
+
+    private NoteList(int capacity) {
+	starts = new long[Math.max(1, capacity)];
+	ends = new long[starts.length];
+	codes = new byte[starts.length];
+	velocities = new byte[starts.length];
+    }
+
+    /**
+     * Pairs note on and off messages of every channel. Notes still held at
+     * the end of the sequence are released with its last event.
+     *
+     * @param blockFrames
+     *            length of the blocks notes are listed for
+     * @param tail
+     *            frames a note keeps sounding after it is released
+     */
+    static NoteList fromSequence(Sequence sequence, TempoMap tempoMap, int sampleRate, int blockFrames, long tail) {
+	NoteList notes = new NoteList(sequence.size() / 2);
+	int[] held = new int[16 * 128];
+	Arrays.fill(held, -1);
+
+	long lastFrame = 0;
+	for (int i = 0; i < sequence.size(); i++) {
+	    int message = sequence.getMessage(i);
+	    long frame = toFrame(tempoMap.tickToNanos(sequence.getTick(i)), sampleRate);
+	    lastFrame = Math.max(lastFrame, frame);
+
+	    int key = MidiMessage.channel(message) * 128 + MidiMessage.data1(message);
+	    if (MidiMessage.isNoteOn(message)) {
+		if (held[key] >= 0) {
+		    notes.ends[held[key]] = frame;
+		}
+		held[key] = notes.add(frame, MidiMessage.data1(message), MidiMessage.data2(message));
+	    } else if (MidiMessage.isNoteOff(message) && held[key] >= 0) {
+		notes.ends[held[key]] = frame;
+		held[key] = -1;
+	    }
+	}
+	for (int key = 0; key < held.length; key++) {
+	    if (held[key] >= 0) {
+		notes.ends[held[key]] = lastFrame;
+	    }
+	}
+
+	for (int i = 0; i < notes.size; i++) {
+	    notes.endFrame = Math.max(notes.endFrame, notes.ends[i]);
+	}
+	notes.listBlocks(blockFrames, tail);
+	return notes;
+    }
+
+    /**
+     * Counts the notes of every block first, then fills them in note order.
+     */
+    private void listBlocks(int blockFrames, long tail) {
+	int blockCount = size == 0 ? 0 : (int) ((endFrame + tail + blockFrames - 1) / blockFrames);
+	blockOffsets = new int[blockCount + 1];
+	for (int i = 0; i < size; i++) {
+	    for (long block = starts[i] / blockFrames; block <= lastBlock(i, blockFrames, tail); block++) {
+		blockOffsets[(int) block + 1]++;
+	    }
+	}
+	for (int block = 0; block < blockCount; block++) {
+	    blockOffsets[block + 1] += blockOffsets[block];
+	}
+
+	blockNotes = new int[blockOffsets[blockCount]];
+	int[] fill = Arrays.copyOf(blockOffsets, blockCount);
+	for (int i = 0; i < size; i++) {
+	    for (long block = starts[i] / blockFrames; block <= lastBlock(i, blockFrames, tail); block++) {
+		blockNotes[fill[(int) block]++] = i;
+	    }
+	}
+    }
+
+    private long lastBlock(int index, int blockFrames, long tail) {
+	return (ends[index] + tail - 1) / blockFrames;
+    }
+
+    private static long toFrame(long nanos, int sampleRate) {
+	return nanos * sampleRate / 1000000000L;
+    }
+
+    private int add(long start, int code, int velocity) {
+	if (size == starts.length) {
+	    int capacity = size * 2;
+	    starts = Arrays.copyOf(starts, capacity);
+	    ends = Arrays.copyOf(ends, capacity);
+	    codes = Arrays.copyOf(codes, capacity);
+	    velocities = Arrays.copyOf(velocities, capacity);
+	}
+	starts[size] = start;
+	ends[size] = start;
+	codes[size] = (byte) code;
+	velocities[size] = (byte) velocity;
+	return size++;
+    }
+
+    int size() {
+	return size;
+    }
+
+    long getStart(int index) {
+	return starts[index];
+    }
+
+    long getEnd(int index) {
+	return ends[index];
+    }
+
+    int getCode(int index) {
+	return codes[index];
+    }
+
+    int getVelocity(int index) {
+	return velocities[index];
+    }
+
+    /**
+     * @return frame at which the last note is released
+     */
+    long getEndFrame() {
+	return endFrame;
+    }
+
+    /**
+     * @return position in {@link #getBlockNote(int)} of the first note
+     *         sounding in the given block
+     */
+    int getBlockStart(long block) {
+	return blockOffsets[(int) block];
+    }
+
+    /**
+     * @return position after the last note sounding in the given block
+     */
+    int getBlockEnd(long block) {
+	return blockOffsets[(int) block + 1];
+    }
+
+    /**
+     * @return index of the note at the given position of a block list
+     */
+    int getBlockNote(int position) {
+	return blockNotes[position];
+    }
+
+}
@@ -0,0 +1,173 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.bounce;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.evilduck.piano.audio.fx.EffectsChain;
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+
+/**
+ * Renders a {@link Sequence} to a WAV file as fast as the CPU allows. The
+ * timeline is cut into fixed blocks which are rendered in parallel, a
+ * bounded window of blocks at a time, and written out in order. Each block
+ * sums its notes in the same order no matter which thread renders it, so the
+ * output is identical for any number of threads. Memory use only depends on
+ * the window, not on the length of the recording.
+ */
+public class OfflineBouncer {
+
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    private static final int BLOCK_FRAMES = 16 * 1024;
+
+    private static final int BLOCKS_PER_THREAD = 2;
+
+    private final int sampleRate;
+
+    private final int threads;
+
+    private final PianoVoice voice;
+
+    private EffectsChain effects;
+
+    public OfflineBouncer() {
+	this(DEFAULT_SAMPLE_RATE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public OfflineBouncer(int sampleRate, int threads) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("At least one thread is needed, got " + threads);
+	}
+	this.sampleRate = sampleRate;
+	this.threads = threads;
+	voice = new PianoVoice(sampleRate);
+    }
+
+    /**
+     * Effects applied to the mix, in order, before it is written. The chain
+     * has to be created for the bouncer's sample rate.
+     */
+    public void setEffects(EffectsChain effects) {
+	if (effects != null && effects.getSampleRate() != sampleRate) {
+	    throw new IllegalArgumentException("Effects run at " + effects.getSampleRate() + " Hz, bouncer at "
+		    + sampleRate + " Hz");
+	}
+	this.effects = effects;
+    }
+
+    /**
+     * Renders the sequence including release tails. Blocks until the file is
+     * written.
+     *
+     * @return number of frames written
+     */
+    public long bounce(Sequence sequence, TempoMap tempoMap, File output) throws IOException, InterruptedException {
+	final NoteList notes = NoteList.fromSequence(sequence, tempoMap, sampleRate, BLOCK_FRAMES,
+		voice.getTailFrames());
+	long totalFrames = notes.size() == 0 ? 0 : notes.getEndFrame() + voice.getTailFrames();
+	long blockCount = (totalFrames + BLOCK_FRAMES - 1) / BLOCK_FRAMES;
+
+	int window = threads * BLOCKS_PER_THREAD;
+	BlockTask[] tasks = new BlockTask[window];
+	Future<?>[] pending = new Future<?>[window];
+	for (int i = 0; i < window; i++) {
+	    tasks[i] = new BlockTask(notes);
+	}
+
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	WavWriter writer = new WavWriter(output, sampleRate);
+	try {
+	    for (long block = 0; block < Math.min(window, blockCount); block++) {
+		pending[(int) block] = submit(executor, tasks[(int) block], block);
+	    }
+
+	    for (long block = 0; block < blockCount; block++) {
+		int slot = (int) (block % window);
+		await(pending[slot]);
+
+		BlockTask task = tasks[slot];
+		int frames = (int) Math.min(BLOCK_FRAMES, totalFrames - block * BLOCK_FRAMES);
+		if (effects != null) {
+		    effects.process(task.buffer, 0, frames);
+		}
+		writer.write(task.buffer, 0, frames);
+
+		long next = block + window;
+		if (next < blockCount) {
+		    pending[slot] = submit(executor, task, next);
+		}
+	    }
+	} finally {
+	    executor.shutdownNow();
+	    writer.close();
+	}
+	return totalFrames;
+    }
+
+    private static Future<?> submit(ExecutorService executor, BlockTask task, long block) {
+	task.block = block;
+	return executor.submit(task);
+    }
+
+    private static void await(Future<?> future) throws IOException, InterruptedException {
+	try {
+	    future.get();
+	} catch (ExecutionException e) {
+	    throw new IOException("Rendering failed", e.getCause());
+	}
+    }
+
+    /**
+     * Renders one block into its own buffer, reused for the blocks of the
+     * same window slot.
+     */
+    private class BlockTask implements Runnable {
+
+	private final NoteList notes;
+
+	final float[] buffer = new float[BLOCK_FRAMES];
+
+	volatile long block;
+
+	BlockTask(NoteList notes) {
+	    this.notes = notes;
+	}
+
+	@Override
+	public void run() {
+	    final float[] out = buffer;
+	    for (int i = 0; i < out.length; i++) {
+		out[i] = 0f;
+	    }
+
+	    long start = block * BLOCK_FRAMES;
+	    int last = notes.getBlockEnd(block);
+	    for (int position = notes.getBlockStart(block); position < last; position++) {
+		int i = notes.getBlockNote(position);
+		voice.render(out, start, BLOCK_FRAMES, notes.getStart(i), notes.getEnd(i), notes.getCode(i),
+			notes.getVelocity(i));
+	    }
+	}
+
+    }
+
+}
@@ -0,0 +1,131 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.bounce;
+
+/**
+ * Simple decaying additive tone used for bouncing. A note's samples only
+ * depend on its absolute frame numbers, so any block of it can be rendered
+ * independently of the others and on any thread.
+ */
+final class PianoVoice {
+
+    private static final double[] HARMONIC_GAINS = { 1.0, 0.45, 0.2, 0.1 };
+
+    private static final double ATTACK_SECONDS = 0.005;
+
+    private static final double RELEASE_SECONDS = 0.12;
+
+    private static final double TAIL_RELEASES = 6;
+
+    private static final double GAIN = 0.15;
+
+    private final int sampleRate;
+
+    private final long attackFrames;
+
+    private final double releaseFrames;
+
+    private final long tailFrames;
+
+    PianoVoice(int sampleRate) {
+	this.sampleRate = sampleRate;
+	attackFrames = Math.max(1, Math.round(ATTACK_SECONDS * sampleRate));
+	releaseFrames = RELEASE_SECONDS * sampleRate;
+	tailFrames = Math.round(releaseFrames * TAIL_RELEASES);
+    }
+
+    /**
+     * @return frames a note keeps sounding after its release
+     */
+    long getTailFrames() {
+	return tailFrames;
+    }
+
+    /**
+     * Adds the part of a note falling into the block to the output.
+     */
+    void render(float[] out, long blockStart, int frames, long noteStart, long noteEnd, int code, int velocity) {
+	long from = Math.max(blockStart, noteStart);
+	long to = Math.min(blockStart + frames, noteEnd + tailFrames);
+	if (from >= to) {
+	    return;
+	}
+
+	double frequency = 440.0 * Math.pow(2, (code - 69) / 12.0);
+	// lower notes ring longer
+	double decayFrames = sampleRate * 3.0 * Math.pow(2, -(code - 60) / 24.0);
+	double amplitude = GAIN * velocity / 127.0;
+
+	for (int h = 0; h < HARMONIC_GAINS.length; h++) {
+	    double harmonicFrequency = frequency * (h + 1);
+	    if (harmonicFrequency >= sampleRate / 2) {
+		break;
+	    }
+	    double omega = 2 * Math.PI * harmonicFrequency / sampleRate;
+	    double harmonicAmplitude = amplitude * HARMONIC_GAINS[h];
+	    // higher partials decay faster
+	    double harmonicDecay = decayFrames / (h + 1);
+	    renderPartial(out, blockStart, from, to, noteStart, noteEnd, omega, harmonicAmplitude, harmonicDecay);
+	}
+    }
+
+    private void renderPartial(float[] out, long blockStart, long from, long to, long noteStart, long noteEnd,
+	    double omega, double amplitude, double decayFrames) {
+	long t = from - noteStart;
+	// sine by rotation, started from the exact phase of the first frame
+	double sin = Math.sin(omega * t);
+	double cos = Math.cos(omega * t);
+	double rotationSin = Math.sin(omega);
+	double rotationCos = Math.cos(omega);
+
+	double envelope = amplitude * Math.exp(-t / decayFrames);
+	double decay = Math.exp(-1 / decayFrames);
+	if (from > noteEnd) {
+	    envelope *= Math.exp(-(from - noteEnd) / releaseFrames);
+	}
+
+	// attack, held and released parts are separate loops, which keeps the
+	// per frame work free of branches
+	int index = (int) (from - blockStart);
+	int attackEnd = (int) (Math.min(to, noteStart + attackFrames) - blockStart);
+	for (; index < attackEnd; index++, t++) {
+	    out[index] += (float) (envelope * sin * t / attackFrames);
+	    double nextSin = sin * rotationCos + cos * rotationSin;
+	    cos = cos * rotationCos - sin * rotationSin;
+	    sin = nextSin;
+	    envelope *= decay;
+	}
+
+	int heldEnd = (int) (Math.max(index + blockStart, Math.min(to, noteEnd)) - blockStart);
+	for (; index < heldEnd; index++) {
+	    out[index] += (float) (envelope * sin);
+	    double nextSin = sin * rotationCos + cos * rotationSin;
+	    cos = cos * rotationCos - sin * rotationSin;
+	    sin = nextSin;
+	    envelope *= decay;
+	}
+
+	int end = (int) (to - blockStart);
+	double releasedDecay = decay * Math.exp(-1 / releaseFrames);
+	for (; index < end; index++) {
+	    out[index] += (float) (envelope * sin);
+	    double nextSin = sin * rotationCos + cos * rotationSin;
+	    cos = cos * rotationCos - sin * rotationSin;
+	    sin = nextSin;
+	    envelope *= releasedDecay;
+	}
+    }
+
+}
@@ -0,0 +1,111 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.bounce;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams mono 16 bit PCM into a WAV file through a fixed size buffer, so
+ * memory use does not depend on the length of the audio. Sizes in the header
+ * are filled in by {@link #close()}.
+ */
+public class WavWriter {
+
+    private static final int HEADER_SIZE = 44;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long MAX_DATA_SIZE = 0xFFFFFFFFL - HEADER_SIZE;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final int sampleRate;
+
+    private long dataSize;
+
+    public WavWriter(File output, int sampleRate) throws IOException {
+	this.sampleRate = sampleRate;
+	file = new RandomAccessFile(output, "rw");
+	file.setLength(0);
+	channel = file.getChannel();
+	channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Appends samples, clipping them to the -1..1 range.
+     */
+    public void write(float[] samples, int offset, int frames) throws IOException {
+	if (dataSize + frames * 2L > MAX_DATA_SIZE) {
+	    throw new IOException("WAV files can't exceed 4 GB");
+	}
+	for (int i = offset; i < offset + frames; i++) {
+	    if (!buffer.hasRemaining()) {
+		flush();
+	    }
+	    float sample = Math.max(-1f, Math.min(1f, samples[i]));
+	    buffer.putShort((short) Math.round(sample * Short.MAX_VALUE));
+	}
+	dataSize += frames * 2L;
+    }
+
+    public long getFramesWritten() {
+	return dataSize / 2;
+    }
+
+    public void close() throws IOException {
+	try {
+	    flush();
+
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	    header.put(new byte[] { 'R', 'I', 'F', 'F' });
+	    header.putInt((int) (dataSize + HEADER_SIZE - 8));
+	    header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+	    header.putInt(16);
+	    header.putShort((short) 1);
+	    header.putShort((short) 1);
+	    header.putInt(sampleRate);
+	    header.putInt(sampleRate * 2);
+	    header.putShort((short) 2);
+	    header.putShort((short) 16);
+	    header.put(new byte[] { 'd', 'a', 't', 'a' });
+	    header.putInt((int) dataSize);
+	    header.flip();
+	    channel.position(0);
+	    while (header.hasRemaining()) {
+		channel.write(header);
+	    }
+	} finally {
+	    file.close();
+	}
+    }
+
+    private void flush() throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+}
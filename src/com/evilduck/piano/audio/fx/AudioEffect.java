@@ -0,0 +1,43 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+/**
+ * In place processor of mono audio blocks, a link of an {@link EffectsChain}.
+ * Implementations allocate everything they need in
+ * {@link #prepare(int, int)} and nothing while processing.
+ */
+public interface AudioEffect {
+
+    /**
+     * Called before the effect is used, never concurrently with
+     * {@link #process(float[], int, int)}.
+     *
+     * @param maxFrames
+     *            largest block the effect will be asked to process
+     */
+    void prepare(int sampleRate, int maxFrames);
+
+    /**
+     * Processes the given samples in place, called on the audio thread.
+     */
+    void process(float[] buffer, int offset, int frames);
+
+    /**
+     * Clears the internal state, e.g. reverb tails.
+     */
+    void reset();
+
+}
@@ -0,0 +1,85 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+import java.util.Arrays;
+
+/**
+ * Ordered chain of {@link AudioEffect}s applied to the synth output. Audio is
+ * processed in blocks of at most {@link #BLOCK_SIZE} frames. Effects are
+ * added and removed on the UI thread by replacing an immutable array, so the
+ * audio thread never waits for a lock.
+ */
+public class EffectsChain {
+
+    public static final int BLOCK_SIZE = 256;
+
+    private final int sampleRate;
+
+    private volatile AudioEffect[] effects = new AudioEffect[0];
+
+    public EffectsChain(int sampleRate) {
+	this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+	return sampleRate;
+    }
+
+    /**
+     * Prepares the effect and appends it to the end of the chain.
+     */
+    public synchronized void add(AudioEffect effect) {
+	effect.prepare(sampleRate, BLOCK_SIZE);
+	AudioEffect[] current = effects;
+	AudioEffect[] updated = Arrays.copyOf(current, current.length + 1);
+	updated[current.length] = effect;
+	effects = updated;
+    }
+
+    public synchronized void remove(AudioEffect effect) {
+	AudioEffect[] current = effects;
+	for (int i = 0; i < current.length; i++) {
+	    if (current[i] == effect) {
+		AudioEffect[] updated = new AudioEffect[current.length - 1];
+		System.arraycopy(current, 0, updated, 0, i);
+		System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+		effects = updated;
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Processes a buffer of any length in place, called on the audio thread.
+     */
+    public void process(float[] buffer, int offset, int frames) {
+	final AudioEffect[] chain = effects;
+	for (int position = 0; position < frames; position += BLOCK_SIZE) {
+	    int blockFrames = Math.min(BLOCK_SIZE, frames - position);
+	    for (int i = 0; i < chain.length; i++) {
+		chain[i].process(buffer, offset + position, blockFrames);
+	    }
+	}
+    }
+
+    public void reset() {
+	final AudioEffect[] chain = effects;
+	for (int i = 0; i < chain.length; i++) {
+	    chain[i].reset();
+	}
+    }
+
+}
@@ -0,0 +1,180 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+/**
+ * Equaliser made of biquad bands, with coefficients from the RBJ audio EQ
+ * cookbook. Coefficients are only recomputed at block boundaries while a
+ * parameter is moving.
+ */
+public class ParametricEq implements AudioEffect {
+
+    public static final int PEAK = 0;
+
+    public static final int LOW_SHELF = 1;
+
+    public static final int HIGH_SHELF = 2;
+
+    private final int[] types;
+
+    private final SmoothedParameter[] frequencies;
+
+    private final SmoothedParameter[] gains;
+
+    private final SmoothedParameter[] qs;
+
+    // normalised coefficients b0, b1, b2, a1, a2 of every band
+    private final float[] coefficients;
+
+    // transposed direct form II state, two values per band
+    private final float[] state;
+
+    private int sampleRate;
+
+    /**
+     * @param types
+     *            one of {@link #PEAK}, {@link #LOW_SHELF} or
+     *            {@link #HIGH_SHELF} for every band
+     */
+    public ParametricEq(int... types) {
+	this.types = types.clone();
+	int bands = types.length;
+	frequencies = new SmoothedParameter[bands];
+	gains = new SmoothedParameter[bands];
+	qs = new SmoothedParameter[bands];
+	for (int i = 0; i < bands; i++) {
+	    if (types[i] < PEAK || types[i] > HIGH_SHELF) {
+		throw new IllegalArgumentException("Unknown band type: " + types[i]);
+	    }
+	    frequencies[i] = new SmoothedParameter(1000f, 20f, 20000f);
+	    gains[i] = new SmoothedParameter(0f, -24f, 24f);
+	    qs[i] = new SmoothedParameter(0.707f, 0.1f, 18f);
+	}
+	coefficients = new float[bands * 5];
+	state = new float[bands * 2];
+    }
+
+    public int getBandCount() {
+	return types.length;
+    }
+
+    public void setBand(int band, float frequency, float gainDb, float q) {
+	frequencies[band].set(frequency);
+	gains[band].set(gainDb);
+	qs[band].set(q);
+    }
+
+    @Override
+    public void prepare(int sampleRate, int maxFrames) {
+	this.sampleRate = sampleRate;
+	for (int i = 0; i < types.length; i++) {
+	    frequencies[i].prepare(sampleRate);
+	    gains[i].prepare(sampleRate);
+	    qs[i].prepare(sampleRate);
+	    computeCoefficients(i, frequencies[i].current(), gains[i].current(), qs[i].current());
+	}
+	reset();
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+	for (int band = 0; band < types.length; band++) {
+	    SmoothedParameter frequency = frequencies[band];
+	    SmoothedParameter gain = gains[band];
+	    SmoothedParameter q = qs[band];
+	    frequency.update();
+	    gain.update();
+	    q.update();
+	    if (frequency.isSmoothing() || gain.isSmoothing() || q.isSmoothing()) {
+		computeCoefficients(band, frequency.advance(frames), gain.advance(frames), q.advance(frames));
+	    }
+	    if (gain.current() == 0f && types[band] == PEAK) {
+		continue;
+	    }
+
+	    final int c = band * 5;
+	    final float b0 = coefficients[c];
+	    final float b1 = coefficients[c + 1];
+	    final float b2 = coefficients[c + 2];
+	    final float a1 = coefficients[c + 3];
+	    final float a2 = coefficients[c + 4];
+	    float z1 = state[band * 2];
+	    float z2 = state[band * 2 + 1];
+	    for (int i = offset; i < offset + frames; i++) {
+		float x = buffer[i];
+		float y = b0 * x + z1;
+		z1 = b1 * x - a1 * y + z2;
+		z2 = b2 * x - a2 * y;
+		buffer[i] = y;
+	    }
+	    state[band * 2] = z1;
+	    state[band * 2 + 1] = z2;
+	}
+    }
+
+    @Override
+    public void reset() {
+	for (int i = 0; i < state.length; i++) {
+	    state[i] = 0f;
+	}
+    }
+
+    private void computeCoefficients(int band, float frequency, float gainDb, float q) {
+	double a = Math.pow(10, gainDb / 40.0);
+	double w0 = 2 * Math.PI * Math.min(frequency, sampleRate * 0.49f) / sampleRate;
+	double cos = Math.cos(w0);
+	double alpha = Math.sin(w0) / (2 * q);
+
+	double b0, b1, b2, a0, a1, a2;
+	switch (types[band]) {
+	case LOW_SHELF: {
+	    double sqrtA2alpha = 2 * Math.sqrt(a) * alpha;
+	    b0 = a * ((a + 1) - (a - 1) * cos + sqrtA2alpha);
+	    b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+	    b2 = a * ((a + 1) - (a - 1) * cos - sqrtA2alpha);
+	    a0 = (a + 1) + (a - 1) * cos + sqrtA2alpha;
+	    a1 = -2 * ((a - 1) + (a + 1) * cos);
+	    a2 = (a + 1) + (a - 1) * cos - sqrtA2alpha;
+	    break;
+	}
+	case HIGH_SHELF: {
+	    double sqrtA2alpha = 2 * Math.sqrt(a) * alpha;
+	    b0 = a * ((a + 1) + (a - 1) * cos + sqrtA2alpha);
+	    b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+	    b2 = a * ((a + 1) + (a - 1) * cos - sqrtA2alpha);
+	    a0 = (a + 1) - (a - 1) * cos + sqrtA2alpha;
+	    a1 = 2 * ((a - 1) - (a + 1) * cos);
+	    a2 = (a + 1) - (a - 1) * cos - sqrtA2alpha;
+	    break;
+	}
+	default:
+	    b0 = 1 + alpha * a;
+	    b1 = -2 * cos;
+	    b2 = 1 - alpha * a;
+	    a0 = 1 + alpha / a;
+	    a1 = -2 * cos;
+	    a2 = 1 - alpha / a;
+	    break;
+	}
+
+	int c = band * 5;
+	coefficients[c] = (float) (b0 / a0);
+	coefficients[c + 1] = (float) (b1 / a0);
+	coefficients[c + 2] = (float) (b2 / a0);
+	coefficients[c + 3] = (float) (a1 / a0);
+	coefficients[c + 4] = (float) (a2 / a0);
+    }
+
+}
@@ -0,0 +1,178 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+import java.util.Arrays;
+
+/**
+ * Schroeder reverb: parallel damped feedback comb filters followed by series
+ * allpass filters, tuned like the classic Freeverb. Every filter runs over a
+ * whole block at a time, so the inner loops stay small and cache friendly.
+ */
+public class SchroederReverb implements AudioEffect {
+
+    private static final int[] COMB_TUNING = { 1116, 1188, 1277, 1356, 1422, 1491, 1557, 1617 };
+
+    private static final int[] ALLPASS_TUNING = { 556, 441, 341, 225 };
+
+    private static final float TUNING_SAMPLE_RATE = 44100f;
+
+    private static final float INPUT_GAIN = 0.015f;
+
+    private static final float ALLPASS_FEEDBACK = 0.5f;
+
+    private final SmoothedParameter roomSize = new SmoothedParameter(0.5f, 0f, 1f);
+
+    private final SmoothedParameter damping = new SmoothedParameter(0.5f, 0f, 1f);
+
+    private final SmoothedParameter wet = new SmoothedParameter(0.25f, 0f, 1f);
+
+    private float[][] combBuffers;
+
+    private int[] combPositions;
+
+    private float[] combFilterStore;
+
+    private float[][] allpassBuffers;
+
+    private int[] allpassPositions;
+
+    private float[] input;
+
+    private float[] output;
+
+    private float[] wetRamp;
+
+    @Override
+    public void prepare(int sampleRate, int maxFrames) {
+	float scale = sampleRate / TUNING_SAMPLE_RATE;
+	combBuffers = new float[COMB_TUNING.length][];
+	for (int i = 0; i < COMB_TUNING.length; i++) {
+	    combBuffers[i] = new float[Math.max(1, Math.round(COMB_TUNING[i] * scale))];
+	}
+	combPositions = new int[COMB_TUNING.length];
+	combFilterStore = new float[COMB_TUNING.length];
+
+	allpassBuffers = new float[ALLPASS_TUNING.length][];
+	for (int i = 0; i < ALLPASS_TUNING.length; i++) {
+	    allpassBuffers[i] = new float[Math.max(1, Math.round(ALLPASS_TUNING[i] * scale))];
+	}
+	allpassPositions = new int[ALLPASS_TUNING.length];
+
+	input = new float[maxFrames];
+	output = new float[maxFrames];
+	wetRamp = new float[maxFrames];
+
+	roomSize.prepare(sampleRate);
+	damping.prepare(sampleRate);
+	wet.prepare(sampleRate);
+    }
+
+    /**
+     * @param size
+     *            from 0 to 1, longer tail for larger rooms
+     */
+    public void setRoomSize(float size) {
+	roomSize.set(size);
+    }
+
+    public void setDamping(float damping) {
+	this.damping.set(damping);
+    }
+
+    /**
+     * @param mix
+     *            from 0, dry only, to 1, reverb only
+     */
+    public void setWet(float mix) {
+	wet.set(mix);
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+	roomSize.update();
+	damping.update();
+	wet.update();
+
+	// feedback and damping only change the tail, one value per block is
+	// smooth enough
+	final float feedback = 0.7f + 0.28f * roomSize.advance(frames);
+	final float damp = 0.4f * damping.advance(frames);
+
+	final float[] in = input;
+	final float[] out = output;
+	for (int i = 0; i < frames; i++) {
+	    in[i] = buffer[offset + i] * INPUT_GAIN;
+	    out[i] = 0f;
+	}
+
+	for (int c = 0; c < combBuffers.length; c++) {
+	    final float[] line = combBuffers[c];
+	    int position = combPositions[c];
+	    float store = combFilterStore[c];
+	    for (int i = 0; i < frames; i++) {
+		float delayed = line[position];
+		store = delayed * (1f - damp) + store * damp;
+		line[position] = in[i] + store * feedback;
+		out[i] += delayed;
+		if (++position == line.length) {
+		    position = 0;
+		}
+	    }
+	    combPositions[c] = position;
+	    combFilterStore[c] = store;
+	}
+
+	for (int a = 0; a < allpassBuffers.length; a++) {
+	    final float[] line = allpassBuffers[a];
+	    int position = allpassPositions[a];
+	    for (int i = 0; i < frames; i++) {
+		float delayed = line[position];
+		float sample = out[i];
+		line[position] = sample + delayed * ALLPASS_FEEDBACK;
+		out[i] = delayed - sample;
+		if (++position == line.length) {
+		    position = 0;
+		}
+	    }
+	    allpassPositions[a] = position;
+	}
+
+	if (wet.isSmoothing()) {
+	    final float[] mix = wetRamp;
+	    wet.fill(mix, frames);
+	    for (int i = 0; i < frames; i++) {
+		buffer[offset + i] += (out[i] - buffer[offset + i]) * mix[i];
+	    }
+	} else {
+	    final float mix = wet.current();
+	    for (int i = 0; i < frames; i++) {
+		buffer[offset + i] += (out[i] - buffer[offset + i]) * mix;
+	    }
+	}
+    }
+
+    @Override
+    public void reset() {
+	for (int i = 0; i < combBuffers.length; i++) {
+	    Arrays.fill(combBuffers[i], 0f);
+	    combFilterStore[i] = 0f;
+	}
+	for (int i = 0; i < allpassBuffers.length; i++) {
+	    Arrays.fill(allpassBuffers[i], 0f);
+	}
+    }
+
+}
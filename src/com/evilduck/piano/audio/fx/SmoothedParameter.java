@@ -0,0 +1,134 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+/**
+ * Effect parameter set from the UI thread and read on the audio thread.
+ * The requested value is handed over through a volatile field, so neither
+ * side blocks, and the audio side ramps linearly to it to avoid clicks.
+ */
+public final class SmoothedParameter {
+
+    private static final float DEFAULT_RAMP_MILLIS = 20f;
+
+    private final float min;
+
+    private final float max;
+
+    private final float rampMillis;
+
+    private volatile float requested;
+
+    private float current;
+
+    private float target;
+
+    private float step;
+
+    private int remaining;
+
+    private int rampLength = 1;
+
+    public SmoothedParameter(float value, float min, float max) {
+	this(value, min, max, DEFAULT_RAMP_MILLIS);
+    }
+
+    public SmoothedParameter(float value, float min, float max, float rampMillis) {
+	if (min > max) {
+	    throw new IllegalArgumentException("Invalid range " + min + ".." + max);
+	}
+	this.min = min;
+	this.max = max;
+	this.rampMillis = rampMillis;
+	requested = current = target = clamp(value);
+    }
+
+    /**
+     * Requests a new value, safe to call from any thread.
+     */
+    public void set(float value) {
+	requested = clamp(value);
+    }
+
+    public float get() {
+	return requested;
+    }
+
+    void prepare(int sampleRate) {
+	rampLength = Math.max(1, (int) (sampleRate * rampMillis / 1000f));
+	current = target = requested;
+	remaining = 0;
+    }
+
+    /**
+     * Picks up a newly requested value, called at the start of every block.
+     */
+    void update() {
+	float value = requested;
+	if (value != target) {
+	    target = value;
+	    step = (target - current) / rampLength;
+	    remaining = rampLength;
+	}
+    }
+
+    boolean isSmoothing() {
+	return remaining > 0;
+    }
+
+    /**
+     * @return current value, without advancing
+     */
+    float current() {
+	return current;
+    }
+
+    /**
+     * Advances the ramp by the given number of frames.
+     *
+     * @return value reached
+     */
+    float advance(int frames) {
+	if (remaining > frames) {
+	    current += step * frames;
+	    remaining -= frames;
+	} else {
+	    current = target;
+	    remaining = 0;
+	}
+	return current;
+    }
+
+    /**
+     * Writes the value of every frame of the next block and advances.
+     */
+    void fill(float[] out, int frames) {
+	int ramped = Math.min(frames, remaining);
+	float value = current;
+	for (int i = 0; i < ramped; i++) {
+	    value += step;
+	    out[i] = value;
+	}
+	for (int i = ramped; i < frames; i++) {
+	    out[i] = target;
+	}
+	advance(frames);
+    }
+
+    private float clamp(float value) {
+	return Math.max(min, Math.min(max, value));
+    }
+
+}
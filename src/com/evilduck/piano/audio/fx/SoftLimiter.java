@@ -0,0 +1,84 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.audio.fx;
+
+/**
+ * Saturating limiter keeping the output under a ceiling. Samples go through
+ * a rational tanh approximation, which is transparent for quiet signals and
+ * bends loud peaks smoothly instead of clipping them. The loop has no
+ * branches or state, so the JIT is free to vectorise it.
+ */
+public class SoftLimiter implements AudioEffect {
+
+    private final SmoothedParameter drive = new SmoothedParameter(1f, 0.1f, 16f);
+
+    private final SmoothedParameter ceiling = new SmoothedParameter(0.98f, 0.1f, 1f);
+
+    private float[] driveRamp;
+
+    @Override
+    public void prepare(int sampleRate, int maxFrames) {
+	driveRamp = new float[maxFrames];
+	drive.prepare(sampleRate);
+	ceiling.prepare(sampleRate);
+    }
+
+    /**
+     * @param gain
+     *            linear gain applied before limiting
+     */
+    public void setDrive(float gain) {
+	drive.set(gain);
+    }
+
+    public void setCeiling(float ceiling) {
+	this.ceiling.set(ceiling);
+    }
+
+    @Override
+    public void process(float[] buffer, int offset, int frames) {
+	drive.update();
+	ceiling.update();
+	final float limit = ceiling.advance(frames);
+	final float inverseLimit = 1f / limit;
+
+	if (drive.isSmoothing()) {
+	    final float[] gain = driveRamp;
+	    drive.fill(gain, frames);
+	    for (int i = 0; i < frames; i++) {
+		buffer[offset + i] = limit * saturate(buffer[offset + i] * gain[i] * inverseLimit);
+	    }
+	} else {
+	    final float scale = drive.current() * inverseLimit;
+	    for (int i = 0; i < frames; i++) {
+		buffer[offset + i] = limit * saturate(buffer[offset + i] * scale);
+	    }
+	}
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    /**
+     * tanh approximation, exact enough below 3 and clamped to 1 above it.
+     */
+    private static float saturate(float x) {
+	x = Math.max(-3f, Math.min(3f, x));
+	float x2 = x * x;
+	return x * (27f + x2) / (27f + 9f * x2);
+    }
+
+}
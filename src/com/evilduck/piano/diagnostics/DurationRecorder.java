@@ -0,0 +1,98 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.diagnostics;
+
+import java.util.Arrays;
+
+/**
+ * Collects durations, e.g. of frames or of input to listener delivery, into a
+ * preallocated array and summarises them as percentiles. Recording never
+ * allocates, durations beyond the capacity are counted in the maximum and
+ * mean but not in the percentiles.
+ * <p>
+ * Not thread safe.
+ */
+public final class DurationRecorder {
+
+    private final long[] durations;
+
+    private int count;
+
+    private long total;
+
+    private long max;
+
+    public DurationRecorder(int capacity) {
+	durations = new long[capacity];
+    }
+
+    public void record(long nanos) {
+	if (count < durations.length) {
+	    durations[count] = nanos;
+	}
+	count++;
+	total += nanos;
+	max = Math.max(max, nanos);
+    }
+
+    public int getCount() {
+	return count;
+    }
+
+    public long getMax() {
+	return max;
+    }
+
+    public long getMean() {
+	return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @return number of durations longer than the threshold
+     */
+    public int countAbove(long nanos) {
+	int above = 0;
+	for (int i = 0, recorded = Math.min(count, durations.length); i < recorded; i++) {
+	    if (durations[i] > nanos) {
+		above++;
+	    }
+	}
+	return above;
+    }
+
+    /**
+     * @param percent
+     *            between 0 and 100
+     * @return duration that the given percentage of recorded durations does
+     *         not exceed, 0 if nothing was recorded
+     */
+    public long percentile(double percent) {
+	int recorded = Math.min(count, durations.length);
+	if (recorded == 0) {
+	    return 0;
+	}
+	long[] sorted = Arrays.copyOf(durations, recorded);
+	Arrays.sort(sorted);
+	int index = (int) Math.ceil(percent / 100 * recorded) - 1;
+	return sorted[Math.max(0, Math.min(recorded - 1, index))];
+    }
+
+    public void reset() {
+	count = 0;
+	total = 0;
+	max = 0;
+    }
+
+}
@@ -0,0 +1,170 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.diagnostics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Results of a {@link SoakRunner} run: statistics per workload phase and the
+ * reasons the run failed, if any. Written as JSON for tooling that tracks
+ * results across builds.
+ */
+public final class SoakReport {
+
+    /**
+     * Measurements of a single workload phase.
+     */
+    public static final class Phase {
+
+	final String name;
+
+	final DurationRecorder frames;
+
+	final DurationRecorder listenerLatency;
+
+	long heapHighWater;
+
+	long heapAfter;
+
+	int gcCount;
+
+	int allocations;
+
+	int highlightsAfter;
+
+	Phase(String name, int capacity) {
+	    this.name = name;
+	    frames = new DurationRecorder(capacity);
+	    listenerLatency = new DurationRecorder(capacity);
+	}
+
+	public String getName() {
+	    return name;
+	}
+
+	public DurationRecorder getFrames() {
+	    return frames;
+	}
+
+	public DurationRecorder getListenerLatency() {
+	    return listenerLatency;
+	}
+
+	/**
+	 * @return highest used heap sampled during the phase, in bytes
+	 */
+	public long getHeapHighWater() {
+	    return heapHighWater;
+	}
+
+	/**
+	 * @return used heap after a collection at the end of the phase
+	 */
+	public long getHeapAfter() {
+	    return heapAfter;
+	}
+
+	public int getGcCount() {
+	    return gcCount;
+	}
+
+	public int getAllocations() {
+	    return allocations;
+	}
+
+    }
+
+    private final ArrayList<Phase> phases = new ArrayList<Phase>();
+
+    private final ArrayList<String> failures = new ArrayList<String>();
+
+    private final float speed;
+
+    SoakReport(float speed) {
+	this.speed = speed;
+    }
+
+    Phase addPhase(String name, int capacity) {
+	Phase phase = new Phase(name, capacity);
+	phases.add(phase);
+	return phase;
+    }
+
+    void fail(String reason) {
+	failures.add(reason);
+    }
+
+    public boolean isPassed() {
+	return failures.isEmpty();
+    }
+
+    public ArrayList<String> getFailures() {
+	return failures;
+    }
+
+    public ArrayList<Phase> getPhases() {
+	return phases;
+    }
+
+    public void writeJson(Writer out) throws IOException {
+	out.write("{\n  \"passed\": " + isPassed() + ",\n  \"speed\": " + speed + ",\n  \"failures\": [");
+	for (int i = 0; i < failures.size(); i++) {
+	    out.write(i == 0 ? "\n    " : ",\n    ");
+	    writeString(out, failures.get(i));
+	}
+	out.write(failures.isEmpty() ? "],\n" : "\n  ],\n");
+
+	out.write("  \"phases\": [");
+	for (int i = 0; i < phases.size(); i++) {
+	    Phase phase = phases.get(i);
+	    out.write(i == 0 ? "\n    {" : ",\n    {");
+	    out.write("\"name\": ");
+	    writeString(out, phase.name);
+	    out.write(", \"frames\": ");
+	    writeDurations(out, phase.frames);
+	    out.write(", \"listenerLatency\": ");
+	    writeDurations(out, phase.listenerLatency);
+	    out.write(", \"heapHighWater\": " + phase.heapHighWater + ", \"heapAfter\": " + phase.heapAfter
+		    + ", \"gcCount\": " + phase.gcCount + ", \"allocations\": " + phase.allocations
+		    + ", \"highlightsAfter\": " + phase.highlightsAfter + "}");
+	}
+	out.write("\n  ]\n}\n");
+    }
+
+    private static void writeDurations(Writer out, DurationRecorder durations) throws IOException {
+	out.write("{\"count\": " + durations.getCount() + ", \"meanNs\": " + durations.getMean() + ", \"p50Ns\": "
+		+ durations.percentile(50) + ", \"p95Ns\": " + durations.percentile(95) + ", \"p99Ns\": "
+		+ durations.percentile(99) + ", \"maxNs\": " + durations.getMax() + "}");
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+	out.write('"');
+	for (int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    if (c == '"' || c == '\\') {
+		out.write('\\');
+		out.write(c);
+	    } else if (c < ' ') {
+		out.write(String.format("\\u%04x", (int) c));
+	    } else {
+		out.write(c);
+	    }
+	}
+	out.write('"');
+    }
+
+}
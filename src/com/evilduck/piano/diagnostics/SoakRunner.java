@@ -0,0 +1,523 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.diagnostics;
+
+import java.util.Random;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.v4.view.ViewCompat;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.MotionEvent.PointerCoords;
+import android.view.MotionEvent.PointerProperties;
+import android.view.ViewGroup;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+import com.evilduck.piano.views.instrument.PianoView;
+import com.evilduck.piano.views.instrument.PianoView.OnKeyPlayListener;
+
+/**
+ * Load test of an attached {@link PianoView}. Scripted workloads run one after
+ * another at several times real-time speed: replay of a dense sequence,
+ * random multi-touch chords in play mode, continuous flings, pinch zooms and
+ * rapid resizes. Every phase records frame durations, listener latency, heap
+ * high-water mark, collections and allocations into a {@link SoakReport}.
+ * <p>
+ * All the phases run for several cycles, a phase leaving more heap behind in
+ * the last cycle than in the first fails the run, as do highlights left after
+ * clearing, frames drawn once the view settled and 99th percentiles above the
+ * thresholds.
+ * <p>
+ * Must be used on the main thread. The view's {@link OnKeyPlayListener} is
+ * replaced while running and cleared afterwards.
+ */
+public class SoakRunner {
+
+    public interface Listener {
+
+	void onSoakFinished(SoakReport report);
+
+    }
+
+    public static final String PHASE_REPLAY = SoakWorkloads.PHASE_REPLAY;
+
+    public static final String PHASE_CHORDS = SoakWorkloads.PHASE_CHORDS;
+
+    public static final String PHASE_FLING = SoakWorkloads.PHASE_FLING;
+
+    public static final String PHASE_PINCH = SoakWorkloads.PHASE_PINCH;
+
+    public static final String PHASE_RESIZE = SoakWorkloads.PHASE_RESIZE;
+
+    private static final String[] PHASES = SoakWorkloads.PHASES;
+
+    private static final long FRAME_NANOS = 16666667L;
+
+    private static final long SETTLE_DELAY = 1000;
+
+    private static final long IDLE_WINDOW = 500;
+
+    private static final int MAX_POINTERS = 4;
+
+    private final PianoView view;
+
+    private final Random random = new Random();
+
+    private final int[] pointerIds = new int[MAX_POINTERS];
+
+    private final PointerCoords[] pointerCoords = new PointerCoords[MAX_POINTERS];
+
+    /**
+     * Used instead of the ids from API 14 on, created on first use.
+     */
+    private PointerProperties[] pointerProperties;
+
+    private float speed = 4;
+
+    private int framesPerPhase = 600;
+
+    private int cycles = 2;
+
+    private long maxFrameTime = 2 * FRAME_NANOS;
+
+    private long maxListenerLatency = FRAME_NANOS;
+
+    private long maxHeapGrowth = 1024 * 1024;
+
+    private Sequence sequence;
+
+    private TempoMap tempoMap;
+
+    private Listener listener;
+
+    private SoakReport report;
+
+    private SoakReport.Phase phase;
+
+    private long[] firstCycleHeap;
+
+    private int phaseIndex;
+
+    private int frame;
+
+    private long lastFrameTime;
+
+    private boolean running;
+
+    private boolean wasPlayMode;
+
+    private int originalHeight;
+
+    // workload state
+
+    private long songNanos;
+
+    private int sequenceIndex;
+
+    private long gestureDownTime;
+
+    private long inputTime;
+
+    private boolean chordDown;
+
+    private long idleFrames;
+
+    private int chordSize;
+
+    public SoakRunner(PianoView view) {
+	this.view = view;
+	for (int i = 0; i < MAX_POINTERS; i++) {
+	    pointerIds[i] = i;
+	    pointerCoords[i] = new PointerCoords();
+	    pointerCoords[i].pressure = 1;
+	    pointerCoords[i].size = 1;
+	}
+    }
+
+    /**
+     * @param speed
+     *            how many times faster than real time the workloads run
+     */
+    public void setSpeed(float speed) {
+	this.speed = speed;
+    }
+
+    public void setFramesPerPhase(int frames) {
+	framesPerPhase = frames;
+    }
+
+    /**
+     * @param cycles
+     *            how many times all the phases run, at least 2 to detect
+     *            leaks
+     */
+    public void setCycles(int cycles) {
+	if (cycles < 1) {
+	    throw new IllegalArgumentException("At least one cycle is needed, got " + cycles);
+	}
+	this.cycles = cycles;
+    }
+
+    /**
+     * Thresholds failing the run when the 99th percentile exceeds them.
+     */
+    public void setMaxFrameTime(long nanos) {
+	maxFrameTime = nanos;
+    }
+
+    public void setMaxListenerLatency(long nanos) {
+	maxListenerLatency = nanos;
+    }
+
+    /**
+     * @param bytes
+     *            heap a phase may leave behind in the last cycle compared to
+     *            the first
+     */
+    public void setMaxHeapGrowth(long bytes) {
+	maxHeapGrowth = bytes;
+    }
+
+    /**
+     * Sequence replayed in the replay phase, a dense generated one is used by
+     * default.
+     */
+    public void setSequence(Sequence sequence, TempoMap tempoMap) {
+	this.sequence = sequence;
+	this.tempoMap = tempoMap;
+    }
+
+    public boolean isRunning() {
+	return running;
+    }
+
+    public void start(Listener listener) {
+	if (running) {
+	    throw new IllegalStateException("Soak test is running already");
+	}
+	if (sequence == null) {
+	    tempoMap = SoakWorkloads.newTempoMap();
+	    sequence = SoakWorkloads.newDenseSequence(tempoMap.getPpq());
+	}
+	this.listener = listener;
+	running = true;
+	report = new SoakReport(speed);
+	firstCycleHeap = new long[PHASES.length];
+	phaseIndex = 0;
+	wasPlayMode = view.isPlayMode();
+	originalHeight = view.getLayoutParams().height;
+	view.setOnKeyPlayListener(playListener);
+	Debug.startAllocCounting();
+
+	startPhase();
+	ViewCompat.postOnAnimation(view, frameCallback);
+    }
+
+    public void cancel() {
+	if (!running) {
+	    return;
+	}
+	running = false;
+	view.removeCallbacks(frameCallback);
+	view.removeCallbacks(settleCheck);
+	view.removeCallbacks(idleCheck);
+	restoreView();
+    }
+
+    private final Runnable frameCallback = new Runnable() {
+	@Override
+	public void run() {
+	    if (!running) {
+		return;
+	    }
+	    long now = System.nanoTime();
+	    if (frame > 0) {
+		phase.frames.record(now - lastFrameTime);
+	    }
+	    lastFrameTime = now;
+
+	    Runtime runtime = Runtime.getRuntime();
+	    phase.heapHighWater = Math.max(phase.heapHighWater, runtime.totalMemory() - runtime.freeMemory());
+
+	    step(PHASES[phaseIndex % PHASES.length], frame);
+	    if (++frame < framesPerPhase) {
+		ViewCompat.postOnAnimation(view, this);
+		return;
+	    }
+
+	    finishPhase();
+	    if (++phaseIndex < PHASES.length * cycles) {
+		startPhase();
+		ViewCompat.postOnAnimation(view, this);
+	    } else {
+		view.postDelayed(settleCheck, SETTLE_DELAY);
+	    }
+	}
+    };
+
+    private void startPhase() {
+	phase = report.addPhase(PHASES[phaseIndex % PHASES.length], framesPerPhase);
+	frame = 0;
+	songNanos = 0;
+	sequenceIndex = 0;
+	chordDown = false;
+	view.setPlayMode(PHASE_CHORDS.equals(phase.name));
+	Debug.resetGlobalGcInvocationCount();
+	Debug.resetGlobalAllocCount();
+    }
+
+    private void finishPhase() {
+	phase.gcCount = Debug.getGlobalGcInvocationCount();
+	phase.allocations = Debug.getGlobalAllocCount();
+
+	if (chordDown) {
+	    releaseChord(SystemClock.uptimeMillis());
+	}
+	for (int code = 0; code < 128; code++) {
+	    view.setKeyPressed(code, false);
+	}
+	view.clear();
+	view.getLayoutParams().height = originalHeight;
+	view.requestLayout();
+
+	phase.highlightsAfter = view.getHighlights().size();
+	if (phase.highlightsAfter != 0) {
+	    report.fail(phase.name + ": " + phase.highlightsAfter + " highlights left after clear()");
+	}
+
+	System.gc();
+	Runtime runtime = Runtime.getRuntime();
+	phase.heapAfter = runtime.totalMemory() - runtime.freeMemory();
+	int index = phaseIndex % PHASES.length;
+	if (phaseIndex < PHASES.length) {
+	    firstCycleHeap[index] = phase.heapAfter;
+	} else if (phaseIndex >= PHASES.length * (cycles - 1)
+		&& phase.heapAfter - firstCycleHeap[index] > maxHeapGrowth) {
+	    report.fail(phase.name + ": heap grew by " + (phase.heapAfter - firstCycleHeap[index]) + " bytes");
+	}
+
+	if (phase.frames.percentile(99) > maxFrameTime) {
+	    report.fail(phase.name + ": p99 frame time " + phase.frames.percentile(99) + " ns");
+	}
+	if (phase.listenerLatency.percentile(99) > maxListenerLatency) {
+	    report.fail(phase.name + ": p99 listener latency " + phase.listenerLatency.percentile(99) + " ns");
+	}
+    }
+
+    /**
+     * Once everything settled the view must not draw at all.
+     */
+    private final Runnable settleCheck = new Runnable() {
+	@Override
+	public void run() {
+	    idleFrames = view.getFrameGovernor().getFrames();
+	    view.postDelayed(idleCheck, IDLE_WINDOW);
+	}
+    };
+
+    private final Runnable idleCheck = new Runnable() {
+	@Override
+	public void run() {
+	    long drawn = view.getFrameGovernor().getFrames() - idleFrames;
+	    if (drawn > 0 || !view.getFrameGovernor().isIdle()) {
+		report.fail("idle: " + drawn + " frames drawn after settling, " + view.getFrameGovernor());
+	    }
+	    Debug.stopAllocCounting();
+	    running = false;
+	    restoreView();
+	    listener.onSoakFinished(report);
+	}
+    };
+
+    private void restoreView() {
+	view.setOnKeyPlayListener(null);
+	view.setPlayMode(wasPlayMode);
+	view.getLayoutParams().height = originalHeight;
+	view.requestLayout();
+    }
+
+    private void step(String name, int frame) {
+	long now = SystemClock.uptimeMillis();
+	if (PHASE_REPLAY.equals(name)) {
+	    stepReplay();
+	} else if (PHASE_CHORDS.equals(name)) {
+	    stepChords(now);
+	} else if (PHASE_FLING.equals(name)) {
+	    stepFling(now, frame);
+	} else if (PHASE_PINCH.equals(name)) {
+	    stepPinch(now, frame);
+	} else {
+	    stepResize(frame);
+	}
+    }
+
+    private void stepReplay() {
+	songNanos += (long) (FRAME_NANOS * speed);
+	while (sequenceIndex < sequence.size() && tempoMap.tickToNanos(sequence.getTick(sequenceIndex)) <= songNanos) {
+	    int message = sequence.getMessage(sequenceIndex++);
+	    int code = MidiMessage.data1(message);
+	    if (MidiMessage.isNoteOn(message)) {
+		view.setKeyPressed(code, true);
+		view.addCode(code);
+	    } else if (MidiMessage.isNoteOff(message)) {
+		view.setKeyPressed(code, false);
+		view.removeCode(code);
+	    }
+	}
+	if (sequenceIndex == sequence.size()) {
+	    sequenceIndex = 0;
+	    songNanos = 0;
+	    view.clear();
+	}
+    }
+
+    /**
+     * Alternates pressing a random chord and releasing it, every few frames
+     * at real-time speed.
+     */
+    private void stepChords(long now) {
+	if (chordDown) {
+	    releaseChord(now);
+	    return;
+	}
+	chordSize = 1 + random.nextInt(MAX_POINTERS);
+	float y = view.getHeight() * 0.8f;
+	for (int i = 0; i < chordSize; i++) {
+	    pointerCoords[i].x = random.nextFloat() * view.getWidth();
+	    pointerCoords[i].y = y;
+	}
+	gestureDownTime = now;
+	dispatch(now, MotionEvent.ACTION_DOWN, 1);
+	for (int i = 1; i < chordSize; i++) {
+	    dispatch(now, MotionEvent.ACTION_POINTER_DOWN | (i << MotionEvent.ACTION_POINTER_INDEX_SHIFT), i + 1);
+	}
+	chordDown = true;
+    }
+
+    private void releaseChord(long now) {
+	for (int i = chordSize - 1; i > 0; i--) {
+	    dispatch(now, MotionEvent.ACTION_POINTER_UP | (i << MotionEvent.ACTION_POINTER_INDEX_SHIFT), i + 1);
+	}
+	dispatch(now, MotionEvent.ACTION_UP, 1);
+	chordDown = false;
+    }
+
+    /**
+     * Swipes across half of the view in a few frames, alternating direction.
+     */
+    private void stepFling(long now, int frame) {
+	int stroke = (int) Math.max(4, 8 / speed);
+	int position = frame % stroke;
+	float direction = (frame / stroke) % 2 == 0 ? -1 : 1;
+	float width = view.getWidth();
+	pointerCoords[0].x = width / 2 - direction * width / 4 + direction * width / 2 * position / (stroke - 1);
+	pointerCoords[0].y = view.getHeight() / 2f;
+	if (position == 0) {
+	    gestureDownTime = now;
+	    dispatch(now, MotionEvent.ACTION_DOWN, 1);
+	} else if (position < stroke - 1) {
+	    dispatch(now, MotionEvent.ACTION_MOVE, 1);
+	} else {
+	    dispatch(now, MotionEvent.ACTION_UP, 1);
+	}
+    }
+
+    /**
+     * Spreads and closes two fingers around the middle of the view.
+     */
+    private void stepPinch(long now, int frame) {
+	int stroke = (int) Math.max(6, 30 / speed);
+	int position = frame % stroke;
+	boolean spreading = (frame / stroke) % 2 == 0;
+	float progress = (float) position / (stroke - 1);
+	float distance = view.getWidth() * (spreading ? 0.1f + 0.3f * progress : 0.4f - 0.3f * progress);
+	float y = view.getHeight() / 2f;
+	pointerCoords[0].x = view.getWidth() / 2f - distance;
+	pointerCoords[0].y = y;
+	pointerCoords[1].x = view.getWidth() / 2f + distance;
+	pointerCoords[1].y = y;
+	if (position == 0) {
+	    gestureDownTime = now;
+	    dispatch(now, MotionEvent.ACTION_DOWN, 1);
+	    dispatch(now, MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 2);
+	} else if (position < stroke - 1) {
+	    dispatch(now, MotionEvent.ACTION_MOVE, 2);
+	} else {
+	    dispatch(now, MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 2);
+	    dispatch(now, MotionEvent.ACTION_UP, 1);
+	}
+    }
+
+    /**
+     * Oscillates the height between full and half size, like the demo's scale
+     * action but without ever settling.
+     */
+    private void stepResize(int frame) {
+	ViewGroup.LayoutParams params = view.getLayoutParams();
+	int base = originalHeight > 0 ? originalHeight : view.getHeight();
+	double period = Math.max(4, 60 / speed);
+	params.height = (int) (base * (0.75 + 0.25 * Math.cos(2 * Math.PI * frame / period)));
+	view.requestLayout();
+    }
+
+    private void dispatch(long now, int action, int pointerCount) {
+	MotionEvent event;
+	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+	    event = obtainWithProperties(now, action, pointerCount);
+	} else {
+	    event = obtainWithIds(now, action, pointerCount);
+	}
+	inputTime = System.nanoTime();
+	view.dispatchTouchEvent(event);
+	event.recycle();
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private MotionEvent obtainWithProperties(long now, int action, int pointerCount) {
+	if (pointerProperties == null) {
+	    pointerProperties = new PointerProperties[MAX_POINTERS];
+	    for (int i = 0; i < MAX_POINTERS; i++) {
+		pointerProperties[i] = new PointerProperties();
+		pointerProperties[i].id = pointerIds[i];
+		pointerProperties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+	    }
+	}
+	return MotionEvent.obtain(gestureDownTime, now, action, pointerCount, pointerProperties, pointerCoords, 0, 0,
+		1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+    }
+
+    @SuppressWarnings("deprecation")
+    private MotionEvent obtainWithIds(long now, int action, int pointerCount) {
+	return MotionEvent.obtain(gestureDownTime, now, action, pointerCount, pointerIds, pointerCoords, 0, 1, 1, 0,
+		0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+    }
+
+    private final OnKeyPlayListener playListener = new OnKeyPlayListener() {
+	@Override
+	public void onKeyDown(int midiCode) {
+	    phase.listenerLatency.record(System.nanoTime() - inputTime);
+	}
+
+	@Override
+	public void onKeyUp(int midiCode) {
+	}
+    };
+
+}
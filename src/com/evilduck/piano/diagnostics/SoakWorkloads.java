@@ -0,0 +1,68 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.diagnostics;
+
+import java.util.Random;
+
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+
+/**
+ * Workloads shared by {@link SoakRunner} and the desktop soak check, free of
+ * Android classes.
+ */
+final class SoakWorkloads {
+
+    static final String PHASE_REPLAY = "replay";
+
+    static final String PHASE_CHORDS = "chords";
+
+    static final String PHASE_FLING = "fling";
+
+    static final String PHASE_PINCH = "pinch";
+
+    static final String PHASE_RESIZE = "resize";
+
+    static final String[] PHASES = { PHASE_REPLAY, PHASE_CHORDS, PHASE_FLING, PHASE_PINCH, PHASE_RESIZE };
+
+    private static final int DENSE_BARS = 64;
+
+    private SoakWorkloads() {
+    }
+
+    static TempoMap newTempoMap() {
+	TempoMap tempoMap = new TempoMap();
+	tempoMap.setTempo(0, 180);
+	return tempoMap;
+    }
+
+    /**
+     * @return chords of four notes on every sixteenth, wandering across the
+     *         keyboard
+     */
+    static Sequence newDenseSequence(int ppq) {
+	Sequence sequence = new Sequence(DENSE_BARS * 16 * 8);
+	long step = ppq / 4;
+	Random random = new Random(1);
+	for (int i = 0; i < DENSE_BARS * 16; i++) {
+	    int root = 36 + random.nextInt(48);
+	    for (int voice = 0; voice < 4; voice++) {
+		sequence.addNote(i * step, step, 0, root + voice * 4 + random.nextInt(3), 100);
+	    }
+	}
+	return sequence;
+    }
+
+}
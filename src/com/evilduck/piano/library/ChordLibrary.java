@@ -0,0 +1,307 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only chord voicing library, memory mapped from a file written by
+ * {@link ChordLibraryBuilder}. Nothing is parsed up front: lookups binary
+ * search the mapped tables, so opening a library with thousands of voicings
+ * costs the same as opening a small one and only the touched pages are read.
+ * <p>
+ * Entries are identified by their index in the name table, which is sorted
+ * by name ignoring ASCII case, so all the names starting with a prefix form a
+ * contiguous range. A second table lists entries ordered by pitch class mask,
+ * bit {@code n} of which is set if pitch class {@code n} (C is 0) is in the
+ * voicing. Queries return indices and fill caller supplied arrays, e.g.
+ * 
+ * <pre>
+ * int count = library.getVoicing(entry, codes);
+ * pianoView.addCodes(codes, count, color, PianoView.SHAPE_CIRCLE);
+ * </pre>
+ * 
+ * Instances are immutable and safe to share between threads.
+ */
+public final class ChordLibrary {
+
+    static final int MAGIC = 0x43564C42;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int ENTRY_SIZE = 16;
+
+    static final int MASK_RECORD_SIZE = 8;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_ENTRY_COUNT = 8;
+    static final int OFFSET_ENTRIES = 12;
+    static final int OFFSET_MASK_INDEX = 16;
+    static final int OFFSET_VOICINGS = 20;
+    static final int OFFSET_NAMES = 24;
+    static final int OFFSET_LENGTH = 28;
+
+    static final int ENTRY_NAME = 0;
+    static final int ENTRY_NAME_LENGTH = 4;
+    static final int ENTRY_MASK = 6;
+    static final int ENTRY_VOICING = 8;
+    static final int ENTRY_NOTE_COUNT = 12;
+
+    /**
+     * Highest number of notes in a single voicing.
+     */
+    public static final int MAX_NOTES = 127;
+
+    private final ByteBuffer buffer;
+
+    private final int entryCount;
+
+    private final int entries;
+
+    private final int maskIndex;
+
+    private final int voicings;
+
+    private final int names;
+
+    private ChordLibrary(ByteBuffer buffer) throws IOException {
+	this.buffer = buffer;
+	if (buffer.capacity() < HEADER_SIZE || buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+	    throw new IOException("Not a chord library");
+	}
+	if (buffer.getInt(OFFSET_VERSION) != VERSION) {
+	    throw new IOException("Unsupported chord library version " + buffer.getInt(OFFSET_VERSION));
+	}
+	if (buffer.getInt(OFFSET_LENGTH) != buffer.capacity()) {
+	    throw new IOException("Chord library is truncated");
+	}
+	entryCount = buffer.getInt(OFFSET_ENTRY_COUNT);
+	entries = buffer.getInt(OFFSET_ENTRIES);
+	maskIndex = buffer.getInt(OFFSET_MASK_INDEX);
+	voicings = buffer.getInt(OFFSET_VOICINGS);
+	names = buffer.getInt(OFFSET_NAMES);
+	if (entryCount < 0 || entries + (long) entryCount * ENTRY_SIZE > maskIndex
+		|| maskIndex + (long) entryCount * MASK_RECORD_SIZE > voicings || voicings > names
+		|| names > buffer.capacity()) {
+	    throw new IOException("Chord library tables are corrupted");
+	}
+    }
+
+    /**
+     * Maps the library file into memory. The file is closed right away, the
+     * mapping stays valid until the library is garbage collected.
+     */
+    public static ChordLibrary open(File file) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+	    FileChannel channel = raf.getChannel();
+	    return new ChordLibrary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /**
+     * Wraps library data that is already in memory, e.g. read from assets.
+     */
+    public static ChordLibrary wrap(ByteBuffer data) throws IOException {
+	return new ChordLibrary(data.slice());
+    }
+
+    public int size() {
+	return entryCount;
+    }
+
+    /**
+     * @return index of the first entry whose name starts with the prefix,
+     *         ignoring ASCII case, or the index it would be inserted at
+     */
+    public int prefixStart(CharSequence prefix) {
+	int low = 0;
+	int high = entryCount;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (comparePrefix(mid, prefix) < 0) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * @return index after the last entry whose name starts with the prefix,
+     *         so that {@code [prefixStart, prefixEnd)} are all the matches
+     */
+    public int prefixEnd(CharSequence prefix) {
+	int low = 0;
+	int high = entryCount;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (comparePrefix(mid, prefix) <= 0) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * @return index of the entry with exactly this name, ignoring ASCII case,
+     *         or -1
+     */
+    public int find(CharSequence name) {
+	int index = prefixStart(name);
+	if (index < entryCount && nameLength(index) == name.length() && comparePrefix(index, name) == 0) {
+	    return index;
+	}
+	return -1;
+    }
+
+    /**
+     * Looks up voicings by their pitch class set, whatever the octave and
+     * inversion.
+     * 
+     * @param out
+     *            receives indices of matching entries in name order, may be
+     *            shorter than the number of matches
+     * @return number of matching entries, which can be more than were
+     *         written
+     */
+    public int findByMask(int mask, int[] out) {
+	int start = maskStart(mask);
+	int end = maskStart(mask + 1);
+	int written = Math.min(end - start, out.length);
+	for (int i = 0; i < written; i++) {
+	    out[i] = buffer.getInt(maskIndex + (start + i) * MASK_RECORD_SIZE + 4);
+	}
+	return end - start;
+    }
+
+    /**
+     * @return pitch class mask of the midi codes, bit {@code n} set for pitch
+     *         class {@code n}
+     */
+    public static int maskOf(int[] codes, int count) {
+	int mask = 0;
+	for (int i = 0; i < count; i++) {
+	    mask |= 1 << (codes[i] % 12);
+	}
+	return mask;
+    }
+
+    public int getMask(int entry) {
+	return buffer.getShort(entryOffset(entry) + ENTRY_MASK) & 0xFFF;
+    }
+
+    public int getNoteCount(int entry) {
+	return buffer.get(entryOffset(entry) + ENTRY_NOTE_COUNT);
+    }
+
+    /**
+     * Copies midi codes of the voicing, lowest first.
+     * 
+     * @param codes
+     *            has to fit {@link #getNoteCount(int)} codes,
+     *            {@link #MAX_NOTES} always does
+     * @return number of codes written
+     */
+    public int getVoicing(int entry, int[] codes) {
+	int record = entryOffset(entry);
+	int count = buffer.get(record + ENTRY_NOTE_COUNT);
+	if (codes.length < count) {
+	    throw new IllegalArgumentException("Voicing has " + count + " notes, got room for " + codes.length);
+	}
+	int position = voicings + buffer.getInt(record + ENTRY_VOICING);
+	for (int i = 0; i < count; i++) {
+	    codes[i] = buffer.get(position + i);
+	}
+	return count;
+    }
+
+    /**
+     * Appends the entry's name without creating intermediate strings.
+     */
+    public void appendName(int entry, StringBuilder out) {
+	int record = entryOffset(entry);
+	int position = names + buffer.getInt(record + ENTRY_NAME);
+	int length = buffer.getShort(record + ENTRY_NAME_LENGTH);
+	for (int i = 0; i < length; i++) {
+	    out.append((char) buffer.get(position + i));
+	}
+    }
+
+    public String getName(int entry) {
+	StringBuilder builder = new StringBuilder(nameLength(entry));
+	appendName(entry, builder);
+	return builder.toString();
+    }
+
+    private int entryOffset(int entry) {
+	if (entry < 0 || entry >= entryCount) {
+	    throw new IndexOutOfBoundsException("Entry " + entry + " out of " + entryCount);
+	}
+	return entries + entry * ENTRY_SIZE;
+    }
+
+    private int nameLength(int entry) {
+	return buffer.getShort(entryOffset(entry) + ENTRY_NAME_LENGTH);
+    }
+
+    /**
+     * Compares the entry's name cut to the prefix length with the prefix.
+     */
+    private int comparePrefix(int entry, CharSequence prefix) {
+	int record = entries + entry * ENTRY_SIZE;
+	int position = names + buffer.getInt(record + ENTRY_NAME);
+	int length = buffer.getShort(record + ENTRY_NAME_LENGTH);
+	int common = Math.min(length, prefix.length());
+	for (int i = 0; i < common; i++) {
+	    int diff = fold((char) buffer.get(position + i)) - fold(prefix.charAt(i));
+	    if (diff != 0) {
+		return diff;
+	    }
+	}
+	return length < prefix.length() ? -1 : 0;
+    }
+
+    private int maskStart(int mask) {
+	int low = 0;
+	int high = entryCount;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (buffer.getInt(maskIndex + mid * MASK_RECORD_SIZE) < mask) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    static char fold(char c) {
+	return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+}
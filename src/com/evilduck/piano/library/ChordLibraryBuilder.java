@@ -0,0 +1,220 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.library;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Writes the binary file read by {@link ChordLibrary}. Also a command line
+ * tool turning a text source into a library, run by {@code mvn test} in jvm/
+ * on {@code jvm/chords/voicings.txt}, or:
+ * 
+ * <pre>
+ * java -cp jvm/target/classes com.evilduck.piano.library.ChordLibraryBuilder chords.txt chords.bin
+ * </pre>
+ * 
+ * Every line of the source is a name followed by the midi codes of the
+ * voicing, e.g. {@code Cmaj7 48 52 55 59}. Empty lines and lines starting with
+ * {@code #} are skipped. Names are printable ASCII without spaces.
+ */
+public class ChordLibraryBuilder {
+
+    private final ArrayList<Voicing> voicings = new ArrayList<Voicing>();
+
+    private static final class Voicing {
+
+	final String name;
+
+	final byte[] codes;
+
+	final int mask;
+
+	int index;
+
+	Voicing(String name, byte[] codes, int mask) {
+	    this.name = name;
+	    this.codes = codes;
+	    this.mask = mask;
+	}
+
+    }
+
+    public ChordLibraryBuilder add(String name, int... codes) {
+	if (name.length() == 0 || name.length() > Short.MAX_VALUE) {
+	    throw new IllegalArgumentException("Invalid name length " + name.length());
+	}
+	for (int i = 0; i < name.length(); i++) {
+	    char c = name.charAt(i);
+	    if (c <= ' ' || c > '~') {
+		throw new IllegalArgumentException("Name has to be printable ASCII without spaces: " + name);
+	    }
+	}
+	if (codes.length == 0 || codes.length > ChordLibrary.MAX_NOTES) {
+	    throw new IllegalArgumentException("Invalid number of notes " + codes.length + " in " + name);
+	}
+
+	int[] sorted = codes.clone();
+	Arrays.sort(sorted);
+	byte[] packed = new byte[sorted.length];
+	for (int i = 0; i < sorted.length; i++) {
+	    if (sorted[i] < 0 || sorted[i] > 127) {
+		throw new IllegalArgumentException("Invalid midi code " + sorted[i] + " in " + name);
+	    }
+	    packed[i] = (byte) sorted[i];
+	}
+	voicings.add(new Voicing(name, packed, ChordLibrary.maskOf(sorted, sorted.length)));
+	return this;
+    }
+
+    /**
+     * Adds every voicing of the text source, see the class description for
+     * the format.
+     */
+    public ChordLibraryBuilder addSource(File source) throws IOException {
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "US-ASCII"));
+	try {
+	    String line;
+	    int lineNumber = 0;
+	    while ((line = reader.readLine()) != null) {
+		lineNumber++;
+		line = line.trim();
+		if (line.length() == 0 || line.charAt(0) == '#') {
+		    continue;
+		}
+		String[] parts = line.split("\\s+");
+		int[] codes = new int[parts.length - 1];
+		try {
+		    for (int i = 0; i < codes.length; i++) {
+			codes[i] = Integer.parseInt(parts[i + 1]);
+		    }
+		    add(parts[0], codes);
+		} catch (IllegalArgumentException e) {
+		    throw new IOException(source + ":" + lineNumber + ": " + e.getMessage());
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	return this;
+    }
+
+    public void write(File file) throws IOException {
+	Voicing[] byName = voicings.toArray(new Voicing[voicings.size()]);
+	Arrays.sort(byName, new Comparator<Voicing>() {
+	    @Override
+	    public int compare(Voicing lhs, Voicing rhs) {
+		return compareFolded(lhs.name, rhs.name);
+	    }
+	});
+	int voicingBytes = 0;
+	int nameBytes = 0;
+	for (int i = 0; i < byName.length; i++) {
+	    byName[i].index = i;
+	    voicingBytes += byName[i].codes.length;
+	    nameBytes += byName[i].name.length();
+	}
+
+	Voicing[] byMask = byName.clone();
+	// stable, so entries with the same mask stay in name order
+	Arrays.sort(byMask, new Comparator<Voicing>() {
+	    @Override
+	    public int compare(Voicing lhs, Voicing rhs) {
+		return lhs.mask - rhs.mask;
+	    }
+	});
+
+	int entries = ChordLibrary.HEADER_SIZE;
+	int maskIndex = entries + byName.length * ChordLibrary.ENTRY_SIZE;
+	int voicingsStart = maskIndex + byName.length * ChordLibrary.MASK_RECORD_SIZE;
+	int names = voicingsStart + voicingBytes;
+	int length = names + nameBytes;
+
+	ByteBuffer buffer = ByteBuffer.allocate(length);
+	buffer.putInt(ChordLibrary.OFFSET_MAGIC, ChordLibrary.MAGIC);
+	buffer.putInt(ChordLibrary.OFFSET_VERSION, ChordLibrary.VERSION);
+	buffer.putInt(ChordLibrary.OFFSET_ENTRY_COUNT, byName.length);
+	buffer.putInt(ChordLibrary.OFFSET_ENTRIES, entries);
+	buffer.putInt(ChordLibrary.OFFSET_MASK_INDEX, maskIndex);
+	buffer.putInt(ChordLibrary.OFFSET_VOICINGS, voicingsStart);
+	buffer.putInt(ChordLibrary.OFFSET_NAMES, names);
+	buffer.putInt(ChordLibrary.OFFSET_LENGTH, length);
+
+	int voicingOffset = 0;
+	int nameOffset = 0;
+	for (int i = 0; i < byName.length; i++) {
+	    Voicing voicing = byName[i];
+	    int record = entries + i * ChordLibrary.ENTRY_SIZE;
+	    buffer.putInt(record + ChordLibrary.ENTRY_NAME, nameOffset);
+	    buffer.putShort(record + ChordLibrary.ENTRY_NAME_LENGTH, (short) voicing.name.length());
+	    buffer.putShort(record + ChordLibrary.ENTRY_MASK, (short) voicing.mask);
+	    buffer.putInt(record + ChordLibrary.ENTRY_VOICING, voicingOffset);
+	    buffer.put(record + ChordLibrary.ENTRY_NOTE_COUNT, (byte) voicing.codes.length);
+
+	    for (int j = 0; j < voicing.codes.length; j++) {
+		buffer.put(voicingsStart + voicingOffset++, voicing.codes[j]);
+	    }
+	    for (int j = 0; j < voicing.name.length(); j++) {
+		buffer.put(names + nameOffset++, (byte) voicing.name.charAt(j));
+	    }
+	}
+	for (int i = 0; i < byMask.length; i++) {
+	    int record = maskIndex + i * ChordLibrary.MASK_RECORD_SIZE;
+	    buffer.putInt(record, byMask[i].mask);
+	    buffer.putInt(record + 4, byMask[i].index);
+	}
+
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+	    raf.setLength(0);
+	    while (buffer.hasRemaining()) {
+		raf.getChannel().write(buffer);
+	    }
+	} finally {
+	    raf.close();
+	}
+    }
+
+    private static int compareFolded(String lhs, String rhs) {
+	int common = Math.min(lhs.length(), rhs.length());
+	for (int i = 0; i < common; i++) {
+	    int diff = ChordLibrary.fold(lhs.charAt(i)) - ChordLibrary.fold(rhs.charAt(i));
+	    if (diff != 0) {
+		return diff;
+	    }
+	}
+	return lhs.length() - rhs.length();
+    }
+
+    public static void main(String[] args) throws IOException {
+	if (args.length != 2) {
+	    System.err.println("Usage: ChordLibraryBuilder <source.txt> <library.bin>");
+	    System.exit(1);
+	}
+	ChordLibraryBuilder builder = new ChordLibraryBuilder();
+	builder.addSource(new File(args[0]));
+	builder.write(new File(args[1]));
+	System.out.println(builder.voicings.size() + " voicings written to " + args[1]);
+    }
+
+}
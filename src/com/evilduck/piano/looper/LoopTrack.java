@@ -0,0 +1,144 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.looper;
+
+/**
+ * Events of one looper track sorted by their frame within the loop, in
+ * preallocated primitive arrays. The capacity is fixed, so a loop takes the
+ * same memory however many times it repeats or is overdubbed.
+ * <p>
+ * Used on the audio thread only.
+ */
+final class LoopTrack {
+
+    private final int[] positions;
+
+    private final int[] messages;
+
+    /**
+     * Pass of the loop the event was recorded in, it is not played back
+     * before the next pass, the performer heard it live already.
+     */
+    private final int[] passes;
+
+    private int size;
+
+    /**
+     * Notes sounding from this track, to be released on mute or clear.
+     */
+    final long[] sounding = new long[2];
+
+    /**
+     * Quantisation shift of the last note on per key, applied to its note
+     * off so that durations are kept.
+     */
+    final int[] noteShift = new int[128];
+
+    boolean muted;
+
+    LoopTrack(int capacity) {
+	positions = new int[capacity];
+	messages = new int[capacity];
+	passes = new int[capacity];
+    }
+
+    /**
+     * @return false if the track is full
+     */
+    boolean insert(int position, int message, int pass) {
+	if (size == positions.length) {
+	    return false;
+	}
+	place(position, message, pass);
+	return true;
+    }
+
+    /**
+     * Wraps positions of events recorded past the loop end, once the length
+     * of a free loop is known.
+     */
+    void wrap(int loopFrames) {
+	int count = size;
+	size = 0;
+	for (int i = 0; i < count; i++) {
+	    // re-sorted entries only ever occupy slots that were read already
+	    int position = positions[i];
+	    place(position % loopFrames, messages[i], passes[i] + position / loopFrames);
+	}
+    }
+
+    private void place(int position, int message, int pass) {
+	int index = indexAfter(position);
+	System.arraycopy(positions, index, positions, index + 1, size - index);
+	System.arraycopy(messages, index, messages, index + 1, size - index);
+	System.arraycopy(passes, index, passes, index + 1, size - index);
+	positions[index] = position;
+	messages[index] = message;
+	passes[index] = pass;
+	size++;
+    }
+
+    void clear() {
+	size = 0;
+    }
+
+    int size() {
+	return size;
+    }
+
+    int getPosition(int index) {
+	return positions[index];
+    }
+
+    int getMessage(int index) {
+	return messages[index];
+    }
+
+    int getPass(int index) {
+	return passes[index];
+    }
+
+    /**
+     * @return index of the first event at or after the position
+     */
+    int indexOf(int position) {
+	int low = 0;
+	int high = size;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (positions[mid] < position) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    private int indexAfter(int position) {
+	int low = 0;
+	int high = size;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (positions[mid] <= position) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+}
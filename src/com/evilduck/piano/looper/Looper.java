@@ -0,0 +1,412 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.looper;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.sequencer.NanoClock;
+import com.evilduck.piano.sequencer.Sequencer;
+
+/**
+ * Live looper with a fixed number of tracks of key events. A loop is either
+ * started with a fixed length or recorded freely and closed when the
+ * performer is done, then it repeats while any track can be overdubbed on
+ * top.
+ * <p>
+ * The UI records events and sends commands through a lock-free
+ * single-producer/single-consumer ring stamped with the clock time. The audio
+ * thread drains it once per buffer in {@link #render}, files events at the
+ * loop position that was heard at that time and plays the tracks with sample
+ * accurate loop boundaries. Nothing is allocated on the audio thread and each
+ * track holds a fixed number of events, so memory does not grow with
+ * repetitions. Events that don't fit are dropped and counted.
+ * <p>
+ * An overdubbed event is first played back on the next pass, the performer
+ * heard it live when recording. Quantisation moves note ons towards a grid
+ * and their note offs by the same amount, so durations are kept.
+ */
+public class Looper {
+
+    public static final int STATE_STOPPED = 0;
+
+    /**
+     * First pass of a free loop, its length is not known yet.
+     */
+    public static final int STATE_RECORDING = 1;
+
+    public static final int STATE_PLAYING = 2;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int COMMAND_EVENT = 0;
+    private static final int COMMAND_START = 1;
+    private static final int COMMAND_CLOSE = 2;
+    private static final int COMMAND_STOP = 3;
+    private static final int COMMAND_CLEAR = 4;
+    private static final int COMMAND_MUTE = 5;
+
+    private final int sampleRate;
+
+    private final NanoClock clock;
+
+    private final TimedEventRing commands;
+
+    private final LoopTrack[] tracks;
+
+    private volatile int quantizeGrid;
+
+    private volatile float quantizeStrength;
+
+    private volatile int state = STATE_STOPPED;
+
+    private volatile int loopFrames;
+
+    private volatile int position;
+
+    private volatile int droppedEvents;
+
+    private int commandsDropped;
+
+    // audio thread state
+
+    private long renderedFrames;
+
+    private long loopStart;
+
+    private long bufferClock;
+
+    private Sequencer.AudioSink sink;
+
+    /**
+     * @param capacity
+     *            number of events each track can hold
+     */
+    public Looper(int sampleRate, int trackCount, int capacity) {
+	this(sampleRate, trackCount, capacity, NanoClock.SYSTEM);
+    }
+
+    public Looper(int sampleRate, int trackCount, int capacity, NanoClock clock) {
+	if (trackCount < 1 || trackCount > 0xFFFF) {
+	    throw new IllegalArgumentException("Invalid number of tracks " + trackCount);
+	}
+	this.sampleRate = sampleRate;
+	this.clock = clock;
+	tracks = new LoopTrack[trackCount];
+	for (int i = 0; i < trackCount; i++) {
+	    tracks[i] = new LoopTrack(capacity);
+	}
+	commands = new TimedEventRing(1024);
+    }
+
+    // ==========
+    // UI thread
+    // ==========
+
+    /**
+     * Starts recording a free loop, its length is set by {@link #closeLoop()}.
+     */
+    public void start() {
+	send(COMMAND_START, 0, 0);
+    }
+
+    /**
+     * Starts a loop of a fixed length, e.g. from
+     * {@link #framesFor(int, double, int)}.
+     */
+    public void start(int loopFrames) {
+	if (loopFrames <= 0) {
+	    throw new IllegalArgumentException("Loop length has to be positive, got " + loopFrames);
+	}
+	send(COMMAND_START, 0, loopFrames);
+    }
+
+    /**
+     * Ends the first pass of a free loop now, rounded to the quantisation
+     * grid, and starts playing it back.
+     */
+    public void closeLoop() {
+	send(COMMAND_CLOSE, 0, 0);
+    }
+
+    /**
+     * Stops playback and releases sounding notes, recorded tracks are kept.
+     */
+    public void stop() {
+	send(COMMAND_STOP, 0, 0);
+    }
+
+    public void clearTrack(int track) {
+	send(COMMAND_CLEAR, checkTrack(track), 0);
+    }
+
+    public void setMuted(int track, boolean muted) {
+	send(COMMAND_MUTE, checkTrack(track), muted ? 1 : 0);
+    }
+
+    /**
+     * Records an event played now into the track.
+     *
+     * @return false if the event was dropped, the queue to the audio thread
+     *         being full
+     */
+    public boolean record(int track, int message) {
+	return send(COMMAND_EVENT, checkTrack(track), message);
+    }
+
+    /**
+     * @param gridFrames
+     *            grid note ons are moved towards, 0 turns quantisation off
+     * @param strength
+     *            0 keeps the timing, 1 snaps to the grid
+     */
+    public void setQuantization(int gridFrames, float strength) {
+	if (gridFrames < 0 || strength < 0 || strength > 1) {
+	    throw new IllegalArgumentException("Invalid quantisation " + gridFrames + "/" + strength);
+	}
+	quantizeStrength = strength;
+	quantizeGrid = gridFrames;
+    }
+
+    /**
+     * @return frames of the given number of beats at the tempo, e.g. for a
+     *         loop length or a quantisation grid
+     */
+    public static int framesFor(int sampleRate, double bpm, double beats) {
+	return (int) Math.round(sampleRate * 60 * beats / bpm);
+    }
+
+    public int getState() {
+	return state;
+    }
+
+    /**
+     * @return loop length in frames, 0 while a free loop is being recorded
+     */
+    public int getLoopFrames() {
+	return loopFrames;
+    }
+
+    /**
+     * @return frame within the loop at the end of the last rendered buffer
+     */
+    public int getPosition() {
+	return position;
+    }
+
+    /**
+     * @return number of events dropped because a track or the queue was full
+     */
+    public int getDroppedEvents() {
+	return droppedEvents + commandsDropped;
+    }
+
+    public int getTrackCount() {
+	return tracks.length;
+    }
+
+    private int checkTrack(int track) {
+	if (track < 0 || track >= tracks.length) {
+	    throw new IllegalArgumentException("No track " + track);
+	}
+	return track;
+    }
+
+    private boolean send(int command, int track, int argument) {
+	if (!commands.offer(clock.nanoTime(), argument, command << 16 | track)) {
+	    commandsDropped++;
+	    return false;
+	}
+	return true;
+    }
+
+    // ==========
+    // Audio thread
+    // ==========
+
+    /**
+     * Plays the loop into an audio buffer, called on the audio thread for
+     * every rendered buffer.
+     *
+     * @param bufferClockNanos
+     *            clock time at which the first frame of the buffer is heard
+     */
+    public void render(long bufferClockNanos, int frames, Sequencer.AudioSink sink) {
+	this.bufferClock = bufferClockNanos;
+	this.sink = sink;
+	commands.drain(commandConsumer);
+
+	long end = renderedFrames + frames;
+	if (state == STATE_PLAYING) {
+	    play(renderedFrames, end);
+	}
+	renderedFrames = end;
+
+	if (state == STATE_PLAYING) {
+	    position = (int) (Math.max(0, end - loopStart) % loopFrames);
+	} else if (state == STATE_RECORDING) {
+	    position = (int) Math.min(Integer.MAX_VALUE, Math.max(0, end - loopStart));
+	}
+	this.sink = null;
+    }
+
+    private final TimedEventRing.Consumer commandConsumer = new TimedEventRing.Consumer() {
+	@Override
+	public void onEvent(long time, int argument, int tag) {
+	    // heard at that time, so this is the loop position the performer
+	    // played along
+	    long frame = renderedFrames + (time - bufferClock) * sampleRate / NANOS_PER_SECOND;
+	    int track = tag & 0xFFFF;
+	    switch (tag >>> 16) {
+	    case COMMAND_EVENT:
+		recordEvent(tracks[track], frame, argument);
+		break;
+	    case COMMAND_START:
+		begin(frame, argument);
+		break;
+	    case COMMAND_CLOSE:
+		close(frame);
+		break;
+	    case COMMAND_STOP:
+		state = STATE_STOPPED;
+		for (int i = 0; i < tracks.length; i++) {
+		    releaseAll(tracks[i]);
+		}
+		break;
+	    case COMMAND_CLEAR:
+		releaseAll(tracks[track]);
+		tracks[track].clear();
+		break;
+	    case COMMAND_MUTE:
+		tracks[track].muted = argument != 0;
+		if (argument != 0) {
+		    releaseAll(tracks[track]);
+		}
+		break;
+	    default:
+		break;
+	    }
+	}
+    };
+
+    private void begin(long frame, int length) {
+	for (int i = 0; i < tracks.length; i++) {
+	    releaseAll(tracks[i]);
+	    tracks[i].clear();
+	}
+	loopStart = frame;
+	loopFrames = length;
+	state = length > 0 ? STATE_PLAYING : STATE_RECORDING;
+    }
+
+    private void close(long frame) {
+	if (state != STATE_RECORDING) {
+	    return;
+	}
+	long length = Math.max(1, frame - loopStart);
+	int grid = quantizeGrid;
+	if (grid > 0) {
+	    length = Math.max(1, Math.round((double) length / grid)) * grid;
+	}
+	loopFrames = (int) Math.min(Integer.MAX_VALUE, length);
+	for (int i = 0; i < tracks.length; i++) {
+	    tracks[i].wrap(loopFrames);
+	}
+	state = STATE_PLAYING;
+    }
+
+    private void recordEvent(LoopTrack track, long frame, int message) {
+	if (state == STATE_STOPPED || !(MidiMessage.isNoteOn(message) || MidiMessage.isNoteOff(message))) {
+	    return;
+	}
+	long offset = Math.max(0, frame - loopStart);
+	int code = MidiMessage.data1(message);
+
+	int shift = 0;
+	int grid = quantizeGrid;
+	if (MidiMessage.isNoteOn(message)) {
+	    if (grid > 0) {
+		long snapped = Math.round((double) offset / grid) * grid;
+		shift = Math.round((snapped - offset) * quantizeStrength);
+	    }
+	    track.noteShift[code] = shift;
+	} else {
+	    shift = track.noteShift[code];
+	}
+	offset = Math.max(0, offset + shift);
+
+	boolean stored;
+	if (state == STATE_RECORDING) {
+	    stored = offset <= Integer.MAX_VALUE && track.insert((int) offset, message, 0);
+	} else {
+	    int pass = (int) (offset / loopFrames);
+	    stored = track.insert((int) (offset % loopFrames), message, pass);
+	}
+	if (!stored) {
+	    droppedEvents++;
+	}
+    }
+
+    /**
+     * Plays absolute frames {@code [from, to)}, split at loop boundaries.
+     */
+    private void play(long from, long to) {
+	long current = Math.max(from, loopStart);
+	while (current < to) {
+	    long loopFrame = current - loopStart;
+	    int pass = (int) (loopFrame / loopFrames);
+	    int start = (int) (loopFrame % loopFrames);
+	    int end = (int) Math.min(loopFrames, start + (to - current));
+	    int bufferOffset = (int) (current - from);
+	    for (int i = 0; i < tracks.length; i++) {
+		LoopTrack track = tracks[i];
+		if (!track.muted) {
+		    playTrack(track, start, end, pass, bufferOffset - start);
+		}
+	    }
+	    current += end - start;
+	}
+    }
+
+    private void playTrack(LoopTrack track, int start, int end, int pass, int offsetShift) {
+	for (int i = track.indexOf(start); i < track.size(); i++) {
+	    int eventPosition = track.getPosition(i);
+	    if (eventPosition >= end) {
+		break;
+	    }
+	    if (track.getPass(i) >= pass) {
+		// recorded in this pass and heard live already
+		continue;
+	    }
+	    int message = track.getMessage(i);
+	    int code = MidiMessage.data1(message);
+	    if (MidiMessage.isNoteOn(message)) {
+		track.sounding[code >>> 6] |= 1L << code;
+	    } else {
+		track.sounding[code >>> 6] &= ~(1L << code);
+	    }
+	    sink.onAudioEvent(eventPosition + offsetShift, message);
+	}
+    }
+
+    private void releaseAll(LoopTrack track) {
+	for (int word = 0; word < track.sounding.length; word++) {
+	    for (long bits = track.sounding[word]; bits != 0; bits &= bits - 1) {
+		int code = word * 64 + Long.numberOfTrailingZeros(bits);
+		sink.onAudioEvent(0, MidiMessage.noteOff(0, code));
+	    }
+	    track.sounding[word] = 0;
+	}
+    }
+
+}
@@ -0,0 +1,62 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.looper;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.views.instrument.PianoView;
+import com.evilduck.piano.views.instrument.PianoView.OnKeyPlayListener;
+
+/**
+ * Records keys played on a {@link PianoView} into a track of a
+ * {@link Looper}. Set as the view's {@link OnKeyPlayListener}, or call from
+ * one that also sends the notes to the synthesizer.
+ */
+public class LooperKeyRecorder implements OnKeyPlayListener {
+
+    private static final int VELOCITY = 100;
+
+    private final Looper looper;
+
+    private int track;
+
+    public LooperKeyRecorder(Looper looper) {
+	this.looper = looper;
+    }
+
+    /**
+     * Selects the track overdubs go to, called on the main thread.
+     */
+    public void setTrack(int track) {
+	if (track < 0 || track >= looper.getTrackCount()) {
+	    throw new IllegalArgumentException("No track " + track);
+	}
+	this.track = track;
+    }
+
+    public int getTrack() {
+	return track;
+    }
+
+    @Override
+    public void onKeyDown(int midiCode) {
+	looper.record(track, MidiMessage.noteOn(0, midiCode, VELOCITY));
+    }
+
+    @Override
+    public void onKeyUp(int midiCode) {
+	looper.record(track, MidiMessage.noteOff(0, midiCode));
+    }
+
+}
@@ -0,0 +1,57 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Makes a {@link PianoView} in play mode a midi source: played keys are
+ * encoded as note on and off bytes into a reused buffer and sent to a
+ * {@link MidiByteSink}. Called on the main thread.
+ */
+public class KeyMidiOutput implements PianoView.OnKeyPlayListener {
+
+    private static final int VELOCITY = 100;
+
+    private final MidiByteSink sink;
+
+    private final int channel;
+
+    private final byte[] buffer = new byte[3];
+
+    public KeyMidiOutput(MidiByteSink sink, int channel) {
+	this.sink = sink;
+	this.channel = channel;
+    }
+
+    @Override
+    public void onKeyDown(int midiCode) {
+	send(MidiMessage.NOTE_ON | channel, midiCode, VELOCITY);
+    }
+
+    @Override
+    public void onKeyUp(int midiCode) {
+	send(MidiMessage.NOTE_OFF | channel, midiCode, 0);
+    }
+
+    private void send(int status, int data1, int data2) {
+	buffer[0] = (byte) status;
+	buffer[1] = (byte) data1;
+	buffer[2] = (byte) data2;
+	sink.send(buffer, 0, buffer.length, System.nanoTime());
+    }
+
+}
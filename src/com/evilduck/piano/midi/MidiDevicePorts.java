@@ -0,0 +1,65 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+/**
+ * Meeting point of the activity and {@link PianoMidiDeviceService}, which the
+ * system creates and binds on its own schedule. The activity attaches its
+ * {@link PianoViewMidiInput} while visible and plays into {@link #OUTPUT}; the
+ * service delivers its input port to the former and plugs its output port
+ * into the latter while it runs.
+ * <p>
+ * Holds no midi framework types, so it can be used on any API level; without
+ * the service nothing arrives and output is discarded.
+ */
+public final class MidiDevicePorts {
+
+    private static volatile PianoViewMidiInput input;
+
+    private static volatile MidiByteSink outputPort;
+
+    /**
+     * Sends to the output port of the running service, if any.
+     */
+    public static final MidiByteSink OUTPUT = new MidiByteSink() {
+	@Override
+	public void send(byte[] data, int offset, int count, long timestamp) {
+	    MidiByteSink port = outputPort;
+	    if (port != null) {
+		port.send(data, offset, count, timestamp);
+	    }
+	}
+    };
+
+    private MidiDevicePorts() {
+    }
+
+    /**
+     * @param input
+     *            receives what arrives at the input port, null to ignore it
+     */
+    public static void setInput(PianoViewMidiInput input) {
+	MidiDevicePorts.input = input;
+    }
+
+    static PianoViewMidiInput getInput() {
+	return input;
+    }
+
+    static void setOutputPort(MidiByteSink port) {
+	outputPort = port;
+    }
+
+}
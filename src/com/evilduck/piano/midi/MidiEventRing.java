@@ -0,0 +1,85 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue of packed midi messages for exactly one producer
+ * and one consumer thread. Slots are primitive and positions are published
+ * with ordered writes, so neither side blocks or allocates.
+ */
+public final class MidiEventRing {
+
+    public interface Consumer {
+
+	void onMessage(int message);
+
+    }
+
+    private final int[] messages;
+
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            rounded up to a power of two
+     */
+    public MidiEventRing(int capacity) {
+	int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+	messages = new int[size];
+	mask = size - 1;
+    }
+
+    /**
+     * Called on the producer thread only.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(int message) {
+	long position = tail.get();
+	if (position - head.get() == messages.length) {
+	    return false;
+	}
+	messages[(int) position & mask] = message;
+	tail.lazySet(position + 1);
+	return true;
+    }
+
+    /**
+     * Hands every queued message to the consumer, called on the consumer
+     * thread only.
+     *
+     * @return number of messages drained
+     */
+    public int drain(Consumer consumer) {
+	long position = head.get();
+	long end = tail.get();
+	for (long i = position; i < end; i++) {
+	    consumer.onMessage(messages[(int) i & mask]);
+	}
+	head.lazySet(end);
+	return (int) (end - position);
+    }
+
+    public boolean isEmpty() {
+	return head.get() == tail.get();
+    }
+
+}
@@ -0,0 +1,147 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+
+/**
+ * Incremental parser of a raw midi byte stream, e.g. what a
+ * {@code MidiReceiver} gets in {@code onSend}. Bytes are read in place and
+ * messages are reported packed as in {@link MidiMessage}, so parsing never
+ * allocates. State is carried between calls, so messages may be split across
+ * buffers in any way. Running status, real-time bytes interleaved with other
+ * messages and fragmented SysEx are supported.
+ * <p>
+ * Not thread safe, a parser serves a single stream.
+ */
+public class MidiStreamParser {
+
+    public interface Listener {
+
+	/**
+	 * @param message
+	 *            packed status and data bytes
+	 */
+	void onMessage(int message, long timestamp);
+
+	/**
+	 * Called once a SysEx message is complete, its content is skipped.
+	 */
+	void onSysEx(int length, long timestamp);
+
+    }
+
+    private static final int SYSEX_START = 0xF0;
+
+    private static final int SYSEX_END = 0xF7;
+
+    private static final int REAL_TIME = 0xF8;
+
+    private final Listener listener;
+
+    private int status;
+
+    private int expectedBytes;
+
+    private int dataCount;
+
+    private int data1;
+
+    private boolean inSysEx;
+
+    private int sysExLength;
+
+    public MidiStreamParser(Listener listener) {
+	this.listener = listener;
+    }
+
+    public void parse(byte[] data, int offset, int count, long timestamp) {
+	for (int i = offset; i < offset + count; i++) {
+	    int b = data[i] & 0xFF;
+
+	    if (b >= REAL_TIME) {
+		// may appear anywhere, even inside other messages
+		listener.onMessage(b, timestamp);
+	    } else if (b == SYSEX_START) {
+		inSysEx = true;
+		sysExLength = 1;
+		status = 0;
+	    } else if (b == SYSEX_END) {
+		if (inSysEx) {
+		    inSysEx = false;
+		    listener.onSysEx(sysExLength + 1, timestamp);
+		}
+		status = 0;
+	    } else if (b >= 0x80) {
+		// any other status byte ends an unterminated SysEx
+		inSysEx = false;
+		status = b;
+		expectedBytes = dataLength(b);
+		dataCount = 0;
+		if (expectedBytes == 0) {
+		    listener.onMessage(b, timestamp);
+		    status = 0;
+		}
+	    } else if (inSysEx) {
+		sysExLength++;
+	    } else if (status != 0) {
+		if (dataCount == 0) {
+		    data1 = b;
+		    dataCount = 1;
+		} else {
+		    dataCount = 2;
+		}
+		if (dataCount == expectedBytes) {
+		    listener.onMessage(MidiMessage.pack(status, data1, expectedBytes == 2 ? b : 0), timestamp);
+		    dataCount = 0;
+		    if (status >= SYSEX_START) {
+			// system common messages don't set running status
+			status = 0;
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Forgets partially received messages and running status.
+     */
+    public void reset() {
+	status = 0;
+	dataCount = 0;
+	inSysEx = false;
+    }
+
+    private static int dataLength(int status) {
+	switch (status & 0xF0) {
+	case 0xC0:
+	case 0xD0:
+	    return 1;
+	case 0xF0:
+	    switch (status) {
+	    case 0xF1:
+	    case 0xF3:
+		return 1;
+	    case 0xF2:
+		return 2;
+	    default:
+		return 0;
+	    }
+	default:
+	    return 2;
+	}
+    }
+
+}
@@ -0,0 +1,79 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.media.midi.MidiDeviceService;
+import android.media.midi.MidiReceiver;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Publishes the keyboard as a virtual midi device, see
+ * {@code res/xml/midi_device_info.xml}. Bytes sent to its input port are
+ * passed as they are to the {@link PianoViewMidiInput} attached through
+ * {@link MidiDevicePorts}, keys played into {@link MidiDevicePorts#OUTPUT}
+ * leave through its output port.
+ * <p>
+ * Only enabled in the manifest on API 23 and up, where
+ * {@code android.media.midi} exists.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class PianoMidiDeviceService extends MidiDeviceService {
+
+    private static final String TAG = "PianoMidiDeviceService";
+
+    private final MidiReceiver inputPort = new MidiReceiver() {
+	@Override
+	public void onSend(byte[] data, int offset, int count, long timestamp) {
+	    PianoViewMidiInput input = MidiDevicePorts.getInput();
+	    if (input != null) {
+		input.onSend(data, offset, count, timestamp);
+	    }
+	}
+    };
+
+    private final MidiReceiver[] inputPorts = { inputPort };
+
+    @Override
+    public void onCreate() {
+	super.onCreate();
+	final MidiReceiver outputPort = getOutputPortReceivers()[0];
+	MidiDevicePorts.setOutputPort(new MidiByteSink() {
+	    @Override
+	    public void send(byte[] data, int offset, int count, long timestamp) {
+		try {
+		    outputPort.send(data, offset, count, timestamp);
+		} catch (IOException e) {
+		    Log.w(TAG, "Couldn't send to the output port", e);
+		}
+	    }
+	});
+    }
+
+    @Override
+    public void onDestroy() {
+	MidiDevicePorts.setOutputPort(null);
+	super.onDestroy();
+    }
+
+    @Override
+    public MidiReceiver[] onGetInputPortReceivers() {
+	return inputPorts;
+    }
+
+}
@@ -0,0 +1,139 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.midi;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.support.v4.view.ViewCompat;
+import android.util.Log;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Lights up keys of a {@link PianoView} for midi arriving from a controller
+ * or another app. Raw bytes are parsed on the calling thread, handed over
+ * through a {@link MidiEventRing} and applied once per animation frame.
+ * <p>
+ * {@link #onSend(byte[], int, int, long)} mirrors
+ * {@code android.media.midi.MidiReceiver#onSend}, the input port of
+ * {@link PianoMidiDeviceService} delegates to the instance attached with
+ * {@link MidiDevicePorts#setInput(PianoViewMidiInput)}. Bytes have to come
+ * from a single thread at a time, as the framework does for one port.
+ */
+public class PianoViewMidiInput implements MidiStreamParser.Listener {
+
+    private static final String TAG = "PianoViewMidiInput";
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final PianoView pianoView;
+
+    private final MidiStreamParser parser = new MidiStreamParser(this);
+
+    private final MidiEventRing queue = new MidiEventRing(QUEUE_CAPACITY);
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final boolean[] held = new boolean[128];
+
+    private boolean showOverlays;
+
+    private volatile int droppedMessages;
+
+    /**
+     * Drop count last logged, only accessed on the main thread.
+     */
+    private int reportedDrops;
+
+    public PianoViewMidiInput(PianoView pianoView) {
+	this.pianoView = pianoView;
+    }
+
+    /**
+     * Additionally marks held notes with overlays, not only as pressed keys.
+     * Must be called on the main thread.
+     */
+    public void setShowOverlays(boolean showOverlays) {
+	this.showOverlays = showOverlays;
+    }
+
+    public void onSend(byte[] data, int offset, int count, long timestamp) {
+	parser.parse(data, offset, count, timestamp);
+	if (!queue.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+	    ViewCompat.postOnAnimation(pianoView, drain);
+	}
+    }
+
+    @Override
+    public void onMessage(int message, long timestamp) {
+	int command = MidiMessage.command(message);
+	if (command != MidiMessage.NOTE_ON && command != MidiMessage.NOTE_OFF
+		&& !MidiMessage.isAllNotesOff(message)) {
+	    return;
+	}
+	if (!queue.offer(message)) {
+	    droppedMessages++;
+	}
+    }
+
+    @Override
+    public void onSysEx(int length, long timestamp) {
+    }
+
+    private final Runnable drain = new Runnable() {
+	@Override
+	public void run() {
+	    drainScheduled.set(false);
+	    queue.drain(applier);
+	    int dropped = droppedMessages;
+	    if (dropped != reportedDrops) {
+		reportedDrops = dropped;
+		Log.w(TAG, "Input queue overflowed, " + dropped + " messages dropped so far");
+	    }
+	}
+    };
+
+    private final MidiEventRing.Consumer applier = new MidiEventRing.Consumer() {
+	@Override
+	public void onMessage(int message) {
+	    if (MidiMessage.isNoteOn(message)) {
+		setHeld(MidiMessage.data1(message), true);
+	    } else if (MidiMessage.isNoteOff(message)) {
+		setHeld(MidiMessage.data1(message), false);
+	    } else {
+		for (int code = 0; code < held.length; code++) {
+		    setHeld(code, false);
+		}
+	    }
+	}
+    };
+
+    private void setHeld(int midiCode, boolean pressed) {
+	if (held[midiCode] == pressed) {
+	    return;
+	}
+	held[midiCode] = pressed;
+	pianoView.setKeyPressed(midiCode, pressed);
+	if (showOverlays) {
+	    if (pressed) {
+		pianoView.addCode(midiCode);
+	    } else {
+		pianoView.removeCode(midiCode);
+	    }
+	}
+    }
+
+}
@@ -31,6 +31,12 @@ public final class Note implements Comparable<Note> {
 
     private static final char[] NOTES = { 'C', 'D', 'E', 'F', 'G', 'A', 'B' };
 
+    private static final byte[] NOTE_BY_PITCH_CLASS = { 0, 0, 1, 1, 2, 3, 3, 4, 4, 5, 5, 6 };
+
+    private static final byte[] MODIFIER_BY_PITCH_CLASS = { 0, 1, 0, 1, 0, 0, 1, 0, 1, 0, 1, 0 };
+
+    private static final int CACHED_CODES = 128;
+
     private static final String CHAR_SHARP = "\u266F";
 
     private static final String CHAR_FLAT = "\u266D";
@@ -170,23 +176,36 @@ public final class Note implements Comparable<Note> {
 	return getMidiCode() - another.getMidiCode();
     }
 
+    private static final Note[] CODE_CACHE = new Note[CACHED_CODES];
+
+    static {
+	for (int code = 0; code < CACHED_CODES; code++) {
+	    CODE_CACHE[code] = createFromCode(code);
+	}
+    }
+
+    /**
+     * Returns a note for the given midi code, sharps are used for black keys.
+     * Notes are immutable, so instances for the whole midi range are shared
+     * and this method does not allocate.
+     */
     public static Note fromCode(int code) {
+	if (code >= 0 && code < CACHED_CODES) {
+	    return CODE_CACHE[code];
+	}
+	return createFromCode(code);
+    }
+
+    private static Note createFromCode(int code) {
 	byte octave = (byte) (code / 12);
 
 	int cd = code % 12;
 
 	byte modifier = 0;
 	byte note = 0;
-	for (int i = NOTE_INDEX.length - 1; i >= 0; i--) {
-	    if (cd == NOTE_INDEX[i]) {
-		modifier = 0;
-		note = (byte) i;
-		break;
-	    } else if (cd == NOTE_INDEX[i] + 1) {
-		modifier = 1;
-		note = (byte) i;
-		break;
-	    }
+	if (cd >= 0) {
+	    modifier = MODIFIER_BY_PITCH_CLASS[cd];
+	    note = NOTE_BY_PITCH_CLASS[cd];
 	}
 
 	return new Note(note, modifier, octave);
@@ -0,0 +1,34 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import android.util.Log;
+
+/**
+ * Sends bridge warnings to logcat.
+ */
+public final class AndroidBridgeLog implements BridgeLog {
+
+    public static final AndroidBridgeLog INSTANCE = new AndroidBridgeLog();
+
+    private AndroidBridgeLog() {
+    }
+
+    @Override
+    public void warn(String tag, String message, Throwable error) {
+	Log.w(tag, message, error);
+    }
+
+}
@@ -0,0 +1,43 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+/**
+ * Where {@link MidiBridgeSender} and {@link MidiBridgeReceiver} report the
+ * errors they recover from. Keeps the bridge free of Android classes, the app
+ * passes {@link AndroidBridgeLog}.
+ */
+public interface BridgeLog {
+
+    /**
+     * Prints to the standard error stream, for desktop tools.
+     */
+    BridgeLog SYSTEM_ERR = new BridgeLog() {
+	@Override
+	public void warn(String tag, String message, Throwable error) {
+	    System.err.println(tag + ": " + message);
+	    if (error != null) {
+		error.printStackTrace();
+	    }
+	}
+    };
+
+    /**
+     * @param error
+     *            cause, may be null
+     */
+    void warn(String tag, String message, Throwable error);
+
+}
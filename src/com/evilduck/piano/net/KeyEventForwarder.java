@@ -0,0 +1,47 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Sends keys played on a {@link PianoView} in play mode through a
+ * {@link MidiBridgeSender}.
+ */
+public class KeyEventForwarder implements PianoView.OnKeyPlayListener {
+
+    private static final int VELOCITY = 100;
+
+    private final MidiBridgeSender sender;
+
+    private final int channel;
+
+    public KeyEventForwarder(MidiBridgeSender sender, int channel) {
+	this.sender = sender;
+	this.channel = channel;
+    }
+
+    @Override
+    public void onKeyDown(int midiCode) {
+	sender.send(MidiMessage.noteOn(channel, midiCode, VELOCITY));
+    }
+
+    @Override
+    public void onKeyUp(int midiCode) {
+	sender.send(MidiMessage.noteOff(channel, midiCode));
+    }
+
+}
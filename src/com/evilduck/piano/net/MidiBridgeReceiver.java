@@ -0,0 +1,264 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import com.evilduck.piano.sequencer.NanoClock;
+
+/**
+ * Receives packets of a {@link MidiBridgeSender} on a dedicated thread and
+ * passes their events to a listener. Lost packets are detected from gaps in
+ * the sequence numbers of each source. Duplicated packets and packets
+ * arriving after a newer one are dropped, so that a late note on can't follow
+ * its note off.
+ * <p>
+ * Latency is measured as the difference between the receiver's clock and the
+ * sender's timestamps, so it is only meaningful when both run on the same
+ * host, e.g. over loopback.
+ * <p>
+ * Has no Android dependencies, errors go to a {@link BridgeLog}.
+ * <p>
+ * Requires the {@code android.permission.INTERNET} permission.
+ */
+public class MidiBridgeReceiver {
+
+    /**
+     * Receives events on the receiver thread.
+     */
+    public interface Listener {
+
+	void onRemoteEvent(int sourceId, int message);
+
+    }
+
+    private static final String TAG = "MidiBridgeReceiver";
+
+    /**
+     * Sources tracked at once, further ones replace the least recently seen.
+     */
+    private static final int MAX_SOURCES = 16;
+
+    private final int port;
+
+    private final Listener listener;
+
+    private final NanoClock clock;
+
+    private final BridgeLog log;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MidiPacket.MAX_SIZE);
+
+    private volatile boolean running;
+
+    private DatagramChannel channel;
+
+    private Thread thread;
+
+    private volatile long packets;
+
+    private volatile long lostPackets;
+
+    private volatile long latePackets;
+
+    private volatile long events;
+
+    private volatile long latencySum;
+
+    private volatile long minLatency = Long.MAX_VALUE;
+
+    private volatile long maxLatency = Long.MIN_VALUE;
+
+    private final int[] sourceIds = new int[MAX_SOURCES];
+
+    private final int[] sourceSequences = new int[MAX_SOURCES];
+
+    private final long[] sourceSeen = new long[MAX_SOURCES];
+
+    private int sourceCount;
+
+    private long receiveTime;
+
+    private int currentSource;
+
+    /**
+     * @param port
+     *            local port, 0 picks a free one
+     */
+    public MidiBridgeReceiver(int port, Listener listener, BridgeLog log) {
+	this(port, listener, NanoClock.SYSTEM, log);
+    }
+
+    public MidiBridgeReceiver(int port, Listener listener, NanoClock clock, BridgeLog log) {
+	this.port = port;
+	this.listener = listener;
+	this.clock = clock;
+	this.log = log;
+    }
+
+    public synchronized void start() throws IOException {
+	if (running) {
+	    return;
+	}
+	channel = DatagramChannel.open();
+	channel.socket().bind(new InetSocketAddress(port));
+	running = true;
+	thread = new Thread(receiver, TAG);
+	thread.start();
+    }
+
+    public synchronized void stop() {
+	if (!running) {
+	    return;
+	}
+	running = false;
+	try {
+	    // unblocks the receiver thread
+	    channel.close();
+	} catch (IOException e) {
+	    log.warn(TAG, "Can't close the channel", e);
+	}
+	try {
+	    thread.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	thread = null;
+	channel = null;
+    }
+
+    /**
+     * @return bound port, useful when started with port 0
+     */
+    public synchronized int getLocalPort() {
+	return channel != null ? channel.socket().getLocalPort() : -1;
+    }
+
+    public long getPackets() {
+	return packets;
+    }
+
+    public long getLostPackets() {
+	return lostPackets;
+    }
+
+    /**
+     * @return duplicated packets and packets that arrived after a newer one,
+     *         their events were dropped
+     */
+    public long getLatePackets() {
+	return latePackets;
+    }
+
+    public long getEvents() {
+	return events;
+    }
+
+    public long getMinLatencyNanos() {
+	return events == 0 ? 0 : minLatency;
+    }
+
+    public long getMaxLatencyNanos() {
+	return events == 0 ? 0 : maxLatency;
+    }
+
+    public long getAverageLatencyNanos() {
+	long count = events;
+	return count == 0 ? 0 : latencySum / count;
+    }
+
+    private final Runnable receiver = new Runnable() {
+	@Override
+	public void run() {
+	    try {
+		while (running) {
+		    buffer.clear();
+		    channel.receive(buffer);
+		    receiveTime = clock.nanoTime();
+		    buffer.flip();
+		    if (!MidiPacket.decode(buffer, handler)) {
+			log.warn(TAG, "Ignoring invalid packet of " + buffer.remaining() + " bytes", null);
+		    }
+		}
+	    } catch (ClosedChannelException e) {
+		// stopped
+	    } catch (IOException e) {
+		log.warn(TAG, "Receiving failed", e);
+	    }
+	}
+    };
+
+    private final MidiPacket.Handler handler = new MidiPacket.Handler() {
+	@Override
+	public boolean onPacket(int sourceId, int sequence, long timestampNanos, int eventCount) {
+	    packets++;
+	    int slot = findSource(sourceId);
+	    if (slot < 0) {
+		slot = addSource(sourceId);
+	    } else {
+		int gap = MidiPacket.gap(sourceSequences[slot], sequence);
+		if (gap < 0) {
+		    latePackets++;
+		    return false;
+		}
+		lostPackets += gap;
+	    }
+	    sourceSequences[slot] = sequence;
+	    sourceSeen[slot] = receiveTime;
+	    currentSource = sourceId;
+	    return true;
+	}
+
+	@Override
+	public void onEvent(long timestampNanos, int message) {
+	    long latency = receiveTime - timestampNanos;
+	    minLatency = Math.min(minLatency, latency);
+	    maxLatency = Math.max(maxLatency, latency);
+	    latencySum += latency;
+	    events++;
+	    listener.onRemoteEvent(currentSource, message);
+	}
+    };
+
+    private int findSource(int sourceId) {
+	for (int i = 0; i < sourceCount; i++) {
+	    if (sourceIds[i] == sourceId) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    private int addSource(int sourceId) {
+	int slot = sourceCount;
+	if (sourceCount < MAX_SOURCES) {
+	    sourceCount++;
+	} else {
+	    slot = 0;
+	    for (int i = 1; i < MAX_SOURCES; i++) {
+		if (sourceSeen[i] < sourceSeen[slot]) {
+		    slot = i;
+		}
+	    }
+	}
+	sourceIds[slot] = sourceId;
+	return slot;
+    }
+
+}
@@ -0,0 +1,198 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+import com.evilduck.piano.sequencer.NanoClock;
+
+/**
+ * Sends key events to a {@link MidiBridgeReceiver} over UDP. Events can be
+ * queued from any thread, they are batched for a short window after the
+ * first one and sent from a dedicated thread, so the UI thread never touches
+ * the network. Two encoders are swapped between the threads, so sending does
+ * not allocate.
+ * <p>
+ * Has no Android dependencies, errors go to a {@link BridgeLog}.
+ * <p>
+ * Requires the {@code android.permission.INTERNET} permission.
+ */
+public class MidiBridgeSender {
+
+    private static final String TAG = "MidiBridgeSender";
+
+    private static final long DEFAULT_WINDOW_NANOS = 1000000L;
+
+    private final InetSocketAddress target;
+
+    private final long windowNanos;
+
+    private final NanoClock clock;
+
+    private final BridgeLog log;
+
+    private final Object lock = new Object();
+
+    private MidiPacketEncoder pending;
+
+    private MidiPacketEncoder sending;
+
+    private int sequence;
+
+    private int dropped;
+
+    private volatile boolean running;
+
+    private DatagramChannel channel;
+
+    private Thread thread;
+
+    public MidiBridgeSender(InetSocketAddress target, BridgeLog log) {
+	this(target, DEFAULT_WINDOW_NANOS, NanoClock.SYSTEM, log);
+    }
+
+    /**
+     * @param windowNanos
+     *            how long events are collected before a packet is sent, e.g.
+     *            a millisecond or a frame
+     */
+    public MidiBridgeSender(InetSocketAddress target, long windowNanos, NanoClock clock, BridgeLog log) {
+	this.target = target;
+	this.windowNanos = windowNanos;
+	this.clock = clock;
+	this.log = log;
+
+	int sourceId = new Random().nextInt();
+	pending = new MidiPacketEncoder(sourceId);
+	sending = new MidiPacketEncoder(sourceId);
+    }
+
+    public synchronized void start() throws IOException {
+	if (running) {
+	    return;
+	}
+	channel = DatagramChannel.open();
+	channel.connect(target);
+	running = true;
+	thread = new Thread(sender, TAG);
+	thread.start();
+    }
+
+    public synchronized void stop() {
+	if (!running) {
+	    return;
+	}
+	running = false;
+	synchronized (lock) {
+	    lock.notifyAll();
+	}
+	try {
+	    thread.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	try {
+	    channel.close();
+	} catch (IOException e) {
+	    log.warn(TAG, "Can't close the channel", e);
+	}
+	thread = null;
+	channel = null;
+    }
+
+    /**
+     * Queues a packed midi message, timestamped now. Safe to call from any
+     * thread, never blocks on the network.
+     */
+    public void send(int message) {
+	long now = clock.nanoTime();
+	synchronized (lock) {
+	    if (!pending.add(now, message)) {
+		// window overflowed faster than the sender could drain it
+		dropped++;
+		return;
+	    }
+	    if (pending.size() == 1 || pending.size() == MidiPacket.MAX_EVENTS) {
+		lock.notifyAll();
+	    }
+	}
+    }
+
+    /**
+     * @return events dropped because a packet filled up
+     */
+    public int getDroppedEvents() {
+	synchronized (lock) {
+	    return dropped;
+	}
+    }
+
+    private final Runnable sender = new Runnable() {
+	@Override
+	public void run() {
+	    try {
+		while (running) {
+		    ByteBuffer packet = awaitPacket();
+		    if (packet != null) {
+			channel.write(packet);
+		    }
+		}
+	    } catch (ClosedChannelException e) {
+		// stopped
+	    } catch (IOException e) {
+		log.warn(TAG, "Sending failed", e);
+	    } catch (InterruptedException e) {
+		// stopped
+	    }
+	}
+    };
+
+    /**
+     * Waits for the first event, then for the end of its window, and swaps
+     * the encoders.
+     *
+     * @return packet to send or null when stopping
+     */
+    private ByteBuffer awaitPacket() throws InterruptedException {
+	synchronized (lock) {
+	    while (running && pending.isEmpty()) {
+		lock.wait();
+	    }
+	    long deadline = clock.nanoTime() + windowNanos;
+	    while (running && pending.size() < MidiPacket.MAX_EVENTS) {
+		long remaining = deadline - clock.nanoTime();
+		if (remaining <= 0) {
+		    break;
+		}
+		lock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+	    }
+	    if (pending.isEmpty()) {
+		return null;
+	    }
+
+	    MidiPacketEncoder full = pending;
+	    pending = sending;
+	    sending = full;
+	    sequence = (sequence + 1) & 0xFFFF;
+	    return full.finish(sequence);
+	}
+    }
+
+}
@@ -0,0 +1,115 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of the MIDI bridge, loosely modelled on RTP-MIDI. All values
+ * are big endian.
+ *
+ * <pre>
+ *  0  magic 'P' 'V'
+ *  2  version
+ *  3  event count
+ *  4  sequence number, 16 bit, wraps around
+ *  6  reserved
+ *  8  source id
+ * 12  sender timestamp of the first event, nanoseconds
+ * 20  events, 5 bytes each: 16 bit delta to the timestamp in microseconds,
+ *     followed by the three bytes of a short midi message
+ * </pre>
+ */
+public final class MidiPacket {
+
+    /**
+     * Receives the content of decoded packets.
+     */
+    public interface Handler {
+
+	/**
+	 * @return false to skip the events of the packet, e.g. because it
+	 *         arrived late
+	 */
+	boolean onPacket(int sourceId, int sequence, long timestampNanos, int eventCount);
+
+	/**
+	 * @param message
+	 *            packed as in {@link com.evilduck.piano.sequencer.MidiMessage}
+	 */
+	void onEvent(long timestampNanos, int message);
+
+    }
+
+    static final int MAGIC = 0x5056;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 20;
+
+    static final int EVENT_SIZE = 5;
+
+    public static final int MAX_EVENTS = 255;
+
+    public static final int MAX_SIZE = HEADER_SIZE + MAX_EVENTS * EVENT_SIZE;
+
+    static final long MAX_DELTA_MICROS = 0xFFFF;
+
+    private MidiPacket() {
+    }
+
+    /**
+     * Decodes a packet from the buffer's position to its limit.
+     *
+     * @return false if the data is not a valid packet
+     */
+    public static boolean decode(ByteBuffer buffer, Handler handler) {
+	int start = buffer.position();
+	int size = buffer.remaining();
+	if (size < HEADER_SIZE || (buffer.getShort(start) & 0xFFFF) != MAGIC
+		|| (buffer.get(start + 2) & 0xFF) != VERSION) {
+	    return false;
+	}
+	int count = buffer.get(start + 3) & 0xFF;
+	if (size < HEADER_SIZE + count * EVENT_SIZE) {
+	    return false;
+	}
+	int sequence = buffer.getShort(start + 4) & 0xFFFF;
+	int sourceId = buffer.getInt(start + 8);
+	long timestamp = buffer.getLong(start + 12);
+
+	if (!handler.onPacket(sourceId, sequence, timestamp, count)) {
+	    return true;
+	}
+	int position = start + HEADER_SIZE;
+	for (int i = 0; i < count; i++, position += EVENT_SIZE) {
+	    long delta = (buffer.getShort(position) & 0xFFFF) * 1000L;
+	    int message = (buffer.get(position + 2) & 0xFF) | (buffer.get(position + 3) & 0x7F) << 8
+		    | (buffer.get(position + 4) & 0x7F) << 16;
+	    handler.onEvent(timestamp + delta, message);
+	}
+	return true;
+    }
+
+    /**
+     * @return number of packets missing between two sequence numbers, -1 if
+     *         the current packet is a duplicate or arrived after a newer one
+     */
+    static int gap(int previous, int current) {
+	int distance = (current - previous) & 0xFFFF;
+	return distance != 0 && distance < 0x8000 ? distance - 1 : -1;
+    }
+
+}
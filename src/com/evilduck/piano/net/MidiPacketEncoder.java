@@ -0,0 +1,88 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Collects events into a reused buffer in the {@link MidiPacket} format.
+ * Nothing is allocated per event or per packet. Not thread safe.
+ */
+public final class MidiPacketEncoder {
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MidiPacket.MAX_SIZE);
+
+    private final int sourceId;
+
+    private int count;
+
+    private long firstTime;
+
+    public MidiPacketEncoder(int sourceId) {
+	this.sourceId = sourceId;
+    }
+
+    /**
+     * Appends an event. Events are expected in time order, deltas are
+     * clamped to what the format can hold.
+     *
+     * @return false if the packet is full
+     */
+    public boolean add(long timeNanos, int message) {
+	if (count == MidiPacket.MAX_EVENTS) {
+	    return false;
+	}
+	if (count == 0) {
+	    firstTime = timeNanos;
+	    buffer.clear();
+	    buffer.position(MidiPacket.HEADER_SIZE);
+	}
+	long delta = Math.max(0, Math.min(MidiPacket.MAX_DELTA_MICROS, (timeNanos - firstTime) / 1000));
+	buffer.putShort((short) delta);
+	buffer.put((byte) message);
+	buffer.put((byte) (message >>> 8));
+	buffer.put((byte) (message >>> 16));
+	count++;
+	return true;
+    }
+
+    public boolean isEmpty() {
+	return count == 0;
+    }
+
+    public int size() {
+	return count;
+    }
+
+    /**
+     * Writes the header and resets the encoder for the next packet.
+     *
+     * @return buffer holding the packet between its position and limit,
+     *         valid until the next {@link #add(long, int)}
+     */
+    public ByteBuffer finish(int sequence) {
+	buffer.putShort(0, (short) MidiPacket.MAGIC);
+	buffer.put(2, (byte) MidiPacket.VERSION);
+	buffer.put(3, (byte) count);
+	buffer.putShort(4, (short) sequence);
+	buffer.putShort(6, (short) 0);
+	buffer.putInt(8, sourceId);
+	buffer.putLong(12, firstTime);
+	buffer.flip();
+	count = 0;
+	return buffer;
+    }
+
+}
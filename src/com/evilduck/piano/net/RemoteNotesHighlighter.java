@@ -0,0 +1,58 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.net;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Shows notes held on a remote controller as overlays of a
+ * {@link PianoView}. Highlights are updated straight from the receiver
+ * thread, the view coalesces them into a single frame.
+ */
+public class RemoteNotesHighlighter implements MidiBridgeReceiver.Listener {
+
+    private final PianoView pianoView;
+
+    /**
+     * Notes shown by this highlighter, only touched by the receiver thread.
+     */
+    private final long[] held = new long[2];
+
+    public RemoteNotesHighlighter(PianoView pianoView) {
+	this.pianoView = pianoView;
+    }
+
+    @Override
+    public void onRemoteEvent(int sourceId, int message) {
+	if (MidiMessage.isNoteOn(message)) {
+	    int midiCode = MidiMessage.data1(message);
+	    held[midiCode >>> 6] |= 1L << midiCode;
+	    pianoView.addCode(midiCode);
+	} else if (MidiMessage.isNoteOff(message)) {
+	    int midiCode = MidiMessage.data1(message);
+	    held[midiCode >>> 6] &= ~(1L << midiCode);
+	    pianoView.removeCode(midiCode);
+	} else if (MidiMessage.isAllNotesOff(message)) {
+	    for (int word = 0; word < held.length; word++) {
+		for (long bits = held[word]; bits != 0; bits &= bits - 1) {
+		    pianoView.removeCode(word * 64 + Long.numberOfTrailingZeros(bits));
+		}
+		held[word] = 0;
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,95 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+import com.evilduck.piano.views.instrument.Highlights;
+
+/**
+ * A single keyboard diagram to render: output name and highlighted midi codes,
+ * either drawn with the overlay of the {@link DiagramStyle} or each with its
+ * own colour and shape. The name becomes a file name, so it can't contain path
+ * separators or characters reserved by common file systems.
+ */
+public final class Diagram {
+
+    private static final String RESERVED_CHARACTERS = "/\\:*?\"<>|";
+
+    private final String name;
+
+    final int[] codes;
+
+    final Highlights highlights;
+
+    /**
+     * Highlights the codes with the style's overlay colour and circles.
+     *
+     * @throws IllegalArgumentException
+     *             if the name can't be used as a file name
+     */
+    public Diagram(String name, int... codes) {
+	checkName(name);
+	this.name = name;
+	this.codes = codes.clone();
+	highlights = null;
+    }
+
+    /**
+     * Highlights keys with the colour, shape and spelling set for each of
+     * them, like {@code PianoView} does.
+     *
+     * @throws IllegalArgumentException
+     *             if the name can't be used as a file name
+     */
+    public Diagram(String name, Highlights highlights) {
+	checkName(name);
+	this.name = name;
+	this.highlights = highlights;
+	codes = new int[highlights.size()];
+	for (int code = 0, i = 0; i < codes.length; code++) {
+	    if (highlights.contains(code)) {
+		codes[i++] = code;
+	    }
+	}
+    }
+
+    private static void checkName(String name) {
+	if (name == null || name.length() == 0 || name.equals(".") || name.equals("..")) {
+	    throw new IllegalArgumentException("Invalid diagram name: " + name);
+	}
+	for (int i = 0; i < name.length(); i++) {
+	    char c = name.charAt(i);
+	    if (c < ' ' || c == 0x7F || RESERVED_CHARACTERS.indexOf(c) >= 0) {
+		throw new IllegalArgumentException("Reserved character at " + i + " of diagram name: " + name);
+	    }
+	}
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public int[] getCodes() {
+	return codes.clone();
+    }
+
+    /**
+     * @return overlays of every key, null if the diagram uses the style's
+     *         overlay
+     */
+    public Highlights getHighlights() {
+	return highlights;
+    }
+
+}
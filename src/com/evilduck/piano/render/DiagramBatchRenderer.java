@@ -0,0 +1,105 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders many diagrams in parallel, one task per diagram, writing each
+ * result to its own file as soon as it is ready. The format is up to the
+ * {@link DiagramRenderer}, e.g. {@link SvgDiagramRenderer}.
+ */
+public class DiagramBatchRenderer {
+
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private final DiagramRenderer renderer;
+
+    private final int threads;
+
+    public DiagramBatchRenderer(DiagramRenderer renderer) {
+	this(renderer, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DiagramBatchRenderer(DiagramRenderer renderer, int threads) {
+	this.renderer = renderer;
+	this.threads = threads;
+    }
+
+    /**
+     * Renders all the diagrams into {@code <name>.<extension>} files of the
+     * output directory, {@link Diagram} names are valid file names. Blocks until
+     * every file is written.
+     *
+     * @throws IOException
+     *             if any of the files could not be written, remaining tasks
+     *             are cancelled
+     */
+    public void renderAll(List<Diagram> diagrams, final File outputDirectory) throws IOException,
+	    InterruptedException {
+	if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+	    throw new IOException("Can't create " + outputDirectory);
+	}
+
+	final String suffix = "." + renderer.getFileExtension();
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	try {
+	    CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+	    for (final Diagram diagram : diagrams) {
+		completion.submit(new Callable<Void>() {
+		    @Override
+		    public Void call() throws IOException {
+			write(diagram, new File(outputDirectory, diagram.getName() + suffix));
+			return null;
+		    }
+		});
+	    }
+
+	    for (int i = 0; i < diagrams.size(); i++) {
+		try {
+		    completion.take().get();
+		} catch (ExecutionException e) {
+		    if (e.getCause() instanceof IOException) {
+			throw (IOException) e.getCause();
+		    }
+		    throw new IOException("Rendering failed", e.getCause());
+		}
+	    }
+	} finally {
+	    executor.shutdownNow();
+	}
+    }
+
+    private void write(Diagram diagram, File file) throws IOException {
+	OutputStream out = new BufferedOutputStream(new FileOutputStream(file), WRITE_BUFFER_SIZE);
+	try {
+	    renderer.render(diagram, out);
+	} finally {
+	    out.close();
+	}
+    }
+
+}
@@ -0,0 +1,37 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output format of a {@link DiagramBatchRenderer}. Implementations are called
+ * from several threads at once.
+ */
+public interface DiagramRenderer {
+
+    /**
+     * @return extension of the written files without the dot, e.g.
+     *         {@code svg}
+     */
+    String getFileExtension();
+
+    /**
+     * Writes a complete image of the diagram. The stream is left open.
+     */
+    void render(Diagram diagram, OutputStream out) throws IOException;
+
+}
@@ -0,0 +1,80 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+/**
+ * Colours and proportions of rendered diagrams. Defaults match the look of
+ * {@code PianoView}.
+ */
+public final class DiagramStyle {
+
+    int whiteKeyColor = 0xFFFFFFFF;
+
+    int blackKeyColor = 0xFF202020;
+
+    int outlineColor = 0xFF000000;
+
+    int overlayColor = 0xFF00FF00;
+
+    int labelColor = 0xFF000000;
+
+    float overlayRadius = 0.35f;
+
+    boolean labels = true;
+
+    public DiagramStyle whiteKeyColor(int color) {
+	whiteKeyColor = color;
+	return this;
+    }
+
+    public DiagramStyle blackKeyColor(int color) {
+	blackKeyColor = color;
+	return this;
+    }
+
+    public DiagramStyle outlineColor(int color) {
+	outlineColor = color;
+	return this;
+    }
+
+    /**
+     * Colour of diagrams made of plain midi codes, diagrams made of
+     * highlights bring their own.
+     */
+    public DiagramStyle overlayColor(int color) {
+	overlayColor = color;
+	return this;
+    }
+
+    public DiagramStyle labelColor(int color) {
+	labelColor = color;
+	return this;
+    }
+
+    /**
+     * @param fraction
+     *            overlay circle radius as a fraction of the white key width
+     */
+    public DiagramStyle overlayRadius(float fraction) {
+	overlayRadius = fraction;
+	return this;
+    }
+
+    public DiagramStyle labels(boolean labels) {
+	this.labels = labels;
+	return this;
+    }
+
+}
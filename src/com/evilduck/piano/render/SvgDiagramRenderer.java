@@ -0,0 +1,228 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.render;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.evilduck.piano.music.Note;
+import com.evilduck.piano.views.instrument.Highlights;
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+
+/**
+ * Renders keyboard diagrams with highlighted notes as SVG, using the same
+ * layout, overlay placement and overlay shapes as {@code PianoView}. The keys
+ * are identical for every diagram, so their markup is built once and only the
+ * overlays are emitted per call. Instances are immutable and can be shared
+ * between threads.
+ */
+public class SvgDiagramRenderer implements DiagramRenderer {
+
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private final KeyboardLayout layout;
+
+    private final String keysMarkup;
+
+    private final String header;
+
+    private final String overlayColor;
+
+    private final String labelColor;
+
+    private final float overlayRadius;
+
+    private final boolean labels;
+
+    /**
+     * @param layout
+     *            laid out keyboard, must not be changed afterwards
+     */
+    public SvgDiagramRenderer(KeyboardLayout layout, DiagramStyle style) {
+	this.layout = layout;
+	overlayColor = toSvgColor(style.overlayColor);
+	labelColor = toSvgColor(style.labelColor);
+	overlayRadius = layout.getWhiteKeyWidth() * style.overlayRadius;
+	labels = style.labels;
+
+	StringBuilder builder = new StringBuilder();
+	builder.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+	appendNumber(builder, layout.getWidth());
+	builder.append("\" height=\"");
+	appendNumber(builder, layout.getHeight());
+	builder.append("\">\n");
+	header = builder.toString();
+
+	builder.setLength(0);
+	appendKeys(builder, false, toSvgColor(style.whiteKeyColor), toSvgColor(style.outlineColor));
+	appendKeys(builder, true, toSvgColor(style.blackKeyColor), toSvgColor(style.outlineColor));
+	keysMarkup = builder.toString();
+    }
+
+    private void appendKeys(StringBuilder builder, boolean black, String fill, String stroke) {
+	for (int i = 0; i < layout.getKeyCount(); i++) {
+	    if (layout.isBlack(i) != black) {
+		continue;
+	    }
+	    builder.append("<rect x=\"");
+	    appendNumber(builder, layout.getStartX(i));
+	    builder.append("\" y=\"");
+	    appendNumber(builder, layout.getStartY(i));
+	    builder.append("\" width=\"");
+	    appendNumber(builder, layout.getEndX(i) - layout.getStartX(i));
+	    builder.append("\" height=\"");
+	    appendNumber(builder, layout.getEndY(i) - layout.getStartY(i));
+	    builder.append("\" fill=\"").append(fill).append("\" stroke=\"").append(stroke).append("\"/>\n");
+	}
+    }
+
+    @Override
+    public String getFileExtension() {
+	return "svg";
+    }
+
+    @Override
+    public void render(Diagram diagram, OutputStream out) throws IOException {
+	Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), WRITE_BUFFER_SIZE);
+	if (diagram.highlights != null) {
+	    render(diagram.highlights, writer);
+	} else {
+	    render(diagram.codes, diagram.codes.length, writer);
+	}
+	writer.flush();
+    }
+
+    /**
+     * Writes a complete SVG document with the given notes highlighted by the
+     * style's overlay. Codes outside of the layout range are skipped.
+     */
+    public void render(int[] codes, int count, Appendable out) throws IOException {
+	out.append(header);
+	out.append(keysMarkup);
+	for (int i = 0; i < count; i++) {
+	    int index = layout.indexOf(codes[i]);
+	    if (index >= 0) {
+		appendOverlay(out, index, overlayColor, Highlights.SHAPE_CIRCLE, Note.fromCode(codes[i]));
+	    }
+	}
+	out.append("</svg>\n");
+    }
+
+    /**
+     * Writes a complete SVG document with each highlighted key in its own
+     * colour and shape. Keys outside of the layout range are skipped.
+     */
+    public void render(Highlights highlights, Appendable out) throws IOException {
+	out.append(header);
+	out.append(keysMarkup);
+	int startCode = layout.getStartCode();
+	for (int index = 0; index < layout.getKeyCount(); index++) {
+	    int code = startCode + index;
+	    if (highlights.contains(code)) {
+		appendOverlay(out, index, toSvgColor(highlights.getColor(code)), highlights.getShape(code),
+			highlights.getNote(code));
+	    }
+	}
+	out.append("</svg>\n");
+    }
+
+    private void appendOverlay(Appendable out, int index, String color, int shape, Note note) throws IOException {
+	float x = layout.getOverlayPivotX(index);
+	float y = layout.getOverlayPivotY(index);
+	float radius = overlayRadius;
+	switch (shape) {
+	case Highlights.SHAPE_ROUNDED_SQUARE:
+	    out.append("<rect x=\"");
+	    appendNumber(out, x - radius);
+	    out.append("\" y=\"");
+	    appendNumber(out, y - radius);
+	    out.append("\" width=\"");
+	    appendNumber(out, radius * 2);
+	    out.append("\" height=\"");
+	    appendNumber(out, radius * 2);
+	    out.append("\" rx=\"");
+	    appendNumber(out, radius / 3);
+	    out.append("\" fill=\"").append(color).append("\"/>\n");
+	    break;
+	case Highlights.SHAPE_RING:
+	    float strokeWidth = radius / 4;
+	    out.append("<circle cx=\"");
+	    appendNumber(out, x);
+	    out.append("\" cy=\"");
+	    appendNumber(out, y);
+	    out.append("\" r=\"");
+	    appendNumber(out, radius - strokeWidth / 2);
+	    out.append("\" fill=\"none\" stroke=\"").append(color).append("\" stroke-width=\"");
+	    appendNumber(out, strokeWidth);
+	    out.append("\"/>\n");
+	    break;
+	default:
+	    out.append("<circle cx=\"");
+	    appendNumber(out, x);
+	    out.append("\" cy=\"");
+	    appendNumber(out, y);
+	    out.append("\" r=\"");
+	    appendNumber(out, radius);
+	    out.append("\" fill=\"").append(color).append("\"/>\n");
+	    break;
+	}
+
+	if (labels) {
+	    out.append("<text x=\"");
+	    appendNumber(out, x);
+	    out.append("\" y=\"");
+	    appendNumber(out, y);
+	    out.append("\" fill=\"").append(labelColor);
+	    out.append("\" text-anchor=\"middle\" dominant-baseline=\"central\" font-size=\"");
+	    appendNumber(out, radius);
+	    out.append("\">").append(note.toString()).append("</text>\n");
+	}
+    }
+
+    public KeyboardLayout getLayout() {
+	return layout;
+    }
+
+    private static void appendNumber(Appendable out, float value) throws IOException {
+	int rounded = Math.round(value);
+	if (rounded == value) {
+	    out.append(Integer.toString(rounded));
+	} else {
+	    out.append(Float.toString(value));
+	}
+    }
+
+    private static void appendNumber(StringBuilder out, float value) {
+	try {
+	    appendNumber((Appendable) out, value);
+	} catch (IOException e) {
+	    // StringBuilder never throws
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    private static String toSvgColor(int argb) {
+	String rgb = Integer.toHexString(0x1000000 | (argb & 0xFFFFFF)).substring(1);
+	int alpha = argb >>> 24;
+	if (alpha == 0xFF) {
+	    return "#" + rgb;
+	}
+	return "#" + rgb + Integer.toHexString(0x100 | alpha).substring(1);
+    }
+
+}
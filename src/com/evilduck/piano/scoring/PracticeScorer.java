@@ -0,0 +1,292 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.scoring;
+
+import java.util.Arrays;
+
+import com.evilduck.piano.sequencer.MidiMessage;
+import com.evilduck.piano.sequencer.Sequence;
+import com.evilduck.piano.sequencer.TempoMap;
+
+/**
+ * Grades played notes against a reference part as they come. Expected notes
+ * are kept in time sorted primitive arrays and only a window of them around
+ * the current time is examined: a played note is matched with the closest
+ * unmatched expected note of the same key within the tolerance, or counted
+ * as wrong, and expected notes falling out of the window unmatched are
+ * missed. The window only moves forward, so every event costs amortised
+ * O(1), however long the lesson is.
+ * <p>
+ * Times are in nanoseconds from the start of the lesson. Not thread safe.
+ */
+public class PracticeScorer {
+
+    public interface Listener {
+
+	/**
+	 * @param errorNanos
+	 *            negative when played early, positive when late
+	 */
+	void onCorrect(int expectedIndex, int midiCode, long errorNanos);
+
+	/**
+	 * A played note not matching any expected one.
+	 */
+	void onWrong(int midiCode, long timeNanos);
+
+	void onMissed(int expectedIndex, int midiCode);
+
+    }
+
+    public static final long DEFAULT_TOLERANCE_NANOS = 150000000L;
+
+    public static final long DEFAULT_ON_TIME_NANOS = 40000000L;
+
+    private final long[] times;
+
+    private final byte[] codes;
+
+    private final boolean[] matched;
+
+    private final int count;
+
+    private final long tolerance;
+
+    private final long onTime;
+
+    private Listener listener;
+
+    private int windowStart;
+
+    private int windowEnd;
+
+    private int correct;
+
+    private int wrong;
+
+    private int missed;
+
+    private int early;
+
+    private int late;
+
+    private long errorSum;
+
+    private long absoluteErrorSum;
+
+    public PracticeScorer(Sequence reference, TempoMap tempoMap) {
+	this(reference, tempoMap, DEFAULT_TOLERANCE_NANOS, DEFAULT_ON_TIME_NANOS);
+    }
+
+    /**
+     * @param toleranceNanos
+     *            largest timing error of a note still counted as correct
+     * @param onTimeNanos
+     *            timing error under which a correct note is neither early nor
+     *            late
+     */
+    public PracticeScorer(Sequence reference, TempoMap tempoMap, long toleranceNanos, long onTimeNanos) {
+	long[] expectedTimes = new long[reference.size()];
+	byte[] expectedCodes = new byte[reference.size()];
+	int n = 0;
+	for (int i = 0; i < reference.size(); i++) {
+	    int message = reference.getMessage(i);
+	    if (MidiMessage.isNoteOn(message)) {
+		expectedTimes[n] = tempoMap.tickToNanos(reference.getTick(i));
+		expectedCodes[n] = (byte) MidiMessage.data1(message);
+		n++;
+	    }
+	}
+	times = Arrays.copyOf(expectedTimes, n);
+	codes = Arrays.copyOf(expectedCodes, n);
+	matched = new boolean[n];
+	count = n;
+	tolerance = toleranceNanos;
+	onTime = onTimeNanos;
+    }
+
+    public void setListener(Listener listener) {
+	this.listener = listener;
+    }
+
+    public int getExpectedCount() {
+	return count;
+    }
+
+    public long getExpectedTime(int index) {
+	return times[index];
+    }
+
+    public int getExpectedCode(int index) {
+	return codes[index];
+    }
+
+    /**
+     * Grades a played note.
+     */
+    public void onPlayed(int midiCode, long timeNanos) {
+	advance(timeNanos);
+	while (windowEnd < count && times[windowEnd] <= timeNanos + tolerance) {
+	    windowEnd++;
+	}
+
+	int best = -1;
+	long bestError = Long.MAX_VALUE;
+	for (int i = windowStart; i < windowEnd; i++) {
+	    if (matched[i] || codes[i] != midiCode) {
+		continue;
+	    }
+	    long error = Math.abs(timeNanos - times[i]);
+	    if (error <= tolerance && error < bestError) {
+		best = i;
+		bestError = error;
+	    }
+	}
+
+	if (best < 0) {
+	    wrong++;
+	    if (listener != null) {
+		listener.onWrong(midiCode, timeNanos);
+	    }
+	    return;
+	}
+
+	matched[best] = true;
+	long error = timeNanos - times[best];
+	correct++;
+	errorSum += error;
+	absoluteErrorSum += Math.abs(error);
+	if (error < -onTime) {
+	    early++;
+	} else if (error > onTime) {
+	    late++;
+	}
+	if (listener != null) {
+	    listener.onCorrect(best, midiCode, error);
+	}
+    }
+
+    /**
+     * Reports expected notes that can't be matched any more at the given
+     * time as missed. Called implicitly for every played note, should also
+     * be called regularly, e.g. once per frame, to report misses while
+     * nothing is played.
+     */
+    public void advance(long nowNanos) {
+	while (windowStart < count && times[windowStart] < nowNanos - tolerance) {
+	    finalizeExpected(windowStart);
+	    windowStart++;
+	}
+	if (windowEnd < windowStart) {
+	    windowEnd = windowStart;
+	}
+    }
+
+    /**
+     * Ends the lesson, every expected note not played so far is missed.
+     */
+    public Summary finish() {
+	while (windowStart < count) {
+	    finalizeExpected(windowStart);
+	    windowStart++;
+	}
+	windowEnd = count;
+	return getSummary();
+    }
+
+    public boolean isFinished() {
+	return windowStart == count;
+    }
+
+    public Summary getSummary() {
+	return new Summary(count, correct, wrong, missed, early, late, correct == 0 ? 0 : errorSum / correct,
+		correct == 0 ? 0 : absoluteErrorSum / correct);
+    }
+
+    /**
+     * Restarts grading from the beginning of the lesson.
+     */
+    public void reset() {
+	Arrays.fill(matched, false);
+	windowStart = windowEnd = 0;
+	correct = wrong = missed = early = late = 0;
+	errorSum = absoluteErrorSum = 0;
+    }
+
+    private void finalizeExpected(int index) {
+	if (matched[index]) {
+	    return;
+	}
+	missed++;
+	if (listener != null) {
+	    listener.onMissed(index, codes[index]);
+	}
+    }
+
+    /**
+     * Results of a lesson.
+     */
+    public static final class Summary {
+
+	public final int expected;
+
+	public final int correct;
+
+	public final int wrong;
+
+	public final int missed;
+
+	public final int early;
+
+	public final int late;
+
+	/**
+	 * Mean signed timing error of correct notes, negative when rushing.
+	 */
+	public final long meanErrorNanos;
+
+	public final long meanAbsoluteErrorNanos;
+
+	Summary(int expected, int correct, int wrong, int missed, int early, int late, long meanErrorNanos,
+		long meanAbsoluteErrorNanos) {
+	    this.expected = expected;
+	    this.correct = correct;
+	    this.wrong = wrong;
+	    this.missed = missed;
+	    this.early = early;
+	    this.late = late;
+	    this.meanErrorNanos = meanErrorNanos;
+	    this.meanAbsoluteErrorNanos = meanAbsoluteErrorNanos;
+	}
+
+	/**
+	 * @return share of expected notes played correctly, penalised by
+	 *         wrong notes, from 0 to 1
+	 */
+	public float getAccuracy() {
+	    int total = expected + wrong;
+	    return total == 0 ? 1f : (float) correct / total;
+	}
+
+	@Override
+	public String toString() {
+	    return "Summary [expected=" + expected + ", correct=" + correct + ", wrong=" + wrong + ", missed="
+		    + missed + ", early=" + early + ", late=" + late + ", meanError=" + meanErrorNanos / 1000000
+		    + "ms, meanAbsoluteError=" + meanAbsoluteErrorNanos / 1000000 + "ms]";
+	}
+
+    }
+
+}
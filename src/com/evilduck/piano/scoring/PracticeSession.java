@@ -0,0 +1,153 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.scoring;
+
+import android.graphics.Color;
+import android.support.v4.view.ViewCompat;
+
+import com.evilduck.piano.sequencer.NanoClock;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Runs a {@link PracticeScorer} against a {@link PianoView} in play mode.
+ * Played keys are graded as they are pressed and marked with colored
+ * overlays: correct notes while held, wrong ones with a ring, missed ones
+ * briefly with a square. Misses are looked for once per frame. All the calls
+ * happen on the main thread.
+ */
+public class PracticeSession implements PianoView.OnKeyPlayListener, PracticeScorer.Listener {
+
+    public interface OnFinishedListener {
+
+	void onLessonFinished(PracticeScorer.Summary summary);
+
+    }
+
+    public static final int CORRECT_COLOR = 0xFF4CAF50;
+
+    public static final int WRONG_COLOR = 0xFFE53935;
+
+    public static final int MISSED_COLOR = Color.GRAY;
+
+    private static final long MISSED_DISPLAY_MILLIS = 400;
+
+    private final PianoView pianoView;
+
+    private final PracticeScorer scorer;
+
+    private final NanoClock clock;
+
+    private final Runnable[] missedRemovals = new Runnable[128];
+
+    private OnFinishedListener onFinishedListener;
+
+    private long startNanos = -1;
+
+    public PracticeSession(PianoView pianoView, PracticeScorer scorer) {
+	this(pianoView, scorer, NanoClock.SYSTEM);
+    }
+
+    public PracticeSession(PianoView pianoView, PracticeScorer scorer, NanoClock clock) {
+	this.pianoView = pianoView;
+	this.scorer = scorer;
+	this.clock = clock;
+	scorer.setListener(this);
+    }
+
+    public void setOnFinishedListener(OnFinishedListener listener) {
+	this.onFinishedListener = listener;
+    }
+
+    /**
+     * Starts the lesson now.
+     */
+    public void start() {
+	scorer.reset();
+	pianoView.clear();
+	startNanos = clock.nanoTime();
+	ViewCompat.postOnAnimation(pianoView, frameCallback);
+    }
+
+    /**
+     * Ends the lesson early, remaining notes count as missed.
+     */
+    public PracticeScorer.Summary stop() {
+	if (startNanos < 0) {
+	    return scorer.getSummary();
+	}
+	startNanos = -1;
+	pianoView.removeCallbacks(frameCallback);
+	PracticeScorer.Summary summary = scorer.finish();
+	if (onFinishedListener != null) {
+	    onFinishedListener.onLessonFinished(summary);
+	}
+	return summary;
+    }
+
+    private final Runnable frameCallback = new Runnable() {
+	@Override
+	public void run() {
+	    if (startNanos < 0) {
+		return;
+	    }
+	    scorer.advance(clock.nanoTime() - startNanos);
+	    if (scorer.isFinished()) {
+		stop();
+	    } else {
+		ViewCompat.postOnAnimation(pianoView, this);
+	    }
+	}
+    };
+
+    @Override
+    public void onKeyDown(int midiCode) {
+	if (startNanos >= 0) {
+	    scorer.onPlayed(midiCode, clock.nanoTime() - startNanos);
+	}
+    }
+
+    @Override
+    public void onKeyUp(int midiCode) {
+	pianoView.removeCode(midiCode);
+    }
+
+    @Override
+    public void onCorrect(int expectedIndex, int midiCode, long errorNanos) {
+	pianoView.addCode(midiCode, CORRECT_COLOR, PianoView.SHAPE_CIRCLE);
+    }
+
+    @Override
+    public void onWrong(int midiCode, long timeNanos) {
+	pianoView.addCode(midiCode, WRONG_COLOR, PianoView.SHAPE_RING);
+    }
+
+    @Override
+    public void onMissed(int expectedIndex, final int midiCode) {
+	pianoView.addCode(midiCode, MISSED_COLOR, PianoView.SHAPE_ROUNDED_SQUARE);
+
+	Runnable removal = missedRemovals[midiCode];
+	if (removal == null) {
+	    removal = missedRemovals[midiCode] = new Runnable() {
+		@Override
+		public void run() {
+		    pianoView.removeCode(midiCode);
+		}
+	    };
+	}
+	pianoView.removeCallbacks(removal);
+	pianoView.postDelayed(removal, MISSED_DISPLAY_MILLIS);
+    }
+
+}
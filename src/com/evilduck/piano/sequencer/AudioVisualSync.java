@@ -0,0 +1,243 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+/**
+ * Delays visual events so that they are drawn together with the sound they
+ * belong to. Audio output is buffered, a note handed to the synthesizer now is
+ * heard tens of milliseconds later, so key highlights shown right away run
+ * ahead of the sound.
+ * <p>
+ * The audio thread reports written frames and output timestamps, e.g. through
+ * {@link com.evilduck.piano.audio.AudioTrackTimestamps}, from which the
+ * output latency is estimated and continuously corrected for drift between
+ * the audio and system clocks. Until a timestamp is available the latency is
+ * assumed to be the size of the output buffer. Visual events wait in a time
+ * ordered queue and are delivered on the frame closest to when they are
+ * heard.
+ * <p>
+ * Latency is estimated on the audio thread and can be read from any thread,
+ * the event queue is used on the main thread only. All timing goes through a
+ * {@link NanoClock}, so that the logic can run against a simulated clock and
+ * simulated timestamps.
+ */
+public class AudioVisualSync {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * Weight of a new measurement in the smoothed latency.
+     */
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    /**
+     * Shortest time span drift is measured over, shorter spans are dominated
+     * by timestamp jitter.
+     */
+    private static final long DRIFT_MIN_SPAN = NANOS_PER_SECOND;
+
+    private final NanoClock clock;
+
+    private final int sampleRate;
+
+    private final EventQueue queue = new EventQueue();
+
+    private volatile long latencyNanos;
+
+    private volatile long jitterNanos;
+
+    private volatile double driftPpm;
+
+    private volatile long extraLatencyNanos;
+
+    private long displayLatencyNanos;
+
+    // audio thread state
+
+    private long framesWritten;
+
+    private boolean measured;
+
+    private boolean driftAnchored;
+
+    private double smoothedLatency;
+
+    private double smoothedJitter;
+
+    private long driftAnchorTime;
+
+    private double driftAnchorOffset;
+
+    /**
+     * @param bufferFrames
+     *            size of the output buffer, the latency assumed until the
+     *            first timestamp
+     */
+    public AudioVisualSync(int sampleRate, int bufferFrames) {
+	this(sampleRate, bufferFrames, NanoClock.SYSTEM);
+    }
+
+    public AudioVisualSync(int sampleRate, int bufferFrames, NanoClock clock) {
+	if (sampleRate <= 0) {
+	    throw new IllegalArgumentException("Sample rate has to be positive, got " + sampleRate);
+	}
+	this.sampleRate = sampleRate;
+	this.clock = clock;
+	latencyNanos = framesToNanos(bufferFrames);
+    }
+
+    /**
+     * Called on the audio thread after every write to the output.
+     */
+    public void onFramesWritten(int frames) {
+	framesWritten += frames;
+    }
+
+    /**
+     * Called on the audio thread with an output timestamp: the frame at
+     * {@code framePosition} was presented at {@code presentedNanos} of the
+     * sync's clock.
+     */
+    public void onTimestamp(long framePosition, long presentedNanos) {
+	long now = clock.nanoTime();
+	// when the last written frame will be heard, relative to now
+	long heardAt = presentedNanos + framesToNanos(framesWritten - framePosition);
+	updateLatency(heardAt - now);
+	updateDrift(presentedNanos, framePosition);
+    }
+
+    /**
+     * Fallback for outputs without timestamps: the frame at the playback head
+     * is taken as being heard now. Ignores latency of the audio path after
+     * the buffer, which {@link #setExtraLatency(long)} can account for.
+     */
+    public void onPlaybackHead(long framePosition) {
+	updateLatency(framesToNanos(framesWritten - framePosition));
+    }
+
+    private void updateLatency(long measuredNanos) {
+	if (!measured) {
+	    measured = true;
+	    smoothedLatency = measuredNanos;
+	} else {
+	    smoothedJitter += (Math.abs(measuredNanos - smoothedLatency) - smoothedJitter) * LATENCY_SMOOTHING;
+	    smoothedLatency += (measuredNanos - smoothedLatency) * LATENCY_SMOOTHING;
+	}
+	latencyNanos = Math.max(0, (long) smoothedLatency);
+	jitterNanos = (long) smoothedJitter;
+    }
+
+    /**
+     * Tracks how fast the system time of audio frame zero moves, which is how
+     * fast the audio clock runs away from the system clock.
+     */
+    private void updateDrift(long presentedNanos, long framePosition) {
+	double offset = presentedNanos - (double) framePosition * NANOS_PER_SECOND / sampleRate;
+	if (!driftAnchored) {
+	    driftAnchored = true;
+	    driftAnchorTime = presentedNanos;
+	    driftAnchorOffset = offset;
+	    return;
+	}
+	long span = presentedNanos - driftAnchorTime;
+	if (span >= DRIFT_MIN_SPAN) {
+	    driftPpm = (offset - driftAnchorOffset) * 1e6 / span;
+	}
+    }
+
+    /**
+     * @return estimated time from handing audio to the output until it is
+     *         heard
+     */
+    public long getLatencyNanos() {
+	return latencyNanos + extraLatencyNanos;
+    }
+
+    /**
+     * @return average deviation of latency measurements from the estimate
+     */
+    public long getJitterNanos() {
+	return jitterNanos;
+    }
+
+    /**
+     * @return how much faster the system clock runs than the audio clock, in
+     *         parts per million, 0 until measured for a second
+     */
+    public double getDriftPpm() {
+	return driftPpm;
+    }
+
+    /**
+     * Latency the measurements can't see, e.g. of a Bluetooth headset.
+     */
+    public void setExtraLatency(long nanos) {
+	extraLatencyNanos = nanos;
+    }
+
+    /**
+     * Time from a frame's vsync until it is on screen, 0 by default.
+     */
+    public void setDisplayLatency(long nanos) {
+	displayLatencyNanos = nanos;
+    }
+
+    /**
+     * Queues a visual event for a sound handed to the output now.
+     */
+    public void post(int message) {
+	queue.offer(clock.nanoTime() + getLatencyNanos(), message, 0);
+    }
+
+    /**
+     * Queues a visual event for a sound heard at the given clock time.
+     */
+    public void schedule(long heardAtNanos, int message) {
+	queue.offer(heardAtNanos, message, 0);
+    }
+
+    /**
+     * Delivers events heard closer to this frame than to the next one.
+     * 
+     * @param frameTimeNanos
+     *            vsync time of the frame being drawn
+     * @param frameIntervalNanos
+     *            time between frames
+     */
+    public void dispatchFrame(long frameTimeNanos, long frameIntervalNanos, Sequencer.VisualSink sink) {
+	long deadline = frameTimeNanos + displayLatencyNanos + frameIntervalNanos / 2;
+	while (!queue.isEmpty() && queue.peekTime() <= deadline) {
+	    queue.poll();
+	    sink.onVisualEvent(queue.polledMessage());
+	}
+    }
+
+    /**
+     * @return true while events are waiting, frames have to be scheduled
+     *         until it turns false
+     */
+    public boolean hasPendingEvents() {
+	return !queue.isEmpty();
+    }
+
+    public void clear() {
+	queue.clear();
+    }
+
+    private long framesToNanos(long frames) {
+	return frames * NANOS_PER_SECOND / sampleRate;
+    }
+
+}
@@ -0,0 +1,166 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of timed events stored in parallel primitive arrays. Events
+ * with equal time are polled in the order they were offered. Nothing is
+ * allocated per event, the arrays only grow when the capacity is exceeded.
+ * <p>
+ * Not thread safe.
+ */
+public class EventQueue {
+
+    private long[] times;
+
+    private long[] order;
+
+    private int[] messages;
+
+    private int[] tags;
+
+    private int size;
+
+    private long nextOrder;
+
+    private long polledTime;
+
+    private int polledMessage;
+
+    private int polledTag;
+
+    public EventQueue() {
+	this(64);
+    }
+
+    public EventQueue(int capacity) {
+	capacity = Math.max(1, capacity);
+	times = new long[capacity];
+	order = new long[capacity];
+	messages = new int[capacity];
+	tags = new int[capacity];
+    }
+
+    /**
+     * @param tag
+     *            free form value returned with the event, e.g. a track index
+     */
+    public void offer(long time, int message, int tag) {
+	if (size == times.length) {
+	    int capacity = size * 2;
+	    times = Arrays.copyOf(times, capacity);
+	    order = Arrays.copyOf(order, capacity);
+	    messages = Arrays.copyOf(messages, capacity);
+	    tags = Arrays.copyOf(tags, capacity);
+	}
+	int i = size++;
+	long eventOrder = nextOrder++;
+	while (i > 0) {
+	    int parent = (i - 1) >>> 1;
+	    if (!less(time, eventOrder, times[parent], order[parent])) {
+		break;
+	    }
+	    move(parent, i);
+	    i = parent;
+	}
+	set(i, time, eventOrder, message, tag);
+    }
+
+    public boolean isEmpty() {
+	return size == 0;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    /**
+     * @return time of the earliest event, the queue must not be empty
+     */
+    public long peekTime() {
+	return times[0];
+    }
+
+    /**
+     * Removes the earliest event, which can then be read with
+     * {@link #polledTime()}, {@link #polledMessage()} and {@link #polledTag()}.
+     *
+     * @return false if the queue is empty
+     */
+    public boolean poll() {
+	if (size == 0) {
+	    return false;
+	}
+	polledTime = times[0];
+	polledMessage = messages[0];
+	polledTag = tags[0];
+
+	int last = --size;
+	long time = times[last];
+	long eventOrder = order[last];
+	int i = 0;
+	while (true) {
+	    int child = 2 * i + 1;
+	    if (child >= size) {
+		break;
+	    }
+	    if (child + 1 < size && less(times[child + 1], order[child + 1], times[child], order[child])) {
+		child++;
+	    }
+	    if (!less(times[child], order[child], time, eventOrder)) {
+		break;
+	    }
+	    move(child, i);
+	    i = child;
+	}
+	set(i, time, eventOrder, messages[last], tags[last]);
+	return true;
+    }
+
+    public long polledTime() {
+	return polledTime;
+    }
+
+    public int polledMessage() {
+	return polledMessage;
+    }
+
+    public int polledTag() {
+	return polledTag;
+    }
+
+    public void clear() {
+	size = 0;
+	nextOrder = 0;
+    }
+
+    private static boolean less(long time, long order, long otherTime, long otherOrder) {
+	return time < otherTime || time == otherTime && order < otherOrder;
+    }
+
+    private void move(int from, int to) {
+	set(to, times[from], order[from], messages[from], tags[from]);
+    }
+
+    private void set(int i, long time, long eventOrder, int message, int tag) {
+	times[i] = time;
+	order[i] = eventOrder;
+	messages[i] = message;
+	tags[i] = tag;
+    }
+
+}
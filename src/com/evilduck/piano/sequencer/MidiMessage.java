@@ -0,0 +1,93 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+/**
+ * Short midi messages packed into an int: status in the lowest byte, followed
+ * by the two data bytes. Packed messages are passed around instead of event
+ * objects, so that scheduling and dispatching do not allocate.
+ */
+public final class MidiMessage {
+
+    public static final int NOTE_OFF = 0x80;
+
+    public static final int NOTE_ON = 0x90;
+
+    public static final int CONTROL_CHANGE = 0xB0;
+
+    public static final int ALL_NOTES_OFF = 123;
+
+    private MidiMessage() {
+    }
+
+    public static int pack(int status, int data1, int data2) {
+	return (status & 0xFF) | (data1 & 0x7F) << 8 | (data2 & 0x7F) << 16;
+    }
+
+    public static int noteOn(int channel, int midiCode, int velocity) {
+	return pack(NOTE_ON | channel, midiCode, velocity);
+    }
+
+    public static int noteOff(int channel, int midiCode) {
+	return pack(NOTE_OFF | channel, midiCode, 0);
+    }
+
+    public static int allNotesOff(int channel) {
+	return pack(CONTROL_CHANGE | channel, ALL_NOTES_OFF, 0);
+    }
+
+    public static int status(int message) {
+	return message & 0xFF;
+    }
+
+    /**
+     * @return status without the channel bits
+     */
+    public static int command(int message) {
+	return message & 0xF0;
+    }
+
+    public static int channel(int message) {
+	return message & 0x0F;
+    }
+
+    public static int data1(int message) {
+	return (message >>> 8) & 0x7F;
+    }
+
+    public static int data2(int message) {
+	return (message >>> 16) & 0x7F;
+    }
+
+    /**
+     * @return true for note on messages with a non zero velocity
+     */
+    public static boolean isNoteOn(int message) {
+	return command(message) == NOTE_ON && data2(message) > 0;
+    }
+
+    /**
+     * @return true for note off messages and note on with zero velocity
+     */
+    public static boolean isNoteOff(int message) {
+	int command = command(message);
+	return command == NOTE_OFF || command == NOTE_ON && data2(message) == 0;
+    }
+
+    public static boolean isAllNotesOff(int message) {
+	return command(message) == CONTROL_CHANGE && data1(message) == ALL_NOTES_OFF;
+    }
+
+}
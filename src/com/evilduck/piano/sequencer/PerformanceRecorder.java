@@ -0,0 +1,86 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Records keys played on a {@link PianoView} in play mode into a
+ * {@link Sequence}, timed against a {@link TempoMap}, so the performance can
+ * be played back or bounced to audio later.
+ */
+public class PerformanceRecorder implements PianoView.OnKeyPlayListener {
+
+    private static final int VELOCITY = 100;
+
+    private final TempoMap tempoMap;
+
+    private final NanoClock clock;
+
+    private final Sequence sequence = new Sequence(1024);
+
+    private long startNanos = -1;
+
+    public PerformanceRecorder(TempoMap tempoMap) {
+	this(tempoMap, NanoClock.SYSTEM);
+    }
+
+    public PerformanceRecorder(TempoMap tempoMap, NanoClock clock) {
+	this.tempoMap = tempoMap;
+	this.clock = clock;
+    }
+
+    /**
+     * Clears the previous recording and starts a new one at tick 0.
+     */
+    public void start() {
+	sequence.clear();
+	startNanos = clock.nanoTime();
+    }
+
+    public void stop() {
+	startNanos = -1;
+    }
+
+    public boolean isRecording() {
+	return startNanos >= 0;
+    }
+
+    public Sequence getSequence() {
+	return sequence;
+    }
+
+    public TempoMap getTempoMap() {
+	return tempoMap;
+    }
+
+    @Override
+    public void onKeyDown(int midiCode) {
+	record(MidiMessage.noteOn(0, midiCode, VELOCITY));
+    }
+
+    @Override
+    public void onKeyUp(int midiCode) {
+	record(MidiMessage.noteOff(0, midiCode));
+    }
+
+    private void record(int message) {
+	if (startNanos < 0) {
+	    return;
+	}
+	sequence.add(Math.max(0, tempoMap.nanosToTick(clock.nanoTime() - startNanos)), message);
+    }
+
+}
@@ -0,0 +1,126 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import android.support.v4.view.ViewCompat;
+
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Presses and releases keys of a {@link PianoView} as a {@link Sequencer}
+ * plays. Events are pulled once per animation frame, so key changes are
+ * aligned with frames instead of arriving through a message per note.
+ * <p>
+ * Frames are only requested while the sequencer has events to deliver. Once
+ * playback stopped or the sequence ended the driver goes idle until the
+ * sequencer starts, seeks or loops again.
+ */
+public class PianoViewDriver implements Sequencer.VisualSink, Sequencer.OnPlaybackChangeListener {
+
+    private final PianoView pianoView;
+
+    private final Sequencer sequencer;
+
+    private final boolean[] pressed = new boolean[128];
+
+    private boolean running;
+
+    private boolean frameScheduled;
+
+    public PianoViewDriver(PianoView pianoView, Sequencer sequencer) {
+	this.pianoView = pianoView;
+	this.sequencer = sequencer;
+    }
+
+    /**
+     * Starts following the sequencer, must be called on the main thread.
+     */
+    public void start() {
+	if (running) {
+	    return;
+	}
+	running = true;
+	sequencer.addOnPlaybackChangeListener(this);
+	scheduleFrame();
+    }
+
+    public void stop() {
+	running = false;
+	sequencer.removeOnPlaybackChangeListener(this);
+	pianoView.removeCallbacks(wakeUp);
+	pianoView.removeCallbacks(frameCallback);
+	frameScheduled = false;
+	releaseAll();
+    }
+
+    @Override
+    public void onPlaybackChanged(Sequencer sequencer) {
+	// any thread
+	pianoView.post(wakeUp);
+    }
+
+    private void scheduleFrame() {
+	if (running && !frameScheduled) {
+	    frameScheduled = true;
+	    ViewCompat.postOnAnimation(pianoView, frameCallback);
+	}
+    }
+
+    private final Runnable wakeUp = new Runnable() {
+	@Override
+	public void run() {
+	    scheduleFrame();
+	}
+    };
+
+    private final Runnable frameCallback = new Runnable() {
+	@Override
+	public void run() {
+	    frameScheduled = false;
+	    if (!running) {
+		return;
+	    }
+	    sequencer.dispatchFrame(sequencer.getClock().nanoTime(), PianoViewDriver.this);
+	    if (sequencer.hasPendingVisualEvents()) {
+		scheduleFrame();
+	    }
+	}
+    };
+
+    @Override
+    public void onVisualEvent(int message) {
+	if (MidiMessage.isNoteOn(message)) {
+	    setPressed(MidiMessage.data1(message), true);
+	} else if (MidiMessage.isNoteOff(message)) {
+	    setPressed(MidiMessage.data1(message), false);
+	} else if (MidiMessage.isAllNotesOff(message)) {
+	    releaseAll();
+	}
+    }
+
+    private void setPressed(int midiCode, boolean pressed) {
+	this.pressed[midiCode] = pressed;
+	pianoView.setKeyPressed(midiCode, pressed);
+    }
+
+    private void releaseAll() {
+	for (int code = 0; code < pressed.length; code++) {
+	    if (pressed[code]) {
+		setPressed(code, false);
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,115 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import java.util.Arrays;
+
+/**
+ * Track of packed {@link MidiMessage}s sorted by tick. Events with the same
+ * tick keep the order they were added in. Finding the event to continue from
+ * after a seek or a loop jump is a binary search.
+ * <p>
+ * Must not be modified while a {@link Sequencer} is playing it.
+ */
+public class Sequence {
+
+    private long[] ticks;
+
+    private int[] messages;
+
+    private int size;
+
+    public Sequence() {
+	this(64);
+    }
+
+    public Sequence(int capacity) {
+	ticks = new long[Math.max(1, capacity)];
+	messages = new int[ticks.length];
+    }
+
+    public void add(long tick, int message) {
+	if (tick < 0) {
+	    throw new IllegalArgumentException("Tick must not be negative, got " + tick);
+	}
+	if (size == ticks.length) {
+	    ticks = Arrays.copyOf(ticks, size * 2);
+	    messages = Arrays.copyOf(messages, size * 2);
+	}
+	int index = indexAfter(tick);
+	System.arraycopy(ticks, index, ticks, index + 1, size - index);
+	System.arraycopy(messages, index, messages, index + 1, size - index);
+	ticks[index] = tick;
+	messages[index] = message;
+	size++;
+    }
+
+    /**
+     * Adds a note on and the matching note off.
+     */
+    public void addNote(long tick, long duration, int channel, int midiCode, int velocity) {
+	add(tick, MidiMessage.noteOn(channel, midiCode, velocity));
+	add(tick + duration, MidiMessage.noteOff(channel, midiCode));
+    }
+
+    public void clear() {
+	size = 0;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public long getTick(int index) {
+	return ticks[index];
+    }
+
+    public int getMessage(int index) {
+	return messages[index];
+    }
+
+    /**
+     * @return index of the first event at or after the given tick, or
+     *         {@link #size()} if there is none
+     */
+    public int indexOf(long tick) {
+	int low = 0;
+	int high = size;
+	while (low < high) {
+	    int middle = (low + high) >>> 1;
+	    if (ticks[middle] < tick) {
+		low = middle + 1;
+	    } else {
+		high = middle;
+	    }
+	}
+	return low;
+    }
+
+    private int indexAfter(long tick) {
+	int low = 0;
+	int high = size;
+	while (low < high) {
+	    int middle = (low + high) >>> 1;
+	    if (ticks[middle] <= tick) {
+		low = middle + 1;
+	    } else {
+		high = middle;
+	    }
+	}
+	return low;
+    }
+
+}
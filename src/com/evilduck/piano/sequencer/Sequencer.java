@@ -0,0 +1,566 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Plays {@link Sequence} tracks against a {@link TempoMap} and a monotonic
+ * {@link NanoClock}. Event times are always derived from the tempo map and a
+ * single anchor, never accumulated, so playback does not drift.
+ * <p>
+ * The sequencer has no thread of its own. The audio renderer pulls events for
+ * every buffer it renders with
+ * {@link #renderAudio(long, int, int, AudioSink)} and receives them with the
+ * frame offset inside the buffer, the UI pulls events once per frame with
+ * {@link #dispatchFrame(long, VisualSink)}. Each consumer has its own cursor,
+ * which merges the tracks in a lookahead window through an
+ * {@link EventQueue}. Seeking, tempo changes and loop jumps reposition cursors
+ * with binary searches and nothing is allocated per dispatched event.
+ * <p>
+ * When playback stops or jumps, each consumer receives an
+ * {@link MidiMessage#allNotesOff(int) all notes off} message for every channel
+ * the tracks use, so that no note is left hanging.
+ * <p>
+ * Control methods lock the sequencer and publish the resulting playback state
+ * as an immutable {@link Anchor}. Consumers only read the latest anchor, so
+ * the audio thread never waits for the UI thread.
+ */
+public class Sequencer {
+
+    /**
+     * Receives events on the audio thread.
+     */
+    public interface AudioSink {
+
+	/**
+	 * @param frameOffset
+	 *            frame of the rendered buffer the event applies at
+	 */
+	void onAudioEvent(int frameOffset, int message);
+
+    }
+
+    /**
+     * Receives events on the UI thread.
+     */
+    public interface VisualSink {
+
+	void onVisualEvent(int message);
+
+    }
+
+    /**
+     * Told when playback starts, stops, seeks or enters a loop, on the thread
+     * that called the control method and with the sequencer locked. Consumers
+     * that went idle use it to resume pulling events.
+     */
+    public interface OnPlaybackChangeListener {
+
+	void onPlaybackChanged(Sequencer sequencer);
+
+    }
+
+    private static final long DEFAULT_LOOKAHEAD = 100000000L;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int TRACK_BITS = 8;
+
+    private static final int TRACK_MASK = (1 << TRACK_BITS) - 1;
+
+    private final TempoMap tempoMap;
+
+    private final NanoClock clock;
+
+    private Sequence[] tracks = new Sequence[0];
+
+    private TempoMap tempoSnapshot;
+
+    private int channelMask;
+
+    private final Cursor audioCursor = new Cursor();
+
+    private final Cursor visualCursor = new Cursor();
+
+    private long lookahead = DEFAULT_LOOKAHEAD;
+
+    private boolean playing;
+
+    private long anchorClock;
+
+    private long anchorTick;
+
+    private long loopStart = -1;
+
+    private long loopEnd = -1;
+
+    private int version;
+
+    private int seekVersion;
+
+    private volatile Anchor anchor;
+
+    private final ArrayList<OnPlaybackChangeListener> playbackListeners = new ArrayList<OnPlaybackChangeListener>();
+
+    public Sequencer(TempoMap tempoMap) {
+	this(tempoMap, NanoClock.SYSTEM);
+    }
+
+    public Sequencer(TempoMap tempoMap, NanoClock clock) {
+	this.tempoMap = tempoMap;
+	this.clock = clock;
+	tempoSnapshot = tempoMap.copy();
+	publish();
+    }
+
+    public NanoClock getClock() {
+	return clock;
+    }
+
+    /**
+     * Tracks can only be added while stopped.
+     */
+    public synchronized void addTrack(Sequence track) {
+	if (playing) {
+	    throw new IllegalStateException("Tracks can't be added while playing");
+	}
+	if (tracks.length > TRACK_MASK) {
+	    throw new IllegalStateException("Too many tracks");
+	}
+	tracks = Arrays.copyOf(tracks, tracks.length + 1);
+	tracks[tracks.length - 1] = track;
+	seek(anchorTick);
+    }
+
+    public synchronized void addOnPlaybackChangeListener(OnPlaybackChangeListener listener) {
+	if (!playbackListeners.contains(listener)) {
+	    playbackListeners.add(listener);
+	}
+    }
+
+    public synchronized void removeOnPlaybackChangeListener(OnPlaybackChangeListener listener) {
+	playbackListeners.remove(listener);
+    }
+
+    /**
+     * @param nanos
+     *            how far ahead of the consumer's time events are merged,
+     *            should be shorter than any loop
+     */
+    public synchronized void setLookahead(long nanos) {
+	lookahead = nanos;
+	publish();
+    }
+
+    public synchronized void start() {
+	if (playing) {
+	    return;
+	}
+	playing = true;
+	anchorClock = clock.nanoTime();
+	// tracks may have been edited while stopped
+	channelMask = findChannels();
+	onJump();
+    }
+
+    public synchronized void stop() {
+	if (!playing) {
+	    return;
+	}
+	anchorTick = getTickAt(clock.nanoTime());
+	playing = false;
+	onJump();
+    }
+
+    public boolean isPlaying() {
+	return anchor.playing;
+    }
+
+    public synchronized void seek(long tick) {
+	anchorClock = clock.nanoTime();
+	anchorTick = Math.max(0, tick);
+	onJump();
+    }
+
+    /**
+     * Loops playback between the given ticks, the end is exclusive.
+     */
+    public synchronized void setLoop(long startTick, long endTick) {
+	if (startTick < 0 || endTick <= startTick) {
+	    throw new IllegalArgumentException("Invalid loop " + startTick + ".." + endTick);
+	}
+	reanchor();
+	loopStart = startTick;
+	loopEnd = endTick;
+	onJump();
+    }
+
+    public synchronized void clearLoop() {
+	reanchor();
+	loopStart = loopEnd = -1;
+	version++;
+	publish();
+    }
+
+    /**
+     * Changes the tempo from the given tick on. Playback continues from the
+     * current position at the new tempo, events already dispatched are not
+     * repeated.
+     */
+    public synchronized void setTempo(long tick, double bpm) {
+	reanchor();
+	tempoMap.setTempo(tick, bpm);
+	tempoSnapshot = tempoMap.copy();
+	version++;
+	publish();
+    }
+
+    /**
+     * @return position in ticks at the given clock time
+     */
+    public long getTickAt(long clockNanos) {
+	return anchor.getTickAt(clockNanos);
+    }
+
+    public long getPosition() {
+	return getTickAt(clock.nanoTime());
+    }
+
+    /**
+     * Delivers events falling into an audio buffer, called on the audio
+     * thread for every rendered buffer.
+     *
+     * @param bufferClockNanos
+     *            clock time at which the first frame of the buffer is heard
+     */
+    public void renderAudio(long bufferClockNanos, int frameCount, int sampleRate, AudioSink sink) {
+	long end = bufferClockNanos + frameCount * NANOS_PER_SECOND / sampleRate;
+	Cursor cursor = audioCursor;
+	while (cursor.next(end)) {
+	    long offset = (cursor.eventTime - bufferClockNanos) * sampleRate / NANOS_PER_SECOND;
+	    int frame = (int) Math.max(0, Math.min(frameCount - 1, offset));
+	    sink.onAudioEvent(frame, cursor.eventMessage);
+	}
+    }
+
+    /**
+     * Delivers events due by the given frame, called on the UI thread once
+     * per frame.
+     */
+    public void dispatchFrame(long frameTimeNanos, VisualSink sink) {
+	Cursor cursor = visualCursor;
+	while (cursor.next(frameTimeNanos + 1)) {
+	    sink.onVisualEvent(cursor.eventMessage);
+	}
+    }
+
+    /**
+     * Called on the UI thread after {@link #dispatchFrame(long, VisualSink)}.
+     *
+     * @return true while events are still to come, frames have to be
+     *         scheduled until it turns false
+     */
+    public boolean hasPendingVisualEvents() {
+	return visualCursor.hasPending();
+    }
+
+    private void reanchor() {
+	long now = clock.nanoTime();
+	anchorTick = getTickAt(now);
+	anchorClock = now;
+    }
+
+    private void onJump() {
+	version++;
+	seekVersion = version;
+	publish();
+	for (int i = 0; i < playbackListeners.size(); i++) {
+	    playbackListeners.get(i).onPlaybackChanged(this);
+	}
+    }
+
+    private void publish() {
+	anchor = new Anchor(this);
+    }
+
+    private int findChannels() {
+	int mask = 0;
+	for (int t = 0; t < tracks.length; t++) {
+	    Sequence track = tracks[t];
+	    for (int i = 0; i < track.size(); i++) {
+		int message = track.getMessage(i);
+		if (MidiMessage.status(message) < 0xF0) {
+		    mask |= 1 << MidiMessage.channel(message);
+		}
+	    }
+	}
+	return mask;
+    }
+
+    /**
+     * Playback state at one point, never modified once published. The tempo
+     * map is a private copy, the tracks are not modified while playing.
+     */
+    private static final class Anchor {
+
+	final int version;
+
+	final int seekVersion;
+
+	final Sequence[] tracks;
+
+	final TempoMap tempoMap;
+
+	final int channelMask;
+
+	final boolean playing;
+
+	final long clock;
+
+	final long tick;
+
+	final long loopStart;
+
+	final long loopEnd;
+
+	final long lookahead;
+
+	Anchor(Sequencer sequencer) {
+	    version = sequencer.version;
+	    seekVersion = sequencer.seekVersion;
+	    tracks = sequencer.tracks;
+	    tempoMap = sequencer.tempoSnapshot;
+	    channelMask = sequencer.channelMask;
+	    playing = sequencer.playing;
+	    clock = sequencer.anchorClock;
+	    tick = sequencer.anchorTick;
+	    loopStart = sequencer.loopStart;
+	    loopEnd = sequencer.loopEnd;
+	    lookahead = sequencer.lookahead;
+	}
+
+	boolean isLooping() {
+	    return loopEnd > loopStart && tick < loopEnd;
+	}
+
+	long getTickAt(long clockNanos) {
+	    if (!playing) {
+		return tick;
+	    }
+	    long songNanos = tempoMap.tickToNanos(tick) + clockNanos - clock;
+	    if (isLooping()) {
+		long endNanos = tempoMap.tickToNanos(loopEnd);
+		if (songNanos >= endNanos) {
+		    long startNanos = tempoMap.tickToNanos(loopStart);
+		    songNanos = startNanos + (songNanos - endNanos) % (endNanos - startNanos);
+		}
+	    }
+	    return tempoMap.nanosToTick(songNanos);
+	}
+
+    }
+
+    /**
+     * Position of one consumer, only accessed on the consumer's thread.
+     */
+    private class Cursor {
+
+	private final EventQueue queue = new EventQueue();
+
+	private int[] nextIndex = new int[0];
+
+	private int[] dispatchedIndex = new int[0];
+
+	private Anchor current;
+
+	private int seenVersion = -1;
+
+	private boolean active;
+
+	private boolean looping;
+
+	/**
+	 * Channels still waiting for an all notes off message.
+	 */
+	private int silenceChannels;
+
+	private long offset;
+
+	private long wrapClock = Long.MIN_VALUE;
+
+	long eventTime;
+
+	int eventMessage;
+
+	/**
+	 * Moves to the next event due before the given time.
+	 *
+	 * @return false if there is none
+	 */
+	boolean next(long until) {
+	    sync(anchor);
+	    if (silenceChannels != 0) {
+		int channel = Integer.numberOfTrailingZeros(silenceChannels);
+		silenceChannels &= silenceChannels - 1;
+		eventTime = clock.nanoTime();
+		eventMessage = MidiMessage.allNotesOff(channel);
+		return true;
+	    }
+	    if (!active) {
+		return false;
+	    }
+
+	    TempoMap tempoMap = current.tempoMap;
+	    while (true) {
+		fill(until + current.lookahead);
+		if (!queue.isEmpty() && queue.peekTime() < until) {
+		    queue.poll();
+		    int tag = queue.polledTag();
+		    dispatchedIndex[tag & TRACK_MASK] = tag >>> TRACK_BITS;
+		    eventTime = queue.polledTime();
+		    eventMessage = queue.polledMessage();
+		    return true;
+		}
+		if (queue.isEmpty() && looping && isAtLoopEnd()
+			&& tempoMap.tickToNanos(current.loopEnd) + offset < until) {
+		    wrap();
+		    continue;
+		}
+		return false;
+	    }
+	}
+
+	boolean hasPending() {
+	    sync(anchor);
+	    if (silenceChannels != 0) {
+		return true;
+	    }
+	    if (!active) {
+		return false;
+	    }
+	    if (looping || !queue.isEmpty()) {
+		return true;
+	    }
+	    Sequence[] tracks = current.tracks;
+	    for (int t = 0; t < nextIndex.length; t++) {
+		if (nextIndex[t] < tracks[t].size()) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	private void sync(Anchor anchor) {
+	    current = anchor;
+	    if (seenVersion == anchor.version) {
+		return;
+	    }
+	    Sequence[] tracks = anchor.tracks;
+	    TempoMap tempoMap = anchor.tempoMap;
+	    int trackCount = tracks.length;
+	    if (nextIndex.length != trackCount) {
+		nextIndex = new int[trackCount];
+		dispatchedIndex = new int[trackCount];
+	    }
+	    queue.clear();
+	    looping = anchor.isLooping();
+	    long anchorOffset = anchor.clock - tempoMap.tickToNanos(anchor.tick);
+	    boolean jumped = anchor.seekVersion > seenVersion;
+
+	    // a consumer running ahead in the next iteration of a loop that was
+	    // just cleared can't resume, it has to restart from the anchor
+	    if (jumped || !looping && wrapClock > anchor.clock) {
+		if (jumped && (active || seenVersion >= 0)) {
+		    silenceChannels |= anchor.channelMask;
+		}
+		offset = anchorOffset;
+		wrapClock = Long.MIN_VALUE;
+		for (int i = 0; i < trackCount; i++) {
+		    nextIndex[i] = tracks[i].indexOf(anchor.tick);
+		    dispatchedIndex[i] = nextIndex[i] - 1;
+		}
+	    } else {
+		if (looping && wrapClock > anchor.clock) {
+		    // this consumer already runs ahead in the next iteration
+		    anchorOffset += tempoMap.tickToNanos(anchor.loopEnd) - tempoMap.tickToNanos(anchor.loopStart);
+		    wrapClock = tempoMap.tickToNanos(anchor.loopStart) + anchorOffset;
+		}
+		offset = anchorOffset;
+		for (int i = 0; i < trackCount; i++) {
+		    nextIndex[i] = dispatchedIndex[i] + 1;
+		}
+	    }
+	    active = anchor.playing;
+	    seenVersion = anchor.version;
+	}
+
+	private void fill(long limit) {
+	    Sequence[] tracks = current.tracks;
+	    TempoMap tempoMap = current.tempoMap;
+	    long loopEnd = current.loopEnd;
+	    for (int t = 0; t < nextIndex.length; t++) {
+		Sequence track = tracks[t];
+		int index = nextIndex[t];
+		while (index < track.size()) {
+		    long tick = track.getTick(index);
+		    int message = track.getMessage(index);
+		    if (looping && tick >= loopEnd) {
+			// notes ending right at the loop end are still released
+			if (tick > loopEnd) {
+			    break;
+			}
+			if (!MidiMessage.isNoteOff(message)) {
+			    index++;
+			    continue;
+			}
+		    }
+		    long time = tempoMap.tickToNanos(tick) + offset;
+		    if (time >= limit) {
+			break;
+		    }
+		    queue.offer(time, message, index << TRACK_BITS | t);
+		    index++;
+		}
+		nextIndex[t] = index;
+	    }
+	}
+
+	private boolean isAtLoopEnd() {
+	    Sequence[] tracks = current.tracks;
+	    for (int t = 0; t < nextIndex.length; t++) {
+		Sequence track = tracks[t];
+		if (nextIndex[t] < track.size() && track.getTick(nextIndex[t]) <= current.loopEnd) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	private void wrap() {
+	    TempoMap tempoMap = current.tempoMap;
+	    offset += tempoMap.tickToNanos(current.loopEnd) - tempoMap.tickToNanos(current.loopStart);
+	    wrapClock = tempoMap.tickToNanos(current.loopStart) + offset;
+	    Sequence[] tracks = current.tracks;
+	    for (int t = 0; t < nextIndex.length; t++) {
+		nextIndex[t] = tracks[t].indexOf(current.loopStart);
+		dispatchedIndex[t] = nextIndex[t] - 1;
+	    }
+	}
+
+    }
+
+}
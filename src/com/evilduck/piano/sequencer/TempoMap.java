@@ -0,0 +1,242 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.sequencer;
+
+import java.util.Arrays;
+
+/**
+ * Maps musical time in ticks to nanoseconds and bars. Tempo and time signature
+ * changes are kept in sorted primitive arrays together with the time and the
+ * bar they start at, so every conversion is a binary search followed by a
+ * little integer arithmetic. Conversions are exact, positions do not drift no
+ * matter how far from the start they are.
+ * <p>
+ * Not thread safe, {@link Sequencer} hands its consumers private copies.
+ */
+public class TempoMap {
+
+    public static final int DEFAULT_PPQ = 480;
+
+    public static final double DEFAULT_BPM = 120;
+
+    private static final long NANOS_PER_MINUTE = 60000000000L;
+
+    private final int ppq;
+
+    private long[] tempoTicks = new long[4];
+
+    private long[] tempoNanos = new long[4];
+
+    private long[] nanosPerQuarter = new long[4];
+
+    private int tempoCount;
+
+    private long[] signatureTicks = new long[4];
+
+    private long[] signatureBars = new long[4];
+
+    private int[] numerators = new int[4];
+
+    private int[] denominators = new int[4];
+
+    private int signatureCount;
+
+    public TempoMap() {
+	this(DEFAULT_PPQ);
+    }
+
+    /**
+     * @param ppq
+     *            ticks per quarter note
+     */
+    public TempoMap(int ppq) {
+	if (ppq <= 0) {
+	    throw new IllegalArgumentException("Ticks per quarter must be positive, got " + ppq);
+	}
+	this.ppq = ppq;
+
+	tempoCount = 1;
+	nanosPerQuarter[0] = toNanosPerQuarter(DEFAULT_BPM);
+
+	signatureCount = 1;
+	numerators[0] = 4;
+	denominators[0] = 4;
+    }
+
+    /**
+     * @return independent copy of this map
+     */
+    TempoMap copy() {
+	TempoMap copy = new TempoMap(ppq);
+	copy.tempoTicks = Arrays.copyOf(tempoTicks, tempoCount);
+	copy.tempoNanos = Arrays.copyOf(tempoNanos, tempoCount);
+	copy.nanosPerQuarter = Arrays.copyOf(nanosPerQuarter, tempoCount);
+	copy.tempoCount = tempoCount;
+	copy.signatureTicks = Arrays.copyOf(signatureTicks, signatureCount);
+	copy.signatureBars = Arrays.copyOf(signatureBars, signatureCount);
+	copy.numerators = Arrays.copyOf(numerators, signatureCount);
+	copy.denominators = Arrays.copyOf(denominators, signatureCount);
+	copy.signatureCount = signatureCount;
+	return copy;
+    }
+
+    public int getPpq() {
+	return ppq;
+    }
+
+    /**
+     * Sets the tempo from the given tick on, replacing a change at the same
+     * tick. Changes appended at the end cost O(log n), earlier ones shift the
+     * start time of every later change.
+     */
+    public void setTempo(long tick, double bpm) {
+	if (tick < 0 || bpm <= 0) {
+	    throw new IllegalArgumentException("Invalid tempo " + bpm + " at " + tick);
+	}
+	int index = Arrays.binarySearch(tempoTicks, 0, tempoCount, tick);
+	if (index < 0) {
+	    index = -index - 1;
+	    if (tempoCount == tempoTicks.length) {
+		int capacity = tempoCount * 2;
+		tempoTicks = Arrays.copyOf(tempoTicks, capacity);
+		tempoNanos = Arrays.copyOf(tempoNanos, capacity);
+		nanosPerQuarter = Arrays.copyOf(nanosPerQuarter, capacity);
+	    }
+	    int tail = tempoCount - index;
+	    System.arraycopy(tempoTicks, index, tempoTicks, index + 1, tail);
+	    System.arraycopy(nanosPerQuarter, index, nanosPerQuarter, index + 1, tail);
+	    tempoCount++;
+	    tempoTicks[index] = tick;
+	}
+	nanosPerQuarter[index] = toNanosPerQuarter(bpm);
+
+	for (int i = Math.max(1, index); i < tempoCount; i++) {
+	    tempoNanos[i] = tempoNanos[i - 1] + (tempoTicks[i] - tempoTicks[i - 1]) * nanosPerQuarter[i - 1] / ppq;
+	}
+    }
+
+    /**
+     * @return tempo in beats per minute at the given tick
+     */
+    public double getTempo(long tick) {
+	return (double) NANOS_PER_MINUTE / nanosPerQuarter[tempoIndexAtTick(tick)];
+    }
+
+    public long tickToNanos(long tick) {
+	int i = tempoIndexAtTick(tick);
+	return tempoNanos[i] + (tick - tempoTicks[i]) * nanosPerQuarter[i] / ppq;
+    }
+
+    /**
+     * @return last tick starting at or before the given time
+     */
+    public long nanosToTick(long nanos) {
+	int i = upperIndex(tempoNanos, tempoCount, nanos);
+	long delta = nanos - tempoNanos[i];
+	long tick = tempoTicks[i] + delta * ppq / nanosPerQuarter[i];
+	if (delta < 0 && delta * ppq % nanosPerQuarter[i] != 0) {
+	    tick--;
+	}
+	return tick;
+    }
+
+    /**
+     * Sets the time signature from the given tick on, which should be the
+     * start of a bar.
+     */
+    public void setTimeSignature(long tick, int numerator, int denominator) {
+	if (tick < 0 || numerator <= 0 || denominator <= 0 || Integer.bitCount(denominator) != 1) {
+	    throw new IllegalArgumentException("Invalid time signature " + numerator + "/" + denominator + " at "
+		    + tick);
+	}
+	int index = Arrays.binarySearch(signatureTicks, 0, signatureCount, tick);
+	if (index < 0) {
+	    index = -index - 1;
+	    if (signatureCount == signatureTicks.length) {
+		int capacity = signatureCount * 2;
+		signatureTicks = Arrays.copyOf(signatureTicks, capacity);
+		signatureBars = Arrays.copyOf(signatureBars, capacity);
+		numerators = Arrays.copyOf(numerators, capacity);
+		denominators = Arrays.copyOf(denominators, capacity);
+	    }
+	    int tail = signatureCount - index;
+	    System.arraycopy(signatureTicks, index, signatureTicks, index + 1, tail);
+	    System.arraycopy(numerators, index, numerators, index + 1, tail);
+	    System.arraycopy(denominators, index, denominators, index + 1, tail);
+	    signatureCount++;
+	    signatureTicks[index] = tick;
+	}
+	numerators[index] = numerator;
+	denominators[index] = denominator;
+
+	for (int i = Math.max(1, index); i < signatureCount; i++) {
+	    long ticks = signatureTicks[i] - signatureTicks[i - 1];
+	    long ticksPerBar = ticksPerBar(i - 1);
+	    signatureBars[i] = signatureBars[i - 1] + (ticks + ticksPerBar - 1) / ticksPerBar;
+	}
+    }
+
+    public int getNumerator(long tick) {
+	return numerators[upperIndex(signatureTicks, signatureCount, tick)];
+    }
+
+    public int getDenominator(long tick) {
+	return denominators[upperIndex(signatureTicks, signatureCount, tick)];
+    }
+
+    /**
+     * @return zero based bar containing the given tick
+     */
+    public long getBar(long tick) {
+	int i = upperIndex(signatureTicks, signatureCount, tick);
+	return signatureBars[i] + (tick - signatureTicks[i]) / ticksPerBar(i);
+    }
+
+    public long getBarStartTick(long bar) {
+	int i = upperIndex(signatureBars, signatureCount, bar);
+	return signatureTicks[i] + (bar - signatureBars[i]) * ticksPerBar(i);
+    }
+
+    private long ticksPerBar(int signatureIndex) {
+	return (long) ppq * 4 * numerators[signatureIndex] / denominators[signatureIndex];
+    }
+
+    private int tempoIndexAtTick(long tick) {
+	return upperIndex(tempoTicks, tempoCount, tick);
+    }
+
+    /**
+     * @return index of the last value less than or equal to the key, 0 if
+     *         there is none
+     */
+    private static int upperIndex(long[] values, int count, long key) {
+	int low = 0;
+	int high = count - 1;
+	while (low < high) {
+	    int middle = (low + high + 1) >>> 1;
+	    if (values[middle] <= key) {
+		low = middle;
+	    } else {
+		high = middle - 1;
+	    }
+	}
+	return low;
+    }
+
+    private static long toNanosPerQuarter(double bpm) {
+	return Math.round(NANOS_PER_MINUTE / bpm);
+    }
+
+}
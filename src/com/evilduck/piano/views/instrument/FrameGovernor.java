@@ -0,0 +1,201 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+/**
+ * Single place deciding when {@link PianoView} draws. Everything that needs
+ * a new frame requests it with a reason, requests are coalesced into one
+ * frame and nothing is scheduled without a request, so a settled view does
+ * not draw at all. The frame rate can be capped, e.g. for ambient
+ * visualisations, and frames are counted per reason to show what keeps the
+ * view busy.
+ */
+public final class FrameGovernor {
+
+    /**
+     * Notes, overlays, pressed keys or resources changed.
+     */
+    public static final int REASON_CONTENT = 1;
+
+    /**
+     * Key press or overlay fade animation is running.
+     */
+    public static final int REASON_ANIMATION = 1 << 1;
+
+    /**
+     * Dragging or flinging the keyboard.
+     */
+    public static final int REASON_SCROLL = 1 << 2;
+
+    public static final int REASON_EDGE_EFFECT = 1 << 3;
+
+    /**
+     * Touch feedback, e.g. a touched key was released.
+     */
+    public static final int REASON_TOUCH = 1 << 4;
+
+    public static final int REASON_ZOOM = 1 << 5;
+
+    /**
+     * Frames drawn without any request, e.g. after a layout pass.
+     */
+    public static final int REASON_OTHER = 1 << 6;
+
+    private static final int REASON_COUNT = 7;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final View view;
+
+    private final long[] frameCounts = new long[REASON_COUNT];
+
+    private long frames;
+
+    private int pendingReasons;
+
+    private int frameReasons;
+
+    private boolean scheduled;
+
+    private boolean inFrame;
+
+    private long minFrameIntervalNanos;
+
+    private long lastFrameNanos = Long.MIN_VALUE / 2;
+
+    FrameGovernor(View view) {
+	this.view = view;
+    }
+
+    /**
+     * Asks for a frame. Requests made before the frame is drawn are
+     * coalesced, requests made while drawing go to the next frame.
+     *
+     * @param reason
+     *            one or more of the REASON constants
+     */
+    public void request(int reason) {
+	pendingReasons |= reason;
+	if (scheduled) {
+	    return;
+	}
+	scheduled = true;
+
+	long delayNanos = lastFrameNanos + minFrameIntervalNanos - System.nanoTime();
+	if (delayNanos > 0) {
+	    ViewCompat.postOnAnimationDelayed(view, invalidator, (delayNanos + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI);
+	} else {
+	    ViewCompat.postOnAnimation(view, invalidator);
+	}
+    }
+
+    /**
+     * @param fps
+     *            highest number of frames per second, 0 for no limit
+     */
+    public void setMaxFrameRate(int fps) {
+	if (fps < 0) {
+	    throw new IllegalArgumentException("Frame rate can't be negative, got " + fps);
+	}
+	minFrameIntervalNanos = fps == 0 ? 0 : 1000000000L / fps;
+    }
+
+    /**
+     * @return true if no frame is requested, which is the case whenever
+     *         nothing is moving
+     */
+    public boolean isIdle() {
+	return !scheduled && pendingReasons == 0;
+    }
+
+    /**
+     * @return reasons of the frame currently or last drawn
+     */
+    public int getFrameReasons() {
+	return frameReasons;
+    }
+
+    /**
+     * @return number of frames drawn for the given reason, a frame with
+     *         several reasons is counted for each of them
+     */
+    public long getFrameCount(int reason) {
+	return frameCounts[Integer.numberOfTrailingZeros(reason)];
+    }
+
+    public long getFrames() {
+	return frames;
+    }
+
+    public void resetCounts() {
+	for (int i = 0; i < frameCounts.length; i++) {
+	    frameCounts[i] = 0;
+	}
+	frames = 0;
+    }
+
+    /**
+     * Starts a frame, called at the start of drawing. Reasons requested up to
+     * here are served by this frame, later ones by the next.
+     */
+    void beginFrame() {
+	if (inFrame) {
+	    return;
+	}
+	inFrame = true;
+
+	frameReasons = pendingReasons != 0 ? pendingReasons : REASON_OTHER;
+	pendingReasons = 0;
+	if (scheduled) {
+	    scheduled = false;
+	    // this frame serves the request already
+	    view.removeCallbacks(invalidator);
+	}
+
+	frames++;
+	for (int reasons = frameReasons; reasons != 0; reasons &= reasons - 1) {
+	    frameCounts[Integer.numberOfTrailingZeros(reasons)]++;
+	}
+	lastFrameNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends a frame, called at the end of drawing.
+     */
+    void endFrame() {
+	inFrame = false;
+    }
+
+    @Override
+    public String toString() {
+	return "FrameGovernor [frames=" + frames + ", content=" + frameCounts[0] + ", animation=" + frameCounts[1]
+		+ ", scroll=" + frameCounts[2] + ", edgeEffect=" + frameCounts[3] + ", touch=" + frameCounts[4]
+		+ ", zoom=" + frameCounts[5] + ", other=" + frameCounts[6] + "]";
+    }
+
+    private final Runnable invalidator = new Runnable() {
+	@Override
+	public void run() {
+	    // the view is invalidated now, later requests need a new frame in
+	    // case drawing doesn't happen
+	    scheduled = false;
+	    view.invalidate();
+	}
+    };
+
+}
@@ -0,0 +1,203 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import java.util.List;
+
+import com.evilduck.piano.music.Note;
+
+/**
+ * Immutable set of highlighted keys with the spelling, color and shape of
+ * each overlay, indexed by midi code. {@link PianoView} keeps its highlights
+ * in a builder and takes a snapshot of it at most once per frame, so any
+ * thread can update highlights without posting and a change doesn't
+ * allocate.
+ * <p>
+ * Snapshots are made with a {@link Builder}, which can batch any number of
+ * changes into a single publication.
+ */
+public final class Highlights {
+
+    private static final int CODES = 128;
+
+    public static final int SHAPE_CIRCLE = 0;
+
+    public static final int SHAPE_ROUNDED_SQUARE = 1;
+
+    public static final int SHAPE_RING = 2;
+
+    static final int SHAPE_COUNT = 3;
+
+    public static final Highlights EMPTY = new Builder().build();
+
+    private final long[] bits;
+
+    private final Note[] notes;
+
+    private final int[] colors;
+
+    private final byte[] shapes;
+
+    private final int size;
+
+    private Highlights(Builder builder) {
+	bits = builder.bits.clone();
+	notes = builder.notes.clone();
+	colors = builder.colors.clone();
+	shapes = builder.shapes.clone();
+	size = Long.bitCount(bits[0]) + Long.bitCount(bits[1]);
+    }
+
+    public boolean contains(int midiCode) {
+	return midiCode >= 0 && midiCode < CODES && (bits[midiCode >> 6] & (1L << midiCode)) != 0;
+    }
+
+    /**
+     * @return spelling of the highlighted key or null
+     */
+    public Note getNote(int midiCode) {
+	return contains(midiCode) ? notes[midiCode] : null;
+    }
+
+    /**
+     * @return color of the highlighted key, 0 if it isn't highlighted
+     */
+    public int getColor(int midiCode) {
+	return contains(midiCode) ? colors[midiCode] : 0;
+    }
+
+    /**
+     * @return shape of the highlighted key, {@link #SHAPE_CIRCLE} if it isn't
+     *         highlighted
+     */
+    public int getShape(int midiCode) {
+	return contains(midiCode) ? shapes[midiCode] : SHAPE_CIRCLE;
+    }
+
+    /**
+     * @return number of highlighted keys
+     */
+    public int size() {
+	return size;
+    }
+
+    public Builder buildUpon() {
+	return new Builder(this);
+    }
+
+    /**
+     * Mutable copy of a snapshot, not thread safe. Keep one per thread.
+     */
+    public static final class Builder {
+
+	private final long[] bits = new long[2];
+
+	private final Note[] notes = new Note[CODES];
+
+	private final int[] colors = new int[CODES];
+
+	private final byte[] shapes = new byte[CODES];
+
+	public Builder() {
+	}
+
+	public Builder(Highlights from) {
+	    set(from);
+	}
+
+	/**
+	 * Replaces the builder contents with the snapshot, so a builder can be
+	 * reused for every update.
+	 */
+	public Builder set(Highlights from) {
+	    System.arraycopy(from.bits, 0, bits, 0, bits.length);
+	    System.arraycopy(from.notes, 0, notes, 0, CODES);
+	    System.arraycopy(from.colors, 0, colors, 0, CODES);
+	    System.arraycopy(from.shapes, 0, shapes, 0, CODES);
+	    return this;
+	}
+
+	public Builder add(Note note, int color, int shape) {
+	    int code = note.getMidiCode();
+	    if (code < 0 || code >= CODES) {
+		return this;
+	    }
+	    add(code, color, shape);
+	    notes[code] = note;
+	    return this;
+	}
+
+	public Builder add(List<Note> notes, int color, int shape) {
+	    for (int i = 0; i < notes.size(); i++) {
+		add(notes.get(i), color, shape);
+	    }
+	    return this;
+	}
+
+	/**
+	 * Highlights a key spelled with sharps.
+	 */
+	public Builder add(int midiCode, int color, int shape) {
+	    if (shape < 0 || shape >= SHAPE_COUNT) {
+		throw new IllegalArgumentException("Unknown overlay shape: " + shape);
+	    }
+	    if (midiCode < 0 || midiCode >= CODES) {
+		return this;
+	    }
+	    bits[midiCode >> 6] |= 1L << midiCode;
+	    notes[midiCode] = Note.fromCode(midiCode);
+	    colors[midiCode] = color;
+	    shapes[midiCode] = (byte) shape;
+	    return this;
+	}
+
+	public Builder remove(int midiCode) {
+	    if (midiCode >= 0 && midiCode < CODES) {
+		bits[midiCode >> 6] &= ~(1L << midiCode);
+		notes[midiCode] = null;
+	    }
+	    return this;
+	}
+
+	/**
+	 * Removes highlights of the notes, keys highlighted with a different
+	 * spelling stay.
+	 */
+	public Builder remove(List<Note> notes) {
+	    for (int i = 0; i < notes.size(); i++) {
+		Note note = notes.get(i);
+		int code = note.getMidiCode();
+		if (code >= 0 && code < CODES && note.equals(this.notes[code])) {
+		    remove(code);
+		}
+	    }
+	    return this;
+	}
+
+	public Builder clear() {
+	    bits[0] = bits[1] = 0;
+	    for (int i = 0; i < CODES; i++) {
+		notes[i] = null;
+	    }
+	    return this;
+	}
+
+	public Highlights build() {
+	    return new Highlights(this);
+	}
+
+    }
+
+}
@@ -14,7 +14,7 @@
  */
 package com.evilduck.piano.views.instrument;
 
-class Key implements Cloneable {
+class Key {
 
     float startX;
 
@@ -28,8 +28,6 @@ class Key implements Cloneable {
 
     boolean black;
 
-    boolean pressed = false;
-
     void setBounds(float startX, float endX, float startY, float endY) {
 	this.startX = startX;
 	this.startY = startY;
@@ -37,31 +35,15 @@ class Key implements Cloneable {
 	this.endY = endY;
     }
 
-    @Override
-    protected Key clone() {
-	Key key = new Key();
-	key.startX = startX;
-	key.endX = endX;
-	key.startY = startY;
-	key.endY = endY;
-	key.midiCode = midiCode;
-	key.black = black;
-
-	return key;
-    }
-
     boolean containsPoint(float x, float y) {
 	return startX <= x && endX > x && startY <= y && endY > y;
     }
 
     float getOverlayPivotX() {
-	return (endX - startX) / 2f + startX;
+	return KeyboardLayout.overlayPivotX(startX, endX);
     }
 
     float getOverlayPivotY() {
-	if (!black) {
-	    return (endY - startY) * 0.85f + startY;
-	}
-	return (endY - startY) / 2f + startY;
+	return KeyboardLayout.overlayPivotY(startY, endY, black);
     }
 }
\ No newline at end of file
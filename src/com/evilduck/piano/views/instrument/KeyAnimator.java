@@ -0,0 +1,142 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+/**
+ * Single animation scheduler for all the keys of the instrument. Press and
+ * overlay fade progress is stored in primitive arrays and advanced once per
+ * frame, so animating every key at once does not allocate anything.
+ */
+class KeyAnimator {
+
+    private static final long PRESS_DURATION = 60;
+
+    private static final long FADE_DURATION = 150;
+
+    private static final long FIRST_FRAME_STEP = 16;
+
+    private final float[] pressProgress;
+
+    private final boolean[] pressTarget;
+
+    private final float[] overlayProgress;
+
+    private final boolean[] overlayTarget;
+
+    private boolean animating = false;
+
+    private long lastFrameTime = -1;
+
+    KeyAnimator(int keyCount) {
+	pressProgress = new float[keyCount];
+	pressTarget = new boolean[keyCount];
+	overlayProgress = new float[keyCount];
+	overlayTarget = new boolean[keyCount];
+    }
+
+    void setPressed(int index, boolean pressed) {
+	if (pressTarget[index] != pressed) {
+	    pressTarget[index] = pressed;
+	    animating = true;
+	}
+    }
+
+    void setOverlayVisible(int index, boolean visible) {
+	if (overlayTarget[index] != visible) {
+	    overlayTarget[index] = visible;
+	    animating = true;
+	}
+    }
+
+    float getPressProgress(int index) {
+	return pressProgress[index];
+    }
+
+    float getOverlayProgress(int index) {
+	return overlayProgress[index];
+    }
+
+    boolean isPressed(int index) {
+	return pressTarget[index];
+    }
+
+    boolean isOverlayVisible(int index) {
+	return overlayTarget[index];
+    }
+
+    boolean isAnimating() {
+	return animating;
+    }
+
+    /**
+     * Jumps every running animation to its end state.
+     */
+    void finish() {
+	for (int i = 0; i < pressProgress.length; i++) {
+	    pressProgress[i] = pressTarget[i] ? 1f : 0f;
+	    overlayProgress[i] = overlayTarget[i] ? 1f : 0f;
+	}
+	animating = false;
+	lastFrameTime = -1;
+    }
+
+    /**
+     * Advances every running animation to the given frame time.
+     *
+     * @return true if another frame has to be scheduled, false once all the
+     *         keys have reached their targets and the animator went idle.
+     */
+    boolean step(long frameTime) {
+	if (!animating) {
+	    return false;
+	}
+
+	long elapsed = lastFrameTime < 0 ? FIRST_FRAME_STEP : frameTime - lastFrameTime;
+	lastFrameTime = frameTime;
+
+	float pressDelta = (float) elapsed / PRESS_DURATION;
+	float fadeDelta = (float) elapsed / FADE_DURATION;
+
+	boolean running = false;
+	for (int i = 0; i < pressProgress.length; i++) {
+	    running |= advance(pressProgress, pressTarget, i, pressDelta);
+	    running |= advance(overlayProgress, overlayTarget, i, fadeDelta);
+	}
+
+	if (!running) {
+	    animating = false;
+	    lastFrameTime = -1;
+	}
+	return running;
+    }
+
+    private static boolean advance(float[] progress, boolean[] target, int index, float delta) {
+	float value = progress[index];
+	if (target[index]) {
+	    if (value >= 1f) {
+		return false;
+	    }
+	    value = Math.min(1f, value + delta);
+	} else {
+	    if (value <= 0f) {
+		return false;
+	    }
+	    value = Math.max(0f, value - delta);
+	}
+	progress[index] = value;
+	return value > 0f && value < 1f;
+    }
+
+}
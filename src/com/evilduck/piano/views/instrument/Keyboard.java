@@ -14,41 +14,49 @@
  */
 package com.evilduck.piano.views.instrument;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.util.TypedValue;
 
-import com.evilduck.piano.R;
 import com.evilduck.piano.music.Note;
 
 class Keyboard {
 
-    private static final float BLACK_KEY_HEIGHT_PERCENT = 1.57f;
-
-    private static final float WHITE_KEY_ASPECT_RATIO = 6.12f;
-
     private static final int OCTAVES = 4;
 
     private static final int START_MIDI_CODE = Note.C.inOctave(2).getMidiCode();
 
-    private static final int KEYS_IN_OCTAVE = 12;
+    private static final int KEYS_IN_OCTAVE = KeyboardLayout.KEYS_IN_OCTAVE;
 
     private static final int[] WHITE_INDICES = { 0, 2, 4, 5, 7, 9, 11 };
 
     private static final int[] BLACK_INDICES = { 1, 3, 6, 8, 10 };
 
+    private static final int[] PRESSED_STATE = { android.R.attr.state_pressed };
+
+    private static final int[] RELEASED_STATE = { -android.R.attr.state_pressed };
+
+    static final int KEY_COUNT = KEYS_IN_OCTAVE * OCTAVES;
+
+    static final int SHAPE_COUNT = Highlights.SHAPE_COUNT;
+
     protected static final int NOT_FOUND = -1;
 
+    private static final float GLOW_MAX_ALPHA = 0.6f;
+
+    private static final int LAYER_RELEASED = 0;
+
+    private static final int LAYER_PRESSED = 1;
+
+    private static final int LAYER_COUNT = 3;
+
     protected Paint overlayTextPaint;
 
     protected float overlayCircleRadius;
@@ -59,25 +67,35 @@ class Keyboard {
 
     protected int screenRight;
 
-    private Key[] keysArray;
+    private int firstVisibleKey;
 
-    private int octaveWidth;
+    private int lastVisibleKey;
 
-    private int blackKeyHeight;
+    private Key[] keysArray;
 
-    private int whiteKeyWidth;
+    private KeyboardLayout layout = new KeyboardLayout(START_MIDI_CODE, OCTAVES);
 
     private Drawable whiteKeyDrawable;
 
     private Drawable blackKeyDrawable;
 
+    private int[] whiteKeyState;
+
+    private int[] blackKeyState;
+
+    private int whiteKeyAlpha = -1;
+
+    private int blackKeyAlpha = -1;
+
     private int touchedKey;
 
     private int circleColor;
 
     private boolean asBitmaps;
 
-    private Bitmap circleAsBitmap;
+    private KeyboardResources resources;
+
+    private Runnable onResourcesReady;
 
     private Bitmap notesAtlas;
 
@@ -89,11 +107,41 @@ class Keyboard {
 
     private RectF dst;
 
+    private Paint bitmapPaint;
+
+    private Paint maskPaint;
+
+    private KeyAnimator animator;
+
+    private RenderStats stats;
+
+    private Note[] overlayNotes = new Note[KEY_COUNT];
+
+    private int[] overlayColors = new int[KEY_COUNT];
+
+    private byte[] overlayShapes = new byte[KEY_COUNT];
+
+    private float[] keyIntensities = new float[KEY_COUNT];
+
+    private Paint glowPaint;
+
     public int getTouchedCode() {
 	return touchedKey + START_MIDI_CODE;
     }
 
-    public Keyboard(Context context, boolean asBitmaps, int circleColor, float circleRadius, float circleTextSize) {
+    /**
+     * @return midi code of the key under the given point or
+     *         {@link #NOT_FOUND}
+     */
+    public int getCodeAt(float x, float y) {
+	int index = locateTouchedKey(x, y);
+	return index == NOT_FOUND ? NOT_FOUND : index + START_MIDI_CODE;
+    }
+
+    public Keyboard(KeyAnimator animator, RenderStats stats, boolean asBitmaps, int circleColor, float circleRadius,
+	    float circleTextSize) {
+	this.animator = animator;
+	this.stats = stats;
 	this.circleColor = circleColor;
 	this.asBitmaps = asBitmaps;
 
@@ -105,101 +153,340 @@ class Keyboard {
 
 	src = new Rect();
 	dst = new RectF();
-
-	whiteKeyDrawable = context.getResources().getDrawable(R.drawable.white_key_selector);
-	blackKeyDrawable = context.getResources().getDrawable(R.drawable.black_key_selector);
+	bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	maskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	glowPaint = new Paint();
+	glowPaint.setColor(circleColor);
+	Arrays.fill(overlayColors, circleColor);
 
 	if (asBitmaps) {
-	    circleAsBitmap = Bitmap.createBitmap((int) circleRadius * 2, (int) circleRadius * 2, Config.ARGB_8888);
-
-	    Canvas c = new Canvas(circleAsBitmap);
-	    overlayTextPaint.setColor(circleColor);
 	    overlayTextPaint.setAntiAlias(true);
-	    c.drawCircle(circleRadius, circleRadius, circleRadius, overlayTextPaint);
+	}
+    }
+
+    /**
+     * Takes drawables and bitmaps from the shared cache, has to be paired with
+     * {@link #releaseResources()}. Keys can be drawn right away, overlay
+     * assets are prepared in background and the callback is run on the main
+     * thread once they are ready.
+     */
+    public void acquireResources(Context context, Runnable onOverlaysReady) {
+	if (resources != null) {
+	    return;
+	}
+	resources = KeyboardResources.acquire(context, overlayCircleRadius);
+	if (asBitmaps && !resources.isOverlaysReady()) {
+	    onResourcesReady = onOverlaysReady;
+	    resources.addReadyCallback(onOverlaysReady);
+	}
+
+	// own instances are needed, because alpha is changed while the press
+	// animation runs
+	whiteKeyDrawable = resources.newWhiteKeyDrawable();
+	blackKeyDrawable = resources.newBlackKeyDrawable();
+	whiteKeyState = blackKeyState = null;
+	whiteKeyAlpha = blackKeyAlpha = -1;
+    }
+
+    public void releaseResources() {
+	if (resources == null) {
+	    return;
+	}
+	if (onResourcesReady != null) {
+	    resources.removeReadyCallback(onResourcesReady);
+	    onResourcesReady = null;
+	}
+	resources.release();
+	resources = null;
+	notesAtlas = null;
+	whiteKeyDrawable = blackKeyDrawable = null;
+    }
+
+    public boolean hasResources() {
+	return resources != null;
+    }
 
-	    notesAtlas = BitmapFactory.decodeResource(context.getResources(), R.drawable.note_atlas);
-	    noteSizeInAtlas = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 13.5f, context.getResources()
-		    .getDisplayMetrics());
-	    signSizeInAtlas = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 6f, context.getResources()
-		    .getDisplayMetrics());
+    /**
+     * @return true if overlays can be drawn, bitmap overlays have to wait for
+     *         their assets
+     */
+    public boolean isOverlaysReady() {
+	if (!asBitmaps) {
+	    return true;
+	}
+	if (notesAtlas == null && resources != null && resources.isOverlaysReady()) {
+	    notesAtlas = resources.getNotesAtlas();
+	    noteSizeInAtlas = resources.getNoteSizeInAtlas();
+	    signSizeInAtlas = resources.getSignSizeInAtlas();
+	}
+	return notesAtlas != null;
+    }
+
+    static void drawShape(Canvas canvas, int shape, float centerX, float centerY, float radius, Paint paint,
+	    RectF rect) {
+	switch (shape) {
+	case Highlights.SHAPE_ROUNDED_SQUARE:
+	    rect.set(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+	    canvas.drawRoundRect(rect, radius / 3, radius / 3, paint);
+	    break;
+	case Highlights.SHAPE_RING:
+	    float strokeWidth = radius / 4;
+	    paint.setStyle(Paint.Style.STROKE);
+	    paint.setStrokeWidth(strokeWidth);
+	    canvas.drawCircle(centerX, centerY, radius - strokeWidth / 2, paint);
+	    paint.setStyle(Paint.Style.FILL);
+	    break;
+	default:
+	    canvas.drawCircle(centerX, centerY, radius, paint);
+	    break;
 	}
     }
 
     public void updateBounds(int left, int right) {
 	screenLeft = left;
 	screenRight = right;
+
+	// visible range is resolved once per bounds change instead of once per
+	// drawing pass
+	firstVisibleKey = getFirstVisibleKey();
+	lastVisibleKey = getLastVisibleKey();
     }
 
     public void draw(Canvas canvas) {
-	final Key[] keys = keysArray;
+	// black keys go on top of all the white ones, keys of the same color
+	// never overlap
+	for (int layer = 0; layer < LAYER_COUNT; layer++) {
+	    drawLayer(canvas, WHITE_INDICES, layer);
+	}
+	for (int layer = 0; layer < LAYER_COUNT; layer++) {
+	    drawLayer(canvas, BLACK_INDICES, layer);
+	}
+    }
 
-	int firstVisibleKey = getFirstVisibleKey();
-	int lastVisibleKey = getLastVisibleKey();
+    /**
+     * Draws one layer of every visible key of a color. Going through the keys
+     * once per layer keeps the drawable in the same state for the whole pass,
+     * instead of switching it back and forth for every pressed key.
+     */
+    private void drawLayer(Canvas canvas, int[] indices, int layer) {
+	final Key[] keys = keysArray;
 
 	for (int i = 0; i < Keyboard.OCTAVES; i++) {
-	    for (int j = 0; j < Keyboard.WHITE_INDICES.length; j++) {
-		drawSingleKey(canvas, keys[i * Keyboard.KEYS_IN_OCTAVE + Keyboard.WHITE_INDICES[j]], firstVisibleKey,
-			lastVisibleKey);
-	    }
-	    for (int j = 0; j < Keyboard.BLACK_INDICES.length; j++) {
-		drawSingleKey(canvas, keys[i * Keyboard.KEYS_IN_OCTAVE + Keyboard.BLACK_INDICES[j]], firstVisibleKey,
-			lastVisibleKey);
+	    for (int j = 0; j < indices.length; j++) {
+		Key key = keys[i * Keyboard.KEYS_IN_OCTAVE + indices[j]];
+		if (key.midiCode >= firstVisibleKey && key.midiCode <= lastVisibleKey) {
+		    drawKeyLayer(canvas, key, layer);
+		}
 	    }
 	}
     }
 
-    private void drawSingleKey(Canvas canvas, Key key, int firstVisibleKey, int lastVisibleKey) {
-	if (key.midiCode < firstVisibleKey || key.midiCode > lastVisibleKey) {
-	    return;
+    private void drawKeyLayer(Canvas canvas, Key key, int layer) {
+	int index = key.midiCode - START_MIDI_CODE;
+	float pressProgress = animator.getPressProgress(index);
+	Drawable drawable = key.black ? blackKeyDrawable : whiteKeyDrawable;
+
+	switch (layer) {
+	case LAYER_RELEASED:
+	    if (pressProgress < 1f) {
+		drawable.setBounds((int) key.startX, (int) key.startY, (int) key.endX, (int) key.endY);
+		drawKeyDrawable(canvas, drawable, RELEASED_STATE, 255);
+	    }
+	    break;
+	case LAYER_PRESSED:
+	    if (pressProgress > 0f) {
+		// pressed state is faded in on top of the released one
+		drawable.setBounds((int) key.startX, (int) key.startY, (int) key.endX, (int) key.endY);
+		drawKeyDrawable(canvas, drawable, PRESSED_STATE, (int) (255 * pressProgress));
+	    }
+	    break;
+	default:
+	    float intensity = keyIntensities[index];
+	    if (intensity > 0f) {
+		glowPaint.setAlpha((int) (255 * intensity * GLOW_MAX_ALPHA));
+		canvas.drawRect(key.startX, key.startY, key.endX, key.endY, glowPaint);
+		stats.drawCalls++;
+	    }
+	    break;
 	}
+    }
 
-	Drawable drawable = key.black ? blackKeyDrawable : whiteKeyDrawable;
-	drawable.setState(new int[] { key.pressed ? android.R.attr.state_pressed : -android.R.attr.state_pressed });
-	drawable.setBounds((int) key.startX, (int) key.startY, (int) key.endX, (int) key.endY);
+    /**
+     * Draws a key drawable, touching its state and alpha only when they differ
+     * from what was applied for the previous key. Keys are drawn in passes of
+     * the same state, so this avoids a state lookup per key and frame.
+     */
+    private void drawKeyDrawable(Canvas canvas, Drawable drawable, int[] state, int alpha) {
+	if (drawable == whiteKeyDrawable) {
+	    if (whiteKeyState != state) {
+		whiteKeyState = state;
+		drawable.setState(state);
+		stats.stateChanges++;
+	    }
+	    if (whiteKeyAlpha != alpha) {
+		whiteKeyAlpha = alpha;
+		drawable.setAlpha(alpha);
+	    }
+	} else {
+	    if (blackKeyState != state) {
+		blackKeyState = state;
+		drawable.setState(state);
+		stats.stateChanges++;
+	    }
+	    if (blackKeyAlpha != alpha) {
+		blackKeyAlpha = alpha;
+		drawable.setAlpha(alpha);
+	    }
+	}
 	drawable.draw(canvas);
+	stats.drawCalls++;
     }
 
     public int getWidth() {
-	return octaveWidth * Keyboard.OCTAVES;
+	return (int) layout.getWidth();
+    }
+
+    /**
+     * Updates the notes drawn as overlays from a snapshot. Keys that got or
+     * lost an overlay are faded in or out by the animator, a fading out
+     * overlay keeps its last spelling and style.
+     */
+    public void applyHighlights(Highlights highlights) {
+	for (int i = 0; i < KEY_COUNT; i++) {
+	    int code = i + START_MIDI_CODE;
+	    boolean visible = highlights.contains(code);
+	    if (visible) {
+		overlayNotes[i] = highlights.getNote(code);
+		overlayColors[i] = highlights.getColor(code);
+		overlayShapes[i] = (byte) highlights.getShape(code);
+	    }
+	    animator.setOverlayVisible(i, visible);
+	}
+    }
+
+    /**
+     * Copies per key intensities from an array indexed by midi code.
+     *
+     * @return true if any key in range changed
+     */
+    public boolean setKeyIntensities(float[] intensitiesByCode) {
+	boolean changed = false;
+	for (int i = 0; i < KEY_COUNT; i++) {
+	    int code = i + START_MIDI_CODE;
+	    float intensity = code < intensitiesByCode.length ? intensitiesByCode[code] : 0f;
+	    intensity = Math.max(0f, Math.min(1f, intensity));
+	    if (keyIntensities[i] != intensity) {
+		keyIntensities[i] = intensity;
+		changed = true;
+	    }
+	}
+	return changed;
+    }
+
+    public void setGlowColor(int color) {
+	glowPaint.setColor(color);
+    }
+
+    /**
+     * @return midi code of the leftmost key drawn in the last frame
+     */
+    public int getFirstVisibleCode() {
+	return firstVisibleKey;
+    }
+
+    /**
+     * @return midi code of the rightmost key drawn in the last frame
+     */
+    public int getLastVisibleCode() {
+	return lastVisibleKey;
+    }
+
+    public int getDefaultOverlayColor() {
+	return circleColor;
+    }
+
+    /**
+     * Appends a description of everything that affects how the keys and
+     * overlays look, used to identify rendered thumbnails.
+     */
+    public void appendStateKey(StringBuilder out) {
+	out.append(START_MIDI_CODE).append('+').append(KEY_COUNT).append(asBitmaps ? 'b' : 't');
+	for (int i = 0; i < KEY_COUNT; i++) {
+	    boolean pressed = animator.isPressed(i);
+	    boolean overlay = animator.isOverlayVisible(i);
+	    int glow = (int) (keyIntensities[i] * 255);
+	    if (!pressed && !overlay && glow == 0) {
+		continue;
+	    }
+	    out.append(';').append(i);
+	    if (pressed) {
+		out.append('p');
+	    }
+	    if (glow != 0) {
+		out.append('g').append(glow);
+	    }
+	    if (overlay) {
+		Note note = overlayNotes[i];
+		out.append(note.getNote()).append(':').append(note.getModifier()).append(':');
+		out.append(Integer.toHexString(overlayColors[i])).append(':').append(overlayShapes[i]);
+	    }
+	}
     }
 
-    public void drawOverlays(ArrayList<Note> notes, Canvas canvas) {
-	int firstVisibleKey = getFirstVisibleKey();
-	int lastVisibleKey = getLastVisibleKey();
+    public void drawOverlays(Canvas canvas) {
+	if (!isOverlaysReady()) {
+	    return;
+	}
 
-	for (Note note : notes) {
-	    int midiCode = note.getMidiCode();
-	    if (midiCode >= firstVisibleKey && midiCode <= lastVisibleKey) {
-		drawNoteFromMidi(canvas, note, midiCode, false);
+	for (int midiCode = firstVisibleKey; midiCode <= lastVisibleKey; midiCode++) {
+	    int index = midiCode - START_MIDI_CODE;
+	    float progress = animator.getOverlayProgress(index);
+	    if (progress > 0f) {
+		drawNoteFromMidi(canvas, overlayNotes[index], midiCode, progress);
 	    }
 	}
     }
 
-    private void drawNoteFromMidi(Canvas canvas, Note note, int midiCode, boolean replica) {
-	Key key = keysArray[midiCode - Keyboard.START_MIDI_CODE];
-	overlayTextPaint.setColor(circleColor);
+    private void drawNoteFromMidi(Canvas canvas, Note note, int midiCode, float progress) {
+	int index = midiCode - Keyboard.START_MIDI_CODE;
+	Key key = keysArray[index];
+	int alpha = (int) (255 * progress);
+	int color = overlayColors[index];
+	int shape = overlayShapes[index];
 	if (asBitmaps) {
-	    drawNoteAsBitmap(canvas, note, key);
+	    bitmapPaint.setAlpha(alpha);
+	    maskPaint.setColor(color);
+	    maskPaint.setAlpha(Color.alpha(color) * alpha / 255);
+	    drawNoteAsBitmap(canvas, note, key, shape);
 	} else {
-	    drawNoteAsText(canvas, note, key);
+	    drawNoteAsText(canvas, note, key, alpha, color, shape);
 	}
     }
 
-    private void drawNoteAsText(Canvas canvas, Note note, Key key) {
-	canvas.drawCircle(key.getOverlayPivotX(), key.getOverlayPivotY(), overlayCircleRadius, overlayTextPaint);
+    private void drawNoteAsText(Canvas canvas, Note note, Key key, int alpha, int color, int shape) {
+	overlayTextPaint.setColor(color);
+	overlayTextPaint.setAlpha(Color.alpha(color) * alpha / 255);
+	drawShape(canvas, shape, key.getOverlayPivotX(), key.getOverlayPivotY(), overlayCircleRadius, overlayTextPaint,
+		dst);
 
 	String name = note.toString();
 	overlayTextPaint.getTextBounds(name, 0, name.length(), bounds);
+	stats.textMeasurements++;
 	int width = bounds.right - bounds.left;
 	int height = bounds.bottom - bounds.top;
 
 	overlayTextPaint.setColor(Color.BLACK);
+	overlayTextPaint.setAlpha(alpha);
 	canvas.drawText(name, key.getOverlayPivotX() - width / 2, key.getOverlayPivotY() + height / 2, overlayTextPaint);
+	stats.drawCalls += 2;
     }
 
-    private void drawNoteAsBitmap(Canvas canvas, Note note, Key key) {
-	canvas.drawBitmap(circleAsBitmap, key.getOverlayPivotX() - overlayCircleRadius, key.getOverlayPivotY()
-		- overlayCircleRadius, null);
+    private void drawNoteAsBitmap(Canvas canvas, Note note, Key key, int shape) {
+	// alpha-only mask is tinted with the paint color
+	canvas.drawBitmap(resources.getShapeMask(shape), key.getOverlayPivotX() - overlayCircleRadius, key.getOverlayPivotY()
+		- overlayCircleRadius, maskPaint);
+	stats.bitmapBlits++;
+	stats.drawCalls++;
 	int height = notesAtlas.getHeight();
 
 	setupSourceRect(height, 0, noteSizeInAtlas, note.getNote());
@@ -212,7 +499,9 @@ class Keyboard {
 	    dst.left -= signSizeInAtlas / 2;
 	    dst.right -= signSizeInAtlas / 2;
 	}
-	canvas.drawBitmap(notesAtlas, src, dst, null);
+	canvas.drawBitmap(notesAtlas, src, dst, bitmapPaint);
+	stats.bitmapBlits++;
+	stats.drawCalls++;
 
 	if (note.getModifier() != Note.MODIFIER_NONE) {
 	    setupSourceRect(height, noteSizeInAtlas * 7, signSizeInAtlas, note.getModifier() == Note.SHARP ? 0 : 1);
@@ -222,7 +511,9 @@ class Keyboard {
 	    dst.top = key.getOverlayPivotY() - height / 2;
 	    dst.bottom = key.getOverlayPivotY() + height / 2;
 
-	    canvas.drawBitmap(notesAtlas, src, dst, null);
+	    canvas.drawBitmap(notesAtlas, src, dst, bitmapPaint);
+	    stats.bitmapBlits++;
+	    stats.drawCalls++;
 	}
     }
 
@@ -234,19 +525,11 @@ class Keyboard {
     }
 
     private int getFirstVisibleKey() {
-	int locateVisibleKey = locateVisibleKey(screenLeft, true);
-	if (locateVisibleKey == NOT_FOUND) {
-	    locateVisibleKey = 0;
-	}
-	return locateVisibleKey + Keyboard.START_MIDI_CODE;
+	return layout.firstVisibleIndex(screenLeft) + Keyboard.START_MIDI_CODE;
     }
 
     private int getLastVisibleKey() {
-	int locateVisibleKey = locateVisibleKey(screenRight, false);
-	if (locateVisibleKey == NOT_FOUND) {
-	    locateVisibleKey = keysArray.length - 1;
-	}
-	return locateVisibleKey + Keyboard.START_MIDI_CODE;
+	return layout.lastVisibleIndex(screenRight) + Keyboard.START_MIDI_CODE;
     }
 
     public boolean isInitialized() {
@@ -254,51 +537,30 @@ class Keyboard {
     }
 
     public void initializeInstrument(float measuredHeight, Context context) {
-	whiteKeyWidth = Math.round(measuredHeight / WHITE_KEY_ASPECT_RATIO);
-	octaveWidth = whiteKeyWidth * 7;
-
-	int blackHalfWidth = octaveWidth / 20;
-	blackKeyHeight = Math.round(measuredHeight / BLACK_KEY_HEIGHT_PERCENT);
-
-	keysArray = new Key[KEYS_IN_OCTAVE * OCTAVES];
-	int whiteIndex = 0;
-	int blackIndex = 0;
-	for (int i = 0; i < KEYS_IN_OCTAVE; i++) {
-
-	    Key key = new Key();
-	    if (isWhite(i)) {
-		key.black = false;
-		key.setBounds(whiteKeyWidth * whiteIndex, whiteKeyWidth * whiteIndex + whiteKeyWidth, 0, measuredHeight);
-		whiteIndex++;
-	    } else {
-		key.black = true;
-		int indexDisplacement = i == 1 || i == 3 ? 1 : 2;
-		key.setBounds(whiteKeyWidth * (blackIndex + indexDisplacement) - blackHalfWidth, whiteKeyWidth
-			* (blackIndex + indexDisplacement) + blackHalfWidth, 0, blackKeyHeight);
-		blackIndex++;
+	layout.layout(measuredHeight);
+
+	if (keysArray == null) {
+	    keysArray = new Key[KEY_COUNT];
+	    for (int i = 0; i < KEY_COUNT; i++) {
+		keysArray[i] = new Key();
 	    }
-	    key.midiCode = START_MIDI_CODE + i;
-	    keysArray[i] = key;
 	}
-	for (int i = KEYS_IN_OCTAVE; i < KEYS_IN_OCTAVE * OCTAVES; i++) {
-	    Key firstOctaveKey = keysArray[i % KEYS_IN_OCTAVE];
-
-	    Key key = firstOctaveKey.clone();
-	    key.startX += (i / KEYS_IN_OCTAVE) * octaveWidth;
-	    key.endX += (i / KEYS_IN_OCTAVE) * octaveWidth;
+	for (int i = 0; i < KEY_COUNT; i++) {
+	    Key key = keysArray[i];
+	    key.black = layout.isBlack(i);
+	    key.setBounds(layout.getStartX(i), layout.getEndX(i), layout.getStartY(i), layout.getEndY(i));
 	    key.midiCode = START_MIDI_CODE + i;
-	    keysArray[i] = key;
 	}
     }
 
-    private static boolean isWhite(int i) {
-	return i == 0 || i == 2 || i == 4 || i == 5 || i == 7 || i == 9 || i == 11;
+    public KeyboardLayout getLayout() {
+	return layout;
     }
 
     public boolean touchItem(float x, float y) {
 	touchedKey = locateTouchedKey(x, y);
 	if (touchedKey != -1) {
-	    keysArray[touchedKey].pressed = true;
+	    animator.setPressed(touchedKey, true);
 	    return true;
 	}
 	return false;
@@ -306,63 +568,34 @@ class Keyboard {
 
     public boolean releaseTouch() {
 	if (touchedKey != -1) {
-	    keysArray[touchedKey].pressed = false;
+	    animator.setPressed(touchedKey, false);
 	    touchedKey = -1;
 	    return true;
 	}
 	return false;
     }
 
-    private int locateVisibleKey(float x, boolean first) {
-	int octaveIndex = (int) (x / (float) octaveWidth);
-
-	int resultIndex = 0;
-	for (int j = 0; j < BLACK_INDICES.length; j++) {
-	    int index = octaveIndex * Keyboard.KEYS_IN_OCTAVE + BLACK_INDICES[j];
-	    if (checkKeyAtIndex(x, 40, index)) {
-		resultIndex = index;
-	    }
-	}
-
-	int whiteKeyIndex = (int) ((x - octaveIndex * octaveWidth) / (float) whiteKeyWidth);
-	int index = octaveIndex * Keyboard.KEYS_IN_OCTAVE + WHITE_INDICES[whiteKeyIndex];
-	if (checkKeyAtIndex(x, 40, index)) {
-	    if (first) {
-		return resultIndex > index ? index : resultIndex;
-	    } else {
-		return resultIndex > index ? resultIndex : index;
-	    }
+    /**
+     * Changes pressed state of a key regardless of touches, e.g. for playback.
+     * 
+     * @return true if the code is inside of the instrument range
+     */
+    public boolean setKeyPressed(int midiCode, boolean pressed) {
+	int index = midiCode - START_MIDI_CODE;
+	if (index < 0 || index >= KEY_COUNT) {
+	    return false;
 	}
-
-	return NOT_FOUND;
+	animator.setPressed(index, pressed);
+	return true;
     }
 
-    private int locateTouchedKey(float x, float y) {
-	int octaveIndex = (int) (x / (float) octaveWidth);
-
-	if (y <= blackKeyHeight) {
-	    for (int j = 0; j < BLACK_INDICES.length; j++) {
-		int index = octaveIndex * Keyboard.KEYS_IN_OCTAVE + BLACK_INDICES[j];
-		if (checkKeyAtIndex(x, y, index)) {
-		    return index;
-		}
-	    }
-	}
-
-	int whiteKeyIndex = (int) ((x - octaveIndex * octaveWidth) / (float) whiteKeyWidth);
-	int index = octaveIndex * Keyboard.KEYS_IN_OCTAVE + WHITE_INDICES[whiteKeyIndex];
-	if (checkKeyAtIndex(x, y, index)) {
-	    return index;
-	}
-
-	return NOT_FOUND;
+    public boolean isKeyPressed(int midiCode) {
+	int index = midiCode - START_MIDI_CODE;
+	return index >= 0 && index < KEY_COUNT && animator.isPressed(index);
     }
 
-    private boolean checkKeyAtIndex(float x, float y, int index) {
-	if (index < 0 || index >= keysArray.length) {
-	    return false;
-	}
-	return keysArray[index].containsPoint(x, y);
+    private int locateTouchedKey(float x, float y) {
+	return keysArray == null ? NOT_FOUND : layout.indexAt(x, y);
     }
 
 }
@@ -0,0 +1,312 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+/**
+ * Platform neutral geometry of a keyboard, either whole octaves or any range
+ * starting and ending with white keys. This is the layout {@link PianoView}
+ * draws and hit-tests, kept free of Android classes so that it can be reused
+ * by renderers and benchmarks running on a plain JVM.
+ */
+public final class KeyboardLayout {
+
+    public static final int KEYS_IN_OCTAVE = 12;
+
+    private static final float BLACK_KEY_HEIGHT_PERCENT = 1.57f;
+
+    private static final float WHITE_KEY_ASPECT_RATIO = 6.12f;
+
+    private static final int[] WHITE_PITCH_CLASSES = { 0, 2, 4, 5, 7, 9, 11 };
+
+    private static final int[] BLACK_PITCH_CLASSES = { 1, 3, 6, 8, 10 };
+
+    private final int startCode;
+
+    /**
+     * Pitch class of the first key, the octave grid starts that many keys
+     * to the left of the layout.
+     */
+    private final int originIndex;
+
+    private final float[] startX;
+
+    private final float[] endX;
+
+    private final float[] endY;
+
+    private final boolean[] black;
+
+    private final float[] octaveStartX = new float[KEYS_IN_OCTAVE];
+
+    private final float[] octaveEndX = new float[KEYS_IN_OCTAVE];
+
+    private float height;
+
+    private float width;
+
+    /**
+     * Distance from the C the octave grid starts with to the first key.
+     */
+    private float originX;
+
+    private int whiteKeyWidth;
+
+    private int octaveWidth;
+
+    private int blackKeyHeight;
+
+    /**
+     * @param startCode
+     *            midi code of the leftmost key, has to be a C
+     * @param octaves
+     *            number of octaves in the layout
+     */
+    public KeyboardLayout(int startCode, int octaves) {
+	this(startCode, startCode + KEYS_IN_OCTAVE * octaves - 1, true);
+    }
+
+    private KeyboardLayout(int firstCode, int lastCode, boolean wholeOctaves) {
+	if (wholeOctaves && firstCode % KEYS_IN_OCTAVE != 0) {
+	    throw new IllegalArgumentException("Layout has to start with a C, got " + firstCode);
+	}
+	if (firstCode < 0 || lastCode < firstCode) {
+	    throw new IllegalArgumentException("Invalid key range: " + firstCode + ".." + lastCode);
+	}
+	if (isBlackPitchClass(firstCode % KEYS_IN_OCTAVE) || isBlackPitchClass(lastCode % KEYS_IN_OCTAVE)) {
+	    throw new IllegalArgumentException("Layout has to start and end with white keys, got " + firstCode
+		    + ".." + lastCode);
+	}
+	startCode = firstCode;
+	originIndex = firstCode % KEYS_IN_OCTAVE;
+
+	int keyCount = lastCode - firstCode + 1;
+	startX = new float[keyCount];
+	endX = new float[keyCount];
+	endY = new float[keyCount];
+	black = new boolean[keyCount];
+    }
+
+    /**
+     * Layout of the keys from the first to the last midi code inclusive, e.g.
+     * {@code forRange(21, 108)} for a full 88 key piano.
+     *
+     * @throws IllegalArgumentException
+     *             if either end is a black key
+     */
+    public static KeyboardLayout forRange(int firstCode, int lastCode) {
+	return new KeyboardLayout(firstCode, lastCode, false);
+    }
+
+    /**
+     * Computes key bounds for the given height, key widths follow from the
+     * white key aspect ratio.
+     */
+    public void layout(float height) {
+	this.height = height;
+	whiteKeyWidth = Math.round(height / WHITE_KEY_ASPECT_RATIO);
+	octaveWidth = whiteKeyWidth * 7;
+
+	int blackHalfWidth = octaveWidth / 20;
+	blackKeyHeight = Math.round(height / BLACK_KEY_HEIGHT_PERCENT);
+
+	int whiteIndex = 0;
+	int blackIndex = 0;
+	for (int i = 0; i < KEYS_IN_OCTAVE; i++) {
+	    if (!isBlackPitchClass(i)) {
+		octaveStartX[i] = whiteKeyWidth * whiteIndex;
+		octaveEndX[i] = whiteKeyWidth * whiteIndex + whiteKeyWidth;
+		whiteIndex++;
+	    } else {
+		int indexDisplacement = i == 1 || i == 3 ? 1 : 2;
+		octaveStartX[i] = whiteKeyWidth * (blackIndex + indexDisplacement) - blackHalfWidth;
+		octaveEndX[i] = whiteKeyWidth * (blackIndex + indexDisplacement) + blackHalfWidth;
+		blackIndex++;
+	    }
+	}
+	originX = octaveStartX[originIndex];
+	for (int i = 0; i < startX.length; i++) {
+	    int pitchClass = (i + originIndex) % KEYS_IN_OCTAVE;
+	    float shift = ((i + originIndex) / KEYS_IN_OCTAVE) * octaveWidth - originX;
+
+	    black[i] = isBlackPitchClass(pitchClass);
+	    startX[i] = octaveStartX[pitchClass] + shift;
+	    endX[i] = octaveEndX[pitchClass] + shift;
+	    endY[i] = black[i] ? blackKeyHeight : height;
+	}
+	width = endX[endX.length - 1];
+    }
+
+    public int getStartCode() {
+	return startCode;
+    }
+
+    /**
+     * @return number of octaves the layout spans, the last one is partial if
+     *         the layout is not made of whole octaves
+     */
+    public int getOctaves() {
+	return (startX.length + KEYS_IN_OCTAVE - 1) / KEYS_IN_OCTAVE;
+    }
+
+    public int getKeyCount() {
+	return startX.length;
+    }
+
+    public float getWidth() {
+	return width;
+    }
+
+    public float getHeight() {
+	return height;
+    }
+
+    public int getWhiteKeyWidth() {
+	return whiteKeyWidth;
+    }
+
+    public int getOctaveWidth() {
+	return octaveWidth;
+    }
+
+    public int getBlackKeyHeight() {
+	return blackKeyHeight;
+    }
+
+    public boolean isBlack(int index) {
+	return black[index];
+    }
+
+    public float getStartX(int index) {
+	return startX[index];
+    }
+
+    public float getEndX(int index) {
+	return endX[index];
+    }
+
+    public float getStartY(int index) {
+	return 0;
+    }
+
+    public float getEndY(int index) {
+	return endY[index];
+    }
+
+    public float getOverlayPivotX(int index) {
+	return overlayPivotX(startX[index], endX[index]);
+    }
+
+    public float getOverlayPivotY(int index) {
+	return overlayPivotY(0, endY[index], black[index]);
+    }
+
+    /**
+     * @return index of the key with the given midi code or -1 if the code is
+     *         out of the layout range
+     */
+    public int indexOf(int midiCode) {
+	int index = midiCode - startCode;
+	return index >= 0 && index < startX.length ? index : -1;
+    }
+
+    /**
+     * Finds the key under a point in constant time, black keys are on top of
+     * white ones.
+     *
+     * @return index of the key or -1 if there is none
+     */
+    public int indexAt(float x, float y) {
+	if (x < 0 || x >= width || y < 0) {
+	    return -1;
+	}
+	float gridX = x + originX;
+	int octave = (int) (gridX / octaveWidth);
+	int octaveStart = octave * KEYS_IN_OCTAVE - originIndex;
+
+	if (y <= blackKeyHeight) {
+	    for (int i = 0; i < BLACK_PITCH_CLASSES.length; i++) {
+		int index = octaveStart + BLACK_PITCH_CLASSES[i];
+		if (contains(index, x, y)) {
+		    return index;
+		}
+	    }
+	}
+	int index = octaveStart + whitePitchClassAt(gridX - octave * octaveWidth);
+	return contains(index, x, y) ? index : -1;
+    }
+
+    /**
+     * @return index of the leftmost key reaching the given x, clamped to the
+     *         layout
+     */
+    public int firstVisibleIndex(float x) {
+	return visibleIndexAt(x, true);
+    }
+
+    /**
+     * @return index of the rightmost key reaching the given x, clamped to the
+     *         layout
+     */
+    public int lastVisibleIndex(float x) {
+	return visibleIndexAt(x, false);
+    }
+
+    private int visibleIndexAt(float x, boolean first) {
+	if (x <= 0) {
+	    return 0;
+	}
+	if (x >= width) {
+	    return startX.length - 1;
+	}
+	float gridX = x + originX;
+	int octave = (int) (gridX / octaveWidth);
+	int octaveStart = octave * KEYS_IN_OCTAVE - originIndex;
+
+	int result = octaveStart + whitePitchClassAt(gridX - octave * octaveWidth);
+	for (int i = 0; i < BLACK_PITCH_CLASSES.length; i++) {
+	    int index = octaveStart + BLACK_PITCH_CLASSES[i];
+	    if (contains(index, x, 0)) {
+		result = first ? Math.min(result, index) : Math.max(result, index);
+		break;
+	    }
+	}
+	return Math.max(0, Math.min(startX.length - 1, result));
+    }
+
+    private int whitePitchClassAt(float octaveX) {
+	int whiteIndex = Math.min(WHITE_PITCH_CLASSES.length - 1, (int) (octaveX / whiteKeyWidth));
+	return WHITE_PITCH_CLASSES[whiteIndex];
+    }
+
+    private boolean contains(int index, float x, float y) {
+	return index >= 0 && index < startX.length && startX[index] <= x && endX[index] > x && endY[index] > y;
+    }
+
+    public static boolean isBlackPitchClass(int pitchClass) {
+	return pitchClass == 1 || pitchClass == 3 || pitchClass == 6 || pitchClass == 8 || pitchClass == 10;
+    }
+
+    static float overlayPivotX(float startX, float endX) {
+	return (endX - startX) / 2f + startX;
+    }
+
+    static float overlayPivotY(float startY, float endY, boolean black) {
+	if (!black) {
+	    return (endY - startY) * 0.85f + startY;
+	}
+	return (endY - startY) / 2f + startY;
+    }
+
+}
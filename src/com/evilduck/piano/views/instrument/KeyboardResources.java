@@ -0,0 +1,387 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.TypedValue;
+
+import com.evilduck.piano.R;
+
+/**
+ * Process wide, reference counted resources of {@link Keyboard}. Every view
+ * with the same density and overlay size shares a single note atlas, a single
+ * set of overlay masks and the key drawables' constant state. Resources are
+ * dropped when the last view releases them, and the atlas memory is reused
+ * for the next decode when the platform supports it.
+ * <p>
+ * Key drawables are needed for the very first frame and are loaded right away,
+ * the atlas and overlay masks are prepared on a background thread and
+ * published on the main thread once ready.
+ */
+final class KeyboardResources {
+
+    private static final HashMap<String, KeyboardResources> CACHE = new HashMap<String, KeyboardResources>();
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	@Override
+	public Thread newThread(final Runnable r) {
+	    Thread thread = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		    r.run();
+		}
+	    }, "PianoView resources");
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    });
+
+    private static final Handler MAIN_THREAD = new Handler(Looper.getMainLooper());
+
+    private static PianoView.ResourceTimingListener timingListener;
+
+    private static Bitmap reusableAtlas;
+
+    private static Bitmap preloadedAtlas;
+
+    private static int preloadedDensity;
+
+    private static Drawable.ConstantState preloadedWhiteKeyState;
+
+    private static Drawable.ConstantState preloadedBlackKeyState;
+
+    private final String cacheKey;
+
+    private final Resources resources;
+
+    private final float overlayRadius;
+
+    private final Bitmap[] shapeMasks = new Bitmap[Keyboard.SHAPE_COUNT];
+
+    private final ArrayList<Runnable> readyCallbacks = new ArrayList<Runnable>();
+
+    private int references;
+
+    private boolean released;
+
+    private boolean overlaysReady;
+
+    private Drawable.ConstantState whiteKeyState;
+
+    private Drawable.ConstantState blackKeyState;
+
+    private Bitmap notesAtlas;
+
+    private float noteSizeInAtlas;
+
+    private float signSizeInAtlas;
+
+    private KeyboardResources(String cacheKey, Resources resources, float overlayRadius) {
+	this.cacheKey = cacheKey;
+	this.resources = resources;
+	this.overlayRadius = overlayRadius;
+    }
+
+    static synchronized void setTimingListener(PianoView.ResourceTimingListener listener) {
+	timingListener = listener;
+    }
+
+    /**
+     * Decodes the note atlas and loads key drawables for the context's density
+     * on the background thread, so that views inflated later find them ready.
+     */
+    static void preload(Context context) {
+	final Resources res = context.getApplicationContext().getResources();
+	LOADER.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		long start = System.nanoTime();
+		Drawable.ConstantState white = res.getDrawable(R.drawable.white_key_selector).getConstantState();
+		Drawable.ConstantState black = res.getDrawable(R.drawable.black_key_selector).getConstantState();
+		reportTiming(PianoView.STAGE_KEY_DRAWABLES, start, false);
+
+		start = System.nanoTime();
+		Bitmap atlas = decodeAtlas(res);
+		reportTiming(PianoView.STAGE_NOTE_ATLAS, start, false);
+
+		synchronized (KeyboardResources.class) {
+		    if (preloadedAtlas != null) {
+			preloadedAtlas.recycle();
+		    }
+		    preloadedAtlas = atlas;
+		    preloadedDensity = res.getDisplayMetrics().densityDpi;
+		    preloadedWhiteKeyState = white;
+		    preloadedBlackKeyState = black;
+		}
+	    }
+	});
+    }
+
+    /**
+     * Returns shared resources for the context's density and the overlay size,
+     * loading them on first use. Every call has to be paired with
+     * {@link #release()}. Must be called on the main thread.
+     */
+    static synchronized KeyboardResources acquire(Context context, float overlayRadius) {
+	Resources res = context.getApplicationContext().getResources();
+	String key = res.getDisplayMetrics().densityDpi + ":" + overlayRadius;
+
+	KeyboardResources resources = CACHE.get(key);
+	if (resources == null) {
+	    resources = new KeyboardResources(key, res, overlayRadius);
+	    resources.loadKeyDrawables();
+	    LOADER.execute(resources.overlayLoader);
+	    CACHE.put(key, resources);
+	}
+	resources.references++;
+	return resources;
+    }
+
+    void release() {
+	synchronized (KeyboardResources.class) {
+	    if (--references > 0) {
+		return;
+	    }
+	    CACHE.remove(cacheKey);
+	    released = true;
+	    readyCallbacks.clear();
+
+	    if (overlaysReady) {
+		recycle(notesAtlas, shapeMasks);
+		notesAtlas = null;
+	    }
+	}
+    }
+
+    /**
+     * Callback is run on the main thread once the overlay assets are ready.
+     */
+    void addReadyCallback(Runnable callback) {
+	if (!overlaysReady) {
+	    readyCallbacks.add(callback);
+	}
+    }
+
+    void removeReadyCallback(Runnable callback) {
+	readyCallbacks.remove(callback);
+    }
+
+    boolean isOverlaysReady() {
+	return overlaysReady;
+    }
+
+    private void loadKeyDrawables() {
+	int density = resources.getDisplayMetrics().densityDpi;
+	if (preloadedWhiteKeyState != null && preloadedDensity == density) {
+	    whiteKeyState = preloadedWhiteKeyState;
+	    blackKeyState = preloadedBlackKeyState;
+	    return;
+	}
+
+	long start = System.nanoTime();
+	whiteKeyState = resources.getDrawable(R.drawable.white_key_selector).getConstantState();
+	blackKeyState = resources.getDrawable(R.drawable.black_key_selector).getConstantState();
+	reportTiming(PianoView.STAGE_KEY_DRAWABLES, start, true);
+    }
+
+    private final Runnable overlayLoader = new Runnable() {
+	@Override
+	public void run() {
+	    Bitmap preloaded = takePreloadedAtlas();
+	    long start = System.nanoTime();
+	    final Bitmap atlas = preloaded != null ? preloaded : decodeAtlas(resources);
+	    if (preloaded == null) {
+		reportTiming(PianoView.STAGE_NOTE_ATLAS, start, false);
+	    }
+
+	    start = System.nanoTime();
+	    final Bitmap[] masks = new Bitmap[Keyboard.SHAPE_COUNT];
+	    int size = (int) overlayRadius * 2;
+	    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	    RectF rect = new RectF();
+	    for (int shape = 0; shape < masks.length; shape++) {
+		// alpha-only masks are tinted by the paint color at draw time, so
+		// any number of colors costs neither extra bitmaps nor allocations
+		masks[shape] = Bitmap.createBitmap(size, size, Config.ALPHA_8);
+		Keyboard.drawShape(new Canvas(masks[shape]), shape, overlayRadius, overlayRadius, overlayRadius, paint,
+			rect);
+	    }
+	    reportTiming(PianoView.STAGE_OVERLAY_MASKS, start, false);
+
+	    MAIN_THREAD.post(new Runnable() {
+		@Override
+		public void run() {
+		    publish(atlas, masks);
+		}
+	    });
+	}
+    };
+
+    private Bitmap takePreloadedAtlas() {
+	synchronized (KeyboardResources.class) {
+	    Bitmap atlas = preloadedAtlas;
+	    if (atlas == null || preloadedDensity != resources.getDisplayMetrics().densityDpi) {
+		return null;
+	    }
+	    preloadedAtlas = null;
+	    return atlas;
+	}
+    }
+
+    private void publish(Bitmap atlas, Bitmap[] masks) {
+	synchronized (KeyboardResources.class) {
+	    if (released) {
+		recycle(atlas, masks);
+		return;
+	    }
+	    notesAtlas = atlas;
+	    System.arraycopy(masks, 0, shapeMasks, 0, masks.length);
+	    noteSizeInAtlas = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 13.5f,
+		    resources.getDisplayMetrics());
+	    signSizeInAtlas = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 6f,
+		    resources.getDisplayMetrics());
+	    overlaysReady = true;
+	}
+
+	for (int i = 0; i < readyCallbacks.size(); i++) {
+	    readyCallbacks.get(i).run();
+	}
+	readyCallbacks.clear();
+    }
+
+    /**
+     * Keeps the atlas around, so that a view recreated after a configuration
+     * change decodes straight into the same memory. Called with the class lock
+     * held.
+     */
+    private static void recycle(Bitmap atlas, Bitmap[] masks) {
+	if (reusableAtlas != null) {
+	    reusableAtlas.recycle();
+	}
+	reusableAtlas = atlas;
+
+	for (int i = 0; i < masks.length; i++) {
+	    if (masks[i] != null) {
+		masks[i].recycle();
+		masks[i] = null;
+	    }
+	}
+    }
+
+    private static Bitmap decodeAtlas(Resources resources) {
+	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+	    Bitmap reusable;
+	    synchronized (KeyboardResources.class) {
+		reusable = reusableAtlas;
+		reusableAtlas = null;
+	    }
+	    return decodeMutable(resources, reusable);
+	}
+	return BitmapFactory.decodeResource(resources, R.drawable.note_atlas);
+    }
+
+    /**
+     * Decodes into the reusable bitmap if there is one. The result is mutable
+     * either way, only mutable bitmaps can be passed as inBitmap to the next
+     * decode.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bitmap decodeMutable(Resources resources, Bitmap reusable) {
+	BitmapFactory.Options options = new BitmapFactory.Options();
+	options.inMutable = true;
+	options.inSampleSize = 1;
+	if (reusable != null) {
+	    options.inBitmap = reusable;
+	    try {
+		return BitmapFactory.decodeResource(resources, R.drawable.note_atlas, options);
+	    } catch (IllegalArgumentException e) {
+		// bitmap can't be reused, e.g. the density and so the size changed
+		reusable.recycle();
+		options.inBitmap = null;
+	    }
+	}
+	return BitmapFactory.decodeResource(resources, R.drawable.note_atlas, options);
+    }
+
+    private static void reportTiming(final int stage, long start, final boolean mainThread) {
+	final PianoView.ResourceTimingListener listener;
+	synchronized (KeyboardResources.class) {
+	    listener = timingListener;
+	}
+	if (listener == null) {
+	    return;
+	}
+
+	final long duration = System.nanoTime() - start;
+	MAIN_THREAD.post(new Runnable() {
+	    @Override
+	    public void run() {
+		listener.onStageFinished(stage, duration, mainThread);
+	    }
+	});
+    }
+
+    /**
+     * @return new drawable instances sharing the cached constant state, the
+     *         caller is free to mutate them
+     */
+    Drawable newWhiteKeyDrawable() {
+	return whiteKeyState.newDrawable(resources).mutate();
+    }
+
+    Drawable newBlackKeyDrawable() {
+	return blackKeyState.newDrawable(resources).mutate();
+    }
+
+    /**
+     * Overlay assets are only available once {@link #isOverlaysReady()}.
+     */
+    Bitmap getNotesAtlas() {
+	return notesAtlas;
+    }
+
+    float getNoteSizeInAtlas() {
+	return noteSizeInAtlas;
+    }
+
+    float getSignSizeInAtlas() {
+	return signSizeInAtlas;
+    }
+
+    Bitmap getShapeMask(int shape) {
+	return shapeMasks[shape];
+    }
+
+}
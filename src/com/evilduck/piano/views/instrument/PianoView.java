@@ -16,13 +16,18 @@ package com.evilduck.piano.views.instrument;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.v4.view.ViewCompat;
@@ -36,6 +41,8 @@ import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.ScaleGestureDetector.OnScaleGestureListener;
 import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.animation.AnimationUtils;
 import android.widget.OverScroller;
 
 import com.evilduck.piano.R;
@@ -43,6 +50,20 @@ import com.evilduck.piano.music.Note;
 
 public class PianoView extends View {
 
+    private static final Handler MAIN_THREAD = new Handler(Looper.getMainLooper());
+
+    public static final int SHAPE_CIRCLE = Highlights.SHAPE_CIRCLE;
+
+    public static final int SHAPE_ROUNDED_SQUARE = Highlights.SHAPE_ROUNDED_SQUARE;
+
+    public static final int SHAPE_RING = Highlights.SHAPE_RING;
+
+    public static final int STAGE_KEY_DRAWABLES = 0;
+
+    public static final int STAGE_NOTE_ATLAS = 1;
+
+    public static final int STAGE_OVERLAY_MASKS = 2;
+
     private int xOffset = 0;
 
     private OverScroller scroller;
@@ -57,6 +78,18 @@ public class PianoView extends View {
 
     private Keyboard keyboard;
 
+    private KeyAnimator animator = new KeyAnimator(Keyboard.KEY_COUNT);
+
+    private RenderStats renderStats = new RenderStats();
+
+    private final FrameGovernor frameGovernor = new FrameGovernor(this);
+
+    /**
+     * Reasons {@link #computeScroll()} found for another frame, requested
+     * again once the current frame is drawn.
+     */
+    private int scrollReasons;
+
     private OnKeyTouchListener onTouchListener;
 
     private EdgeEffectCompat leftEdgeEffect;
@@ -65,7 +98,26 @@ public class PianoView extends View {
 
     private float scaleX = 1.0f;
 
-    private ArrayList<Note> notesToDraw = new ArrayList<Note>();
+    private final Object highlightsLock = new Object();
+
+    /**
+     * Current highlights, reused by writers holding the lock. Snapshots are
+     * only built from it when read, at most once per frame however many
+     * changes there were.
+     */
+    private final Highlights.Builder highlightsBuilder = new Highlights.Builder();
+
+    /**
+     * Latest snapshot, out of date while {@link #highlightsChanged} is set.
+     * Both are guarded by the lock.
+     */
+    private Highlights highlights = Highlights.EMPTY;
+
+    private boolean highlightsChanged;
+
+    private Highlights drawnHighlights;
+
+    private final AtomicBoolean highlightsFramePending = new AtomicBoolean();
 
     private boolean measurementChanged = false;
 
@@ -75,20 +127,36 @@ public class PianoView extends View {
 
     private boolean rightEdgeEffectActive = false;
 
-    public PianoView(Context context, AttributeSet attrs) {
-	super(context, attrs);
+    private long scrollBarsVisibleUntil;
 
-	init();
+    private boolean playMode = false;
 
-	leftEdgeEffect = new EdgeEffectCompat(getContext());
-	rightEdgeEffect = new EdgeEffectCompat(getContext());
+    private boolean multiTouchGesture = false;
 
-	setVerticalScrollBarEnabled(false);
-	setHorizontalScrollBarEnabled(true);
+    private int playedCode = Keyboard.NOT_FOUND;
 
-	TypedArray a = context.obtainStyledAttributes(R.styleable.View);
-	initializeScrollbars(a);
-	a.recycle();
+    private OnKeyPlayListener onPlayListener;
+
+    private final ArrayList<OnViewportChangeListener> viewportListeners = new ArrayList<OnViewportChangeListener>();
+
+    private final ArrayList<OnKeyStateChangeListener> keyStateListeners = new ArrayList<OnKeyStateChangeListener>();
+
+    private boolean keyStateChanged = false;
+
+    private int notifiedXOffset = -1;
+
+    private float notifiedScale;
+
+    private float notifiedWidth;
+
+    private boolean staticMode = false;
+
+    private String thumbnailKey;
+
+    private StringBuilder thumbnailKeyBuilder;
+
+    public PianoView(Context context, AttributeSet attrs) {
+	super(context, attrs);
 
 	TypedArray pianoAttrs = context.obtainStyledAttributes(attrs, R.styleable.PianoView);
 
@@ -97,6 +165,8 @@ public class PianoView extends View {
 	float circleRadius;
 	float circleTextSize;
 	try {
+	    staticMode = pianoAttrs.getBoolean(R.styleable.PianoView_static_mode, false);
+	    playMode = pianoAttrs.getBoolean(R.styleable.PianoView_play_mode, false);
 	    asBitmaps = pianoAttrs.getBoolean(R.styleable.PianoView_overlay_bitmaps, true);
 	    circleColor = pianoAttrs.getColor(R.styleable.PianoView_overlay_color, Color.GREEN);
 	    circleRadius = pianoAttrs.getDimension(R.styleable.PianoView_overlay_circle_radius, TypedValue
@@ -107,25 +177,191 @@ public class PianoView extends View {
 	    pianoAttrs.recycle();
 	}
 
-	keyboard = new Keyboard(getContext(), asBitmaps, circleColor, circleRadius, circleTextSize);
+	keyboard = new Keyboard(animator, renderStats, asBitmaps, circleColor, circleRadius, circleTextSize);
+
+	setVerticalScrollBarEnabled(false);
+	if (!staticMode) {
+	    init();
+	}
     }
 
     public void addNotes(List<Note> notes) {
-	notesToDraw.addAll(notes);
+	addNotes(notes, keyboard.getDefaultOverlayColor(), SHAPE_CIRCLE);
+    }
 
-	invalidate();
+    /**
+     * Adds notes drawn with their own overlay color and shape, e.g. to tell
+     * fingers, hands or scale degrees apart.
+     * 
+     * @param shape
+     *            one of {@link #SHAPE_CIRCLE}, {@link #SHAPE_ROUNDED_SQUARE}
+     *            or {@link #SHAPE_RING}
+     */
+    public void addNotes(List<Note> notes, int color, int shape) {
+	synchronized (highlightsLock) {
+	    highlightsBuilder.add(notes, color, shape);
+	    highlightsChanged = true;
+	}
+	onHighlightsChanged();
     }
 
-    public void removeNotes(List<Note> notes) {
-	notesToDraw.removeAll(notes);
+    /**
+     * Highlights a single key by its midi code, spelled with sharps.
+     */
+    public void addCode(int midiCode) {
+	addCode(midiCode, keyboard.getDefaultOverlayColor(), SHAPE_CIRCLE);
+    }
 
-	invalidate();
+    public void addCode(int midiCode, int color, int shape) {
+	synchronized (highlightsLock) {
+	    highlightsBuilder.add(midiCode, color, shape);
+	    highlightsChanged = true;
+	}
+	onHighlightsChanged();
+    }
+
+    /**
+     * Highlights the first {@code count} codes of the array at once, e.g. a
+     * voicing looked up in a chord library.
+     */
+    public void addCodes(int[] midiCodes, int count, int color, int shape) {
+	synchronized (highlightsLock) {
+	    for (int i = 0; i < count; i++) {
+		highlightsBuilder.add(midiCodes[i], color, shape);
+	    }
+	    highlightsChanged = true;
+	}
+	onHighlightsChanged();
+    }
+
+    /**
+     * Removes highlights of the key, whatever their spelling.
+     */
+    public void removeCode(int midiCode) {
+	synchronized (highlightsLock) {
+	    highlightsBuilder.remove(midiCode);
+	    highlightsChanged = true;
+	}
+	onHighlightsChanged();
+    }
+
+    public void removeNotes(List<Note> notes) {
+	synchronized (highlightsLock) {
+	    highlightsBuilder.remove(notes);
+	    highlightsChanged = true;
+	}
+	onHighlightsChanged();
     }
 
     public void clear() {
-	notesToDraw.clear();
+	synchronized (highlightsLock) {
+	    highlightsBuilder.clear();
+	    highlightsChanged = true;
+	}
+	onHighlightsChanged();
+    }
+
+    /**
+     * Replaces all the highlights at once, e.g. with a snapshot built from
+     * {@link #getHighlights()} with many changes batched together.
+     */
+    public void setHighlights(Highlights highlights) {
+	synchronized (highlightsLock) {
+	    highlightsBuilder.set(highlights);
+	    this.highlights = highlights;
+	    highlightsChanged = false;
+	}
+	onHighlightsChanged();
+    }
+
+    /**
+     * @return snapshot of the latest highlights, not necessarily drawn yet
+     */
+    public Highlights getHighlights() {
+	synchronized (highlightsLock) {
+	    if (highlightsChanged) {
+		highlights = highlightsBuilder.build();
+		highlightsChanged = false;
+	    }
+	    return highlights;
+	}
+    }
+
+    /**
+     * Presses or releases a key programmatically, e.g. during playback. Safe to
+     * call for every key of a dense chord, the press is animated without
+     * allocations.
+     */
+    public void setKeyPressed(int midiCode, boolean pressed) {
+	if (keyboard.setKeyPressed(midiCode, pressed)) {
+	    keyStateChanged = true;
+	    onContentChanged();
+	}
+    }
+
+    /**
+     * @return true if the key is pressed, by touch in play mode or
+     *         programmatically
+     */
+    public boolean isKeyPressed(int midiCode) {
+	return keyboard.isKeyPressed(midiCode);
+    }
+
+    /**
+     * Makes keys glow according to the given intensities, e.g. the output of
+     * {@link com.evilduck.piano.audio.GoertzelKeyAnalyser}. Must be called on
+     * the main thread.
+     *
+     * @param intensitiesByCode
+     *            values from 0 to 1 indexed by midi code
+     */
+    public void setKeyIntensities(float[] intensitiesByCode) {
+	if (keyboard.setKeyIntensities(intensitiesByCode)) {
+	    onContentChanged();
+	}
+    }
+
+    public void setKeyGlowColor(int color) {
+	keyboard.setGlowColor(color);
+	onContentChanged();
+    }
 
-	invalidate();
+    /**
+     * @return midi code of the leftmost key currently on screen, so that
+     *         analysis can be limited to what is visible
+     */
+    public int getFirstVisibleCode() {
+	return keyboard.getFirstVisibleCode();
+    }
+
+    public int getLastVisibleCode() {
+	return keyboard.getLastVisibleCode();
+    }
+
+    /**
+     * Highlight setters can be called from any thread. Changes made off the
+     * main thread are coalesced into a single frame request, however many
+     * there are before the next frame.
+     */
+    private void onHighlightsChanged() {
+	if (Looper.myLooper() == Looper.getMainLooper()) {
+	    onContentChanged();
+	} else if (highlightsFramePending.compareAndSet(false, true)) {
+	    MAIN_THREAD.post(highlightsFrameRequest);
+	}
+    }
+
+    private final Runnable highlightsFrameRequest = new Runnable() {
+	@Override
+	public void run() {
+	    highlightsFramePending.set(false);
+	    onContentChanged();
+	}
+    };
+
+    private void onContentChanged() {
+	thumbnailKey = null;
+	frameGovernor.request(FrameGovernor.REASON_CONTENT);
     }
 
     private void init() {
@@ -134,10 +370,164 @@ public class PianoView extends View {
 	    gestureDetector = new GestureDetector(getContext(), gestureListener);
 	    scaleGestureDetector = new ScaleGestureDetector(getContext(), scaleGestureListener);
 	}
+
+	leftEdgeEffect = new EdgeEffectCompat(getContext());
+	rightEdgeEffect = new EdgeEffectCompat(getContext());
+
+	setHorizontalScrollBarEnabled(true);
+
+	TypedArray a = getContext().obtainStyledAttributes(R.styleable.View);
+	initializeScrollbars(a);
+	a.recycle();
+    }
+
+    /**
+     * Static mode turns the view into a non-interactive thumbnail: no gesture
+     * handling or scrolling, and the picture is rendered once into the shared
+     * {@link ThumbnailCache} and then blitted. Meant for chords shown in
+     * scrolling lists.
+     */
+    public void setStaticMode(boolean staticMode) {
+	if (this.staticMode == staticMode) {
+	    return;
+	}
+	this.staticMode = staticMode;
+	if (!staticMode && scroller == null) {
+	    init();
+	}
+	if (staticMode) {
+	    setHorizontalScrollBarEnabled(false);
+	    stopPlaying();
+	    resetTouchFeedback();
+	}
+	onContentChanged();
+    }
+
+    public boolean isStaticMode() {
+	return staticMode;
+    }
+
+    /**
+     * In play mode sliding a finger across the keyboard plays every key it
+     * crosses. Scrolling and zooming are still available with two fingers.
+     */
+    public void setPlayMode(boolean playMode) {
+	if (!playMode) {
+	    stopPlaying();
+	}
+	this.playMode = playMode;
+    }
+
+    public boolean isPlayMode() {
+	return playMode;
+    }
+
+    /**
+     * @return drawing work counters of the last drawn frame
+     */
+    public RenderStats getRenderStats() {
+	return renderStats;
+    }
+
+    /**
+     * @return scheduler of the view's frames, counts why frames were drawn
+     */
+    public FrameGovernor getFrameGovernor() {
+	return frameGovernor;
+    }
+
+    /**
+     * Caps how often the view redraws, e.g. 30 for ambient visualisations
+     * where smoothness matters less than battery.
+     *
+     * @param fps
+     *            highest number of frames per second, 0 for no limit
+     */
+    public void setMaxFrameRate(int fps) {
+	frameGovernor.setMaxFrameRate(fps);
+    }
+
+    /**
+     * @return horizontal offset of the drawn keyboard, in unscaled pixels
+     */
+    public int getVisibleXOffset() {
+	return getOffsetInsideOfBounds();
+    }
+
+    /**
+     * @return horizontal zoom applied to the keyboard
+     */
+    public float getKeyScale() {
+	return scaleX;
+    }
+
+    /**
+     * @return geometry of the keys, laid out once the view was drawn
+     */
+    public KeyboardLayout getKeyboardLayout() {
+	return keyboard.getLayout();
     }
 
     public void smoothScrollXTo(int x) {
+	if (staticMode) {
+	    xOffset = x;
+	    onContentChanged();
+	    return;
+	}
 	scroller.startScroll(xOffset, 0, x - xOffset, 0);
+	frameGovernor.request(FrameGovernor.REASON_SCROLL);
+    }
+
+    /**
+     * Starts preparing drawables and bitmaps shared by all the piano views on
+     * a background thread. Calling this early, e.g. from
+     * {@code Application.onCreate()}, keeps decoding off the inflation path.
+     */
+    public static void preloadResources(Context context) {
+	KeyboardResources.preload(context);
+    }
+
+    /**
+     * Sets a process wide listener reporting how long each resource
+     * preparation stage took.
+     */
+    public static void setResourceTimingListener(ResourceTimingListener listener) {
+	KeyboardResources.setTimingListener(listener);
+    }
+
+    public interface ResourceTimingListener {
+
+	/**
+	 * Called on the main thread.
+	 * 
+	 * @param stage
+	 *            one of {@link PianoView#STAGE_KEY_DRAWABLES},
+	 *            {@link PianoView#STAGE_NOTE_ATLAS} or
+	 *            {@link PianoView#STAGE_OVERLAY_MASKS}
+	 * @param mainThread
+	 *            whether the stage blocked the main thread
+	 */
+	void onStageFinished(int stage, long durationNanos, boolean mainThread);
+
+    }
+
+    private final Runnable onOverlaysReady = new Runnable() {
+	@Override
+	public void run() {
+	    onContentChanged();
+	}
+    };
+
+    @Override
+    protected void onAttachedToWindow() {
+	super.onAttachedToWindow();
+	keyboard.acquireResources(getContext(), onOverlaysReady);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+	keyboard.releaseResources();
+	super.onDetachedFromWindow();
     }
 
     // ========== preserving scroll position during screen rotations
@@ -203,8 +593,11 @@ public class PianoView extends View {
     @Override
     public void computeScroll() {
 	super.computeScroll();
+	if (staticMode || scroller == null) {
+	    return;
+	}
 
-	boolean needsInvalidate = false;
+	int reasons = 0;
 	if (scroller.computeScrollOffset()) {
 	    xOffset = scroller.getCurrX();
 
@@ -212,27 +605,44 @@ public class PianoView extends View {
 		if (xOffset > 0 && scrollDirection > 0 && !leftEdgeEffectActive) {
 		    leftEdgeEffect.onAbsorb(getCurrentVelocity());
 		    leftEdgeEffectActive = true;
-		    needsInvalidate = true;
+		    reasons |= FrameGovernor.REASON_EDGE_EFFECT;
 		} else if (xOffset < instrumentWidth - getMeasuredWidth() && scrollDirection < 0
 			&& !rightEdgeEffectActive) {
 		    rightEdgeEffect.onAbsorb(getCurrentVelocity());
-		    needsInvalidate = true;
+		    reasons |= FrameGovernor.REASON_EDGE_EFFECT;
 		}
 	    }
 	}
 
 	if (!scroller.isFinished()) {
-	    needsInvalidate = true;
+	    reasons |= FrameGovernor.REASON_SCROLL;
 	}
 
-	if (needsInvalidate) {
-	    ViewCompat.postInvalidateOnAnimation(this);
+	// usually followed by draw(), which serves this request and asks for
+	// the next frame, the request only matters if drawing is skipped
+	scrollReasons |= reasons;
+	if (reasons != 0) {
+	    frameGovernor.request(reasons);
 	}
     }
 
     @Override
     public void draw(Canvas canvas) {
+	frameGovernor.beginFrame();
+	if (scrollReasons != 0) {
+	    // scrolling goes on in the next frame
+	    frameGovernor.request(scrollReasons);
+	    scrollReasons = 0;
+	}
 	super.draw(canvas);
+	if (isHorizontalScrollBarEnabled() && AnimationUtils.currentAnimationTimeMillis() < scrollBarsVisibleUntil) {
+	    // drawn by super.draw() while the scroll bar fades out
+	    renderStats.drawCalls++;
+	}
+	if (staticMode || leftEdgeEffect == null) {
+	    frameGovernor.endFrame();
+	    return;
+	}
 	boolean needsInvalidate = false;
 
 	final int overScrollMode = ViewCompat.getOverScrollMode(this);
@@ -247,6 +657,7 @@ public class PianoView extends View {
 		canvas.translate(-height + getPaddingTop(), 0);
 		leftEdgeEffect.setSize(height, width);
 		needsInvalidate |= leftEdgeEffect.draw(canvas);
+		renderStats.drawCalls++;
 		canvas.restoreToCount(restoreCount);
 	    }
 	    if (!rightEdgeEffect.isFinished()) {
@@ -258,6 +669,7 @@ public class PianoView extends View {
 		canvas.translate(-getPaddingTop(), -width);
 		rightEdgeEffect.setSize(height, width);
 		needsInvalidate |= rightEdgeEffect.draw(canvas);
+		renderStats.drawCalls++;
 		canvas.restoreToCount(restoreCount);
 	    }
 	} else {
@@ -266,8 +678,9 @@ public class PianoView extends View {
 	}
 
 	if (needsInvalidate) {
-	    ViewCompat.postInvalidateOnAnimation(this);
+	    frameGovernor.request(FrameGovernor.REASON_EDGE_EFFECT);
 	}
+	frameGovernor.endFrame();
     }
 
     @Override
@@ -277,6 +690,8 @@ public class PianoView extends View {
 	    return;
 	}
 
+	renderStats.startFrame();
+
 	if (measurementChanged) {
 	    measurementChanged = false;
 	    keyboard.initializeInstrument(getMeasuredHeight(), getContext());
@@ -286,10 +701,71 @@ public class PianoView extends View {
 
 	    float ratio = (float) instrumentWidth / oldInstrumentWidth;
 	    xOffset = (int) (xOffset * ratio);
+	    thumbnailKey = null;
+	}
+
+	Highlights latest = getHighlights();
+	if (latest != drawnHighlights) {
+	    drawnHighlights = latest;
+	    keyboard.applyHighlights(latest);
+	    keyStateChanged = true;
+	    thumbnailKey = null;
 	}
 
 	int localXOffset = getOffsetInsideOfBounds();
 
+	if (staticMode) {
+	    drawThumbnail(canvas, localXOffset);
+	    return;
+	}
+
+	if (animator.step(AnimationUtils.currentAnimationTimeMillis())) {
+	    frameGovernor.request(FrameGovernor.REASON_ANIMATION);
+	}
+
+	drawInstrument(canvas, localXOffset);
+    }
+
+    private void drawThumbnail(Canvas canvas, int localXOffset) {
+	int width = getWidth();
+	int height = getHeight();
+	if (width <= 0 || height <= 0) {
+	    return;
+	}
+
+	if (thumbnailKey == null) {
+	    if (thumbnailKeyBuilder == null) {
+		thumbnailKeyBuilder = new StringBuilder();
+	    }
+	    StringBuilder builder = thumbnailKeyBuilder;
+	    builder.setLength(0);
+	    builder.append(width).append('x').append(height).append('@').append(localXOffset).append('/');
+	    builder.append(scaleX).append('/');
+	    keyboard.appendStateKey(builder);
+	    thumbnailKey = builder.toString();
+	}
+
+	if (!keyboard.isOverlaysReady()) {
+	    // not cached, the picture is incomplete until overlays are ready
+	    animator.finish();
+	    drawInstrument(canvas, localXOffset);
+	    return;
+	}
+
+	Bitmap thumbnail = ThumbnailCache.get(thumbnailKey);
+	if (thumbnail == null) {
+	    thumbnail = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+	    // thumbnails show the final state, there is no one to animate them
+	    animator.finish();
+	    drawInstrument(new Canvas(thumbnail), localXOffset);
+	    ThumbnailCache.put(thumbnailKey, thumbnail);
+	}
+	canvas.drawBitmap(thumbnail, 0, 0, null);
+	renderStats.bitmapBlits++;
+	renderStats.drawCalls++;
+    }
+
+    private void drawInstrument(Canvas canvas, int localXOffset) {
 	canvas.save();
 	canvas.scale(scaleX, 1.0f);
 	canvas.translate(-localXOffset, 0);
@@ -297,11 +773,31 @@ public class PianoView extends View {
 	keyboard.updateBounds(localXOffset, canvasWidth + localXOffset);
 	keyboard.draw(canvas);
 
-	if (!notesToDraw.isEmpty()) {
-	    keyboard.drawOverlays(notesToDraw, canvas);
-	}
+	keyboard.drawOverlays(canvas);
 
 	canvas.restore();
+
+	notifyViewportChanged(localXOffset);
+	if (keyStateChanged) {
+	    keyStateChanged = false;
+	    for (int i = 0; i < keyStateListeners.size(); i++) {
+		keyStateListeners.get(i).onKeyStateChanged(this);
+	    }
+	}
+    }
+
+    private void notifyViewportChanged(int localXOffset) {
+	float width = keyboard.getLayout().getWidth();
+	if (viewportListeners.isEmpty() || localXOffset == notifiedXOffset && scaleX == notifiedScale
+		&& width == notifiedWidth) {
+	    return;
+	}
+	notifiedXOffset = localXOffset;
+	notifiedScale = scaleX;
+	notifiedWidth = width;
+	for (int i = 0; i < viewportListeners.size(); i++) {
+	    viewportListeners.get(i).onViewportChanged(this);
+	}
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
@@ -338,17 +834,24 @@ public class PianoView extends View {
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+	if (staticMode || gestureDetector == null) {
+	    return super.onTouchEvent(event);
+	}
+	if (playMode) {
+	    handlePlayTouch(event);
+	}
+
 	int action = event.getAction();
 	if (action == MotionEvent.ACTION_CANCEL) {
 	    resetTouchFeedback();
 	    releaseEdgeEffects();
 	    xOffset = getOffsetInsideOfBounds();
-	    ViewCompat.postInvalidateOnAnimation(this);
+	    frameGovernor.request(FrameGovernor.REASON_TOUCH);
 	}
 	if (action == MotionEvent.ACTION_UP) {
 	    xOffset = getOffsetInsideOfBounds();
 	    releaseEdgeEffects();
-	    ViewCompat.postInvalidateOnAnimation(this);
+	    frameGovernor.request(FrameGovernor.REASON_TOUCH);
 	}
 
 	boolean retVal = scaleGestureDetector.onTouchEvent(event);
@@ -356,6 +859,75 @@ public class PianoView extends View {
 	return retVal || super.onTouchEvent(event);
     }
 
+    private void handlePlayTouch(MotionEvent event) {
+	switch (event.getActionMasked()) {
+	case MotionEvent.ACTION_DOWN:
+	    multiTouchGesture = false;
+	    playAt(event.getX(), event.getY());
+	    break;
+	case MotionEvent.ACTION_POINTER_DOWN:
+	    // second finger turns the gesture into scrolling or zooming
+	    multiTouchGesture = true;
+	    stopPlaying();
+	    break;
+	case MotionEvent.ACTION_MOVE:
+	    if (multiTouchGesture) {
+		break;
+	    }
+	    // samples batched into this event are replayed, so that a fast
+	    // glissando does not skip keys between two frames
+	    final int historySize = event.getHistorySize();
+	    for (int h = 0; h < historySize; h++) {
+		playAt(event.getHistoricalX(h), event.getHistoricalY(h));
+	    }
+	    playAt(event.getX(), event.getY());
+	    break;
+	case MotionEvent.ACTION_UP:
+	case MotionEvent.ACTION_CANCEL:
+	    stopPlaying();
+	    break;
+	default:
+	    break;
+	}
+    }
+
+    private void playAt(float x, float y) {
+	int code = keyboard.getCodeAt(x / scaleX + getOffsetInsideOfBounds(), y);
+	if (code == playedCode) {
+	    return;
+	}
+
+	stopPlaying();
+	if (code != Keyboard.NOT_FOUND) {
+	    playedCode = code;
+	    keyboard.setKeyPressed(code, true);
+	    keyStateChanged = true;
+	    if (onPlayListener != null) {
+		onPlayListener.onKeyDown(code);
+	    }
+	    frameGovernor.request(FrameGovernor.REASON_TOUCH);
+	}
+    }
+
+    private void stopPlaying() {
+	if (playedCode == Keyboard.NOT_FOUND) {
+	    return;
+	}
+
+	int code = playedCode;
+	playedCode = Keyboard.NOT_FOUND;
+	keyboard.setKeyPressed(code, false);
+	keyStateChanged = true;
+	if (onPlayListener != null) {
+	    onPlayListener.onKeyUp(code);
+	}
+	frameGovernor.request(FrameGovernor.REASON_TOUCH);
+    }
+
+    private boolean isScrollAllowed() {
+	return !playMode || multiTouchGesture;
+    }
+
     private void fireTouchListeners(int code) {
 	if (onTouchListener != null) {
 	    onTouchListener.onTouch(code);
@@ -380,6 +952,67 @@ public class PianoView extends View {
 
     }
 
+    public void setOnKeyPlayListener(OnKeyPlayListener listener) {
+	this.onPlayListener = listener;
+    }
+
+    /**
+     * Several companion views can follow the keyboard, e.g. a piano roll and
+     * a mini-map.
+     */
+    public void addOnViewportChangeListener(OnViewportChangeListener listener) {
+	if (!viewportListeners.contains(listener)) {
+	    viewportListeners.add(listener);
+	}
+	notifiedXOffset = -1;
+    }
+
+    public void removeOnViewportChangeListener(OnViewportChangeListener listener) {
+	viewportListeners.remove(listener);
+    }
+
+    public void addOnKeyStateChangeListener(OnKeyStateChangeListener listener) {
+	if (!keyStateListeners.contains(listener)) {
+	    keyStateListeners.add(listener);
+	}
+    }
+
+    public void removeOnKeyStateChangeListener(OnKeyStateChangeListener listener) {
+	keyStateListeners.remove(listener);
+    }
+
+    /**
+     * Notified from drawing when highlights or pressed keys changed since the
+     * previous frame. Query the new state with {@link #getHighlights()} and
+     * {@link #isKeyPressed(int)}.
+     */
+    public interface OnKeyStateChangeListener {
+
+	void onKeyStateChanged(PianoView view);
+
+    }
+
+    /**
+     * Notified from drawing when the scroll position, zoom or key geometry
+     * changed, so that companion views can follow the keyboard.
+     */
+    public interface OnViewportChangeListener {
+
+	void onViewportChanged(PianoView view);
+
+    }
+
+    /**
+     * Receives note-on/note-off events while the view is in play mode.
+     */
+    public interface OnKeyPlayListener {
+
+	void onKeyDown(int midiCode);
+
+	void onKeyUp(int midiCode);
+
+    }
+
     private OnScaleGestureListener scaleGestureListener = new OnScaleGestureListener() {
 
 	@Override
@@ -402,11 +1035,18 @@ public class PianoView extends View {
 	    if (scaleX > 2) {
 		scaleX = 2;
 	    }
-	    ViewCompat.postInvalidateOnAnimation(PianoView.this);
+	    frameGovernor.request(FrameGovernor.REASON_ZOOM);
 	    return true;
 	}
     };
 
+    private void showScrollBars() {
+	if (awakenScrollBars()) {
+	    scrollBarsVisibleUntil = AnimationUtils.currentAnimationTimeMillis() + ViewConfiguration.getScrollDefaultDelay()
+		    + ViewConfiguration.getScrollBarFadeDuration();
+	}
+    }
+
     private void releaseEdgeEffects() {
 	leftEdgeEffectActive = rightEdgeEffectActive = false;
 	leftEdgeEffect.onRelease();
@@ -418,26 +1058,31 @@ public class PianoView extends View {
 	public boolean onDown(MotionEvent e) {
 	    releaseEdgeEffects();
 	    scroller.forceFinished(true);
-	    if (keyboard.touchItem(e.getX() / scaleX + xOffset, e.getY())) {
-		invalidate();
+	    if (!playMode && keyboard.touchItem(e.getX() / scaleX + xOffset, e.getY())) {
+		frameGovernor.request(FrameGovernor.REASON_TOUCH);
 	    }
 
 	    return true;
 	}
 
 	public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+	    if (!isScrollAllowed()) {
+		return true;
+	    }
 	    releaseEdgeEffects();
 	    scrollDirection = velocityX > 0 ? 1 : -1;
 
 	    scroller.fling(xOffset, 0, (int) -velocityX, 0, 0, instrumentWidth - getMeasuredWidth(), 0, 0);
 
-	    if (!awakenScrollBars()) {
-		ViewCompat.postInvalidateOnAnimation(PianoView.this);
-	    }
+	    showScrollBars();
+	    frameGovernor.request(FrameGovernor.REASON_SCROLL);
 	    return true;
 	}
 
 	public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+	    if (!isScrollAllowed()) {
+		return true;
+	    }
 	    resetTouchFeedback();
 	    xOffset += distanceX;
 
@@ -450,14 +1095,16 @@ public class PianoView extends View {
 		rightEdgeEffectActive = true;
 	    }
 
-	    if (!awakenScrollBars()) {
-		invalidate();
-	    }
+	    showScrollBars();
+	    frameGovernor.request(FrameGovernor.REASON_SCROLL);
 
 	    return true;
 	}
 
 	public boolean onSingleTapUp(MotionEvent e) {
+	    if (playMode) {
+		return super.onSingleTapUp(e);
+	    }
 	    fireTouchListeners(keyboard.getTouchedCode());
 
 	    resetTouchFeedback();
@@ -465,6 +1112,9 @@ public class PianoView extends View {
 	}
 
 	public void onLongPress(MotionEvent e) {
+	    if (playMode) {
+		return;
+	    }
 	    fireLongTouchListeners(keyboard.getTouchedCode());
 
 	    super.onLongPress(e);
@@ -480,7 +1130,7 @@ public class PianoView extends View {
 
     private void resetTouchFeedback() {
 	if (keyboard.releaseTouch()) {
-	    invalidate();
+	    frameGovernor.request(FrameGovernor.REASON_TOUCH);
 	}
     };
 
@@ -0,0 +1,84 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+/**
+ * Counts the drawing work done by {@link PianoView} during the last frame, so
+ * that rendering cost regressions can be caught by harnesses and tools.
+ */
+public final class RenderStats {
+
+    int drawCalls;
+
+    int stateChanges;
+
+    int bitmapBlits;
+
+    int textMeasurements;
+
+    long frames;
+
+    /**
+     * @return number of drawable and canvas primitive draws in the last frame,
+     *         including edge effects and the scroll bar
+     */
+    public int getDrawCalls() {
+	return drawCalls;
+    }
+
+    /**
+     * @return number of drawable state changes in the last frame
+     */
+    public int getStateChanges() {
+	return stateChanges;
+    }
+
+    /**
+     * @return number of bitmaps drawn in the last frame, also counted as draw
+     *         calls
+     */
+    public int getBitmapBlits() {
+	return bitmapBlits;
+    }
+
+    /**
+     * @return number of text measurements in the last frame
+     */
+    public int getTextMeasurements() {
+	return textMeasurements;
+    }
+
+    /**
+     * @return number of frames drawn since the view was created
+     */
+    public long getFrames() {
+	return frames;
+    }
+
+    void startFrame() {
+	drawCalls = 0;
+	stateChanges = 0;
+	bitmapBlits = 0;
+	textMeasurements = 0;
+	frames++;
+    }
+
+    @Override
+    public String toString() {
+	return "RenderStats [frames=" + frames + ", drawCalls=" + drawCalls + ", stateChanges=" + stateChanges
+		+ ", bitmapBlits=" + bitmapBlits + ", textMeasurements=" + textMeasurements + "]";
+    }
+
+}
@@ -0,0 +1,68 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.instrument;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * Process wide LRU cache of rendered keyboards used by {@link PianoView} in
+ * static mode. Entries are keyed by everything that affects the picture, so
+ * rebinding a previously seen chord in a list is a single bitmap blit.
+ */
+public final class ThumbnailCache {
+
+    private static final int DEFAULT_MAX_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 16,
+	    Integer.MAX_VALUE);
+
+    private static LruCache<String, Bitmap> cache = createCache(DEFAULT_MAX_BYTES);
+
+    private ThumbnailCache() {
+    }
+
+    /**
+     * Changes the memory budget of the cache. Cached thumbnails are dropped.
+     */
+    public static synchronized void setMaxBytes(int maxBytes) {
+	cache.evictAll();
+	cache = createCache(maxBytes);
+    }
+
+    public static synchronized int getMaxBytes() {
+	return cache.maxSize();
+    }
+
+    public static synchronized void clear() {
+	cache.evictAll();
+    }
+
+    static synchronized Bitmap get(String key) {
+	return cache.get(key);
+    }
+
+    static synchronized void put(String key, Bitmap bitmap) {
+	cache.put(key, bitmap);
+    }
+
+    private static LruCache<String, Bitmap> createCache(int maxBytes) {
+	return new LruCache<String, Bitmap>(maxBytes) {
+	    @Override
+	    protected int sizeOf(String key, Bitmap value) {
+		return value.getRowBytes() * value.getHeight();
+	    }
+	};
+    }
+
+}
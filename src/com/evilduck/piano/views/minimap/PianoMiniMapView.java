@@ -0,0 +1,311 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.minimap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.v4.view.ViewCompat;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.evilduck.piano.views.instrument.Highlights;
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Overview strip of the whole keyboard of a {@link PianoView}, showing where
+ * the view is scrolled to, highlighted and pressed keys. Tapping or dragging
+ * the strip scrolls the keyboard there.
+ * <p>
+ * Keys are drawn once into a bitmap of the strip's size whenever the strip or
+ * the key geometry changes. Frames only blit that bitmap and draw the markers
+ * on top, and only the parts that changed are invalidated: the old and new
+ * viewport rectangles when scrolling, the changed keys when highlights or
+ * pressed keys change.
+ */
+public class PianoMiniMapView extends View implements PianoView.OnViewportChangeListener,
+	PianoView.OnKeyStateChangeListener {
+
+    private static final float BORDER_DP = 1.5f;
+
+    private final Paint whiteKeyPaint = new Paint();
+
+    private final Paint blackKeyPaint = new Paint();
+
+    private final Paint separatorPaint = new Paint();
+
+    private final Paint pressedPaint = new Paint();
+
+    private final Paint markerPaint = new Paint();
+
+    private final Paint dimPaint = new Paint();
+
+    private final Paint viewportPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final RectF viewport = new RectF();
+
+    private final RectF keyRect = new RectF();
+
+    private final Rect dirty = new Rect();
+
+    private final Rect clip = new Rect();
+
+    private final long[] shownPressed = new long[2];
+
+    private final float border;
+
+    private PianoView pianoView;
+
+    private Bitmap keysBitmap;
+
+    private float bitmapLayoutWidth;
+
+    private Highlights shownHighlights = Highlights.EMPTY;
+
+    public PianoMiniMapView(Context context) {
+	this(context, null);
+    }
+
+    public PianoMiniMapView(Context context, AttributeSet attrs) {
+	this(context, attrs, 0);
+    }
+
+    public PianoMiniMapView(Context context, AttributeSet attrs, int defStyle) {
+	super(context, attrs, defStyle);
+	border = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, BORDER_DP, getResources()
+		.getDisplayMetrics());
+
+	whiteKeyPaint.setColor(Color.WHITE);
+	blackKeyPaint.setColor(0xFF202020);
+	separatorPaint.setColor(0xFF909090);
+	pressedPaint.setColor(0x803F9FD8);
+	dimPaint.setColor(0x50000000);
+	viewportPaint.setColor(0xFF3F9FD8);
+	viewportPaint.setStyle(Paint.Style.STROKE);
+	viewportPaint.setStrokeWidth(border);
+    }
+
+    public void setPianoView(PianoView pianoView) {
+	if (this.pianoView != null) {
+	    this.pianoView.removeOnViewportChangeListener(this);
+	    this.pianoView.removeOnKeyStateChangeListener(this);
+	}
+	this.pianoView = pianoView;
+	if (pianoView != null) {
+	    pianoView.addOnViewportChangeListener(this);
+	    pianoView.addOnKeyStateChangeListener(this);
+	}
+	releaseBitmap();
+	invalidate();
+    }
+
+    public void setViewportColor(int color) {
+	viewportPaint.setColor(color);
+	ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    public void setPressedColor(int color) {
+	pressedPaint.setColor(color);
+	ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    @Override
+    public void onViewportChanged(PianoView view) {
+	KeyboardLayout layout = view.getKeyboardLayout();
+	if (layout.getWidth() != bitmapLayoutWidth) {
+	    // key geometry changed, everything has to be drawn again
+	    releaseBitmap();
+	    ViewCompat.postInvalidateOnAnimation(this);
+	    return;
+	}
+	dirty.set((int) viewport.left, 0, (int) Math.ceil(viewport.right), getHeight());
+	computeViewport(layout);
+	dirty.union((int) viewport.left, 0, (int) Math.ceil(viewport.right), getHeight());
+	invalidateDirty();
+    }
+
+    @Override
+    public void onKeyStateChanged(PianoView view) {
+	KeyboardLayout layout = view.getKeyboardLayout();
+	Highlights highlights = view.getHighlights();
+	dirty.setEmpty();
+	for (int i = 0; i < layout.getKeyCount(); i++) {
+	    int code = layout.getStartCode() + i;
+	    long bit = 1L << code;
+	    boolean pressed = view.isKeyPressed(code);
+	    boolean wasPressed = (shownPressed[code >>> 6] & bit) != 0;
+	    if (pressed != wasPressed) {
+		shownPressed[code >>> 6] ^= bit;
+	    } else if (sameMarker(highlights, shownHighlights, code)) {
+		continue;
+	    }
+	    keyBounds(layout, i, keyRect);
+	    dirty.union((int) keyRect.left, 0, (int) Math.ceil(keyRect.right), getHeight());
+	}
+	shownHighlights = highlights;
+	invalidateDirty();
+    }
+
+    private static boolean sameMarker(Highlights a, Highlights b, int code) {
+	boolean shown = a.contains(code);
+	if (shown != b.contains(code)) {
+	    return false;
+	}
+	return !shown || a.getColor(code) == b.getColor(code);
+    }
+
+    private void invalidateDirty() {
+	if (!dirty.isEmpty()) {
+	    int margin = (int) Math.ceil(border);
+	    ViewCompat.postInvalidateOnAnimation(this, dirty.left - margin, dirty.top, dirty.right + margin,
+		    dirty.bottom);
+	}
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+	super.onSizeChanged(w, h, oldw, oldh);
+	releaseBitmap();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+	super.onDetachedFromWindow();
+	releaseBitmap();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+	if (pianoView == null || isInEditMode()) {
+	    return;
+	}
+	KeyboardLayout layout = pianoView.getKeyboardLayout();
+	if (layout.getWidth() <= 0 || getWidth() <= 0 || getHeight() <= 0) {
+	    return;
+	}
+	if (keysBitmap == null) {
+	    keysBitmap = renderKeys(layout);
+	    bitmapLayoutWidth = layout.getWidth();
+	    computeViewport(layout);
+	}
+	canvas.drawBitmap(keysBitmap, 0, 0, null);
+
+	canvas.getClipBounds(clip);
+	Highlights highlights = shownHighlights;
+	for (int i = 0; i < layout.getKeyCount(); i++) {
+	    keyBounds(layout, i, keyRect);
+	    if (keyRect.right < clip.left || keyRect.left > clip.right) {
+		continue;
+	    }
+	    int code = layout.getStartCode() + i;
+	    if ((shownPressed[code >>> 6] & 1L << code) != 0) {
+		canvas.drawRect(keyRect, pressedPaint);
+	    }
+	    if (highlights.contains(code)) {
+		// marker at the bottom of the key's visible part
+		markerPaint.setColor(highlights.getColor(code));
+		float height = keyRect.height() / 3;
+		canvas.drawRect(keyRect.left + border, keyRect.bottom - height, keyRect.right - border,
+			keyRect.bottom - border, markerPaint);
+	    }
+	}
+
+	canvas.drawRect(0, 0, viewport.left, getHeight(), dimPaint);
+	canvas.drawRect(viewport.right, 0, getWidth(), getHeight(), dimPaint);
+	float inset = border / 2;
+	canvas.drawRect(viewport.left + inset, inset, viewport.right - inset, getHeight() - inset, viewportPaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+	if (pianoView == null || keysBitmap == null) {
+	    return super.onTouchEvent(event);
+	}
+	switch (event.getAction()) {
+	case MotionEvent.ACTION_DOWN:
+	case MotionEvent.ACTION_MOVE:
+	case MotionEvent.ACTION_UP:
+	    scrollTo(event.getX());
+	    return true;
+	default:
+	    return super.onTouchEvent(event);
+	}
+    }
+
+    /**
+     * Centers the keyboard's viewport on the touched position.
+     */
+    private void scrollTo(float x) {
+	KeyboardLayout layout = pianoView.getKeyboardLayout();
+	float scale = getWidth() / layout.getWidth();
+	float visible = pianoView.getWidth() / pianoView.getKeyScale();
+	float target = x / scale - visible / 2;
+	target = Math.max(0, Math.min(layout.getWidth() - visible, target));
+	pianoView.smoothScrollXTo(Math.round(target));
+    }
+
+    private void computeViewport(KeyboardLayout layout) {
+	float scale = getWidth() / layout.getWidth();
+	float left = pianoView.getVisibleXOffset() * scale;
+	float right = left + pianoView.getWidth() / pianoView.getKeyScale() * scale;
+	viewport.set(Math.max(0, left), 0, Math.min(getWidth(), right), getHeight());
+    }
+
+    /**
+     * Bounds of the key scaled down to the strip.
+     */
+    private void keyBounds(KeyboardLayout layout, int index, RectF out) {
+	float scaleX = getWidth() / layout.getWidth();
+	float scaleY = getHeight() / layout.getHeight();
+	out.set(layout.getStartX(index) * scaleX, layout.getStartY(index) * scaleY, layout.getEndX(index) * scaleX,
+		layout.getEndY(index) * scaleY);
+    }
+
+    private Bitmap renderKeys(KeyboardLayout layout) {
+	Bitmap bitmap = Bitmap.createBitmap(getWidth(), getHeight(), Config.RGB_565);
+	Canvas canvas = new Canvas(bitmap);
+	canvas.drawRect(0, 0, getWidth(), getHeight(), whiteKeyPaint);
+	for (int i = 0; i < layout.getKeyCount(); i++) {
+	    if (!layout.isBlack(i)) {
+		keyBounds(layout, i, keyRect);
+		canvas.drawLine(keyRect.right, 0, keyRect.right, getHeight(), separatorPaint);
+	    }
+	}
+	for (int i = 0; i < layout.getKeyCount(); i++) {
+	    if (layout.isBlack(i)) {
+		keyBounds(layout, i, keyRect);
+		canvas.drawRect(keyRect, blackKeyPaint);
+	    }
+	}
+	return bitmap;
+    }
+
+    private void releaseBitmap() {
+	if (keysBitmap != null) {
+	    keysBitmap.recycle();
+	    keysBitmap = null;
+	}
+	bitmapLayoutWidth = 0;
+    }
+
+}
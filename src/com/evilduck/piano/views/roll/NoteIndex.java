@@ -0,0 +1,293 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.roll;
+
+import java.util.Arrays;
+
+/**
+ * Notes of a piano roll indexed by time buckets. Every note is listed in
+ * each bucket its interval overlaps, so range queries and hit tests only look
+ * at the buckets in question and their cost depends on how many notes are
+ * there, not on the length of the song. Edits touch the buckets of the edited
+ * note only.
+ * <p>
+ * Notes are identified by int ids, which are reused after removal. Note data
+ * lives in primitive arrays. Not thread safe.
+ */
+public class NoteIndex {
+
+    public static final int NO_NOTE = -1;
+
+    /**
+     * Reusable query result.
+     */
+    public static final class Ids {
+
+	private int[] ids = new int[64];
+
+	private int size;
+
+	public int size() {
+	    return size;
+	}
+
+	public int get(int index) {
+	    return ids[index];
+	}
+
+	void clear() {
+	    size = 0;
+	}
+
+	void add(int id) {
+	    if (size == ids.length) {
+		ids = Arrays.copyOf(ids, size * 2);
+	    }
+	    ids[size++] = id;
+	}
+
+    }
+
+    private final int bucketTicks;
+
+    private long[] starts = new long[256];
+
+    private long[] lengths = new long[256];
+
+    private byte[] codes = new byte[256];
+
+    private boolean[] alive = new boolean[256];
+
+    private int highestId;
+
+    private int[] freeIds = new int[16];
+
+    private int freeCount;
+
+    private int size;
+
+    private int[][] buckets = new int[16][];
+
+    private int[] bucketSizes = new int[16];
+
+    /**
+     * @param bucketTicks
+     *            time span of a bucket, e.g. a bar
+     */
+    public NoteIndex(int bucketTicks) {
+	if (bucketTicks <= 0) {
+	    throw new IllegalArgumentException("Bucket size must be positive, got " + bucketTicks);
+	}
+	this.bucketTicks = bucketTicks;
+    }
+
+    /**
+     * @return id of the new note
+     */
+    public int add(long start, long length, int code) {
+	checkNote(start, length, code);
+	int id;
+	if (freeCount > 0) {
+	    id = freeIds[--freeCount];
+	} else {
+	    id = highestId++;
+	    if (id == starts.length) {
+		int capacity = id * 2;
+		starts = Arrays.copyOf(starts, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		codes = Arrays.copyOf(codes, capacity);
+		alive = Arrays.copyOf(alive, capacity);
+	    }
+	}
+	starts[id] = start;
+	lengths[id] = length;
+	codes[id] = (byte) code;
+	alive[id] = true;
+	size++;
+	insert(id);
+	return id;
+    }
+
+    public void remove(int id) {
+	checkId(id);
+	erase(id);
+	alive[id] = false;
+	size--;
+	if (freeCount == freeIds.length) {
+	    freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+	}
+	freeIds[freeCount++] = id;
+    }
+
+    public void move(int id, long start, int code) {
+	checkId(id);
+	checkNote(start, lengths[id], code);
+	if (start == starts[id] && code == codes[id]) {
+	    return;
+	}
+	erase(id);
+	starts[id] = start;
+	codes[id] = (byte) code;
+	insert(id);
+    }
+
+    public void resize(int id, long length) {
+	checkId(id);
+	checkNote(starts[id], length, codes[id]);
+	if (length == lengths[id]) {
+	    return;
+	}
+	erase(id);
+	lengths[id] = length;
+	insert(id);
+    }
+
+    public void clear() {
+	Arrays.fill(alive, false);
+	Arrays.fill(bucketSizes, 0);
+	highestId = 0;
+	freeCount = 0;
+	size = 0;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public boolean contains(int id) {
+	return id >= 0 && id < highestId && alive[id];
+    }
+
+    public long getStart(int id) {
+	return starts[id];
+    }
+
+    public long getLength(int id) {
+	return lengths[id];
+    }
+
+    public long getEnd(int id) {
+	return starts[id] + lengths[id];
+    }
+
+    public int getCode(int id) {
+	return codes[id];
+    }
+
+    /**
+     * Collects notes overlapping the [from, to) tick range, each one once.
+     */
+    public void query(long from, long to, Ids out) {
+	out.clear();
+	if (to <= from) {
+	    return;
+	}
+	int firstBucket = bucketOf(Math.max(0, from));
+	int lastBucket = Math.min(bucketOf(to - 1), buckets.length - 1);
+	for (int b = firstBucket; b <= lastBucket; b++) {
+	    int[] bucket = buckets[b];
+	    int count = bucketSizes[b];
+	    for (int i = 0; i < count; i++) {
+		int id = bucket[i];
+		long start = starts[id];
+		// a note spanning several buckets is reported by the first
+		// bucket of the query it is listed in
+		if (Math.max(bucketOf(start), firstBucket) != b) {
+		    continue;
+		}
+		if (start < to && start + lengths[id] > from) {
+		    out.add(id);
+		}
+	    }
+	}
+    }
+
+    /**
+     * @return the most recently placed note of the given key sounding at the
+     *         tick, or {@link #NO_NOTE}
+     */
+    public int hitTest(long tick, int code) {
+	if (tick < 0) {
+	    return NO_NOTE;
+	}
+	int b = bucketOf(tick);
+	if (b >= buckets.length) {
+	    return NO_NOTE;
+	}
+	int[] bucket = buckets[b];
+	for (int i = bucketSizes[b] - 1; i >= 0; i--) {
+	    int id = bucket[i];
+	    if (codes[id] == code && starts[id] <= tick && starts[id] + lengths[id] > tick) {
+		return id;
+	    }
+	}
+	return NO_NOTE;
+    }
+
+    private int bucketOf(long tick) {
+	return (int) (tick / bucketTicks);
+    }
+
+    private void insert(int id) {
+	int first = bucketOf(starts[id]);
+	int last = bucketOf(starts[id] + lengths[id] - 1);
+	if (last >= buckets.length) {
+	    int capacity = Math.max(last + 1, buckets.length * 2);
+	    buckets = Arrays.copyOf(buckets, capacity);
+	    bucketSizes = Arrays.copyOf(bucketSizes, capacity);
+	}
+	for (int b = first; b <= last; b++) {
+	    int[] bucket = buckets[b];
+	    int count = bucketSizes[b];
+	    if (bucket == null) {
+		bucket = buckets[b] = new int[8];
+	    } else if (count == bucket.length) {
+		bucket = buckets[b] = Arrays.copyOf(bucket, count * 2);
+	    }
+	    bucket[count] = id;
+	    bucketSizes[b] = count + 1;
+	}
+    }
+
+    private void erase(int id) {
+	int first = bucketOf(starts[id]);
+	int last = bucketOf(starts[id] + lengths[id] - 1);
+	for (int b = first; b <= last; b++) {
+	    int[] bucket = buckets[b];
+	    int count = bucketSizes[b];
+	    for (int i = 0; i < count; i++) {
+		if (bucket[i] == id) {
+		    // keeps the insertion order, which hit tests rely on
+		    System.arraycopy(bucket, i + 1, bucket, i, count - i - 1);
+		    bucketSizes[b] = count - 1;
+		    break;
+		}
+	    }
+	}
+    }
+
+    private void checkId(int id) {
+	if (!contains(id)) {
+	    throw new IllegalArgumentException("No note with id " + id);
+	}
+    }
+
+    private static void checkNote(long start, long length, int code) {
+	if (start < 0 || length <= 0 || code < 0 || code > 127) {
+	    throw new IllegalArgumentException("Invalid note " + code + " at " + start + " of length " + length);
+	}
+    }
+
+}
@@ -0,0 +1,359 @@
+/* Copyright 2013 Alexander Osmanov
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.evilduck.piano.views.roll;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.v4.view.ViewCompat;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import com.evilduck.piano.views.instrument.KeyboardLayout;
+import com.evilduck.piano.views.instrument.PianoView;
+
+/**
+ * Piano roll placed above a {@link PianoView}. Every key has a column lined
+ * up with the key and following the keyboard's scroll and zoom, time runs
+ * upwards. Notes are kept in a {@link NoteIndex}, so drawing and touch
+ * handling only deal with the notes on screen.
+ * <p>
+ * Tapping an empty spot adds a note, dragging a note moves it, dragging its
+ * top edge resizes it and tapping a note removes it. Dragging an empty spot
+ * scrolls the time axis.
+ */
+public class PianoRollView extends View implements PianoView.OnViewportChangeListener {
+
+    public static final int DEFAULT_PPQ = 480;
+
+    private static final int NONE = 0;
+
+    private static final int PENDING = 1;
+
+    private static final int SCROLL = 2;
+
+    private static final int MOVE = 3;
+
+    private static final int RESIZE = 4;
+
+    private static final float DP_PER_TICK = 0.1f;
+
+    private static final float EDGE_DP = 12f;
+
+    private final NoteIndex notes = new NoteIndex(DEFAULT_PPQ * 4);
+
+    private final NoteIndex.Ids visibleNotes = new NoteIndex.Ids();
+
+    private final Paint notePaint = new Paint();
+
+    private final Paint draggedNotePaint = new Paint();
+
+    private final Paint lanePaint = new Paint();
+
+    private final Paint beatPaint = new Paint();
+
+    private final int touchSlop;
+
+    private final float edgeSize;
+
+    private PianoView pianoView;
+
+    private float pixelsPerTick;
+
+    private long scrollTick;
+
+    private int snapTicks = DEFAULT_PPQ / 4;
+
+    private int newNoteTicks = DEFAULT_PPQ;
+
+    private int touchMode = NONE;
+
+    private int draggedNote = NoteIndex.NO_NOTE;
+
+    private long grabOffset;
+
+    private float downX;
+
+    private float downY;
+
+    private float lastY;
+
+    public PianoRollView(Context context) {
+	this(context, null);
+    }
+
+    public PianoRollView(Context context, AttributeSet attrs) {
+	this(context, attrs, 0);
+    }
+
+    public PianoRollView(Context context, AttributeSet attrs, int defStyle) {
+	super(context, attrs, defStyle);
+	pixelsPerTick = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DP_PER_TICK, getResources()
+		.getDisplayMetrics());
+	edgeSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, EDGE_DP, getResources().getDisplayMetrics());
+	touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+
+	notePaint.setColor(0xFF3F9FD8);
+	draggedNotePaint.setColor(0xFFF0A030);
+	lanePaint.setColor(0x14000000);
+	beatPaint.setColor(0x30000000);
+    }
+
+    /**
+     * Aligns the roll with the keyboard, which has to be drawn below it with
+     * the same width.
+     */
+    public void setPianoView(PianoView pianoView) {
+	if (this.pianoView != null) {
+	    this.pianoView.removeOnViewportChangeListener(this);
+	}
+	this.pianoView = pianoView;
+	if (pianoView != null) {
+	    pianoView.addOnViewportChangeListener(this);
+	}
+	invalidate();
+    }
+
+    @Override
+    public void onViewportChanged(PianoView view) {
+	ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    public NoteIndex getNotes() {
+	return notes;
+    }
+
+    /**
+     * Call after changing notes through {@link #getNotes()}.
+     */
+    public void notifyNotesChanged() {
+	ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    /**
+     * @param snapTicks
+     *            grid that new, moved and resized notes snap to
+     */
+    public void setSnap(int snapTicks) {
+	if (snapTicks <= 0) {
+	    throw new IllegalArgumentException("Snap must be positive, got " + snapTicks);
+	}
+	this.snapTicks = snapTicks;
+    }
+
+    public void setNewNoteLength(int ticks) {
+	if (ticks <= 0) {
+	    throw new IllegalArgumentException("Length must be positive, got " + ticks);
+	}
+	newNoteTicks = ticks;
+    }
+
+    /**
+     * @param tick
+     *            time shown at the bottom edge
+     */
+    public void setScrollTick(long tick) {
+	scrollTick = Math.max(0, tick);
+	ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    public long getScrollTick() {
+	return scrollTick;
+    }
+
+    private KeyboardLayout getLayout() {
+	if (pianoView == null) {
+	    return null;
+	}
+	KeyboardLayout layout = pianoView.getKeyboardLayout();
+	return layout.getWidth() > 0 ? layout : null;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+	KeyboardLayout layout = getLayout();
+	if (layout == null || isInEditMode()) {
+	    return;
+	}
+
+	final float scale = pianoView.getKeyScale();
+	final int xOffset = pianoView.getVisibleXOffset();
+	final int height = getHeight();
+	final long fromTick = scrollTick;
+	final long toTick = scrollTick + (long) (height / pixelsPerTick) + 1;
+
+	int firstKey = layout.firstVisibleIndex(xOffset);
+	int lastKey = layout.lastVisibleIndex(xOffset + getWidth() / scale);
+
+	// black key lanes
+	for (int i = firstKey; i <= lastKey; i++) {
+	    if (layout.isBlack(i)) {
+		canvas.drawRect(keyLeft(layout, i, xOffset, scale), 0, keyRight(layout, i, xOffset, scale), height,
+			lanePaint);
+	    }
+	}
+
+	// beat lines
+	long firstBeat = (fromTick + DEFAULT_PPQ - 1) / DEFAULT_PPQ * DEFAULT_PPQ;
+	for (long beat = firstBeat; beat < toTick; beat += DEFAULT_PPQ) {
+	    float y = yOf(beat);
+	    canvas.drawLine(0, y, getWidth(), y, beatPaint);
+	}
+
+	notes.query(fromTick, toTick, visibleNotes);
+	// black key notes overlap white ones, like the keys do
+	drawNotes(canvas, layout, xOffset, scale, false);
+	drawNotes(canvas, layout, xOffset, scale, true);
+    }
+
+    private void drawNotes(Canvas canvas, KeyboardLayout layout, int xOffset, float scale, boolean black) {
+	for (int i = 0; i < visibleNotes.size(); i++) {
+	    int id = visibleNotes.get(i);
+	    int key = layout.indexOf(notes.getCode(id));
+	    if (key < 0 || layout.isBlack(key) != black) {
+		continue;
+	    }
+	    canvas.drawRect(keyLeft(layout, key, xOffset, scale) + 1, yOf(notes.getEnd(id)),
+		    keyRight(layout, key, xOffset, scale) - 1, yOf(notes.getStart(id)), id == draggedNote
+			    && touchMode != PENDING ? draggedNotePaint : notePaint);
+	}
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+	KeyboardLayout layout = getLayout();
+	if (layout == null) {
+	    return false;
+	}
+
+	float x = event.getX();
+	float y = event.getY();
+	switch (event.getActionMasked()) {
+	case MotionEvent.ACTION_DOWN:
+	    downX = x;
+	    downY = lastY = y;
+	    touchMode = PENDING;
+	    draggedNote = hitTest(layout, x, y);
+	    if (draggedNote != NoteIndex.NO_NOTE) {
+		grabOffset = tickAt(y) - notes.getStart(draggedNote);
+	    }
+	    return true;
+
+	case MotionEvent.ACTION_MOVE:
+	    if (touchMode == PENDING && Math.abs(x - downX) + Math.abs(y - downY) > touchSlop) {
+		if (draggedNote == NoteIndex.NO_NOTE) {
+		    touchMode = SCROLL;
+		} else {
+		    touchMode = downY - yOf(notes.getEnd(draggedNote)) < edgeSize ? RESIZE : MOVE;
+		}
+	    }
+	    onDrag(layout, x, y);
+	    lastY = y;
+	    return true;
+
+	case MotionEvent.ACTION_UP:
+	    if (touchMode == PENDING) {
+		onTap(layout, x, y);
+	    }
+	    touchMode = NONE;
+	    draggedNote = NoteIndex.NO_NOTE;
+	    ViewCompat.postInvalidateOnAnimation(this);
+	    return true;
+
+	case MotionEvent.ACTION_CANCEL:
+	    touchMode = NONE;
+	    draggedNote = NoteIndex.NO_NOTE;
+	    ViewCompat.postInvalidateOnAnimation(this);
+	    return true;
+	}
+	return super.onTouchEvent(event);
+    }
+
+    private void onDrag(KeyboardLayout layout, float x, float y) {
+	switch (touchMode) {
+	case SCROLL:
+	    setScrollTick(scrollTick + (long) ((y - lastY) / pixelsPerTick));
+	    break;
+	case MOVE: {
+	    int code = codeAt(layout, x);
+	    if (code >= 0) {
+		notes.move(draggedNote, snap(Math.max(0, tickAt(y) - grabOffset)), code);
+		ViewCompat.postInvalidateOnAnimation(this);
+	    }
+	    break;
+	}
+	case RESIZE: {
+	    long length = Math.max(snapTicks, snap(tickAt(y) - notes.getStart(draggedNote)));
+	    notes.resize(draggedNote, length);
+	    ViewCompat.postInvalidateOnAnimation(this);
+	    break;
+	}
+	}
+    }
+
+    private void onTap(KeyboardLayout layout, float x, float y) {
+	if (draggedNote != NoteIndex.NO_NOTE) {
+	    notes.remove(draggedNote);
+	} else {
+	    int code = codeAt(layout, x);
+	    if (code < 0) {
+		return;
+	    }
+	    long start = tickAt(y) / snapTicks * snapTicks;
+	    notes.add(start, newNoteTicks, code);
+	}
+    }
+
+    private int hitTest(KeyboardLayout layout, float x, float y) {
+	int code = codeAt(layout, x);
+	return code < 0 ? NoteIndex.NO_NOTE : notes.hitTest(tickAt(y), code);
+    }
+
+    /**
+     * @return midi code of the column under the point, black keys win where
+     *         they overlap white ones
+     */
+    private int codeAt(KeyboardLayout layout, float x) {
+	float instrumentX = x / pianoView.getKeyScale() + pianoView.getVisibleXOffset();
+	// the top edge of the keyboard, where black keys cover white ones
+	int index = layout.indexAt(instrumentX, 0);
+	return index < 0 ? -1 : layout.getStartCode() + index;
+    }
+
+    private static float keyLeft(KeyboardLayout layout, int key, int xOffset, float scale) {
+	return (layout.getStartX(key) - xOffset) * scale;
+    }
+
+    private static float keyRight(KeyboardLayout layout, int key, int xOffset, float scale) {
+	return (layout.getEndX(key) - xOffset) * scale;
+    }
+
+    private long tickAt(float y) {
+	return scrollTick + (long) ((getHeight() - y) / pixelsPerTick);
+    }
+
+    private float yOf(long tick) {
+	return getHeight() - (tick - scrollTick) * pixelsPerTick;
+    }
+
+    private long snap(long tick) {
+	return Math.round((double) tick / snapTicks) * snapTicks;
+    }
+
+}